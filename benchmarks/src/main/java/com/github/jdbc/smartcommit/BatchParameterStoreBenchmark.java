@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link BatchParameterStore} with a naive representation of a batch that stores the
+ * boxed parameter values of each row in an <code>Object[]</code>. Each operation captures a batch
+ * of an order line insert with five parameters: a long id, an int quantity, a double price, a
+ * status string with few distinct values and a timestamp. The timestamps are created up front, so
+ * that the number of bytes that is allocated per operation (<code>-prof gc</code>) consists of the
+ * memory that is needed to hold the batch and the garbage of growing it. A prepared statement
+ * reuses its store for each batch, which is measured by {@link #columnarReused()}.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar BatchParameterStoreBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchParameterStoreBenchmark {
+  private static final String[] STATUSES = {"NEW", "PAID", "SHIPPED", "CANCELLED"};
+
+  @Param({"1000", "100000"})
+  int rows;
+
+  private Timestamp[] timestamps;
+  private BatchParameterStore reusedStore;
+
+  @Setup
+  public void setup() {
+    reusedStore = new BatchParameterStore(5);
+    long baseTime = System.currentTimeMillis();
+    timestamps = new Timestamp[rows];
+    for (int row = 0; row < rows; row++) {
+      timestamps[row] = new Timestamp(baseTime + row * 1000L);
+    }
+  }
+
+  /** Captures the batch in a {@link BatchParameterStore}. */
+  @Benchmark
+  public BatchParameterStore columnar() throws SQLException {
+    return fill(new BatchParameterStore(5));
+  }
+
+  /** Captures the batch in a {@link BatchParameterStore} that was used for the previous batch. */
+  @Benchmark
+  public BatchParameterStore columnarReused() throws SQLException {
+    reusedStore.clearBatch();
+    return fill(reusedStore);
+  }
+
+  private BatchParameterStore fill(BatchParameterStore store) throws SQLException {
+    for (int row = 0; row < rows; row++) {
+      store.setLong(1, row);
+      store.setInt(2, row % 10);
+      store.setDouble(3, row * 0.25d);
+      store.setString(4, STATUSES[row % STATUSES.length]);
+      store.setTimestamp(5, timestamps[row]);
+      store.addBatch();
+    }
+    return store;
+  }
+
+  /** Captures the batch as a list of rows with boxed values. */
+  @Benchmark
+  public List<Object[]> boxed() {
+    List<Object[]> batch = new ArrayList<>();
+    Object[] current = new Object[5];
+    for (int row = 0; row < rows; row++) {
+      current[0] = (long) row;
+      current[1] = row % 10;
+      current[2] = row * 0.25d;
+      current[3] = STATUSES[row % STATUSES.length];
+      current[4] = timestamps[row];
+      batch.add(current.clone());
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.github.jdbc.smartcommit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Realistic sets of SQL statements that are used by the benchmarks. */
+public enum BenchmarkCorpus {
+  /** Short statements as they are typically executed by OLTP applications. */
+  OLTP {
+    @Override
+    List<String> createStatements() {
+      return Arrays.asList(
+          "SELECT * FROM CUSTOMERS WHERE ID=?",
+          "select c.id, c.name, c.email from customers c where c.email=?",
+          "INSERT INTO ORDERS (ID, CUSTOMER_ID, ORDER_DATE, STATUS) VALUES (?, ?, ?, ?)",
+          "UPDATE ORDERS SET STATUS=? WHERE ID=?",
+          "DELETE FROM ORDER_LINES WHERE ORDER_ID=? AND LINE_NUMBER=?",
+          "SELECT COUNT(*) FROM ORDER_LINES WHERE ORDER_ID=?",
+          "SELECT * FROM PRODUCTS WHERE ID=? FOR UPDATE",
+          "WITH T AS (SELECT ORDER_ID, SUM(AMOUNT) AS TOTAL FROM ORDER_LINES GROUP BY ORDER_ID) "
+              + "SELECT * FROM T WHERE TOTAL > ?",
+          "insert into audit_log (id, entity, action, ts) values (?, 'ORDER', 'UPDATE', ?)",
+          "SET TIME ZONE 'UTC'");
+    }
+  },
+
+  /**
+   * Large queries in the style of the queries that are generated by Hibernate for entities with
+   * many columns and associations. Each query is approximately 50KB.
+   */
+  HIBERNATE {
+    @Override
+    List<String> createStatements() {
+      List<String> res = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        res.add(createHibernateQuery(i));
+      }
+      return res;
+    }
+  },
+
+  /** Statements with multiple comments, and literals that look like comments. */
+  COMMENTS {
+    @Override
+    List<String> createStatements() {
+      return Arrays.asList(
+          "/* load com.example.Customer */ select customer0_.id as id1_0_0_ from customers "
+              + "customer0_ where customer0_.id=?",
+          "-- Find all open orders\n-- for the given customer\nSELECT * FROM ORDERS /* all */ "
+              + "WHERE CUSTOMER_ID=? -- customer\nAND STATUS='OPEN' -- not '-- closed'\n",
+          "/* multi\n * line\n * comment\n */\nINSERT INTO NOTES (ID, TEXT) VALUES (?, "
+              + "'/* not a comment */ -- neither')",
+          "# MySQL-style comment\nUPDATE ORDERS SET NOTE='it''s # not a comment' WHERE ID=?",
+          "/* a */ /* b */ /* c */ -- d\nDELETE /* e */ FROM ORDERS WHERE ID=? /* f */;",
+          "/* dynamic native query */ CREATE TABLE TMP_ORDERS /* temp */ (ID BIGINT, "
+              + "NOTE VARCHAR(100) DEFAULT '-- none') -- end");
+    }
+  },
+
+  /** Cloud Spanner queries with statement hints. */
+  SPANNER_HINTS {
+    @Override
+    List<String> createStatements() {
+      return Arrays.asList(
+          "@{FORCE_INDEX=IDX_ORDERS_CUSTOMER} SELECT * FROM ORDERS WHERE CUSTOMER_ID=@customer",
+          "@{JOIN_METHOD=HASH_JOIN} SELECT * FROM ORDERS O JOIN ORDER_LINES L ON O.ID=L.ORDER_ID",
+          "/* hinted */ @{USE_ADDITIONAL_PARALLELISM=TRUE} -- comment\n SELECT COUNT(*) FROM "
+              + "ORDER_LINES",
+          "@{LOCK_SCANNED_RANGES=exclusive} SELECT * FROM PRODUCTS WHERE ID=@id",
+          "@ {OPTIMIZER_VERSION=3}\nWITH T AS (SELECT 1 AS ID) SELECT * FROM T",
+          "UPDATE ORDERS SET STATUS=@status WHERE ID=@id");
+    }
+  };
+
+  /** Creates the statements of this corpus. */
+  abstract List<String> createStatements();
+
+  private static String createHibernateQuery(int variant) {
+    StringBuilder select = new StringBuilder("/* load collection com.example.Order.lines */ select ");
+    StringBuilder from = new StringBuilder(" from orders order0_");
+    int table = 0;
+    boolean first = true;
+    while (select.length() + from.length() < 50_000) {
+      String alias = String.format("entity%d_", table);
+      for (int column = 0; column < 25; column++) {
+        if (!first) {
+          select.append(", ");
+        }
+        first = false;
+        select.append(String.format("%s.column_%d as column%d_%d_%d_", alias, column, column + 1,
+            table, variant));
+      }
+      from.append(String.format(" left outer join entity_%d %s on order0_.entity_%d_id=%s.id",
+          table, alias, table, alias));
+      table++;
+    }
+    return select.append(from)
+        .append(" where order0_.customer_id=? and order0_.status<>'DELETED' order by order0_.id")
+        .toString();
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.DriverConnectBenchmark.StubDriver;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of borrowing a connection from the {@link DelegateConnectionPool} and
+ * returning it directly, which is what a {@link SmartCommitConnection} of a pooled URL does for
+ * each statement in autocommit mode. The pool is compared with a pool that guards an {@link
+ * ArrayDeque} with a monitor. The connections are stubs that do not do anything. With 64 threads
+ * and a pool of 16 connections most threads have to wait for a connection.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar DelegateConnectionPoolBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelegateConnectionPoolBenchmark {
+  private static final String URL = "jdbc:stub:benchmark";
+
+  @Param({"16", "64"})
+  int poolSize;
+
+  private DelegateConnectionPool pool;
+  private LockedPool lockedPool;
+
+  @Setup
+  public void setup() throws SQLException {
+    StubDriver driver = new StubDriver();
+    pool = new DelegateConnectionPool(() -> driver.connect(URL, null), poolSize, 30_000L);
+    lockedPool = new LockedPool();
+    for (int i = 0; i < poolSize; i++) {
+      lockedPool.release(driver.connect(URL, null));
+    }
+  }
+
+  /** Borrows and returns a connection of the {@link DelegateConnectionPool} on one thread. */
+  @Benchmark
+  @Threads(1)
+  public Connection pool() throws SQLException {
+    Connection connection = pool.borrow();
+    pool.release(connection);
+    return connection;
+  }
+
+  /** Borrows and returns connections of the {@link DelegateConnectionPool} on 64 threads. */
+  @Benchmark
+  @Threads(64)
+  public Connection poolContended() throws SQLException {
+    Connection connection = pool.borrow();
+    pool.release(connection);
+    return connection;
+  }
+
+  /** Borrows and returns a connection of the monitor-based pool on one thread. */
+  @Benchmark
+  @Threads(1)
+  public Connection locked() throws InterruptedException {
+    Connection connection = lockedPool.borrow();
+    lockedPool.release(connection);
+    return connection;
+  }
+
+  /** Borrows and returns connections of the monitor-based pool on 64 threads. */
+  @Benchmark
+  @Threads(64)
+  public Connection lockedContended() throws InterruptedException {
+    Connection connection = lockedPool.borrow();
+    lockedPool.release(connection);
+    return connection;
+  }
+
+  /** Pool that guards its idle connections with a monitor. */
+  static final class LockedPool {
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+
+    synchronized Connection borrow() throws InterruptedException {
+      while (idle.isEmpty()) {
+        wait();
+      }
+      return idle.pollFirst();
+    }
+
+    synchronized void release(Connection connection) {
+      idle.offerFirst(connection);
+      notify();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link SmartCommitDriver#connect(String, Properties)} with one and
+ * with 64 threads. The underlying driver is a stub that is registered with the {@link
+ * DriverManager} and returns a connection that does not do anything, so the benchmark measures
+ * the resolution of the underlying driver and the creation of the {@link SmartCommitConnection}.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar DriverConnectBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverConnectBenchmark {
+  private static final String URL = "jdbc:smartcommit:stub:benchmark?smartcommit.dialect=generic";
+
+  private final Properties info = new Properties();
+  private final Driver driver = new SmartCommitDriver();
+  private final StubDriver stubDriver = new StubDriver();
+
+  @Setup
+  public void setup() throws SQLException {
+    DriverManager.registerDriver(stubDriver);
+  }
+
+  @TearDown
+  public void teardown() throws SQLException {
+    DriverManager.deregisterDriver(stubDriver);
+  }
+
+  /** Opens and closes a connection on one thread. */
+  @Benchmark
+  @Threads(1)
+  public void connect() throws SQLException {
+    driver.connect(URL, info).close();
+  }
+
+  /** Opens and closes connections on 64 threads at the same time. */
+  @Benchmark
+  @Threads(64)
+  public void connectContended() throws SQLException {
+    driver.connect(URL, info).close();
+  }
+
+  /** Driver for 'jdbc:stub:' URLs that returns connections that are always in autocommit. */
+  public static class StubDriver implements Driver {
+    @Override
+    public Connection connect(String url, Properties info) {
+      if (!acceptsURL(url)) {
+        return null;
+      }
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+              return method.getName().equals("getAutoCommit");
+            } else if (type == int.class) {
+              return 0;
+            }
+            return null;
+          });
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url.startsWith("jdbc:stub:");
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    @Override
+    public Logger getParentLogger() {
+      return Logger.getLogger("stub");
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.github.jdbc.smartcommit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the hot paths of the {@link SmartCommitConnection} wrapper. The underlying
+ * connection is a stub that does not execute any statements, so the benchmarks only measure the
+ * overhead that is added by the wrapper. Each invocation processes all statements in the selected
+ * {@link BenchmarkCorpus}.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar SmartCommitConnectionBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmartCommitConnectionBenchmark {
+  @Param({"OLTP", "HIBERNATE", "COMMENTS", "SPANNER_HINTS"})
+  BenchmarkCorpus corpus;
+
+  /** The size of the parse cache of the connection. 0 disables the cache. */
+  @Param({"0", "1000"})
+  int parseCacheSize;
+
+  private String[] statements;
+  private SmartCommitConnection connection;
+  private Statement statement;
+
+  @Setup
+  public void setup() throws SQLException {
+    List<String> list = corpus.createStatements();
+    statements = list.toArray(new String[0]);
+    ConnectionOptions options = ConnectionOptions
+        .parse("jdbc:smartcommit:stub?smartcommit.parseCacheSize=" + parseCacheSize, null);
+    connection = new SmartCommitConnection(createStubConnection(), options, Dialect.GENERIC);
+    connection.setAutoCommit(false);
+    statement = connection.createStatement();
+  }
+
+  @TearDown
+  public void teardown() throws SQLException {
+    connection.close();
+  }
+
+  /** Determines whether each statement requires a transaction. */
+  @Benchmark
+  public void requiresTransaction(Blackhole blackhole) {
+    for (String sql : statements) {
+      blackhole.consume(connection.requiresTransaction(sql));
+    }
+  }
+
+  /** Executes all statements in one transaction and then rolls back the transaction. */
+  @Benchmark
+  public void executeAndRollback(Blackhole blackhole) throws SQLException {
+    for (String sql : statements) {
+      blackhole.consume(statement.execute(sql));
+    }
+    connection.rollback();
+  }
+
+  /** Creates a connection that only keeps track of its autocommit state. */
+  private static Connection createStubConnection() {
+    InvocationHandler statementHandler = new StubHandler();
+    Statement stubStatement = (Statement) Proxy.newProxyInstance(
+        Statement.class.getClassLoader(), new Class<?>[] {Statement.class}, statementHandler);
+    InvocationHandler connectionHandler = new StubHandler() {
+      private boolean autoCommit = true;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+          case "getAutoCommit":
+            return autoCommit;
+          case "setAutoCommit":
+            autoCommit = (Boolean) args[0];
+            return null;
+          case "createStatement":
+            return stubStatement;
+          default:
+            return super.invoke(proxy, method, args);
+        }
+      }
+    };
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class<?>[] {Connection.class}, connectionHandler);
+  }
+
+  /** Returns the default value of the return type for all methods. */
+  private static class StubHandler implements InvocationHandler {
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      Class<?> type = method.getReturnType();
+      if (type == boolean.class) {
+        return false;
+      } else if (type == int.class) {
+        return 0;
+      } else if (type == long.class) {
+        return 0L;
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the {@link StatementParser}. Each invocation processes all statements in the
+ * selected {@link BenchmarkCorpus}, and the reported time and allocation rate is per invocation.
+ * Run with the gc profiler to get the number of bytes that are allocated per operation:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar StatementParserBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementParserBenchmark {
+  @Param({"OLTP", "HIBERNATE", "COMMENTS", "SPANNER_HINTS"})
+  BenchmarkCorpus corpus;
+
+  private String[] statements;
+  private String[] statementsWithoutComments;
+
+  @Setup
+  public void setup() throws SQLException {
+    List<String> list = corpus.createStatements();
+    statements = list.toArray(new String[0]);
+    statementsWithoutComments = new String[statements.length];
+    for (int i = 0; i < statements.length; i++) {
+      statementsWithoutComments[i] = StatementParser.removeCommentsAndTrim(statements[i]);
+    }
+  }
+
+  /** Fully parses each statement, including removing all comments. */
+  @Benchmark
+  public void parse(Blackhole blackhole) throws SQLException {
+    for (String sql : statements) {
+      blackhole.consume(StatementParser.INSTANCE.parse(sql));
+    }
+  }
+
+  /** Only determines the type of each statement. */
+  @Benchmark
+  public void getStatementType(Blackhole blackhole) {
+    for (String sql : statements) {
+      blackhole.consume(StatementParser.INSTANCE.getStatementType(sql));
+    }
+  }
+
+  /** Computes the fingerprint of each statement, including the normalized statement. */
+  @Benchmark
+  public void fingerprint(Blackhole blackhole) {
+    for (String sql : statements) {
+      blackhole.consume(StatementParser.INSTANCE.fingerprint(sql));
+    }
+  }
+
+  /** Computes only the 64-bit fingerprint hash of each statement. */
+  @Benchmark
+  public void fingerprintHash(Blackhole blackhole) {
+    for (String sql : statements) {
+      blackhole.consume(StatementParser.INSTANCE.fingerprintHash(sql));
+    }
+  }
+
+  @Benchmark
+  public void removeCommentsAndTrim(Blackhole blackhole) throws SQLException {
+    for (String sql : statements) {
+      blackhole.consume(StatementParser.removeCommentsAndTrim(sql));
+    }
+  }
+
+  /** Removes the statement hint from each statement. Comments have already been removed. */
+  @Benchmark
+  public void removeStatementHint(Blackhole blackhole) throws SQLException {
+    for (String sql : statementsWithoutComments) {
+      blackhole.consume(StatementParser.removeStatementHint(sql));
+    }
+  }
+}
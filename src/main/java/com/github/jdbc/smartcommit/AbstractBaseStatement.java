@@ -14,6 +14,7 @@
 
 package com.github.jdbc.smartcommit;
 
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.logging.Level;
@@ -28,11 +29,45 @@ abstract class AbstractBaseStatement<T extends Statement> extends AbstractDelega
     this.connection = connection;
   }
 
-  void turnOffAutocommitIfDml(String sql) throws SQLException {
-    if (connection.getDelegateAutoCommit() && StatementParser.isUpdateOrDdl(sql)) {
-      log.log(Level.FINEST, "Turning off autocommit on {0}", connection);
-      connection.setDelegateAutoCommit(false);
+  /**
+   * Turns off autocommit on the underlying connection if the given statement requires a
+   * transaction, i.e. it is a DML or DDL statement, or it takes locks. Any DML statements that
+   * have been buffered on the connection are sent to the database first. The statement must be
+   * recorded on the connection after it has been executed, or the transaction cannot be replayed.
+   */
+  void turnOffAutocommitIfRequired(String sql) throws SQLException {
+    turnOffAutocommitIfRequired(connection.parse(sql));
+  }
+
+  void turnOffAutocommitIfRequired(ParsedStatement statement) throws SQLException {
+    connection.flushWrites();
+    if (statement.requiresTransaction()) {
+      turnOffAutocommit();
+    } else {
+      connection.applyPendingAutoCommitRestore();
     }
+    checkSessionState(statement);
+    connection.beforeExecute();
+  }
+
+  /** Turns off autocommit on the underlying connection before executing the given statement. */
+  void turnOffAutocommit(String sql) throws SQLException {
+    turnOffAutocommit(connection.parse(sql));
+  }
+
+  void turnOffAutocommit(ParsedStatement statement) throws SQLException {
+    connection.flushWrites();
+    turnOffAutocommit();
+    checkSessionState(statement);
+    connection.beforeExecute();
+  }
+
+  /**
+   * Returns true if the given statement should be added to the write-behind buffer of the
+   * connection instead of being executed directly.
+   */
+  boolean bufferWrite(ParsedStatement statement) throws SQLException {
+    return connection.prepareBufferedWrite(statement);
   }
 
   void turnOffAutocommit() throws SQLException {
@@ -41,4 +76,20 @@ abstract class AbstractBaseStatement<T extends Statement> extends AbstractDelega
       connection.setDelegateAutoCommit(false);
     }
   }
+
+  /**
+   * Marks the autocommit state of the underlying connection as unknown if the given statement that
+   * is about to be executed might change it. The state is read from the underlying connection when
+   * it is needed after the statement has been executed. A pooled physical connection is pinned to
+   * the connection if the statement might leave state in the session, including temporary tables
+   * that are created by DDL statements.
+   */
+  private void checkSessionState(ParsedStatement statement) {
+    if (statement.mayChangeSessionState()) {
+      connection.invalidateDelegateAutoCommit();
+      connection.pinDelegate();
+    } else if (statement.isDdl()) {
+      connection.pinDelegate();
+    }
+  }
 }
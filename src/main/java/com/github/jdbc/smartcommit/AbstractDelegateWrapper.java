@@ -18,7 +18,8 @@ import java.sql.SQLException;
 import java.sql.Wrapper;
 
 abstract class AbstractDelegateWrapper<D extends Wrapper> implements Wrapper {
-  final D delegate;
+  /** Not final, as a statement is prepared again on a new connection after a broken connection. */
+  D delegate;
 
   AbstractDelegateWrapper(D delegate) {
     this.delegate = delegate;
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Exponential backoff with jitter between the attempts of a retried execution. */
+final class Backoff {
+  /** The maximum backoff between two attempts. */
+  static final long MAX_BACKOFF_MILLIS = 1000L;
+
+  private Backoff() {}
+
+  /**
+   * Waits for a random time between half and the full backoff for the given attempt. The backoff
+   * starts at the initial backoff for the first attempt and is doubled for each following attempt.
+   *
+   * @throws SQLException the given error if the thread is interrupted while waiting.
+   */
+  static void sleep(long initialBackoffMillis, int attempt, SQLException error)
+      throws SQLException {
+    long backoff =
+        Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempt - 1, 20));
+    if (backoff <= 0L) {
+      return;
+    }
+    long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    try {
+      TimeUnit.MILLISECONDS.sleep(jittered);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      error.addSuppressed(e);
+      throw error;
+    }
+  }
+}
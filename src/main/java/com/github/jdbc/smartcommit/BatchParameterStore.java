@@ -0,0 +1,706 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar store for the parameter values of the rows in a batch of a prepared statement. Each
+ * parameter index has its own column, and each column stores its values in primitive arrays, so
+ * that primitive values are not boxed:
+ *
+ * <ul>
+ * <li>A kind per row that determines which setter is used to replay the value. The kind also marks
+ * a value as null or as not set.
+ * <li>An int lane for int, short, byte and boolean values, the sql type of null values and typed
+ * objects, the nanos of timestamps and the dictionary ids of strings.
+ * <li>A long lane for long values and the milliseconds of dates, times and timestamps.
+ * <li>A double lane for double and float values.
+ * <li>An object lane for all other values.
+ * <li>An extra object lane for the arguments of setters with more than one argument that do not fit
+ * in the other lanes: calendars, type names and {@link SQLType}s.
+ * </ul>
+ *
+ * Only streams and LOBs are stored as a {@link Parameter} that replays the setter.
+ *
+ * Lanes are only allocated when a column contains a value that needs the lane. Short strings are
+ * stored in a dictionary that is shared by all columns, so that repeated values are only stored
+ * once.
+ *
+ * <p>The last row of the store is the current row that is being filled by the setters. It becomes
+ * part of the batch when {@link #addBatch()} is called. The values of the current row are carried
+ * over to the next row, as parameter values of a {@link PreparedStatement} remain in force until
+ * they are changed or cleared.
+ */
+class BatchParameterStore {
+  /** A parameter value that is set with a setter that has no lane in the store. */
+  interface Parameter {
+    void set(PreparedStatement statement, int parameterIndex) throws SQLException;
+  }
+
+  private static final byte UNSET = 0;
+  private static final byte NULL = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte SHORT = 4;
+  private static final byte BYTE = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte DOUBLE = 7;
+  private static final byte FLOAT = 8;
+  private static final byte STRING = 9;
+  private static final byte DICTIONARY_STRING = 10;
+  private static final byte TIMESTAMP = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BYTES = 13;
+  private static final byte OBJECT = 14;
+  private static final byte PARAMETER = 15;
+  private static final byte STREAM = 16;
+  private static final byte DATE = 17;
+  private static final byte TIME = 18;
+  private static final byte DATE_CALENDAR = 19;
+  private static final byte TIME_CALENDAR = 20;
+  private static final byte TIMESTAMP_CALENDAR = 21;
+  private static final byte NULL_TYPE_NAME = 22;
+  private static final byte NSTRING = 23;
+  private static final byte DICTIONARY_NSTRING = 24;
+  private static final byte TYPED_OBJECT = 25;
+  private static final byte TYPED_OBJECT_SCALE = 26;
+  private static final byte SQL_TYPE_OBJECT = 27;
+  private static final byte SQL_TYPE_OBJECT_SCALE = 28;
+  private static final byte URL_VALUE = 29;
+  private static final byte ROW_ID = 30;
+  private static final byte REF = 31;
+  private static final byte ARRAY = 32;
+
+  /** Strings that are longer than this are not added to the dictionary. */
+  static final int MAX_DICTIONARY_STRING_LENGTH = 64;
+
+  /** The maximum number of strings in the dictionary. */
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Column[] columns;
+  private final Map<String, Integer> dictionaryIds = new HashMap<>();
+  private final List<String> dictionary = new ArrayList<>();
+
+  /** The number of rows in the batch. The current row has index rows. */
+  private int rows;
+  private int capacity = INITIAL_CAPACITY;
+
+  private final class Column {
+    private byte[] kinds = new byte[capacity];
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+    private Object[] extras;
+
+    private int[] ints() {
+      if (ints == null) {
+        ints = new int[capacity];
+      }
+      return ints;
+    }
+
+    private long[] longs() {
+      if (longs == null) {
+        longs = new long[capacity];
+      }
+      return longs;
+    }
+
+    private double[] doubles() {
+      if (doubles == null) {
+        doubles = new double[capacity];
+      }
+      return doubles;
+    }
+
+    private Object[] objects() {
+      if (objects == null) {
+        objects = new Object[capacity];
+      }
+      return objects;
+    }
+
+    private Object[] extras() {
+      if (extras == null) {
+        extras = new Object[capacity];
+      }
+      return extras;
+    }
+
+    private void grow(int newCapacity) {
+      kinds = Arrays.copyOf(kinds, newCapacity);
+      if (ints != null) {
+        ints = Arrays.copyOf(ints, newCapacity);
+      }
+      if (longs != null) {
+        longs = Arrays.copyOf(longs, newCapacity);
+      }
+      if (doubles != null) {
+        doubles = Arrays.copyOf(doubles, newCapacity);
+      }
+      if (objects != null) {
+        objects = Arrays.copyOf(objects, newCapacity);
+      }
+      if (extras != null) {
+        extras = Arrays.copyOf(extras, newCapacity);
+      }
+    }
+
+    private void copy(int from, int to) {
+      kinds[to] = kinds[from];
+      if (ints != null) {
+        ints[to] = ints[from];
+      }
+      if (longs != null) {
+        longs[to] = longs[from];
+      }
+      if (doubles != null) {
+        doubles[to] = doubles[from];
+      }
+      if (objects != null) {
+        objects[to] = objects[from];
+      }
+      if (extras != null) {
+        extras[to] = extras[from];
+      }
+    }
+
+    private void clear(int row) {
+      kinds[row] = UNSET;
+      if (objects != null) {
+        objects[row] = null;
+      }
+      if (extras != null) {
+        extras[row] = null;
+      }
+    }
+  }
+
+  /** Creates a copy of the given store that contains all rows and the current row. */
+  private BatchParameterStore(BatchParameterStore source) {
+    this.rows = source.rows;
+    this.capacity = Math.max(INITIAL_CAPACITY, source.rows + 2);
+    this.columns = new Column[source.columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      Column from = source.columns[i];
+      Column to = new Column();
+      System.arraycopy(from.kinds, 0, to.kinds, 0, rows + 1);
+      if (from.ints != null) {
+        to.ints = Arrays.copyOf(from.ints, capacity);
+      }
+      if (from.longs != null) {
+        to.longs = Arrays.copyOf(from.longs, capacity);
+      }
+      if (from.doubles != null) {
+        to.doubles = Arrays.copyOf(from.doubles, capacity);
+      }
+      if (from.objects != null) {
+        to.objects = Arrays.copyOf(from.objects, capacity);
+      }
+      if (from.extras != null) {
+        to.extras = Arrays.copyOf(from.extras, capacity);
+      }
+      columns[i] = to;
+    }
+    // The ids of the copied dictionary are not needed to replay the rows.
+    this.dictionary.addAll(source.dictionary);
+  }
+
+  BatchParameterStore(int parameterCount) {
+    this.columns = new Column[parameterCount];
+    for (int i = 0; i < parameterCount; i++) {
+      columns[i] = new Column();
+    }
+  }
+
+  /**
+   * Returns a copy of this store with all rows in the batch and the current row. The copy does not
+   * change when this store is changed.
+   */
+  BatchParameterStore copy() {
+    return new BatchParameterStore(this);
+  }
+
+  /**
+   * Returns true if the batch or the current row contains a stream value, which cannot be read
+   * more than once.
+   */
+  boolean containsStreams() {
+    for (Column column : columns) {
+      for (int row = 0; row <= rows; row++) {
+        if (column.kinds[row] == STREAM) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Returns the number of parameters in each row. */
+  int getParameterCount() {
+    return columns.length;
+  }
+
+  /** Returns the number of rows in the batch, excluding the current row. */
+  int size() {
+    return rows;
+  }
+
+  /** Returns the number of distinct strings in the dictionary. */
+  int getDictionarySize() {
+    return dictionary.size();
+  }
+
+  /**
+   * Returns the column for the given parameter index, or null if the index is invalid. Invalid
+   * indexes are ignored by the store, as these are reported by the underlying statement.
+   */
+  private Column column(int parameterIndex) {
+    if (parameterIndex > 0 && parameterIndex <= columns.length) {
+      return columns[parameterIndex - 1];
+    }
+    return null;
+  }
+
+  void setNull(int parameterIndex, int sqlType) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      column.kinds[rows] = NULL;
+      column.ints()[rows] = sqlType;
+    }
+  }
+
+  void setNull(int parameterIndex, int sqlType, String typeName) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      column.kinds[rows] = NULL_TYPE_NAME;
+      column.ints()[rows] = sqlType;
+      column.extras()[rows] = typeName;
+    }
+  }
+
+  void setInt(int parameterIndex, int value) {
+    setInt(parameterIndex, INT, value);
+  }
+
+  void setShort(int parameterIndex, short value) {
+    setInt(parameterIndex, SHORT, value);
+  }
+
+  void setByte(int parameterIndex, byte value) {
+    setInt(parameterIndex, BYTE, value);
+  }
+
+  void setBoolean(int parameterIndex, boolean value) {
+    setInt(parameterIndex, BOOLEAN, value ? 1 : 0);
+  }
+
+  private void setInt(int parameterIndex, byte kind, int value) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      column.kinds[rows] = kind;
+      column.ints()[rows] = value;
+    }
+  }
+
+  void setLong(int parameterIndex, long value) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      column.kinds[rows] = LONG;
+      column.longs()[rows] = value;
+    }
+  }
+
+  void setDouble(int parameterIndex, double value) {
+    setDouble(parameterIndex, DOUBLE, value);
+  }
+
+  void setFloat(int parameterIndex, float value) {
+    setDouble(parameterIndex, FLOAT, value);
+  }
+
+  private void setDouble(int parameterIndex, byte kind, double value) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      column.kinds[rows] = kind;
+      column.doubles()[rows] = value;
+    }
+  }
+
+  void setString(int parameterIndex, String value) {
+    setString(parameterIndex, value, STRING, DICTIONARY_STRING);
+  }
+
+  void setNString(int parameterIndex, String value) {
+    setString(parameterIndex, value, NSTRING, DICTIONARY_NSTRING);
+  }
+
+  private void setString(int parameterIndex, String value, byte kind, byte dictionaryKind) {
+    Column column = column(parameterIndex);
+    if (column == null) {
+      return;
+    }
+    if (value == null) {
+      setObject(column, kind, null);
+      return;
+    }
+    int id = getDictionaryId(value);
+    if (id == -1) {
+      setObject(column, kind, value);
+    } else {
+      column.kinds[rows] = dictionaryKind;
+      column.ints()[rows] = id;
+      if (column.objects != null) {
+        column.objects[rows] = null;
+      }
+    }
+  }
+
+  private int getDictionaryId(String value) {
+    if (value.length() > MAX_DICTIONARY_STRING_LENGTH) {
+      return -1;
+    }
+    Integer id = dictionaryIds.get(value);
+    if (id != null) {
+      return id;
+    }
+    if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+      return -1;
+    }
+    int res = dictionary.size();
+    dictionary.add(value);
+    dictionaryIds.put(value, res);
+    return res;
+  }
+
+  void setDate(int parameterIndex, Date value, Calendar calendar) {
+    setDateTime(parameterIndex, calendar == null ? DATE : DATE_CALENDAR, Types.DATE, value,
+        calendar);
+  }
+
+  void setTime(int parameterIndex, Time value, Calendar calendar) {
+    setDateTime(parameterIndex, calendar == null ? TIME : TIME_CALENDAR, Types.TIME, value,
+        calendar);
+  }
+
+  void setTimestamp(int parameterIndex, Timestamp value) {
+    setTimestamp(parameterIndex, value, null);
+  }
+
+  void setTimestamp(int parameterIndex, Timestamp value, Calendar calendar) {
+    Column column = setDateTime(parameterIndex, calendar == null ? TIMESTAMP : TIMESTAMP_CALENDAR,
+        Types.TIMESTAMP, value, calendar);
+    if (column != null) {
+      column.ints()[rows] = value.getNanos();
+    }
+  }
+
+  /**
+   * Stores a date, time or timestamp value as milliseconds since the epoch, and a null value as a
+   * null of the given sql type. Returns the column if a value was stored, and otherwise null.
+   */
+  private Column setDateTime(int parameterIndex, byte kind, int sqlType, java.util.Date value,
+      Calendar calendar) {
+    Column column = column(parameterIndex);
+    if (column == null) {
+      return null;
+    }
+    if (value == null) {
+      setNull(parameterIndex, sqlType);
+      return null;
+    }
+    column.kinds[rows] = kind;
+    column.longs()[rows] = value.getTime();
+    if (calendar != null) {
+      column.extras()[rows] = calendar;
+    }
+    return column;
+  }
+
+  void setBigDecimal(int parameterIndex, BigDecimal value) {
+    setObject(column(parameterIndex), BIG_DECIMAL, value);
+  }
+
+  void setBytes(int parameterIndex, byte[] value) {
+    setObject(column(parameterIndex), BYTES, value);
+  }
+
+  void setObject(int parameterIndex, Object value) {
+    setObject(column(parameterIndex), OBJECT, value);
+  }
+
+  void setObject(int parameterIndex, Object value, int targetSqlType) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      setObject(column, TYPED_OBJECT, value);
+      column.ints()[rows] = targetSqlType;
+    }
+  }
+
+  void setObject(int parameterIndex, Object value, int targetSqlType, int scaleOrLength) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      setObject(column, TYPED_OBJECT_SCALE, value);
+      column.ints()[rows] = targetSqlType;
+      column.longs()[rows] = scaleOrLength;
+    }
+  }
+
+  void setObject(int parameterIndex, Object value, SQLType targetSqlType) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      setObject(column, SQL_TYPE_OBJECT, value);
+      column.extras()[rows] = targetSqlType;
+    }
+  }
+
+  void setObject(int parameterIndex, Object value, SQLType targetSqlType, int scaleOrLength) {
+    Column column = column(parameterIndex);
+    if (column != null) {
+      setObject(column, SQL_TYPE_OBJECT_SCALE, value);
+      column.ints()[rows] = scaleOrLength;
+      column.extras()[rows] = targetSqlType;
+    }
+  }
+
+  void setURL(int parameterIndex, URL value) {
+    setObject(column(parameterIndex), URL_VALUE, value);
+  }
+
+  void setRowId(int parameterIndex, RowId value) {
+    setObject(column(parameterIndex), ROW_ID, value);
+  }
+
+  void setRef(int parameterIndex, Ref value) {
+    setObject(column(parameterIndex), REF, value);
+  }
+
+  void setArray(int parameterIndex, Array value) {
+    setObject(column(parameterIndex), ARRAY, value);
+  }
+
+  /** Sets a LOB value that is replayed by the given {@link Parameter}. */
+  void set(int parameterIndex, Parameter parameter) {
+    setObject(column(parameterIndex), PARAMETER, parameter);
+  }
+
+  /** Sets a stream value that is replayed by the given {@link Parameter}. */
+  void setStream(int parameterIndex, Parameter parameter) {
+    setObject(column(parameterIndex), STREAM, parameter);
+  }
+
+  private void setObject(Column column, byte kind, Object value) {
+    if (column != null) {
+      column.kinds[rows] = kind;
+      column.objects()[rows] = value;
+    }
+  }
+
+  /** Clears all values of the current row. */
+  void clearParameters() {
+    for (Column column : columns) {
+      column.clear(rows);
+    }
+  }
+
+  /**
+   * Adds the current row to the batch. The values of the current row are carried over to the new
+   * current row.
+   *
+   * @throws SQLException if not all parameters of the current row have been set.
+   */
+  void addBatch() throws SQLException {
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].kinds[rows] == UNSET) {
+        throw new SQLException("No value specified for parameter " + (i + 1));
+      }
+    }
+    if (rows + 1 == capacity) {
+      capacity = Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+      for (Column column : columns) {
+        column.grow(capacity);
+      }
+    }
+    for (Column column : columns) {
+      column.copy(rows, rows + 1);
+    }
+    rows++;
+  }
+
+  /**
+   * Removes all rows from the batch and clears the dictionary. The values of the current row are
+   * kept. The lanes keep their capacity, so that they can be reused for the next batch.
+   */
+  void clearBatch() {
+    if (rows == 0) {
+      return;
+    }
+    for (Column column : columns) {
+      column.copy(rows, 0);
+      if (column.objects != null) {
+        Arrays.fill(column.objects, 1, rows + 1, null);
+      }
+      if (column.extras != null) {
+        Arrays.fill(column.extras, 1, rows + 1, null);
+      }
+      // The current row may not refer to the dictionary, as the dictionary is cleared.
+      if (column.kinds[0] == DICTIONARY_STRING || column.kinds[0] == DICTIONARY_NSTRING) {
+        column.kinds[0] = column.kinds[0] == DICTIONARY_STRING ? STRING : NSTRING;
+        column.objects()[0] = dictionary.get(column.ints[0]);
+      }
+    }
+    rows = 0;
+    dictionaryIds.clear();
+    dictionary.clear();
+  }
+
+  /**
+   * Sets the parameters of the given row on the given statement. The parameter with index 1 of the
+   * row is set at index <code>offset + 1</code> of the statement.
+   */
+  void apply(int row, PreparedStatement statement, int offset) throws SQLException {
+    for (int i = 0; i < columns.length; i++) {
+      Column column = columns[i];
+      int index = offset + i + 1;
+      switch (column.kinds[row]) {
+        case NULL:
+          statement.setNull(index, column.ints[row]);
+          break;
+        case INT:
+          statement.setInt(index, column.ints[row]);
+          break;
+        case SHORT:
+          statement.setShort(index, (short) column.ints[row]);
+          break;
+        case BYTE:
+          statement.setByte(index, (byte) column.ints[row]);
+          break;
+        case BOOLEAN:
+          statement.setBoolean(index, column.ints[row] != 0);
+          break;
+        case LONG:
+          statement.setLong(index, column.longs[row]);
+          break;
+        case DOUBLE:
+          statement.setDouble(index, column.doubles[row]);
+          break;
+        case FLOAT:
+          statement.setFloat(index, (float) column.doubles[row]);
+          break;
+        case STRING:
+          statement.setString(index, (String) column.objects[row]);
+          break;
+        case DICTIONARY_STRING:
+          statement.setString(index, dictionary.get(column.ints[row]));
+          break;
+        case NULL_TYPE_NAME:
+          statement.setNull(index, column.ints[row], (String) column.extras[row]);
+          break;
+        case NSTRING:
+          statement.setNString(index, (String) column.objects[row]);
+          break;
+        case DICTIONARY_NSTRING:
+          statement.setNString(index, dictionary.get(column.ints[row]));
+          break;
+        case DATE:
+          statement.setDate(index, new Date(column.longs[row]));
+          break;
+        case DATE_CALENDAR:
+          statement.setDate(index, new Date(column.longs[row]), (Calendar) column.extras[row]);
+          break;
+        case TIME:
+          statement.setTime(index, new Time(column.longs[row]));
+          break;
+        case TIME_CALENDAR:
+          statement.setTime(index, new Time(column.longs[row]), (Calendar) column.extras[row]);
+          break;
+        case TIMESTAMP:
+          statement.setTimestamp(index, getTimestamp(column, row));
+          break;
+        case TIMESTAMP_CALENDAR:
+          statement.setTimestamp(index, getTimestamp(column, row), (Calendar) column.extras[row]);
+          break;
+        case BIG_DECIMAL:
+          statement.setBigDecimal(index, (BigDecimal) column.objects[row]);
+          break;
+        case BYTES:
+          statement.setBytes(index, (byte[]) column.objects[row]);
+          break;
+        case OBJECT:
+          statement.setObject(index, column.objects[row]);
+          break;
+        case TYPED_OBJECT:
+          statement.setObject(index, column.objects[row], column.ints[row]);
+          break;
+        case TYPED_OBJECT_SCALE:
+          statement.setObject(index, column.objects[row], column.ints[row],
+              (int) column.longs[row]);
+          break;
+        case SQL_TYPE_OBJECT:
+          statement.setObject(index, column.objects[row], (SQLType) column.extras[row]);
+          break;
+        case SQL_TYPE_OBJECT_SCALE:
+          statement.setObject(index, column.objects[row], (SQLType) column.extras[row],
+              column.ints[row]);
+          break;
+        case URL_VALUE:
+          statement.setURL(index, (URL) column.objects[row]);
+          break;
+        case ROW_ID:
+          statement.setRowId(index, (RowId) column.objects[row]);
+          break;
+        case REF:
+          statement.setRef(index, (Ref) column.objects[row]);
+          break;
+        case ARRAY:
+          statement.setArray(index, (Array) column.objects[row]);
+          break;
+        case PARAMETER:
+        case STREAM:
+          ((Parameter) column.objects[row]).set(statement, index);
+          break;
+        default:
+          throw new SQLException("No value specified for parameter " + (i + 1));
+      }
+    }
+  }
+
+  private static Timestamp getTimestamp(Column column, int row) {
+    Timestamp timestamp = new Timestamp(column.longs[row]);
+    timestamp.setNanos(column.ints[row]);
+    return timestamp;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.StatementParser.BatchedInsert;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites a batch of single-row INSERT statements to multi-row INSERT statements. The parameters
+ * of each row in the batch are captured by the {@link SmartCommitPreparedStatement} in a {@link
+ * BatchParameterStore} and replayed on a multi-row INSERT statement when the batch is executed.
+ * Each multi-row statement contains as many rows as allowed by the parameter and row limits of the
+ * {@link Dialect}. The update count of
+ * each multi-row statement is mapped back to the individual rows.
+ */
+class BatchedInsertRewriter {
+  private static final Logger log = Logger.getLogger(BatchedInsertRewriter.class.getName());
+
+  private final Connection delegate;
+  private final BatchedInsert insert;
+  private final int rowsPerStatement;
+
+  /** The parameters of the rows in the batch and of the current row. */
+  private final BatchParameterStore parameters;
+
+  /** Statement for a full chunk of rows. Prepared when first needed and reused. */
+  private PreparedStatement fullStatement;
+
+  /**
+   * Returns a rewriter for the given statement, or null if the statement cannot be rewritten to a
+   * multi-row insert in the given dialect.
+   */
+  static BatchedInsertRewriter create(Connection delegate, StatementParser parser, String sql) {
+    Dialect dialect = parser.getDialect();
+    if (dialect.getMaxInsertRows() <= 1) {
+      return null;
+    }
+    BatchedInsert insert = parser.getBatchedInsert(sql);
+    if (insert == null) {
+      return null;
+    }
+    int rowsPerStatement = dialect.getMaxInsertRows();
+    if (insert.getParameterCount() > 0) {
+      rowsPerStatement =
+          Math.min(rowsPerStatement, dialect.getMaxParameters() / insert.getParameterCount());
+    }
+    if (rowsPerStatement <= 1) {
+      return null;
+    }
+    return new BatchedInsertRewriter(delegate, insert, rowsPerStatement);
+  }
+
+  private BatchedInsertRewriter(Connection delegate, BatchedInsert insert, int rowsPerStatement) {
+    this.delegate = delegate;
+    this.insert = insert;
+    this.rowsPerStatement = rowsPerStatement;
+    this.parameters = new BatchParameterStore(insert.getParameterCount());
+  }
+
+  /** Returns the maximum number of rows in one multi-row statement. */
+  int getRowsPerStatement() {
+    return rowsPerStatement;
+  }
+
+  /** Returns the store that captures the parameter values of the batch. */
+  BatchParameterStore getParameters() {
+    return parameters;
+  }
+
+  /** Returns the number of rows in the current batch. */
+  int size() {
+    return parameters.size();
+  }
+
+  /**
+   * Executes the given range of rows of the current batch as one or more multi-row INSERT
+   * statements on the given connection, without clearing the batch. The statement for a full chunk
+   * of rows is only reused for the underlying connection of this rewriter. Returns the update count
+   * of each row, which is either 1, or {@link Statement#SUCCESS_NO_INFO} if the update count of a
+   * multi-row statement was not equal to its number of rows.
+   *
+   * @throws BatchUpdateException if one of the multi-row statements fails. The exception contains
+   *     the update counts of the rows that were inserted by the preceding statements.
+   */
+  long[] executeRows(Connection connection, int fromRow, int toRow) throws SQLException {
+    long[] res = new long[toRow - fromRow];
+    PreparedStatement full = connection == delegate ? fullStatement : null;
+    int row = fromRow;
+    try {
+      while (row < toRow) {
+        int count = Math.min(rowsPerStatement, toRow - row);
+        long updateCount;
+        if (count == rowsPerStatement) {
+          if (full == null) {
+            full = connection.prepareStatement(insert.getSql(count));
+          }
+          updateCount = execute(full, row, count);
+        } else {
+          try (PreparedStatement statement = connection.prepareStatement(insert.getSql(count))) {
+            updateCount = execute(statement, row, count);
+          }
+        }
+        Arrays.fill(res, row - fromRow, row - fromRow + count,
+            updateCount == count ? 1L : Statement.SUCCESS_NO_INFO);
+        row += count;
+      }
+    } catch (SQLException e) {
+      throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(),
+          Arrays.copyOf(res, row - fromRow), e);
+    } finally {
+      if (connection == delegate) {
+        fullStatement = full;
+      } else if (full != null) {
+        full.close();
+      }
+    }
+    return res;
+  }
+
+  private long execute(PreparedStatement statement, int firstRow, int count) throws SQLException {
+    log.log(Level.FINEST, "Executing batch of {0} rows as one statement", count);
+    int offset = 0;
+    for (int row = firstRow; row < firstRow + count; row++) {
+      parameters.apply(row, statement, offset);
+      offset += parameters.getParameterCount();
+    }
+    return statement.executeUpdate();
+  }
+
+  /** Closes the statements that have been prepared by this rewriter. */
+  void close() throws SQLException {
+    parameters.clearBatch();
+    if (fullStatement != null) {
+      fullStatement.close();
+      fullStatement = null;
+    }
+  }
+}
@@ -0,0 +1,978 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.TransactionRecorder.ResultSetChecksum;
+import com.github.jdbc.smartcommit.TransactionRecorder.ResultSetChecksum.ColumnGetter;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+
+/**
+ * {@link ResultSet} that updates a checksum of the column values that the application reads, so
+ * that the query can be verified when a transaction is replayed by the {@link TransactionRecorder}.
+ * Only the values that the application reads are included, and each value is read once from the
+ * underlying result set. The checksum is invalidated if the application moves the cursor in any
+ * other way than with {@link #next()}, changes the data through the result set, or reads a value
+ * that cannot be compared by value, such as a LOB, an array or a stream.
+ */
+class ChecksumResultSet extends AbstractDelegateWrapper<ResultSet> implements ResultSet {
+  private static final ColumnGetter STRING = ResultSet::getString;
+  private static final ColumnGetter NSTRING = ResultSet::getNString;
+  private static final ColumnGetter BOOLEAN = ResultSet::getBoolean;
+  private static final ColumnGetter BYTE = ResultSet::getByte;
+  private static final ColumnGetter SHORT = ResultSet::getShort;
+  private static final ColumnGetter INT = ResultSet::getInt;
+  private static final ColumnGetter LONG = ResultSet::getLong;
+  private static final ColumnGetter FLOAT = ResultSet::getFloat;
+  private static final ColumnGetter DOUBLE = ResultSet::getDouble;
+  private static final ColumnGetter BIG_DECIMAL = ResultSet::getBigDecimal;
+  private static final ColumnGetter BYTES = ResultSet::getBytes;
+  private static final ColumnGetter DATE = ResultSet::getDate;
+  private static final ColumnGetter TIME = ResultSet::getTime;
+  private static final ColumnGetter TIMESTAMP = ResultSet::getTimestamp;
+  private static final ColumnGetter OBJECT = ResultSet::getObject;
+  private static final ColumnGetter URL_VALUE = ResultSet::getURL;
+  private static final ColumnGetter ROW_ID = ResultSet::getRowId;
+
+  private static final int BIG_DECIMAL_SCALE = 1;
+  private static final int DATE_CALENDAR = 2;
+  private static final int TIME_CALENDAR = 3;
+  private static final int TIMESTAMP_CALENDAR = 4;
+  private static final int OBJECT_MAP = 5;
+  private static final int OBJECT_TYPE = 6;
+
+  /**
+   * Getter with an additional argument, such as a scale or a type. Getters are equal if they read
+   * the same values, so the reads of rows that use the same arguments are only recorded once. A
+   * calendar is recorded as its time zone, which is the only part of it that the driver uses.
+   */
+  private static final class ArgumentGetter implements ColumnGetter {
+    private final int kind;
+    private final Object argument;
+
+    ArgumentGetter(int kind, Object argument) {
+      this.kind = kind;
+      this.argument = argument;
+    }
+
+    @SuppressWarnings({"deprecation", "unchecked"})
+    public Object get(ResultSet rs, int column) throws SQLException {
+      switch (kind) {
+        case BIG_DECIMAL_SCALE:
+          return rs.getBigDecimal(column, (Integer) argument);
+        case DATE_CALENDAR:
+          return rs.getDate(column, calendar());
+        case TIME_CALENDAR:
+          return rs.getTime(column, calendar());
+        case TIMESTAMP_CALENDAR:
+          return rs.getTimestamp(column, calendar());
+        case OBJECT_MAP:
+          return rs.getObject(column, (Map<String, Class<?>>) argument);
+        case OBJECT_TYPE:
+          return rs.getObject(column, (Class<?>) argument);
+        default:
+          throw new IllegalStateException("Unknown getter: " + kind);
+      }
+    }
+
+    private Calendar calendar() {
+      return argument == null ? null : Calendar.getInstance((TimeZone) argument);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ArgumentGetter)) {
+        return false;
+      }
+      ArgumentGetter other = (ArgumentGetter) o;
+      return kind == other.kind && Objects.equals(argument, other.argument);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * kind + Objects.hashCode(argument);
+    }
+  }
+
+  private static TimeZone timeZone(Calendar cal) {
+    return cal == null ? null : cal.getTimeZone();
+  }
+
+  private final ResultSetChecksum checksum;
+
+  ChecksumResultSet(ResultSet delegate, ResultSetChecksum checksum) {
+    super(delegate);
+    this.checksum = checksum;
+  }
+
+  public boolean next() throws SQLException {
+    boolean res = delegate.next();
+    checksum.next(res);
+    return res;
+  }
+
+  public void close() throws SQLException {
+    delegate.close();
+  }
+
+  public boolean wasNull() throws SQLException {
+    return delegate.wasNull();
+  }
+
+  public String getString(int columnIndex) throws SQLException {
+    String res = delegate.getString(columnIndex);
+    checksum.read(columnIndex, STRING, res);
+    return res;
+  }
+
+  public boolean getBoolean(int columnIndex) throws SQLException {
+    boolean res = delegate.getBoolean(columnIndex);
+    checksum.read(columnIndex, BOOLEAN, Boolean.hashCode(res));
+    return res;
+  }
+
+  public byte getByte(int columnIndex) throws SQLException {
+    byte res = delegate.getByte(columnIndex);
+    checksum.read(columnIndex, BYTE, Byte.hashCode(res));
+    return res;
+  }
+
+  public short getShort(int columnIndex) throws SQLException {
+    short res = delegate.getShort(columnIndex);
+    checksum.read(columnIndex, SHORT, Short.hashCode(res));
+    return res;
+  }
+
+  public int getInt(int columnIndex) throws SQLException {
+    int res = delegate.getInt(columnIndex);
+    checksum.read(columnIndex, INT, Integer.hashCode(res));
+    return res;
+  }
+
+  public long getLong(int columnIndex) throws SQLException {
+    long res = delegate.getLong(columnIndex);
+    checksum.read(columnIndex, LONG, Long.hashCode(res));
+    return res;
+  }
+
+  public float getFloat(int columnIndex) throws SQLException {
+    float res = delegate.getFloat(columnIndex);
+    checksum.read(columnIndex, FLOAT, Float.hashCode(res));
+    return res;
+  }
+
+  public double getDouble(int columnIndex) throws SQLException {
+    double res = delegate.getDouble(columnIndex);
+    checksum.read(columnIndex, DOUBLE, Double.hashCode(res));
+    return res;
+  }
+
+  @SuppressWarnings("deprecation")
+  public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+    BigDecimal res = delegate.getBigDecimal(columnIndex, scale);
+    checksum.read(columnIndex, new ArgumentGetter(BIG_DECIMAL_SCALE, scale), res);
+    return res;
+  }
+
+  public byte[] getBytes(int columnIndex) throws SQLException {
+    byte[] res = delegate.getBytes(columnIndex);
+    checksum.read(columnIndex, BYTES, res);
+    return res;
+  }
+
+  public java.sql.Date getDate(int columnIndex) throws SQLException {
+    java.sql.Date res = delegate.getDate(columnIndex);
+    checksum.read(columnIndex, DATE, res);
+    return res;
+  }
+
+  public java.sql.Time getTime(int columnIndex) throws SQLException {
+    java.sql.Time res = delegate.getTime(columnIndex);
+    checksum.read(columnIndex, TIME, res);
+    return res;
+  }
+
+  public java.sql.Timestamp getTimestamp(int columnIndex) throws SQLException {
+    java.sql.Timestamp res = delegate.getTimestamp(columnIndex);
+    checksum.read(columnIndex, TIMESTAMP, res);
+    return res;
+  }
+
+  public InputStream getAsciiStream(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getAsciiStream(columnIndex);
+  }
+
+  @SuppressWarnings("deprecation")
+  public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getUnicodeStream(columnIndex);
+  }
+
+  public InputStream getBinaryStream(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getBinaryStream(columnIndex);
+  }
+
+  public String getString(String columnLabel) throws SQLException {
+    return getString(findColumn(columnLabel));
+  }
+
+  public boolean getBoolean(String columnLabel) throws SQLException {
+    return getBoolean(findColumn(columnLabel));
+  }
+
+  public byte getByte(String columnLabel) throws SQLException {
+    return getByte(findColumn(columnLabel));
+  }
+
+  public short getShort(String columnLabel) throws SQLException {
+    return getShort(findColumn(columnLabel));
+  }
+
+  public int getInt(String columnLabel) throws SQLException {
+    return getInt(findColumn(columnLabel));
+  }
+
+  public long getLong(String columnLabel) throws SQLException {
+    return getLong(findColumn(columnLabel));
+  }
+
+  public float getFloat(String columnLabel) throws SQLException {
+    return getFloat(findColumn(columnLabel));
+  }
+
+  public double getDouble(String columnLabel) throws SQLException {
+    return getDouble(findColumn(columnLabel));
+  }
+
+  @SuppressWarnings("deprecation")
+  public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+    return getBigDecimal(findColumn(columnLabel), scale);
+  }
+
+  public byte[] getBytes(String columnLabel) throws SQLException {
+    return getBytes(findColumn(columnLabel));
+  }
+
+  public java.sql.Date getDate(String columnLabel) throws SQLException {
+    return getDate(findColumn(columnLabel));
+  }
+
+  public java.sql.Time getTime(String columnLabel) throws SQLException {
+    return getTime(findColumn(columnLabel));
+  }
+
+  public java.sql.Timestamp getTimestamp(String columnLabel) throws SQLException {
+    return getTimestamp(findColumn(columnLabel));
+  }
+
+  public InputStream getAsciiStream(String columnLabel) throws SQLException {
+    return getAsciiStream(findColumn(columnLabel));
+  }
+
+  @SuppressWarnings("deprecation")
+  public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+    return getUnicodeStream(findColumn(columnLabel));
+  }
+
+  public InputStream getBinaryStream(String columnLabel) throws SQLException {
+    return getBinaryStream(findColumn(columnLabel));
+  }
+
+  public SQLWarning getWarnings() throws SQLException {
+    return delegate.getWarnings();
+  }
+
+  public void clearWarnings() throws SQLException {
+    delegate.clearWarnings();
+  }
+
+  public String getCursorName() throws SQLException {
+    return delegate.getCursorName();
+  }
+
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return delegate.getMetaData();
+  }
+
+  public Object getObject(int columnIndex) throws SQLException {
+    Object res = delegate.getObject(columnIndex);
+    checksum.read(columnIndex, OBJECT, res);
+    return res;
+  }
+
+  public Object getObject(String columnLabel) throws SQLException {
+    return getObject(findColumn(columnLabel));
+  }
+
+  public int findColumn(String columnLabel) throws SQLException {
+    return delegate.findColumn(columnLabel);
+  }
+
+  public Reader getCharacterStream(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getCharacterStream(columnIndex);
+  }
+
+  public Reader getCharacterStream(String columnLabel) throws SQLException {
+    return getCharacterStream(findColumn(columnLabel));
+  }
+
+  public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+    BigDecimal res = delegate.getBigDecimal(columnIndex);
+    checksum.read(columnIndex, BIG_DECIMAL, res);
+    return res;
+  }
+
+  public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+    return getBigDecimal(findColumn(columnLabel));
+  }
+
+  public boolean isBeforeFirst() throws SQLException {
+    return delegate.isBeforeFirst();
+  }
+
+  public boolean isAfterLast() throws SQLException {
+    return delegate.isAfterLast();
+  }
+
+  public boolean isFirst() throws SQLException {
+    return delegate.isFirst();
+  }
+
+  public boolean isLast() throws SQLException {
+    return delegate.isLast();
+  }
+
+  public void beforeFirst() throws SQLException {
+    checksum.invalidate();
+    delegate.beforeFirst();
+  }
+
+  public void afterLast() throws SQLException {
+    checksum.invalidate();
+    delegate.afterLast();
+  }
+
+  public boolean first() throws SQLException {
+    checksum.invalidate();
+    return delegate.first();
+  }
+
+  public boolean last() throws SQLException {
+    checksum.invalidate();
+    return delegate.last();
+  }
+
+  public int getRow() throws SQLException {
+    return delegate.getRow();
+  }
+
+  public boolean absolute( int row ) throws SQLException {
+    checksum.invalidate();
+    return delegate.absolute(row);
+  }
+
+  public boolean relative( int rows ) throws SQLException {
+    checksum.invalidate();
+    return delegate.relative(rows);
+  }
+
+  public boolean previous() throws SQLException {
+    checksum.invalidate();
+    return delegate.previous();
+  }
+
+  public void setFetchDirection(int direction) throws SQLException {
+    delegate.setFetchDirection(direction);
+  }
+
+  public int getFetchDirection() throws SQLException {
+    return delegate.getFetchDirection();
+  }
+
+  public void setFetchSize(int rows) throws SQLException {
+    delegate.setFetchSize(rows);
+  }
+
+  public int getFetchSize() throws SQLException {
+    return delegate.getFetchSize();
+  }
+
+  public int getType() throws SQLException {
+    return delegate.getType();
+  }
+
+  public int getConcurrency() throws SQLException {
+    return delegate.getConcurrency();
+  }
+
+  public boolean rowUpdated() throws SQLException {
+    return delegate.rowUpdated();
+  }
+
+  public boolean rowInserted() throws SQLException {
+    return delegate.rowInserted();
+  }
+
+  public boolean rowDeleted() throws SQLException {
+    return delegate.rowDeleted();
+  }
+
+  public void updateNull(int columnIndex) throws SQLException {
+    delegate.updateNull(columnIndex);
+  }
+
+  public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+    delegate.updateBoolean(columnIndex, x);
+  }
+
+  public void updateByte(int columnIndex, byte x) throws SQLException {
+    delegate.updateByte(columnIndex, x);
+  }
+
+  public void updateShort(int columnIndex, short x) throws SQLException {
+    delegate.updateShort(columnIndex, x);
+  }
+
+  public void updateInt(int columnIndex, int x) throws SQLException {
+    delegate.updateInt(columnIndex, x);
+  }
+
+  public void updateLong(int columnIndex, long x) throws SQLException {
+    delegate.updateLong(columnIndex, x);
+  }
+
+  public void updateFloat(int columnIndex, float x) throws SQLException {
+    delegate.updateFloat(columnIndex, x);
+  }
+
+  public void updateDouble(int columnIndex, double x) throws SQLException {
+    delegate.updateDouble(columnIndex, x);
+  }
+
+  public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+    delegate.updateBigDecimal(columnIndex, x);
+  }
+
+  public void updateString(int columnIndex, String x) throws SQLException {
+    delegate.updateString(columnIndex, x);
+  }
+
+  public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+    delegate.updateBytes(columnIndex, x);
+  }
+
+  public void updateDate(int columnIndex, java.sql.Date x) throws SQLException {
+    delegate.updateDate(columnIndex, x);
+  }
+
+  public void updateTime(int columnIndex, java.sql.Time x) throws SQLException {
+    delegate.updateTime(columnIndex, x);
+  }
+
+  public void updateTimestamp(int columnIndex, java.sql.Timestamp x) throws SQLException {
+    delegate.updateTimestamp(columnIndex, x);
+  }
+
+  public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x, length);
+  }
+
+  public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x, length);
+  }
+
+  public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x, length);
+  }
+
+  public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+    delegate.updateObject(columnIndex, x, scaleOrLength);
+  }
+
+  public void updateObject(int columnIndex, Object x) throws SQLException {
+    delegate.updateObject(columnIndex, x);
+  }
+
+  public void updateNull(String columnLabel) throws SQLException {
+    delegate.updateNull(columnLabel);
+  }
+
+  public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+    delegate.updateBoolean(columnLabel, x);
+  }
+
+  public void updateByte(String columnLabel, byte x) throws SQLException {
+    delegate.updateByte(columnLabel, x);
+  }
+
+  public void updateShort(String columnLabel, short x) throws SQLException {
+    delegate.updateShort(columnLabel, x);
+  }
+
+  public void updateInt(String columnLabel, int x) throws SQLException {
+    delegate.updateInt(columnLabel, x);
+  }
+
+  public void updateLong(String columnLabel, long x) throws SQLException {
+    delegate.updateLong(columnLabel, x);
+  }
+
+  public void updateFloat(String columnLabel, float x) throws SQLException {
+    delegate.updateFloat(columnLabel, x);
+  }
+
+  public void updateDouble(String columnLabel, double x) throws SQLException {
+    delegate.updateDouble(columnLabel, x);
+  }
+
+  public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+    delegate.updateBigDecimal(columnLabel, x);
+  }
+
+  public void updateString(String columnLabel, String x) throws SQLException {
+    delegate.updateString(columnLabel, x);
+  }
+
+  public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+    delegate.updateBytes(columnLabel, x);
+  }
+
+  public void updateDate(String columnLabel, java.sql.Date x) throws SQLException {
+    delegate.updateDate(columnLabel, x);
+  }
+
+  public void updateTime(String columnLabel, java.sql.Time x) throws SQLException {
+    delegate.updateTime(columnLabel, x);
+  }
+
+  public void updateTimestamp(String columnLabel, java.sql.Timestamp x) throws SQLException {
+    delegate.updateTimestamp(columnLabel, x);
+  }
+
+  public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+    delegate.updateAsciiStream(columnLabel, x, length);
+  }
+
+  public void updateBinaryStream(String columnLabel, InputStream x, int length)
+      throws SQLException {
+    delegate.updateBinaryStream(columnLabel, x, length);
+  }
+
+  public void updateCharacterStream(String columnLabel, Reader reader, int length)
+      throws SQLException {
+    delegate.updateCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+    delegate.updateObject(columnLabel, x, scaleOrLength);
+  }
+
+  public void updateObject(String columnLabel, Object x) throws SQLException {
+    delegate.updateObject(columnLabel, x);
+  }
+
+  public void insertRow() throws SQLException {
+    checksum.invalidate();
+    delegate.insertRow();
+  }
+
+  public void updateRow() throws SQLException {
+    checksum.invalidate();
+    delegate.updateRow();
+  }
+
+  public void deleteRow() throws SQLException {
+    checksum.invalidate();
+    delegate.deleteRow();
+  }
+
+  public void refreshRow() throws SQLException {
+    checksum.invalidate();
+    delegate.refreshRow();
+  }
+
+  public void cancelRowUpdates() throws SQLException {
+    delegate.cancelRowUpdates();
+  }
+
+  public void moveToInsertRow() throws SQLException {
+    delegate.moveToInsertRow();
+  }
+
+  public void moveToCurrentRow() throws SQLException {
+    delegate.moveToCurrentRow();
+  }
+
+  public Statement getStatement() throws SQLException {
+    return delegate.getStatement();
+  }
+
+  public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+    Object res = delegate.getObject(columnIndex, map);
+    checksum.read(columnIndex, new ArgumentGetter(OBJECT_MAP, map), res);
+    return res;
+  }
+
+  public Ref getRef(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getRef(columnIndex);
+  }
+
+  public Blob getBlob(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getBlob(columnIndex);
+  }
+
+  public Clob getClob(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getClob(columnIndex);
+  }
+
+  public Array getArray(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getArray(columnIndex);
+  }
+
+  public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+    return getObject(findColumn(columnLabel), map);
+  }
+
+  public Ref getRef(String columnLabel) throws SQLException {
+    return getRef(findColumn(columnLabel));
+  }
+
+  public Blob getBlob(String columnLabel) throws SQLException {
+    return getBlob(findColumn(columnLabel));
+  }
+
+  public Clob getClob(String columnLabel) throws SQLException {
+    return getClob(findColumn(columnLabel));
+  }
+
+  public Array getArray(String columnLabel) throws SQLException {
+    return getArray(findColumn(columnLabel));
+  }
+
+  public java.sql.Date getDate(int columnIndex, Calendar cal) throws SQLException {
+    java.sql.Date res = delegate.getDate(columnIndex, cal);
+    checksum.read(columnIndex, new ArgumentGetter(DATE_CALENDAR, timeZone(cal)), res);
+    return res;
+  }
+
+  public java.sql.Date getDate(String columnLabel, Calendar cal) throws SQLException {
+    return getDate(findColumn(columnLabel), cal);
+  }
+
+  public java.sql.Time getTime(int columnIndex, Calendar cal) throws SQLException {
+    java.sql.Time res = delegate.getTime(columnIndex, cal);
+    checksum.read(columnIndex, new ArgumentGetter(TIME_CALENDAR, timeZone(cal)), res);
+    return res;
+  }
+
+  public java.sql.Time getTime(String columnLabel, Calendar cal) throws SQLException {
+    return getTime(findColumn(columnLabel), cal);
+  }
+
+  public java.sql.Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+    java.sql.Timestamp res = delegate.getTimestamp(columnIndex, cal);
+    checksum.read(columnIndex, new ArgumentGetter(TIMESTAMP_CALENDAR, timeZone(cal)), res);
+    return res;
+  }
+
+  public java.sql.Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+    return getTimestamp(findColumn(columnLabel), cal);
+  }
+
+  public URL getURL(int columnIndex) throws SQLException {
+    URL res = delegate.getURL(columnIndex);
+    checksum.read(columnIndex, URL_VALUE, res);
+    return res;
+  }
+
+  public URL getURL(String columnLabel) throws SQLException {
+    return getURL(findColumn(columnLabel));
+  }
+
+  public void updateRef(int columnIndex, java.sql.Ref x) throws SQLException {
+    delegate.updateRef(columnIndex, x);
+  }
+
+  public void updateRef(String columnLabel, java.sql.Ref x) throws SQLException {
+    delegate.updateRef(columnLabel, x);
+  }
+
+  public void updateBlob(int columnIndex, java.sql.Blob x) throws SQLException {
+    delegate.updateBlob(columnIndex, x);
+  }
+
+  public void updateBlob(String columnLabel, java.sql.Blob x) throws SQLException {
+    delegate.updateBlob(columnLabel, x);
+  }
+
+  public void updateClob(int columnIndex, java.sql.Clob x) throws SQLException {
+    delegate.updateClob(columnIndex, x);
+  }
+
+  public void updateClob(String columnLabel, java.sql.Clob x) throws SQLException {
+    delegate.updateClob(columnLabel, x);
+  }
+
+  public void updateArray(int columnIndex, java.sql.Array x) throws SQLException {
+    delegate.updateArray(columnIndex, x);
+  }
+
+  public void updateArray(String columnLabel, java.sql.Array x) throws SQLException {
+    delegate.updateArray(columnLabel, x);
+  }
+
+  public RowId getRowId(int columnIndex) throws SQLException {
+    RowId res = delegate.getRowId(columnIndex);
+    checksum.read(columnIndex, ROW_ID, res);
+    return res;
+  }
+
+  public RowId getRowId(String columnLabel) throws SQLException {
+    return getRowId(findColumn(columnLabel));
+  }
+
+  public void updateRowId(int columnIndex, RowId x) throws SQLException {
+    delegate.updateRowId(columnIndex, x);
+  }
+
+  public void updateRowId(String columnLabel, RowId x) throws SQLException {
+    delegate.updateRowId(columnLabel, x);
+  }
+
+  public int getHoldability() throws SQLException {
+    return delegate.getHoldability();
+  }
+
+  public boolean isClosed() throws SQLException {
+    return delegate.isClosed();
+  }
+
+  public void updateNString(int columnIndex, String nString) throws SQLException {
+    delegate.updateNString(columnIndex, nString);
+  }
+
+  public void updateNString(String columnLabel, String nString) throws SQLException {
+    delegate.updateNString(columnLabel, nString);
+  }
+
+  public void updateNClob(int columnIndex, NClob nClob) throws SQLException {
+    delegate.updateNClob(columnIndex, nClob);
+  }
+
+  public void updateNClob(String columnLabel, NClob nClob) throws SQLException {
+    delegate.updateNClob(columnLabel, nClob);
+  }
+
+  public NClob getNClob(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getNClob(columnIndex);
+  }
+
+  public NClob getNClob(String columnLabel) throws SQLException {
+    return getNClob(findColumn(columnLabel));
+  }
+
+  public SQLXML getSQLXML(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getSQLXML(columnIndex);
+  }
+
+  public SQLXML getSQLXML(String columnLabel) throws SQLException {
+    return getSQLXML(findColumn(columnLabel));
+  }
+
+  public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException {
+    delegate.updateSQLXML(columnIndex, xmlObject);
+  }
+
+  public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException {
+    delegate.updateSQLXML(columnLabel, xmlObject);
+  }
+
+  public String getNString(int columnIndex) throws SQLException {
+    String res = delegate.getNString(columnIndex);
+    checksum.read(columnIndex, NSTRING, res);
+    return res;
+  }
+
+  public String getNString(String columnLabel) throws SQLException {
+    return getNString(findColumn(columnLabel));
+  }
+
+  public Reader getNCharacterStream(int columnIndex) throws SQLException {
+    checksum.invalidate();
+    return delegate.getNCharacterStream(columnIndex);
+  }
+
+  public Reader getNCharacterStream(String columnLabel) throws SQLException {
+    return getNCharacterStream(findColumn(columnLabel));
+  }
+
+  public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateNCharacterStream(columnIndex, x, length);
+  }
+
+  public void updateNCharacterStream(String columnLabel, Reader reader, long length)
+      throws SQLException {
+    delegate.updateNCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x, length);
+  }
+
+  public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x, length);
+  }
+
+  public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x, length);
+  }
+
+  public void updateAsciiStream(String columnLabel, InputStream x, long length)
+      throws SQLException {
+    delegate.updateAsciiStream(columnLabel, x, length);
+  }
+
+  public void updateBinaryStream(String columnLabel, InputStream x, long length)
+      throws SQLException {
+    delegate.updateBinaryStream(columnLabel, x, length);
+  }
+
+  public void updateCharacterStream(String columnLabel, Reader reader, long length)
+      throws SQLException {
+    delegate.updateCharacterStream(columnLabel, reader, length);
+  }
+
+  public void updateBlob(int columnIndex, InputStream inputStream, long length)
+      throws SQLException {
+    delegate.updateBlob(columnIndex, inputStream, length);
+  }
+
+  public void updateBlob(String columnLabel, InputStream inputStream, long length)
+      throws SQLException {
+    delegate.updateBlob(columnLabel, inputStream, length);
+  }
+
+  public void updateClob(int columnIndex, Reader reader, long length) throws SQLException {
+    delegate.updateClob(columnIndex, reader, length);
+  }
+
+  public void updateClob(String columnLabel, Reader reader, long length) throws SQLException {
+    delegate.updateClob(columnLabel, reader, length);
+  }
+
+  public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException {
+    delegate.updateNClob(columnIndex, reader, length);
+  }
+
+  public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException {
+    delegate.updateNClob(columnLabel, reader, length);
+  }
+
+  public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+    delegate.updateNCharacterStream(columnIndex, x);
+  }
+
+  public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException {
+    delegate.updateNCharacterStream(columnLabel, reader);
+  }
+
+  public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+    delegate.updateAsciiStream(columnIndex, x);
+  }
+
+  public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+    delegate.updateBinaryStream(columnIndex, x);
+  }
+
+  public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+    delegate.updateCharacterStream(columnIndex, x);
+  }
+
+  public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+    delegate.updateAsciiStream(columnLabel, x);
+  }
+
+  public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+    delegate.updateBinaryStream(columnLabel, x);
+  }
+
+  public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException {
+    delegate.updateCharacterStream(columnLabel, reader);
+  }
+
+  public void updateBlob(int columnIndex, InputStream inputStream) throws SQLException {
+    delegate.updateBlob(columnIndex, inputStream);
+  }
+
+  public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException {
+    delegate.updateBlob(columnLabel, inputStream);
+  }
+
+  public void updateClob(int columnIndex, Reader reader) throws SQLException {
+    delegate.updateClob(columnIndex, reader);
+  }
+
+  public void updateClob(String columnLabel, Reader reader) throws SQLException {
+    delegate.updateClob(columnLabel, reader);
+  }
+
+  public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+    delegate.updateNClob(columnIndex, reader);
+  }
+
+  public void updateNClob(String columnLabel, Reader reader) throws SQLException {
+    delegate.updateNClob(columnLabel, reader);
+  }
+
+  public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+    T res = delegate.getObject(columnIndex, type);
+    checksum.read(columnIndex, new ArgumentGetter(OBJECT_TYPE, type), res);
+    return res;
+  }
+
+  public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+    return getObject(findColumn(columnLabel), type);
+  }
+}
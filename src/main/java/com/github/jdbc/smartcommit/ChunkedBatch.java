@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Keeps track of the size of the batch of a {@link PreparedStatement} that is flushed to the
+ * database in chunks. A chunk is flushed when the batch reaches a maximum number of rows or an
+ * estimated number of bytes. The update counts of the chunks that have been flushed are collected,
+ * so that they can be returned together with the update counts of the last chunk when the batch is
+ * executed.
+ *
+ * <p>The number of bytes in a row is estimated from the values that are set for the parameters of
+ * the statement. The estimate is only meant to bound the memory that is used by the underlying
+ * driver, and does not need to be exact.
+ */
+class ChunkedBatch {
+  /** The estimated size of a value whose size is not known. */
+  static final long DEFAULT_SIZE = 16L;
+
+  /** Parameter indexes above this value are not tracked, and are reported by the driver. */
+  private static final int MAX_PARAMETER_INDEX = 1 << 16;
+
+  /** The maximum number of rows in a chunk. 0 if the number of rows is unlimited. */
+  private final int maxRows;
+
+  /** The maximum estimated number of bytes in a chunk. 0 if the number of bytes is unlimited. */
+  private final long maxBytes;
+
+  /** The estimated size of the current value of each parameter. */
+  private long[] parameterSizes = new long[0];
+
+  /** The number of rows and estimated bytes in the current chunk. */
+  private int rows;
+
+  private long bytes;
+
+  /** The update counts of the chunks that have been flushed. */
+  private long[] flushedUpdateCounts = new long[0];
+
+  private int flushedRows;
+
+  /**
+   * Returns a {@link ChunkedBatch} for the given thresholds, or null if both thresholds are 0 and
+   * batches should not be flushed in chunks.
+   */
+  static ChunkedBatch create(int maxRows, long maxBytes) {
+    if (maxRows <= 0 && maxBytes <= 0L) {
+      return null;
+    }
+    return new ChunkedBatch(maxRows, maxBytes);
+  }
+
+  private ChunkedBatch(int maxRows, long maxBytes) {
+    this.maxRows = maxRows;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the estimated size in bytes of the given parameter value. */
+  static long estimateSize(Object value) {
+    if (value == null) {
+      return 1L;
+    }
+    if (value instanceof String) {
+      return 2L * ((String) value).length();
+    }
+    if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    }
+    if (value instanceof Number || value instanceof Boolean) {
+      return 8L;
+    }
+    // The length of a Blob or Clob is not requested, as that could require a round trip.
+    return DEFAULT_SIZE;
+  }
+
+  /** Records the estimated size of the value that was set for the given parameter. */
+  void setParameterSize(int parameterIndex, long size) {
+    if (parameterIndex < 1 || parameterIndex > MAX_PARAMETER_INDEX) {
+      return;
+    }
+    if (parameterIndex > parameterSizes.length) {
+      parameterSizes =
+          Arrays.copyOf(parameterSizes, Math.max(parameterIndex, 2 * parameterSizes.length));
+    }
+    parameterSizes[parameterIndex - 1] = size;
+  }
+
+  void clearParameters() {
+    Arrays.fill(parameterSizes, 0L);
+  }
+
+  /** Returns the number of rows in the current chunk. */
+  int size() {
+    return rows;
+  }
+
+  /**
+   * Adds the current row to the chunk and returns true if the chunk has reached one of the
+   * thresholds and should be flushed.
+   */
+  boolean addBatch() {
+    rows++;
+    for (long size : parameterSizes) {
+      bytes += size;
+    }
+    return (maxRows > 0 && rows >= maxRows) || (maxBytes > 0L && bytes >= maxBytes);
+  }
+
+  /** Records the update counts of a chunk that has been flushed. */
+  void flushed(long[] updateCounts) {
+    int required = flushedRows + updateCounts.length;
+    if (required > flushedUpdateCounts.length) {
+      flushedUpdateCounts =
+          Arrays.copyOf(flushedUpdateCounts, Math.max(required, 2 * flushedUpdateCounts.length));
+    }
+    System.arraycopy(updateCounts, 0, flushedUpdateCounts, flushedRows, updateCounts.length);
+    flushedRows = required;
+    rows = 0;
+    bytes = 0L;
+  }
+
+  /**
+   * Returns the update counts of all chunks in the batch, followed by the given update counts of
+   * the last chunk, and clears the batch.
+   */
+  long[] complete(long[] updateCounts) {
+    long[] res = flushedRows == 0 ? updateCounts : append(updateCounts);
+    clear();
+    return res;
+  }
+
+  /**
+   * Returns an exception for the failure of a chunk that contains the update counts of the chunks
+   * that were flushed before the failure, and clears the batch.
+   */
+  BatchUpdateException failed(SQLException e) {
+    long[] updateCounts = new long[0];
+    if (e instanceof BatchUpdateException
+        && ((BatchUpdateException) e).getLargeUpdateCounts() != null) {
+      updateCounts = ((BatchUpdateException) e).getLargeUpdateCounts();
+    }
+    long[] res = append(updateCounts);
+    clear();
+    return new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), res, e);
+  }
+
+  /** Clears the batch. Chunks that have already been flushed are not undone. */
+  void clear() {
+    flushedUpdateCounts = new long[0];
+    flushedRows = 0;
+    rows = 0;
+    bytes = 0L;
+  }
+
+  private long[] append(long[] updateCounts) {
+    long[] res = Arrays.copyOf(flushedUpdateCounts, flushedRows + updateCounts.length);
+    System.arraycopy(updateCounts, 0, res, flushedRows, updateCounts.length);
+    return res;
+  }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Options for a {@link SmartCommitConnection}. Options can be specified both in the connection URL
+ * and in the {@link Properties} that are passed in to {@link SmartCommitDriver#connect(String,
+ * Properties)}. All options use the prefix 'smartcommit.' and are removed from the URL and the
+ * properties before these are handed to the underlying driver. Options in the URL take precedence
+ * over options in the properties.
+ *
+ * <p>Examples:
+ *
+ * <pre>
+ * jdbc:smartcommit:postgresql://localhost/foo?smartcommit.parseCacheSize=500&amp;ssl=true
+ * jdbc:smartcommit:sqlserver://localhost;databaseName=foo;smartcommit.parseCacheSize=500;
+ * </pre>
+ */
+class ConnectionOptions {
+  static final String PREFIX = "smartcommit.";
+
+  /**
+   * The maximum number of parsed statements in the parse cache. The cache is shared by all
+   * connections with the same dialect and parser options. 0 disables caching.
+   */
+  static final String PARSE_CACHE_SIZE = "parseCacheSize";
+  /** The maximum total length (in characters) of all SQL strings in the parse cache. */
+  static final String PARSE_CACHE_MAX_WEIGHT = "parseCacheMaxWeight";
+
+  /**
+   * The SQL dialect that should be used to parse statements. The dialect is determined
+   * automatically if this option is not set.
+   */
+  static final String DIALECT = "dialect";
+
+  /**
+   * Rules for classifying statements that are not recognized by the parser. The rules override the
+   * default rules of the dialect. See {@link KeywordRules}.
+   */
+  static final String KEYWORD_RULES = "keywordRules";
+
+  /**
+   * Restore autocommit on the underlying connection lazily after a commit or rollback. The
+   * underlying connection is only switched back to autocommit when the next statement does not
+   * require a transaction.
+   */
+  static final String LAZY_AUTOCOMMIT_RESTORE = "lazyAutoCommitRestore";
+
+  /**
+   * The maximum number of DML statements that are buffered in a transaction before these are sent
+   * to the database as one batch. Write-behind buffering is disabled if this is 0.
+   */
+  static final String WRITE_BEHIND_BUFFER_SIZE = "writeBehindBufferSize";
+
+  /**
+   * Defer the first DML statement of a transaction. A transaction that only contains that
+   * statement is executed as a single statement in autocommit when it is committed.
+   */
+  static final String DEFER_FIRST_WRITE = "deferFirstWrite";
+
+  /**
+   * Rewrite batches of single-row INSERT statements on a prepared statement to multi-row INSERT
+   * statements.
+   */
+  static final String REWRITE_BATCHED_INSERTS = "rewriteBatchedInserts";
+
+  /**
+   * The maximum number of rows in the batch of a prepared statement. The rows that have been added
+   * to the batch are sent to the database when the batch reaches this size. 0 means unlimited.
+   */
+  static final String BATCH_FLUSH_ROWS = "batchFlushRows";
+
+  /**
+   * The maximum estimated number of bytes in the batch of a prepared statement. The rows that have
+   * been added to the batch are sent to the database when the batch reaches this size. 0 means
+   * unlimited.
+   */
+  static final String BATCH_FLUSH_BYTES = "batchFlushBytes";
+
+  /**
+   * The number of additional connections that are used to execute large batches of a prepared
+   * statement in parallel in autocommit mode. Parallel execution is disabled if this is 0.
+   */
+  static final String PARALLEL_BATCH_CONNECTIONS = "parallelBatchConnections";
+
+  /** The minimum number of rows in a batch that is executed in parallel. */
+  static final String PARALLEL_BATCH_MIN_ROWS = "parallelBatchMinRows";
+
+  /**
+   * The time in milliseconds after the last parallel batch that the additional connections for
+   * parallel batches are closed. 0 closes them directly after each batch.
+   */
+  static final String PARALLEL_BATCH_IDLE_TIMEOUT = "parallelBatchIdleTimeout";
+
+  /**
+   * The maximum number of times that a transaction that was started by smart commit is replayed
+   * after the database aborted it with a retryable error. Transactions are not retried if this is
+   * 0.
+   */
+  static final String MAX_TRANSACTION_RETRIES = "maxTransactionRetries";
+
+  /** The backoff in milliseconds before the first replay of an aborted transaction. */
+  static final String TRANSACTION_RETRY_BACKOFF = "transactionRetryBackoff";
+
+  /**
+   * The maximum number of times that a query in autocommit mode is retried after a transient
+   * error. Queries are not retried if this is 0.
+   */
+  static final String MAX_READ_RETRIES = "maxReadRetries";
+
+  /** The backoff in milliseconds before the first retry of a query. */
+  static final String READ_RETRY_BACKOFF = "readRetryBackoff";
+
+  /**
+   * The maximum number of physical connections of the embedded pool that is used for URLs that
+   * start with 'jdbc:smartcommit:pool:'. The pool is created by the first connection for a URL.
+   */
+  static final String POOL_MAX_SIZE = "poolMaxSize";
+
+  /** The time in milliseconds to wait for a physical connection of the embedded pool. */
+  static final String POOL_TIMEOUT = "poolTimeout";
+
+  /**
+   * The time in milliseconds that a physical connection of the embedded pool may be idle before it
+   * is validated when it is borrowed again.
+   */
+  static final String POOL_VALIDATION_INTERVAL = "poolValidationInterval";
+
+  /**
+   * Opens the underlying connection when it is first needed instead of when the connection is
+   * created. Connections of the embedded pool are always opened lazily.
+   */
+  static final String LAZY_CONNECT = "lazyConnect";
+
+  static final int DEFAULT_PARSE_CACHE_SIZE = 1000;
+  static final long DEFAULT_PARSE_CACHE_MAX_WEIGHT = 1_000_000L;
+  static final boolean DEFAULT_LAZY_AUTOCOMMIT_RESTORE = true;
+  static final int DEFAULT_WRITE_BEHIND_BUFFER_SIZE = 0;
+  static final boolean DEFAULT_DEFER_FIRST_WRITE = false;
+  static final boolean DEFAULT_REWRITE_BATCHED_INSERTS = false;
+  static final int DEFAULT_BATCH_FLUSH_ROWS = 0;
+  static final long DEFAULT_BATCH_FLUSH_BYTES = 0L;
+  static final int DEFAULT_PARALLEL_BATCH_CONNECTIONS = 0;
+  static final int DEFAULT_PARALLEL_BATCH_MIN_ROWS = 1000;
+  static final long DEFAULT_PARALLEL_BATCH_IDLE_TIMEOUT = 60_000L;
+  static final int DEFAULT_MAX_TRANSACTION_RETRIES = 0;
+  static final long DEFAULT_TRANSACTION_RETRY_BACKOFF = 10L;
+  static final int DEFAULT_MAX_READ_RETRIES = 0;
+  static final long DEFAULT_READ_RETRY_BACKOFF = 10L;
+  static final int DEFAULT_POOL_MAX_SIZE = 10;
+  static final long DEFAULT_POOL_TIMEOUT = 30_000L;
+  static final long DEFAULT_POOL_VALIDATION_INTERVAL = 5_000L;
+  static final boolean DEFAULT_LAZY_CONNECT = false;
+
+  /** Default options that are used for connections that are created without any options. */
+  static final ConnectionOptions DEFAULT = new ConnectionOptions(new HashMap<>());
+
+  private final Map<String, String> values;
+
+  private ConnectionOptions(Map<String, String> values) {
+    this.values = values;
+  }
+
+  /**
+   * Extracts all smart commit options from the given URL and properties. The given URL and
+   * properties are not modified. Use {@link #removeOptions(String)} and {@link
+   * #removeOptions(Properties)} to get the URL and properties that should be passed to the
+   * underlying driver.
+   */
+  static ConnectionOptions parse(String url, Properties info) throws SQLException {
+    Map<String, String> values = new HashMap<>();
+    if (info != null) {
+      for (String name : info.stringPropertyNames()) {
+        if (name.startsWith(PREFIX)) {
+          values.put(name.substring(PREFIX.length()), info.getProperty(name));
+        }
+      }
+    }
+    int index = findOption(url, 0);
+    while (index > -1) {
+      int end = findOptionEnd(url, index);
+      String option = url.substring(index + PREFIX.length(), end);
+      int equals = option.indexOf('=');
+      if (equals == -1) {
+        throw new SQLException("Invalid smart commit option in URL: " + option);
+      }
+      values.put(option.substring(0, equals), option.substring(equals + 1));
+      index = findOption(url, end);
+    }
+    ConnectionOptions options = new ConnectionOptions(values);
+    options.validate();
+    return options;
+  }
+
+  /** Returns the given URL without any smart commit options. */
+  static String removeOptions(String url) {
+    int index = findOption(url, 0);
+    while (index > -1) {
+      int end = findOptionEnd(url, index);
+      if (end < url.length()) {
+        // Remove the option and the separator that follows it.
+        url = url.substring(0, index) + url.substring(end + 1);
+      } else {
+        // Remove the option and the separator that precedes it.
+        url = url.substring(0, index - 1);
+      }
+      index = findOption(url, index - 1);
+    }
+    return url;
+  }
+
+  /** Returns a copy of the given properties without any smart commit options. */
+  static Properties removeOptions(Properties info) {
+    Properties res = new Properties();
+    if (info != null) {
+      for (String name : info.stringPropertyNames()) {
+        if (!name.startsWith(PREFIX)) {
+          res.setProperty(name, info.getProperty(name));
+        }
+      }
+    }
+    return res;
+  }
+
+  private static int findOption(String url, int fromIndex) {
+    int index = url.indexOf(PREFIX, Math.max(fromIndex, 0));
+    while (index > 0) {
+      char c = url.charAt(index - 1);
+      if (c == '?' || c == '&' || c == ';') {
+        return index;
+      }
+      index = url.indexOf(PREFIX, index + 1);
+    }
+    return -1;
+  }
+
+  private static int findOptionEnd(String url, int index) {
+    int end = index;
+    while (end < url.length() && url.charAt(end) != '&' && url.charAt(end) != ';') {
+      end++;
+    }
+    return end;
+  }
+
+  private void validate() throws SQLException {
+    if (getParseCacheSize() < 0) {
+      throw new SQLException(PREFIX + PARSE_CACHE_SIZE + " must be >= 0");
+    }
+    if (getParseCacheMaxWeight() < 0L) {
+      throw new SQLException(PREFIX + PARSE_CACHE_MAX_WEIGHT + " must be >= 0");
+    }
+    getDialect();
+    getKeywordRules(Dialect.GENERIC);
+    isLazyAutoCommitRestore();
+    isDeferFirstWrite();
+    isRewriteBatchedInserts();
+    if (getWriteBehindBufferSize() < 0) {
+      throw new SQLException(PREFIX + WRITE_BEHIND_BUFFER_SIZE + " must be >= 0");
+    }
+    if (getBatchFlushRows() < 0) {
+      throw new SQLException(PREFIX + BATCH_FLUSH_ROWS + " must be >= 0");
+    }
+    if (getBatchFlushBytes() < 0L) {
+      throw new SQLException(PREFIX + BATCH_FLUSH_BYTES + " must be >= 0");
+    }
+    if (getParallelBatchConnections() < 0) {
+      throw new SQLException(PREFIX + PARALLEL_BATCH_CONNECTIONS + " must be >= 0");
+    }
+    if (getParallelBatchMinRows() < 0) {
+      throw new SQLException(PREFIX + PARALLEL_BATCH_MIN_ROWS + " must be >= 0");
+    }
+    if (getParallelBatchIdleTimeout() < 0L) {
+      throw new SQLException(PREFIX + PARALLEL_BATCH_IDLE_TIMEOUT + " must be >= 0");
+    }
+    if (getMaxTransactionRetries() < 0) {
+      throw new SQLException(PREFIX + MAX_TRANSACTION_RETRIES + " must be >= 0");
+    }
+    if (getTransactionRetryBackoff() < 0L) {
+      throw new SQLException(PREFIX + TRANSACTION_RETRY_BACKOFF + " must be >= 0");
+    }
+    if (getMaxReadRetries() < 0) {
+      throw new SQLException(PREFIX + MAX_READ_RETRIES + " must be >= 0");
+    }
+    if (getReadRetryBackoff() < 0L) {
+      throw new SQLException(PREFIX + READ_RETRY_BACKOFF + " must be >= 0");
+    }
+    if (getPoolMaxSize() < 1) {
+      throw new SQLException(PREFIX + POOL_MAX_SIZE + " must be >= 1");
+    }
+    if (getPoolTimeout() < 0L) {
+      throw new SQLException(PREFIX + POOL_TIMEOUT + " must be >= 0");
+    }
+    if (getPoolValidationInterval() < 0L) {
+      throw new SQLException(PREFIX + POOL_VALIDATION_INTERVAL + " must be >= 0");
+    }
+  }
+
+  int getParseCacheSize() throws SQLException {
+    return getInt(PARSE_CACHE_SIZE, DEFAULT_PARSE_CACHE_SIZE);
+  }
+
+  long getParseCacheMaxWeight() throws SQLException {
+    return getLong(PARSE_CACHE_MAX_WEIGHT, DEFAULT_PARSE_CACHE_MAX_WEIGHT);
+  }
+
+  /** Returns the dialect that has been set for the connection, or null if none has been set. */
+  Dialect getDialect() throws SQLException {
+    String value = values.get(DIALECT);
+    return value == null ? null : Dialect.forName(value.trim());
+  }
+
+  /** Returns the default keyword rules of the given dialect, overridden by the rules option. */
+  KeywordRules getKeywordRules(Dialect dialect) throws SQLException {
+    String value = values.get(KEYWORD_RULES);
+    KeywordRules rules = dialect.getDefaultKeywordRules();
+    return value == null ? rules : rules.withRules(value);
+  }
+
+  int getWriteBehindBufferSize() throws SQLException {
+    return getInt(WRITE_BEHIND_BUFFER_SIZE, DEFAULT_WRITE_BEHIND_BUFFER_SIZE);
+  }
+
+  boolean isRewriteBatchedInserts() throws SQLException {
+    return getBoolean(REWRITE_BATCHED_INSERTS, DEFAULT_REWRITE_BATCHED_INSERTS);
+  }
+
+  int getBatchFlushRows() throws SQLException {
+    return getInt(BATCH_FLUSH_ROWS, DEFAULT_BATCH_FLUSH_ROWS);
+  }
+
+  long getBatchFlushBytes() throws SQLException {
+    return getLong(BATCH_FLUSH_BYTES, DEFAULT_BATCH_FLUSH_BYTES);
+  }
+
+  int getParallelBatchConnections() throws SQLException {
+    return getInt(PARALLEL_BATCH_CONNECTIONS, DEFAULT_PARALLEL_BATCH_CONNECTIONS);
+  }
+
+  int getParallelBatchMinRows() throws SQLException {
+    return getInt(PARALLEL_BATCH_MIN_ROWS, DEFAULT_PARALLEL_BATCH_MIN_ROWS);
+  }
+
+  long getParallelBatchIdleTimeout() throws SQLException {
+    return getLong(PARALLEL_BATCH_IDLE_TIMEOUT, DEFAULT_PARALLEL_BATCH_IDLE_TIMEOUT);
+  }
+
+  int getMaxTransactionRetries() throws SQLException {
+    return getInt(MAX_TRANSACTION_RETRIES, DEFAULT_MAX_TRANSACTION_RETRIES);
+  }
+
+  long getTransactionRetryBackoff() throws SQLException {
+    return getLong(TRANSACTION_RETRY_BACKOFF, DEFAULT_TRANSACTION_RETRY_BACKOFF);
+  }
+
+  int getMaxReadRetries() throws SQLException {
+    return getInt(MAX_READ_RETRIES, DEFAULT_MAX_READ_RETRIES);
+  }
+
+  long getReadRetryBackoff() throws SQLException {
+    return getLong(READ_RETRY_BACKOFF, DEFAULT_READ_RETRY_BACKOFF);
+  }
+
+  int getPoolMaxSize() throws SQLException {
+    return getInt(POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE);
+  }
+
+  long getPoolTimeout() throws SQLException {
+    return getLong(POOL_TIMEOUT, DEFAULT_POOL_TIMEOUT);
+  }
+
+  long getPoolValidationInterval() throws SQLException {
+    return getLong(POOL_VALIDATION_INTERVAL, DEFAULT_POOL_VALIDATION_INTERVAL);
+  }
+
+  boolean isLazyConnect() throws SQLException {
+    return getBoolean(LAZY_CONNECT, DEFAULT_LAZY_CONNECT);
+  }
+
+  boolean isDeferFirstWrite() throws SQLException {
+    return getBoolean(DEFER_FIRST_WRITE, DEFAULT_DEFER_FIRST_WRITE);
+  }
+
+  boolean isLazyAutoCommitRestore() throws SQLException {
+    return getBoolean(LAZY_AUTOCOMMIT_RESTORE, DEFAULT_LAZY_AUTOCOMMIT_RESTORE);
+  }
+
+  private boolean getBoolean(String name, boolean defaultValue) throws SQLException {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (value.trim().equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (value.trim().equalsIgnoreCase("false")) {
+      return false;
+    }
+    throw new SQLException(String.format("Invalid value for %s%s: %s", PREFIX, name, value));
+  }
+
+  private int getInt(String name, int defaultValue) throws SQLException {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new SQLException(String.format("Invalid value for %s%s: %s", PREFIX, name, value), e);
+    }
+  }
+
+  private long getLong(String name, long defaultValue) throws SQLException {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new SQLException(String.format("Invalid value for %s%s: %s", PREFIX, name, value), e);
+    }
+  }
+}
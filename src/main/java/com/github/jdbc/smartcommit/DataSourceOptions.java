@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * The smart commit options of a data source, and the dialect of the database of the data source.
+ * The dialect is determined from the options, from the URL of the data source, or from the
+ * database product name of the first connection that is opened, and is then reused for all
+ * connections of the data source.
+ */
+final class DataSourceOptions {
+  private final ConnectionOptions options;
+
+  /** The URL of the underlying connections, or null if the URL is not known. */
+  private final String url;
+
+  private volatile Dialect dialect;
+
+  DataSourceOptions(Properties info) throws SQLException {
+    this(ConnectionOptions.parse("", info), null);
+  }
+
+  DataSourceOptions(ConnectionOptions options, String url) {
+    this.options = options;
+    this.url = url;
+  }
+
+  ConnectionOptions getOptions() {
+    return options;
+  }
+
+  /** Returns the dialect of the data source, using the given connection if it is not yet known. */
+  Dialect getDialect(Connection connection) throws SQLException {
+    Dialect res = dialect;
+    if (res == null) {
+      res = options.getDialect();
+      if (res == null) {
+        res = url == null
+            ? Dialect.forDatabaseProductName(connection.getMetaData().getDatabaseProductName())
+            : SmartCommitDriver.getDialect(options, url, connection);
+      }
+      dialect = res;
+    }
+    return res;
+  }
+}
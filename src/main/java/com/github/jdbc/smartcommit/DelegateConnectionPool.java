@@ -0,0 +1,254 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of physical connections for the {@link LazyDelegateConnection}s of URLs that start with
+ * 'jdbc:smartcommit:pool:'. A {@link SmartCommitConnection} only borrows a physical connection
+ * while it needs one, so a pool is typically shared by many more logical connections than it has
+ * physical connections.
+ *
+ * <p>Idle connections are kept in an array of slots that is scanned from the start, so the
+ * connections in the first slots are reused most often. The number of borrowed connections is
+ * bounded by a {@link Semaphore}. Borrowing and returning a connection only use compare-and-set
+ * operations and do not allocate any objects, as long as not all connections are borrowed. A
+ * thread only blocks if all connections are borrowed.
+ *
+ * <p>A connection that has been idle for longer than the validation interval is validated with
+ * {@link Connection#isValid(int)} before it is borrowed again, and closed if it is no longer
+ * valid. Connections that break while they are borrowed are discarded by the {@link
+ * LazyDelegateConnection} that borrowed them.
+ */
+class DelegateConnectionPool {
+  private static final Logger log = Logger.getLogger(DelegateConnectionPool.class.getName());
+
+  /** The time in seconds that the validation of an idle connection may take. */
+  static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final DelegateConnectionFactory connectionFactory;
+  private final int maxSize;
+  private final long timeoutMillis;
+  private final long validationIntervalNanos;
+
+  /** One permit for each connection that may be borrowed. */
+  private final Semaphore permits;
+
+  /** One slot for each connection of the pool. A slot is null if it has no idle connection. */
+  private final AtomicReferenceArray<Connection> idle;
+
+  /**
+   * The {@link System#nanoTime()} at which the connection in a slot was returned to the pool. The
+   * value is written before the connection is put in the slot, and is only used to decide whether
+   * a connection must be validated, so a value that is slightly off does no harm.
+   */
+  private final AtomicLongArray idleSince;
+
+  /**
+   * The default values of the connection settings of the physical connections. A value is read
+   * from a physical connection the first time that a connection changes the setting.
+   */
+  private final ConcurrentHashMap<SessionSettings.Setting, Optional<Object>> defaults =
+      new ConcurrentHashMap<>();
+
+  private volatile boolean closed;
+
+  private final LongAdder borrowCount = new LongAdder();
+  private final LongAdder createCount = new LongAdder();
+  private final LongAdder invalidCount = new LongAdder();
+
+  DelegateConnectionPool(DelegateConnectionFactory connectionFactory, int maxSize,
+      long timeoutMillis, long validationIntervalMillis) {
+    this.connectionFactory = connectionFactory;
+    this.maxSize = maxSize;
+    this.timeoutMillis = timeoutMillis;
+    this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+    this.permits = new Semaphore(maxSize);
+    this.idle = new AtomicReferenceArray<>(maxSize);
+    this.idleSince = new AtomicLongArray(maxSize);
+  }
+
+  /**
+   * Borrows a connection from the pool. A new connection is opened if there are no valid idle
+   * connections and the pool has not reached its maximum size. Otherwise this method waits until
+   * a connection is returned to the pool.
+   *
+   * @throws SQLTransientConnectionException if no connection was returned to the pool within the
+   *     timeout of the pool.
+   */
+  Connection borrow() throws SQLException {
+    acquirePermit();
+    try {
+      Connection connection = pollIdle();
+      if (connection == null) {
+        createCount.increment();
+        connection = connectionFactory.connect();
+      }
+      borrowCount.increment();
+      return connection;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void acquirePermit() throws SQLException {
+    if (closed) {
+      throw new SQLException("The connection pool has been closed");
+    }
+    if (permits.tryAcquire()) {
+      return;
+    }
+    try {
+      if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLTransientConnectionException(String.format(
+            "Timed out after %dms waiting for one of the %d connections of the pool",
+            timeoutMillis, maxSize));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection of the pool", e);
+    }
+  }
+
+  private Connection pollIdle() {
+    for (int slot = 0; slot < idle.length(); slot++) {
+      if (idle.get(slot) != null) {
+        long since = idleSince.get(slot);
+        Connection connection = idle.getAndSet(slot, null);
+        if (connection != null) {
+          if (System.nanoTime() - since < validationIntervalNanos || isValid(connection)) {
+            return connection;
+          }
+          invalidCount.increment();
+          closeQuietly(connection);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean isValid(Connection connection) {
+    try {
+      return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      log.log(Level.FINE, "Validating a pooled connection failed", e);
+      return false;
+    }
+  }
+
+  /**
+   * Returns a connection to the pool. The connection must be in autocommit mode, and may not have
+   * any open statements or session state that differs from a new connection.
+   */
+  void release(Connection connection) {
+    if (closed || !offerIdle(connection)) {
+      closeQuietly(connection);
+    }
+    permits.release();
+  }
+
+  /**
+   * Puts a connection in a free slot. Returns false if all slots are taken, which can happen if a
+   * borrow missed a connection that was returned at the same time and opened a new connection.
+   */
+  private boolean offerIdle(Connection connection) {
+    for (int slot = 0; slot < idle.length(); slot++) {
+      if (idle.get(slot) == null) {
+        idleSince.set(slot, System.nanoTime());
+        if (idle.compareAndSet(slot, null, connection)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Closes a borrowed connection that cannot be returned to the pool, for example a broken one. */
+  void discard(Connection connection) {
+    closeQuietly(connection);
+    permits.release();
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      log.log(Level.FINE, "Closing a pooled connection failed", e);
+    }
+  }
+
+  /**
+   * Returns the default value of the given setting. The value is read from the given physical
+   * connection if it is not known yet, so the physical connection must have the default value.
+   */
+  Object getDefault(SessionSettings.Setting setting, Connection connection) throws SQLException {
+    Optional<Object> res = defaults.get(setting);
+    if (res == null) {
+      res = Optional.ofNullable(setting.get(connection));
+      defaults.putIfAbsent(setting, res);
+    }
+    return res.orElse(null);
+  }
+
+  /** Returns the number of connections in the pool that are not borrowed. */
+  int getIdleCount() {
+    int res = 0;
+    for (int slot = 0; slot < idle.length(); slot++) {
+      if (idle.get(slot) != null) {
+        res++;
+      }
+    }
+    return res;
+  }
+
+  /** Returns the number of times that a connection has been borrowed from the pool. */
+  long getBorrowCount() {
+    return borrowCount.sum();
+  }
+
+  /** Returns the number of connections that have been opened by the pool. */
+  long getCreateCount() {
+    return createCount.sum();
+  }
+
+  /** Returns the number of idle connections that were closed because they were no longer valid. */
+  long getInvalidCount() {
+    return invalidCount.sum();
+  }
+
+  /** Closes all idle connections. Borrowed connections are closed when they are returned. */
+  void close() {
+    closed = true;
+    for (int slot = 0; slot < idle.length(); slot++) {
+      Connection connection = idle.getAndSet(slot, null);
+      if (connection != null) {
+        closeQuietly(connection);
+      }
+    }
+  }
+}
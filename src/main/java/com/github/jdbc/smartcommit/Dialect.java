@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * A SQL dialect determines how the {@link StatementParser} recognizes comments, quoted literals and
+ * quoted identifiers in a statement. Each dialect implements a lexer that only knows how to skip
+ * those parts of a statement, which is all that is needed to classify a statement.
+ *
+ * <p>The dialect of a connection is determined by the 'smartcommit.dialect' option, the URL of the
+ * underlying connection or the product name of the database, in that order. {@link #GENERIC} is
+ * used for all databases that are not recognized.
+ */
+abstract class Dialect {
+  /** The original dialect of the parser. This dialect is based on Google Cloud Spanner. */
+  static final Dialect GENERIC = new GenericDialect();
+  static final Dialect POSTGRESQL = new PostgreSQLDialect();
+  static final Dialect MYSQL = new MySQLDialect();
+  static final Dialect SQLSERVER = new SqlServerDialect();
+  static final Dialect ORACLE = new OracleDialect();
+  static final Dialect SPANNER = new SpannerDialect();
+
+  private static final Dialect[] DIALECTS = {GENERIC, POSTGRESQL, MYSQL, SQLSERVER, ORACLE, SPANNER};
+
+  /**
+   * Returns the dialect with the given name.
+   *
+   * @throws SQLException if there is no dialect with the given name.
+   */
+  static Dialect forName(String name) throws SQLException {
+    for (Dialect dialect : DIALECTS) {
+      if (dialect.getName().equalsIgnoreCase(name)) {
+        return dialect;
+      }
+    }
+    throw new SQLException("Unknown dialect: " + name);
+  }
+
+  /**
+   * Returns the dialect for the given database product name as returned by {@link
+   * java.sql.DatabaseMetaData#getDatabaseProductName()}, or {@link #GENERIC} if the product is not
+   * recognized.
+   */
+  static Dialect forDatabaseProductName(String productName) {
+    if (productName != null) {
+      for (Dialect dialect : DIALECTS) {
+        if (dialect.isDatabaseProduct(productName)) {
+          return dialect;
+        }
+      }
+    }
+    return GENERIC;
+  }
+
+  /** Returns the name of this dialect that can be used for the 'smartcommit.dialect' option. */
+  abstract String getName();
+
+  /** Returns true if the given database product name belongs to this dialect. */
+  abstract boolean isDatabaseProduct(String productName);
+
+  /**
+   * Returns the index of the first character after the comment that starts at the given index, or
+   * the index itself if no comment starts at the given index. The linefeed at the end of a single
+   * line comment is not considered part of the comment.
+   */
+  abstract int skipComment(String sql, int index);
+
+  /**
+   * Returns the index of the first character after the quoted literal or quoted identifier that
+   * starts at the given index, or the index itself if no quoted literal or identifier starts at the
+   * given index.
+   *
+   * @throws SQLException if the literal or identifier is not closed.
+   */
+  abstract int skipQuoted(String sql, int index) throws SQLException;
+
+  /**
+   * Returns the default rules for statements that are not recognized by the {@link
+   * StatementParser}. See {@link KeywordRules}.
+   */
+  KeywordRules getDefaultKeywordRules() {
+    return KeywordRules.DEFAULT;
+  }
+
+  /**
+   * Returns true if a quoted token that starts with the given character is a quoted identifier and
+   * not a literal.
+   */
+  boolean isIdentifierQuote(char c) {
+    return c == '"';
+  }
+
+  /**
+   * Returns the maximum number of query parameters in one statement. This is used to determine the
+   * number of rows in a rewritten batch of inserts.
+   */
+  int getMaxParameters() {
+    return 1000;
+  }
+
+  /**
+   * Returns the maximum number of rows in the VALUES clause of an INSERT statement, or 0 if the
+   * dialect does not support inserting multiple rows with one VALUES clause.
+   */
+  int getMaxInsertRows() {
+    return 1000;
+  }
+
+  /**
+   * Returns true if the given error indicates that the database aborted the transaction, and that
+   * the transaction can be retried. The default implementation accepts serialization failures and
+   * deadlocks as reported by the SQL state of the error.
+   */
+  boolean isRetryable(SQLException e) {
+    return "40001".equals(e.getSQLState()) || "40P01".equals(e.getSQLState());
+  }
+
+  /**
+   * Returns true if the given error is a transient failure of the connection to the database, for
+   * example a connection reset, after which the statement can be executed again. The default
+   * implementation accepts SQL states of class 08 (connection exception) and {@link
+   * SQLTransientConnectionException}.
+   */
+  boolean isTransient(SQLException e) {
+    return e instanceof SQLTransientConnectionException
+        || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+  }
+
+  /**
+   * Returns true if the given error means that the connection to the database is broken, so a
+   * statement can only be executed again on a new connection. The default implementation accepts
+   * SQL states of class 08 (connection exception), {@link SQLTransientConnectionException} and
+   * {@link SQLNonTransientConnectionException}.
+   */
+  boolean isConnectionError(SQLException e) {
+    return e instanceof SQLTransientConnectionException
+        || e instanceof SQLNonTransientConnectionException
+        || (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+  }
+
+  /**
+   * Returns true if the word between start and end in the given query is a table hint, a function
+   * or a statement hint of this dialect that takes locks that are held until the end of the
+   * transaction. A query that contains such a word is classified as {@link
+   * StatementParser.StatementType#LOCKING}. The default implementation does not recognize any
+   * locking hints.
+   */
+  boolean isLockingHint(String sql, int start, int end) {
+    return false;
+  }
+
+  /** Returns true if this dialect supports statement hints in the form '@{...}'. */
+  boolean supportsStatementHints() {
+    return false;
+  }
+
+  /**
+   * Removes all comments from the given statement, removes any trailing semicolon and trims the
+   * result.
+   *
+   * @throws SQLException if the statement contains an unclosed literal or identifier.
+   */
+  String removeCommentsAndTrim(String sql) throws SQLException {
+    StringBuilder res = null;
+    int copied = 0;
+    int index = 0;
+    while (index < sql.length()) {
+      int end = skipComment(sql, index);
+      if (end > index) {
+        if (res == null) {
+          res = new StringBuilder(sql.length());
+        }
+        res.append(sql, copied, index);
+        index = end;
+        copied = end;
+      } else {
+        end = skipQuoted(sql, index);
+        index = end > index ? end : index + 1;
+      }
+    }
+    String stripped = res == null ? sql : res.append(sql, copied, sql.length()).toString();
+    if (stripped.length() > 0 && stripped.charAt(stripped.length() - 1) == ';') {
+      stripped = stripped.substring(0, stripped.length() - 1);
+    }
+    return stripped.trim();
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  /** Returns true if the given character can be part of an unquoted identifier. */
+  static boolean isIdentifierChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  /** Returns true if the character before the given index can be part of an identifier. */
+  static boolean followsIdentifierChar(String sql, int index) {
+    return index > 0 && isIdentifierChar(sql.charAt(index - 1));
+  }
+
+  /** Returns true if the word between start and end is equal to the given (upper case) word. */
+  static boolean isWord(String sql, int start, int end, String word) {
+    return end - start == word.length() && sql.regionMatches(true, start, word, 0, word.length());
+  }
+
+  /** Returns true if the word between start and end starts with the given (upper case) word. */
+  static boolean startsWithWord(String sql, int start, int end, String word) {
+    return end - start >= word.length()
+        && sql.regionMatches(true, start, word, 0, word.length());
+  }
+
+  /** Returns true if the given string contains the given two characters at the given index. */
+  static boolean startsWith(String sql, int index, char c1, char c2) {
+    return index + 1 < sql.length() && sql.charAt(index) == c1 && sql.charAt(index + 1) == c2;
+  }
+
+  /** Returns the index of the linefeed at the end of a single line comment. */
+  static int skipSingleLineComment(String sql, int index) {
+    int end = sql.indexOf('\n', index);
+    return end == -1 ? sql.length() : end;
+  }
+
+  /**
+   * Returns the index of the first character after a multi line comment. An unclosed comment
+   * continues until the end of the statement.
+   */
+  static int skipMultiLineComment(String sql, int index, boolean nested) {
+    int level = 1;
+    index += 2;
+    while (index < sql.length()) {
+      if (startsWith(sql, index, '*', '/')) {
+        if (--level == 0) {
+          return index + 2;
+        }
+        index += 2;
+      } else if (nested && startsWith(sql, index, '/', '*')) {
+        level++;
+        index += 2;
+      } else {
+        index++;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first character after the literal or identifier that starts at the
+   * given index with the given quote character. Two consecutive quote characters are treated as an
+   * escaped quote. A backslash escapes the next character if backslashEscapes is true.
+   */
+  static int skipQuoted(String sql, int index, char quote, boolean backslashEscapes)
+      throws SQLException {
+    index++;
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      if (c == quote) {
+        if (index + 1 < sql.length() && sql.charAt(index + 1) == quote) {
+          index += 2;
+          continue;
+        }
+        return index + 1;
+      } else if (c == '\\' && backslashEscapes) {
+        index++;
+      }
+      index++;
+    }
+    throw unclosedLiteral(sql);
+  }
+
+  static SQLException unclosedLiteral(String sql) {
+    return new SQLException("SQL statement contains an unclosed literal: " + sql);
+  }
+}
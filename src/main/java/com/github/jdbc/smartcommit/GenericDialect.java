@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * The original dialect of the {@link StatementParser}. This dialect is based on the statement
+ * parser in the Google Cloud Spanner JDBC driver and recognizes the following:
+ *
+ * <ul>
+ * <li>Single line comments starting with '--' or '#'
+ * <li>Multi line comments between '/&#42;' and '&#42;/'
+ * <li>Literals and identifiers quoted with single quotes, double quotes or backticks
+ * <li>Triple-quoted literals that may contain linefeeds
+ * <li>Backslash escapes in quoted literals
+ * <li>Statement hints in the form '@{...}'
+ * </ul>
+ */
+class GenericDialect extends Dialect {
+  GenericDialect() {}
+
+  @Override
+  String getName() {
+    return "generic";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return false;
+  }
+
+  @Override
+  int skipComment(String sql, int index) {
+    if (sql.charAt(index) == '#' || startsWith(sql, index, '-', '-')) {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '/', '*')) {
+      return skipMultiLineComment(sql, index, false);
+    }
+    return index;
+  }
+
+  @Override
+  int skipQuoted(String sql, int index) throws SQLException {
+    char quote = sql.charAt(index);
+    if (quote != '\'' && quote != '"' && quote != '`') {
+      return index;
+    }
+    boolean tripleQuoted = index + 2 < sql.length() && sql.charAt(index + 1) == quote
+        && sql.charAt(index + 2) == quote;
+    index += tripleQuoted ? 3 : 1;
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      if (c == '\\') {
+        index++;
+      } else if (c == quote) {
+        if (!tripleQuoted) {
+          return index + 1;
+        }
+        if (index + 2 < sql.length() && sql.charAt(index + 1) == quote
+            && sql.charAt(index + 2) == quote) {
+          return index + 3;
+        }
+      } else if ((c == '\n' || c == '\r') && !tripleQuoted) {
+        throw unclosedLiteral(sql);
+      }
+      index++;
+    }
+    throw unclosedLiteral(sql);
+  }
+
+  @Override
+  boolean isIdentifierQuote(char c) {
+    return c == '`';
+  }
+
+  @Override
+  boolean supportsStatementHints() {
+    return true;
+  }
+
+  @Override
+  String removeCommentsAndTrim(String sql) throws SQLException {
+    return StatementParser.removeCommentsAndTrim(sql);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.StatementParser.StatementType;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Rules that map the leading keyword of a statement to a {@link StatementType}. The rules are only
+ * applied to statements that are not recognized by the {@link StatementParser} itself, i.e.
+ * statements that would otherwise be classified as {@link StatementType#UNKNOWN}. Each
+ * {@link Dialect} has a set of default rules. These can be overridden with the
+ * 'smartcommit.keywordRules' option, which is a comma separated list of keyword:class pairs, e.g.
+ * <code>smartcommit.keywordRules=CALL:read,COPY:write,DO:unknown</code>. The following classes
+ * are supported:
+ *
+ * <ul>
+ * <li>read: the statement only reads data and does not require a transaction
+ * <li>write: the statement modifies data and requires a transaction
+ * <li>ddl: the statement is a DDL statement
+ * <li>locking: the statement takes locks that should be held until the end of the transaction
+ * <li>session: the statement changes the state of the session and does not require a transaction
+ * <li>unknown: the statement is not classified
+ * </ul>
+ */
+class KeywordRules {
+  /** Rules that are used by all dialects, unless they are overridden by the dialect. */
+  static final KeywordRules DEFAULT = new KeywordRules(new String[][] {
+      {"SET", "session"},
+      {"RESET", "session"},
+      {"USE", "session"},
+      {"SHOW", "read"},
+      {"EXPLAIN", "read"},
+      {"DESCRIBE", "read"},
+      {"VALUES", "read"},
+      {"CALL", "write"},
+      {"UPSERT", "write"},
+      {"REPLACE", "write"}});
+
+  private final String[] keywords;
+  private final StatementType[] types;
+
+  private KeywordRules(String[][] rules) {
+    this(toMap(rules));
+  }
+
+  private KeywordRules(Map<String, StatementType> rules) {
+    this.keywords = new String[rules.size()];
+    this.types = new StatementType[rules.size()];
+    int index = 0;
+    for (Entry<String, StatementType> rule : rules.entrySet()) {
+      keywords[index] = rule.getKey();
+      types[index] = rule.getValue();
+      index++;
+    }
+  }
+
+  private static Map<String, StatementType> toMap(String[][] rules) {
+    Map<String, StatementType> res = new LinkedHashMap<>();
+    for (String[] rule : rules) {
+      try {
+        res.put(rule[0], getStatementType(rule[0], rule[1]));
+      } catch (SQLException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Returns a new set of rules that contains all the rules of this set, followed by the given
+   * rules. A rule in the given set overrides a rule for the same keyword in this set.
+   */
+  KeywordRules withRules(String[][] rules) {
+    Map<String, StatementType> res = toMap();
+    res.putAll(toMap(rules));
+    return new KeywordRules(res);
+  }
+
+  /**
+   * Returns a new set of rules that contains all the rules of this set, overridden by the rules in
+   * the given string. The string must be a comma separated list of keyword:class pairs.
+   *
+   * @throws SQLException if the given string is not a valid list of rules.
+   */
+  KeywordRules withRules(String rules) throws SQLException {
+    Map<String, StatementType> res = toMap();
+    for (String rule : rules.split(",")) {
+      if (rule.trim().isEmpty()) {
+        continue;
+      }
+      int colon = rule.indexOf(':');
+      if (colon == -1) {
+        throw new SQLException("Invalid keyword rule: " + rule);
+      }
+      String keyword = rule.substring(0, colon).trim().toUpperCase(Locale.ENGLISH);
+      if (keyword.isEmpty()) {
+        throw new SQLException("Invalid keyword rule: " + rule);
+      }
+      res.remove(keyword);
+      res.put(keyword, getStatementType(keyword, rule.substring(colon + 1).trim()));
+    }
+    return new KeywordRules(res);
+  }
+
+  private Map<String, StatementType> toMap() {
+    Map<String, StatementType> res = new LinkedHashMap<>();
+    for (int i = 0; i < keywords.length; i++) {
+      res.put(keywords[i], types[i]);
+    }
+    return res;
+  }
+
+  private static StatementType getStatementType(String keyword, String statementClass)
+      throws SQLException {
+    switch (statementClass.toLowerCase(Locale.ENGLISH)) {
+      case "read":
+        return StatementType.QUERY;
+      case "write":
+        return StatementType.UPDATE;
+      case "ddl":
+        return StatementType.DDL;
+      case "locking":
+        return StatementType.LOCKING;
+      case "session":
+        return StatementType.SESSION;
+      case "unknown":
+        return StatementType.UNKNOWN;
+      default:
+        throw new SQLException(
+            String.format("Invalid statement class for keyword %s: %s", keyword, statementClass));
+    }
+  }
+
+  /** Returns the number of rules in this set. */
+  int size() {
+    return keywords.length;
+  }
+
+  /** Returns the (upper case) keyword of the rule at the given index. */
+  String getKeyword(int index) {
+    return keywords[index];
+  }
+
+  /** Returns the {@link StatementType} of the rule at the given index. */
+  StatementType getType(int index) {
+    return types[index];
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof KeywordRules)) {
+      return false;
+    }
+    KeywordRules other = (KeywordRules) o;
+    return Arrays.equals(keywords, other.keywords) && Arrays.equals(types, other.types);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(keywords) + Arrays.hashCode(types);
+  }
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.SessionSettings.Setting;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The underlying connection of a {@link SmartCommitConnection} that opens its physical connection
+ * when it is first needed. A connection for a URL that starts with 'jdbc:smartcommit:pool:'
+ * borrows a physical connection from a {@link DelegateConnectionPool}, and a connection with the
+ * option {@link ConnectionOptions#LAZY_CONNECT} opens one with a {@link DelegateConnectionFactory}.
+ *
+ * <p>The autocommit mode and the schema, catalog, transaction isolation, read-only, holdability,
+ * type map, network timeout and client info settings of this connection are recorded until a
+ * statement, a metadata call or any other operation that needs the session requires a physical
+ * connection, and are then applied to the physical connection directly after it has been opened
+ * or borrowed. A connection that is only
+ * opened and configured and then closed again, which is common for connections that are handed
+ * out by an application server or a connection pool, therefore never connects to the database.
+ *
+ * <p>A pooled connection is returned to the pool by the {@link SmartCommitConnection} with {@link
+ * #release()} as soon as the physical connection is in autocommit mode and has no open statements.
+ * A request that only reads therefore only holds a physical connection while it is executing a
+ * statement, and a transaction holds one from its first statement until it is committed or rolled
+ * back. Physical connections in the pool are in autocommit mode and have the default session
+ * state. The recorded settings are reset when a physical connection is returned. An operation
+ * that returns an object that is bound to the physical connection, such as a LOB, pins the
+ * physical connection to this connection until it is closed. A statement that changes the state
+ * of the session also pins the physical connection, see {@link #pin()}, and the physical
+ * connection is then closed instead of returned to the pool, as its session state cannot be
+ * reset. The same applies to {@link #unwrap(Class)}, as the application can change the session
+ * through the unwrapped connection. A connection that is not pooled keeps its physical connection
+ * until it is closed.
+ *
+ * <p>A physical connection that fails with an error that indicates that it is broken is closed
+ * instead of returned to the pool, see {@link #markBroken()}.
+ */
+class LazyDelegateConnection implements Connection {
+  /** Call that reads a value from a physical connection. */
+  @FunctionalInterface
+  private interface PhysicalCall<R> {
+    R call(Connection connection) throws SQLException;
+  }
+
+  /** The pool that physical connections are borrowed from, or null if this is not pooled. */
+  private final DelegateConnectionPool pool;
+
+  /** The factory that opens the physical connection if this connection is not pooled. */
+  private final DelegateConnectionFactory factory;
+
+  /** The physical connection, or null if none has been opened or borrowed. */
+  private Connection physical;
+
+  /** True if the physical connection may not be returned to the pool before this is closed. */
+  private boolean pinned;
+
+  /** True if the session state of the physical connection has been changed and cannot be reset. */
+  private boolean sessionChanged;
+
+  /** True if the physical connection is broken and must be closed instead of reused. */
+  private boolean broken;
+
+  private boolean closed;
+
+  /** The autocommit mode of this connection, which is applied to a new physical connection. */
+  private boolean autoCommit = true;
+
+  /** The connection settings that are applied to each new physical connection. */
+  private final SessionSettings settings = new SessionSettings();
+
+  /** Creates a connection that borrows its physical connections from the given pool. */
+  LazyDelegateConnection(DelegateConnectionPool pool) {
+    this.pool = pool;
+    this.factory = null;
+  }
+
+  /** Creates a connection that opens its physical connection with the given factory. */
+  LazyDelegateConnection(DelegateConnectionFactory factory) {
+    this.pool = null;
+    this.factory = factory;
+  }
+
+  /**
+   * Returns the physical connection, and opens or borrows one if necessary. The recorded
+   * autocommit mode and settings are applied to a new physical connection before it is returned.
+   */
+  private Connection physical() throws SQLException {
+    if (physical == null) {
+      if (closed) {
+        throw new SQLException("This connection has been closed");
+      }
+      Connection connection = pool == null ? factory.connect() : pool.borrow();
+      try {
+        settings.apply(connection, pool);
+        if (!autoCommit) {
+          connection.setAutoCommit(false);
+        }
+      } catch (SQLException e) {
+        discard(connection);
+        throw e;
+      }
+      physical = connection;
+    }
+    return physical;
+  }
+
+  /** Closes a physical connection that cannot be used anymore. */
+  private void discard(Connection connection) {
+    if (pool != null) {
+      pool.discard(connection);
+      return;
+    }
+    try {
+      connection.close();
+    } catch (SQLException ignore) {
+      // The connection is not used anymore.
+    }
+  }
+
+  /** Returns a physical connection to the pool after resetting the settings of this connection. */
+  private void returnToPool(Connection connection) {
+    try {
+      settings.reset(connection, pool);
+    } catch (SQLException e) {
+      pool.discard(connection);
+      return;
+    }
+    pool.release(connection);
+  }
+
+  /**
+   * Changes a connection setting. The setting is applied directly if there is a physical
+   * connection, and otherwise to the next physical connection that is opened or borrowed.
+   */
+  private void changeSetting(Setting setting, Object value) throws SQLException {
+    if (physical != null) {
+      if (pool != null && !sessionChanged) {
+        // Make sure that the pool knows the default value before it is changed.
+        pool.getDefault(setting, physical);
+      }
+      setting.set(physical, value);
+    } else if (closed) {
+      throw new SQLException("This connection has been closed");
+    }
+    settings.put(setting, value);
+  }
+
+  /** Returns the value of a connection setting without a physical connection if possible. */
+  private Object getSetting(Setting setting) throws SQLException {
+    if (physical == null && settings.contains(setting)) {
+      return settings.get(setting);
+    }
+    return read(setting::get);
+  }
+
+  /**
+   * Reads a value from the physical connection. A physical connection that is borrowed from the
+   * pool only for the read is returned directly, as all connections in the pool have the same
+   * session state.
+   */
+  private <R> R read(PhysicalCall<R> call) throws SQLException {
+    if (physical != null || pool == null || !autoCommit) {
+      return call.call(physical());
+    }
+    try {
+      return call.call(physical());
+    } finally {
+      release();
+    }
+  }
+
+  /** Returns the physical connection and pins it to this connection. */
+  private Connection pinned() throws SQLException {
+    pinned = true;
+    return physical();
+  }
+
+  /**
+   * Pins the physical connection to this connection after a statement has changed the state of
+   * the session. The physical connection is closed when this connection is closed, as the state of
+   * the session cannot be reset.
+   */
+  void pin() {
+    pinned = true;
+    sessionChanged = true;
+  }
+
+  /**
+   * Reads a value from the metadata of the physical connection. A physical connection that is
+   * borrowed from the pool only for the read is returned directly.
+   */
+  <R> R readMetaData(SmartCommitDatabaseMetaData.MetaDataCall<R> call) throws SQLException {
+    return read(connection -> call.call(connection.getMetaData()));
+  }
+
+  /**
+   * Returns the metadata of the physical connection without pinning it, and opens or borrows a
+   * physical connection if necessary. The caller must make sure that the physical connection is
+   * released when it is no longer used.
+   */
+  DatabaseMetaData getPhysicalMetaData() throws SQLException {
+    return physical().getMetaData();
+  }
+
+  /**
+   * Marks the physical connection as broken after it failed with an error that indicates that it
+   * can no longer be used, for example a network error. A broken physical connection is closed
+   * instead of returned to the pool, and a rollback closes it instead of rolling back, as the
+   * transaction is lost with the connection.
+   */
+  void markBroken() {
+    if (physical != null) {
+      broken = true;
+    }
+  }
+
+  /**
+   * Closes the physical connection if it is broken and not pinned, so the next operation opens or
+   * borrows a new one. A pinned physical connection is kept until this connection is closed, as a
+   * new physical connection would not have its session state. The caller must ensure that the
+   * physical connection has no transaction that would be lost.
+   */
+  void discardIfBroken() {
+    if (broken && !pinned && physical != null) {
+      Connection connection = physical;
+      physical = null;
+      broken = false;
+      discard(connection);
+    }
+  }
+
+  /** Returns true if this connection currently has a physical connection. */
+  boolean hasPhysicalConnection() {
+    return physical != null;
+  }
+
+  /** Returns true if this connection is pinned to its current physical connection. */
+  boolean isPinned() {
+    return pinned;
+  }
+
+  /** Returns true if a physical connection is borrowed and it may be returned to the pool. */
+  boolean isReleasable() {
+    return pool != null && physical != null && !pinned;
+  }
+
+  /**
+   * Returns the physical connection to the pool if it is not pinned. The caller must ensure that
+   * the physical connection is in autocommit mode and has no open statements.
+   */
+  void release() {
+    if (broken) {
+      discardIfBroken();
+    } else if (isReleasable()) {
+      Connection connection = physical;
+      physical = null;
+      returnToPool(connection);
+    }
+  }
+
+  public Statement createStatement() throws SQLException {
+    return physical().createStatement();
+  }
+
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    return physical().prepareStatement(sql);
+  }
+
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    return physical().prepareCall(sql);
+  }
+
+  public String nativeSQL(String sql) throws SQLException {
+    return read(connection -> connection.nativeSQL(sql));
+  }
+
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    if (physical != null) {
+      physical.setAutoCommit(autoCommit);
+    } else if (closed) {
+      throw new SQLException("This connection has been closed");
+    }
+    this.autoCommit = autoCommit;
+  }
+
+  public boolean getAutoCommit() throws SQLException {
+    return physical == null ? autoCommit : physical.getAutoCommit();
+  }
+
+  public void commit() throws SQLException {
+    // There is no transaction to commit if no physical connection has been opened or borrowed.
+    if (physical != null) {
+      physical.commit();
+    } else if (closed) {
+      throw new SQLException("This connection has been closed");
+    }
+  }
+
+  public void rollback() throws SQLException {
+    if (broken && !pinned) {
+      // The transaction has been lost with the physical connection.
+      discardIfBroken();
+    } else if (physical != null) {
+      physical.rollback();
+    } else if (closed) {
+      throw new SQLException("This connection has been closed");
+    }
+  }
+
+  /**
+   * Closes the physical connection if this connection is not pooled, and otherwise returns it to
+   * the pool. A transaction that is still active is rolled back. A pooled physical connection is
+   * closed if its session state has been changed, if it is broken, or if it could not be reset.
+   */
+  public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    Connection connection = physical;
+    physical = null;
+    if (connection == null) {
+      return;
+    }
+    if (pool == null) {
+      connection.close();
+      return;
+    }
+    if (sessionChanged || broken) {
+      pool.discard(connection);
+      return;
+    }
+    try {
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      pool.discard(connection);
+      return;
+    }
+    returnToPool(connection);
+  }
+
+  public boolean isClosed() throws SQLException {
+    return closed;
+  }
+
+  public DatabaseMetaData getMetaData() throws SQLException {
+    // The metadata and the result sets that it returns are bound to the physical connection.
+    return pinned().getMetaData();
+  }
+
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    changeSetting(SessionSettings.READ_ONLY, readOnly);
+  }
+
+  public boolean isReadOnly() throws SQLException {
+    return (Boolean) getSetting(SessionSettings.READ_ONLY);
+  }
+
+  public void setCatalog(String catalog) throws SQLException {
+    changeSetting(SessionSettings.CATALOG, catalog);
+  }
+
+  public String getCatalog() throws SQLException {
+    return (String) getSetting(SessionSettings.CATALOG);
+  }
+
+  public void setTransactionIsolation(int level) throws SQLException {
+    changeSetting(SessionSettings.TRANSACTION_ISOLATION, level);
+  }
+
+  public int getTransactionIsolation() throws SQLException {
+    return (Integer) getSetting(SessionSettings.TRANSACTION_ISOLATION);
+  }
+
+  public SQLWarning getWarnings() throws SQLException {
+    return physical == null ? null : physical.getWarnings();
+  }
+
+  public void clearWarnings() throws SQLException {
+    if (physical != null) {
+      physical.clearWarnings();
+    }
+  }
+
+  public Statement createStatement(int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    return physical().createStatement(resultSetType, resultSetConcurrency);
+  }
+
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    return physical().prepareStatement(sql, resultSetType, resultSetConcurrency);
+  }
+
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    return physical().prepareCall(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @SuppressWarnings("unchecked")
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    return (Map<String, Class<?>>) getSetting(SessionSettings.TYPE_MAP);
+  }
+
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    changeSetting(SessionSettings.TYPE_MAP, map);
+  }
+
+  public void setHoldability(int holdability) throws SQLException {
+    changeSetting(SessionSettings.HOLDABILITY, holdability);
+  }
+
+  public int getHoldability() throws SQLException {
+    return (Integer) getSetting(SessionSettings.HOLDABILITY);
+  }
+
+  public Savepoint setSavepoint() throws SQLException {
+    return physical().setSavepoint();
+  }
+
+  public Savepoint setSavepoint(String name) throws SQLException {
+    return physical().setSavepoint(name);
+  }
+
+  public void rollback(Savepoint savepoint) throws SQLException {
+    physical().rollback(savepoint);
+  }
+
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    physical().releaseSavepoint(savepoint);
+  }
+
+  public Statement createStatement(int resultSetType, int resultSetConcurrency,
+      int resultSetHoldability) throws SQLException {
+    return physical().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+      int resultSetHoldability) throws SQLException {
+    return physical().prepareStatement(sql, resultSetType, resultSetConcurrency,
+        resultSetHoldability);
+  }
+
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+      int resultSetHoldability) throws SQLException {
+    return physical().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    return physical().prepareStatement(sql, autoGeneratedKeys);
+  }
+
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    return physical().prepareStatement(sql, columnIndexes);
+  }
+
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    return physical().prepareStatement(sql, columnNames);
+  }
+
+  public Clob createClob() throws SQLException {
+    return pinned().createClob();
+  }
+
+  public Blob createBlob() throws SQLException {
+    return pinned().createBlob();
+  }
+
+  public NClob createNClob() throws SQLException {
+    return pinned().createNClob();
+  }
+
+  public SQLXML createSQLXML() throws SQLException {
+    return pinned().createSQLXML();
+  }
+
+  public boolean isValid(int timeout) throws SQLException {
+    if (physical == null && pool == null) {
+      // Validating an unused connection should not open it.
+      return !closed;
+    }
+    return !closed && read(connection -> connection.isValid(timeout));
+  }
+
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    try {
+      changeSetting(SessionSettings.clientInfo(name), value);
+    } catch (SQLClientInfoException e) {
+      throw e;
+    } catch (SQLException e) {
+      throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+    }
+  }
+
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    try {
+      for (String name : properties.stringPropertyNames()) {
+        changeSetting(SessionSettings.clientInfo(name), properties.getProperty(name));
+      }
+    } catch (SQLClientInfoException e) {
+      throw e;
+    } catch (SQLException e) {
+      throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+    }
+  }
+
+  public String getClientInfo(String name) throws SQLException {
+    return (String) getSetting(SessionSettings.clientInfo(name));
+  }
+
+  public Properties getClientInfo() throws SQLException {
+    return read(Connection::getClientInfo);
+  }
+
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    return pinned().createArrayOf(typeName, elements);
+  }
+
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    return pinned().createStruct(typeName, attributes);
+  }
+
+  public void setSchema(String schema) throws SQLException {
+    changeSetting(SessionSettings.SCHEMA, schema);
+  }
+
+  public String getSchema() throws SQLException {
+    return (String) getSetting(SessionSettings.SCHEMA);
+  }
+
+  public void abort(Executor executor) throws SQLException {
+    closed = true;
+    Connection connection = physical;
+    physical = null;
+    if (connection != null) {
+      try {
+        connection.abort(executor);
+      } finally {
+        discard(connection);
+      }
+    }
+  }
+
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    changeSetting(SessionSettings.networkTimeout(executor), milliseconds);
+  }
+
+  public int getNetworkTimeout() throws SQLException {
+    return (Integer) getSetting(SessionSettings.networkTimeout(null));
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return (T) this;
+    }
+    // The application can use the unwrapped connection for anything, including changes to the
+    // session that cannot be reset.
+    pin();
+    return physical().unwrap(iface);
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || read(connection -> connection.isWrapperFor(iface));
+  }
+}
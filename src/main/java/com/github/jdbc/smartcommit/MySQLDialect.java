@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * Dialect for MySQL and MariaDB. This dialect recognizes the following:
+ *
+ * <ul>
+ * <li>Single line comments starting with '#' or '-- ' (the dashes must be followed by whitespace)
+ * <li>Multi line comments between '/&#42;' and '&#42;/'
+ * <li>Executable comments between '/&#42;!' and '&#42;/'. The content of these comments is treated
+ * as part of the statement, as the server will execute it.
+ * <li>Literals quoted with single or double quotes, with backslash escapes
+ * <li>Identifiers quoted with backticks
+ * </ul>
+ */
+class MySQLDialect extends Dialect {
+  private static final KeywordRules KEYWORD_RULES =
+      KeywordRules.DEFAULT.withRules(new String[][] {
+          {"DESC", "read"},
+          {"HANDLER", "read"},
+          {"LOAD", "write"}});
+
+  MySQLDialect() {}
+
+  @Override
+  String getName() {
+    return "mysql";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return productName.equals("MySQL") || productName.equals("MariaDB");
+  }
+
+  @Override
+  KeywordRules getDefaultKeywordRules() {
+    return KEYWORD_RULES;
+  }
+
+  @Override
+  int getMaxParameters() {
+    return 65535;
+  }
+
+  @Override
+  int skipComment(String sql, int index) {
+    char c = sql.charAt(index);
+    if (c == '#') {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '-', '-')
+        && (index + 2 == sql.length() || sql.charAt(index + 2) <= ' ')) {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '/', '*')) {
+      int start = index + 2;
+      if (start < sql.length() && sql.charAt(start) == 'M') {
+        // MariaDB executable comment: /*M!...*/
+        start++;
+      }
+      if (start < sql.length() && sql.charAt(start) == '!') {
+        // Skip only the start of the executable comment and the optional version number.
+        start++;
+        while (start < sql.length() && Character.isDigit(sql.charAt(start))) {
+          start++;
+        }
+        return start;
+      }
+      return skipMultiLineComment(sql, index, false);
+    }
+    if (startsWith(sql, index, '*', '/')) {
+      // This can only be the end of an executable comment.
+      return index + 2;
+    }
+    return index;
+  }
+
+  @Override
+  int skipQuoted(String sql, int index) throws SQLException {
+    char c = sql.charAt(index);
+    switch (c) {
+      case '\'':
+      case '"':
+        return skipQuoted(sql, index, c, true);
+      case '`':
+        return skipQuoted(sql, index, c, false);
+      default:
+        return index;
+    }
+  }
+
+  @Override
+  boolean isIdentifierQuote(char c) {
+    return c == '`';
+  }
+}
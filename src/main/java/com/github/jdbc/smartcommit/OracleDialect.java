@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * Dialect for Oracle. This dialect recognizes the following:
+ *
+ * <ul>
+ * <li>Single line comments starting with '--'
+ * <li>Multi line comments between '/&#42;' and '&#42;/'. This includes optimizer hints.
+ * <li>Literals quoted with single quotes, where two single quotes are an escaped quote
+ * <li>Alternative quoted literals (q'[...]', q'{...}', q'!...!' etc.)
+ * <li>Identifiers quoted with double quotes
+ * </ul>
+ */
+class OracleDialect extends Dialect {
+  private static final KeywordRules KEYWORD_RULES =
+      KeywordRules.DEFAULT.withRules(new String[][] {
+          {"DESC", "read"},
+          {"BEGIN", "write"},
+          {"DECLARE", "write"}});
+
+  OracleDialect() {}
+
+  @Override
+  String getName() {
+    return "oracle";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return productName.equals("Oracle");
+  }
+
+  @Override
+  KeywordRules getDefaultKeywordRules() {
+    return KEYWORD_RULES;
+  }
+
+  @Override
+  int getMaxInsertRows() {
+    // Oracle does not support multiple rows in a VALUES clause.
+    return 0;
+  }
+
+  /**
+   * Oracle reports deadlocks (ORA-00060) and serialization failures (ORA-08177) with SQL states
+   * that are not specific to these errors.
+   */
+  @Override
+  boolean isRetryable(SQLException e) {
+    return e.getErrorCode() == 60 || e.getErrorCode() == 8177 || super.isRetryable(e);
+  }
+
+  @Override
+  int skipComment(String sql, int index) {
+    if (startsWith(sql, index, '-', '-')) {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '/', '*')) {
+      return skipMultiLineComment(sql, index, false);
+    }
+    return index;
+  }
+
+  @Override
+  int skipQuoted(String sql, int index) throws SQLException {
+    char c = sql.charAt(index);
+    switch (c) {
+      case '\'':
+      case '"':
+        return skipQuoted(sql, index, c, false);
+      case 'q':
+      case 'Q':
+        return skipAlternativeQuoted(sql, index);
+      default:
+        return index;
+    }
+  }
+
+  private static int skipAlternativeQuoted(String sql, int index) throws SQLException {
+    // q'<delimiter>...<closing delimiter>', optionally prefixed with N for national literals.
+    int prefixStart = index;
+    if (index > 0 && (sql.charAt(index - 1) == 'n' || sql.charAt(index - 1) == 'N')) {
+      prefixStart--;
+    }
+    if (followsIdentifierChar(sql, prefixStart) || index + 2 >= sql.length()
+        || sql.charAt(index + 1) != '\'') {
+      return index;
+    }
+    char delimiter = sql.charAt(index + 2);
+    char closing;
+    switch (delimiter) {
+      case '[':
+        closing = ']';
+        break;
+      case '{':
+        closing = '}';
+        break;
+      case '(':
+        closing = ')';
+        break;
+      case '<':
+        closing = '>';
+        break;
+      default:
+        closing = delimiter;
+    }
+    for (int end = index + 3; end + 1 < sql.length(); end++) {
+      if (sql.charAt(end) == closing && sql.charAt(end + 1) == '\'') {
+        return end + 2;
+      }
+    }
+    throw unclosedLiteral(sql);
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes large batches in autocommit mode in parallel on a number of additional connections to
+ * the same database. The batch is split into one contiguous range of rows per connection. The
+ * update counts of the ranges are merged back in the order of the rows in the batch.
+ *
+ * <p>The additional connections are opened when they are first needed, and are closed when no batch
+ * has been executed for the idle timeout, or when the {@link SmartCommitConnection} is closed. A
+ * connection that is kept open by an external pool therefore does not hold on to its additional
+ * connections. The ranges are executed by threads that are shared by all executors, and that are
+ * stopped when they are idle. The additional connections do not share any session state with the
+ * underlying connection of the {@link SmartCommitConnection}, and each range is committed
+ * independently of the other ranges.
+ */
+class ParallelBatchExecutor {
+  private static final Logger log = Logger.getLogger(ParallelBatchExecutor.class.getName());
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  /** Executes the ranges of all executors. Threads are stopped after one minute without work. */
+  private static final ExecutorService RANGE_THREADS = Executors.newCachedThreadPool(
+      runnable -> daemon(runnable, "smartcommit-parallel-batch-" + THREAD_COUNT.incrementAndGet()));
+
+  /** Closes the additional connections of executors that have been idle for too long. */
+  private static final ScheduledExecutorService IDLE_CLOSER =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> daemon(runnable, "smartcommit-parallel-batch-closer"));
+
+  private static Thread daemon(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Executes a range of rows of a batch on the given connection. */
+  @FunctionalInterface
+  interface RowRangeExecutor {
+    /**
+     * Executes the rows from <code>fromRow</code> (inclusive) to <code>toRow</code> (exclusive) and
+     * returns their update counts.
+     */
+    long[] execute(Connection connection, int fromRow, int toRow) throws SQLException;
+  }
+
+  private final DelegateConnectionFactory connectionFactory;
+  private final int maxConnections;
+  private final int minRows;
+  private final long idleTimeoutMillis;
+
+  private final List<Connection> connections = new ArrayList<>();
+
+  /** Incremented for each batch, so an idle close that was scheduled before is skipped. */
+  private long batchCount;
+
+  /** The scheduled close of the additional connections, or null if none is scheduled. */
+  private ScheduledFuture<?> idleClose;
+
+  ParallelBatchExecutor(DelegateConnectionFactory connectionFactory, int maxConnections,
+      int minRows, long idleTimeoutMillis) {
+    this.connectionFactory = connectionFactory;
+    this.maxConnections = maxConnections;
+    this.minRows = minRows;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /** Returns true if a batch with the given number of rows should be executed in parallel. */
+  boolean isParallel(int rows) {
+    return rows > 1 && rows >= minRows;
+  }
+
+  /**
+   * Executes a batch with the given number of rows in parallel and returns the update counts of all
+   * rows.
+   *
+   * @throws BatchUpdateException if one or more of the ranges fail. The exception contains an
+   *     update count for each row in the batch, which is {@link Statement#EXECUTE_FAILED} for the
+   *     rows of a range that were not executed because of the failure. The failures of the other
+   *     ranges are added as suppressed exceptions.
+   */
+  synchronized long[] execute(int rows, RowRangeExecutor rangeExecutor) throws SQLException {
+    batchCount++;
+    if (idleClose != null) {
+      idleClose.cancel(false);
+      idleClose = null;
+    }
+    try {
+      return executeRanges(rows, rangeExecutor);
+    } finally {
+      scheduleIdleClose();
+    }
+  }
+
+  private long[] executeRanges(int rows, RowRangeExecutor rangeExecutor) throws SQLException {
+    int ranges = Math.min(maxConnections, rows);
+    openConnections(ranges);
+    log.log(Level.FINE, "Executing batch of {0} rows on {1} connections",
+        new Object[] {rows, ranges});
+    List<Future<long[]>> futures = new ArrayList<>(ranges);
+    int[] starts = new int[ranges + 1];
+    for (int range = 0; range < ranges; range++) {
+      starts[range] = (int) ((long) rows * range / ranges);
+    }
+    starts[ranges] = rows;
+    for (int range = 0; range < ranges; range++) {
+      Connection connection = connections.get(range);
+      int fromRow = starts[range];
+      int toRow = starts[range + 1];
+      futures.add(RANGE_THREADS.submit(() -> rangeExecutor.execute(connection, fromRow, toRow)));
+    }
+    long[] res = new long[rows];
+    SQLException failure = null;
+    for (int range = 0; range < ranges; range++) {
+      int fromRow = starts[range];
+      int toRow = starts[range + 1];
+      int executed = 0;
+      try {
+        long[] updateCounts = get(futures.get(range));
+        executed = Math.min(updateCounts.length, toRow - fromRow);
+        System.arraycopy(updateCounts, 0, res, fromRow, executed);
+      } catch (SQLException e) {
+        if (e instanceof BatchUpdateException
+            && ((BatchUpdateException) e).getLargeUpdateCounts() != null) {
+          long[] updateCounts = ((BatchUpdateException) e).getLargeUpdateCounts();
+          executed = Math.min(updateCounts.length, toRow - fromRow);
+          System.arraycopy(updateCounts, 0, res, fromRow, executed);
+        }
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+      for (int row = fromRow + executed; row < toRow; row++) {
+        res[row] = Statement.EXECUTE_FAILED;
+      }
+    }
+    if (failure != null) {
+      BatchUpdateException exception = new BatchUpdateException(failure.getMessage(),
+          failure.getSQLState(), failure.getErrorCode(), res, failure);
+      for (Throwable suppressed : failure.getSuppressed()) {
+        exception.addSuppressed(suppressed);
+      }
+      throw exception;
+    }
+    return res;
+  }
+
+  private static long[] get(Future<long[]> future) throws SQLException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new SQLException("Interrupted while waiting for parallel batch", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw new SQLException("Parallel batch failed: " + e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private void openConnections(int count) throws SQLException {
+    while (connections.size() < count) {
+      connections.add(connectionFactory.connect());
+    }
+  }
+
+  private void scheduleIdleClose() {
+    if (connections.isEmpty()) {
+      return;
+    }
+    if (idleTimeoutMillis == 0L) {
+      closeIdle(batchCount);
+      return;
+    }
+    long scheduledAfter = batchCount;
+    idleClose = IDLE_CLOSER.schedule(() -> closeIdle(scheduledAfter), idleTimeoutMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Closes the additional connections if no batch has been executed since the given batch. */
+  private synchronized void closeIdle(long scheduledAfter) {
+    if (batchCount != scheduledAfter) {
+      return;
+    }
+    idleClose = null;
+    log.log(Level.FINE, "Closing {0} idle parallel batch connections", connections.size());
+    try {
+      closeConnections();
+    } catch (SQLException e) {
+      log.log(Level.FINE, "Closing idle parallel batch connections failed", e);
+    }
+  }
+
+  /** Returns the number of additional connections that are currently open. */
+  synchronized int getConnectionCount() {
+    return connections.size();
+  }
+
+  /** Closes the additional connections of this executor. */
+  synchronized void close() throws SQLException {
+    if (idleClose != null) {
+      idleClose.cancel(false);
+      idleClose = null;
+    }
+    closeConnections();
+  }
+
+  private void closeConnections() throws SQLException {
+    SQLException failure = null;
+    for (Connection connection : connections) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    connections.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
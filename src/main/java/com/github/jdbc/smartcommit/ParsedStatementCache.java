@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of {@link ParsedStatement}s keyed by the SQL string. Applications and
+ * ORMs normally execute the same (limited) set of SQL strings over and over again, which means that
+ * a cache hit only costs a single hash lookup instead of parsing the statement.
+ *
+ * <p>The cache is bounded both by the number of entries and by the total length of the SQL strings
+ * in the cache (the weight). Entries are evicted using a second-chance (clock) algorithm: Entries
+ * are evicted in insertion order, unless they have been used since the last time the eviction
+ * algorithm passed them.
+ */
+class ParsedStatementCache {
+  private static final class Entry {
+    private final ParsedStatement statement;
+    private volatile boolean referenced;
+
+    private Entry(ParsedStatement statement) {
+      this.statement = statement;
+    }
+  }
+
+  private final StatementParser parser;
+  private final int maximumSize;
+  private final long maximumWeight;
+  private final ConcurrentHashMap<String, Entry> entries;
+  private final ConcurrentLinkedQueue<String> evictionQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+
+  ParsedStatementCache(StatementParser parser, int maximumSize, long maximumWeight) {
+    this.parser = parser;
+    this.maximumSize = maximumSize;
+    this.maximumWeight = maximumWeight;
+    this.entries = new ConcurrentHashMap<>(Math.min(maximumSize, 1024));
+  }
+
+  /**
+   * Returns the {@link ParsedStatement} for the given sql string. The statement is classified and
+   * added to the cache if it is not already in the cache.
+   */
+  ParsedStatement parse(String sql) {
+    if (maximumSize == 0) {
+      return parser.classify(sql);
+    }
+    Entry entry = entries.get(sql);
+    if (entry != null) {
+      hitCount.increment();
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      return entry.statement;
+    }
+    missCount.increment();
+    ParsedStatement statement = parser.classify(sql);
+    if (sql.length() <= maximumWeight && entries.putIfAbsent(sql, new Entry(statement)) == null) {
+      evictionQueue.add(sql);
+      weight.addAndGet(sql.length());
+      evictIfNecessary();
+    }
+    return statement;
+  }
+
+  private void evictIfNecessary() {
+    // Limit the number of second chances that are given in one pass, so concurrent cache hits
+    // cannot keep this loop going forever.
+    int secondChances = 0;
+    while (entries.size() > maximumSize || weight.get() > maximumWeight) {
+      String sql = evictionQueue.poll();
+      if (sql == null) {
+        return;
+      }
+      Entry entry = entries.get(sql);
+      if (entry == null) {
+        continue;
+      }
+      if (entry.referenced && secondChances++ < maximumSize) {
+        // Give the entry a second chance.
+        entry.referenced = false;
+        evictionQueue.add(sql);
+      } else if (entries.remove(sql, entry)) {
+        weight.addAndGet(-sql.length());
+        evictionCount.increment();
+      }
+    }
+  }
+
+  /** Removes all entries from the cache. The statistics of the cache are not reset. */
+  void clear() {
+    String sql;
+    while ((sql = evictionQueue.poll()) != null) {
+      if (entries.remove(sql) != null) {
+        weight.addAndGet(-sql.length());
+      }
+    }
+  }
+
+  StatementParser getParser() {
+    return parser;
+  }
+
+  Dialect getDialect() {
+    return parser.getDialect();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getWeight() {
+    return weight.get();
+  }
+
+  int getMaximumSize() {
+    return maximumSize;
+  }
+
+  long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  long getHitCount() {
+    return hitCount.sum();
+  }
+
+  long getMissCount() {
+    return missCount.sum();
+  }
+
+  long getEvictionCount() {
+    return evictionCount.sum();
+  }
+}
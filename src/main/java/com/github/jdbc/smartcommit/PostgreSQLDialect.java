@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * Dialect for PostgreSQL. This dialect recognizes the following:
+ *
+ * <ul>
+ * <li>Single line comments starting with '--'
+ * <li>Nested multi line comments between '/&#42;' and '&#42;/'
+ * <li>Literals quoted with single quotes, where two single quotes are an escaped quote
+ * <li>Escape string literals (E'...') that may contain backslash escapes
+ * <li>Identifiers quoted with double quotes
+ * <li>Dollar-quoted literals ($$...$$ and $tag$...$tag$)
+ * </ul>
+ *
+ * Note that '#' is an operator in PostgreSQL and does not start a comment.
+ */
+class PostgreSQLDialect extends Dialect {
+  private static final KeywordRules KEYWORD_RULES =
+      KeywordRules.DEFAULT.withRules(new String[][] {
+          {"TABLE", "read"},
+          {"COPY", "write"},
+          {"DO", "write"},
+          {"DISCARD", "session"},
+          {"LISTEN", "session"},
+          {"UNLISTEN", "session"}});
+
+  PostgreSQLDialect() {}
+
+  @Override
+  String getName() {
+    return "postgresql";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return productName.equals("PostgreSQL");
+  }
+
+  @Override
+  KeywordRules getDefaultKeywordRules() {
+    return KEYWORD_RULES;
+  }
+
+  @Override
+  int getMaxParameters() {
+    // The number of parameters is sent as a 16-bit integer in the Bind message.
+    return 32767;
+  }
+
+  /** Transaction-level advisory locks are held until the end of the transaction. */
+  @Override
+  boolean isLockingHint(String sql, int start, int end) {
+    return startsWithWord(sql, start, end, "PG_ADVISORY_XACT_LOCK")
+        || startsWithWord(sql, start, end, "PG_TRY_ADVISORY_XACT_LOCK");
+  }
+
+  @Override
+  int skipComment(String sql, int index) {
+    if (startsWith(sql, index, '-', '-')) {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '/', '*')) {
+      return skipMultiLineComment(sql, index, true);
+    }
+    return index;
+  }
+
+  @Override
+  int skipQuoted(String sql, int index) throws SQLException {
+    char c = sql.charAt(index);
+    switch (c) {
+      case '\'':
+        return skipQuoted(sql, index, '\'', false);
+      case '"':
+        return skipQuoted(sql, index, '"', false);
+      case 'E':
+      case 'e':
+        if (index + 1 < sql.length() && sql.charAt(index + 1) == '\''
+            && !followsIdentifierChar(sql, index)) {
+          return skipQuoted(sql, index + 1, '\'', true);
+        }
+        return index;
+      case '$':
+        return skipDollarQuoted(sql, index);
+      default:
+        return index;
+    }
+  }
+
+  private static int skipDollarQuoted(String sql, int index) throws SQLException {
+    // A dollar sign can also be part of an identifier or a positional parameter ($1).
+    if (followsIdentifierChar(sql, index)) {
+      return index;
+    }
+    int tagEnd = index + 1;
+    if (tagEnd < sql.length() && Character.isDigit(sql.charAt(tagEnd))) {
+      return index;
+    }
+    while (tagEnd < sql.length() && sql.charAt(tagEnd) != '$') {
+      char c = sql.charAt(tagEnd);
+      if (!(Character.isLetterOrDigit(c) || c == '_')) {
+        return index;
+      }
+      tagEnd++;
+    }
+    if (tagEnd == sql.length()) {
+      return index;
+    }
+    String tag = sql.substring(index, tagEnd + 1);
+    int end = sql.indexOf(tag, tagEnd + 1);
+    if (end == -1) {
+      throw unclosedLiteral(sql);
+    }
+    return end + tag.length();
+  }
+}
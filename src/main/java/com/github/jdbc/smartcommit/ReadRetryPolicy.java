@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retries queries that are executed in autocommit mode when they fail with a transient error, such
+ * as a connection reset. A query in autocommit mode is a standalone read without any side effects,
+ * so it can be executed again without affecting the application.
+ *
+ * <p>An error that breaks the connection is only retried if the query can be prepared again on a
+ * new connection, see {@link Reconnect}. Other transient errors leave the connection usable, and
+ * the query is executed again on the same connection.
+ *
+ * <p>The number of retries is limited per query, and by a retry budget for the connection. Each
+ * retry takes one token from the budget, and each successful query returns a fraction of a token,
+ * up to the maximum size of the budget. A database that is down therefore does not cause every
+ * query to be retried the maximum number of times.
+ */
+class ReadRetryPolicy {
+  private static final Logger log = Logger.getLogger(ReadRetryPolicy.class.getName());
+
+  /** Replaces a broken connection and prepares the query again before it is retried. */
+  @FunctionalInterface
+  interface Reconnect {
+    /**
+     * Closes the connection that broke with the given error, and prepares the query again on a
+     * new connection. Throws an exception if that is not possible.
+     */
+    void reconnect(SQLException error) throws SQLException;
+  }
+
+  /** The maximum number of tokens in the retry budget. */
+  static final double MAX_TOKENS = 10d;
+
+  /** The number of tokens that is returned to the budget by a successful query. */
+  static final double TOKENS_PER_SUCCESS = 0.1d;
+
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private double tokens = MAX_TOKENS;
+
+  private final LongAdder retryCount = new LongAdder();
+
+  /**
+   * Returns a {@link ReadRetryPolicy} with the given number of retries per query, or null if the
+   * number is 0 and queries should not be retried.
+   */
+  static ReadRetryPolicy create(int maxRetries, long initialBackoffMillis) {
+    if (maxRetries <= 0) {
+      return null;
+    }
+    return new ReadRetryPolicy(maxRetries, initialBackoffMillis);
+  }
+
+  private ReadRetryPolicy(int maxRetries, long initialBackoffMillis) {
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  /**
+   * Executes the given query, and executes it again if it fails with an error that the given
+   * dialect classifies as transient. An error that breaks the connection is only retried after the
+   * given {@link Reconnect} has replaced the connection, and is not retried if reconnect is null.
+   * The last error is thrown if all attempts fail, with the errors of the earlier attempts added as
+   * suppressed exceptions.
+   */
+  <R> R execute(SqlCall<R> query, Dialect dialect, Reconnect reconnect) throws SQLException {
+    int attempt = 0;
+    SQLException previous = null;
+    while (true) {
+      try {
+        R res = query.call();
+        tokens = Math.min(MAX_TOKENS, tokens + TOKENS_PER_SUCCESS);
+        return res;
+      } catch (SQLException e) {
+        if (previous != null) {
+          e.addSuppressed(previous);
+        }
+        boolean connectionError = isConnectionError(e, dialect);
+        if (attempt >= maxRetries || !isTransient(e, dialect) || tokens < 1d
+            || (connectionError && reconnect == null)) {
+          throw e;
+        }
+        tokens--;
+        attempt++;
+        retryCount.increment();
+        log.log(Level.FINE, "Retrying query after transient error, attempt {0}", attempt);
+        Backoff.sleep(initialBackoffMillis, attempt, e);
+        if (connectionError) {
+          try {
+            reconnect.reconnect(e);
+          } catch (SQLException reconnectError) {
+            if (reconnectError != e) {
+              e.addSuppressed(reconnectError);
+            }
+            throw e;
+          }
+        }
+        previous = e;
+      }
+    }
+  }
+
+  /** Returns true if the given error or any of its causes is transient. */
+  static boolean isTransient(SQLException error, Dialect dialect) {
+    Throwable cause = error;
+    while (cause != null) {
+      if (cause instanceof SQLException && dialect.isTransient((SQLException) cause)) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /** Returns true if the given error or any of its causes means that the connection is broken. */
+  static boolean isConnectionError(SQLException error, Dialect dialect) {
+    Throwable cause = error;
+    while (cause != null) {
+      if (cause instanceof SQLException && dialect.isConnectionError((SQLException) cause)) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /** Returns the number of times that a query has been retried. */
+  long getRetryCount() {
+    return retryCount.sum();
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection settings that have been changed on a {@link LazyDelegateConnection}. The
+ * settings are applied to each physical connection that is opened or borrowed from the pool, and a
+ * pooled physical connection is reset to the default values of the pool before it is returned.
+ * Changing one of these settings therefore does not pin the physical connection to the connection.
+ */
+class SessionSettings {
+  /** A connection setting that can be read and changed through the JDBC API. */
+  abstract static class Setting {
+    private final String key;
+
+    Setting(String key) {
+      this.key = key;
+    }
+
+    abstract Object get(Connection connection) throws SQLException;
+
+    abstract void set(Connection connection, Object value) throws SQLException;
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Setting && ((Setting) o).key.equals(key);
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return key;
+    }
+  }
+
+  static final Setting SCHEMA = new Setting("schema") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.getSchema();
+    }
+
+    @Override
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setSchema((String) value);
+    }
+  };
+
+  static final Setting CATALOG = new Setting("catalog") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.getCatalog();
+    }
+
+    @Override
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setCatalog((String) value);
+    }
+  };
+
+  static final Setting TRANSACTION_ISOLATION = new Setting("transactionIsolation") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.getTransactionIsolation();
+    }
+
+    @Override
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setTransactionIsolation((Integer) value);
+    }
+  };
+
+  static final Setting READ_ONLY = new Setting("readOnly") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.isReadOnly();
+    }
+
+    @Override
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setReadOnly((Boolean) value);
+    }
+  };
+
+  static final Setting HOLDABILITY = new Setting("holdability") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.getHoldability();
+    }
+
+    @Override
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setHoldability((Integer) value);
+    }
+  };
+
+  static final Setting TYPE_MAP = new Setting("typeMap") {
+    @Override
+    Object get(Connection connection) throws SQLException {
+      return connection.getTypeMap();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void set(Connection connection, Object value) throws SQLException {
+      connection.setTypeMap((Map<String, Class<?>>) value);
+    }
+  };
+
+  /**
+   * Returns the network timeout setting that is changed with the given executor. The executor is
+   * also used to reset the network timeout of a pooled physical connection.
+   */
+  static Setting networkTimeout(Executor executor) {
+    return new Setting("networkTimeout") {
+      @Override
+      Object get(Connection connection) throws SQLException {
+        return connection.getNetworkTimeout();
+      }
+
+      @Override
+      void set(Connection connection, Object value) throws SQLException {
+        connection.setNetworkTimeout(executor, (Integer) value);
+      }
+    };
+  }
+
+  /** Returns the setting for the client info property with the given name. */
+  static Setting clientInfo(String name) {
+    return new Setting("clientInfo." + name) {
+      @Override
+      Object get(Connection connection) throws SQLException {
+        return connection.getClientInfo(name);
+      }
+
+      @Override
+      void set(Connection connection, Object value) throws SQLException {
+        connection.setClientInfo(name, (String) value);
+      }
+    };
+  }
+
+  private final Map<Setting, Object> values = new LinkedHashMap<>();
+
+  boolean contains(Setting setting) {
+    return values.containsKey(setting);
+  }
+
+  Object get(Setting setting) {
+    return values.get(setting);
+  }
+
+  void put(Setting setting, Object value) {
+    // Replace the key as well, so that the network timeout is reset with the latest executor.
+    values.remove(setting);
+    values.put(setting, value);
+  }
+
+  /**
+   * Applies all settings to the given physical connection. The default value of each setting is
+   * read from the physical connection first if the pool does not know it yet, so that settings
+   * that have their default value are skipped. All settings are applied to a connection that is
+   * not pooled, in which case the pool is null.
+   */
+  void apply(Connection connection, DelegateConnectionPool pool) throws SQLException {
+    for (Entry<Setting, Object> entry : values.entrySet()) {
+      if (pool == null) {
+        entry.getKey().set(connection, entry.getValue());
+        continue;
+      }
+      Object defaultValue = pool.getDefault(entry.getKey(), connection);
+      if (!Objects.equals(defaultValue, entry.getValue())) {
+        entry.getKey().set(connection, entry.getValue());
+      }
+    }
+  }
+
+  /** Resets all settings on the given physical connection to the default values of the pool. */
+  void reset(Connection connection, DelegateConnectionPool pool) throws SQLException {
+    for (Entry<Setting, Object> entry : values.entrySet()) {
+      Object defaultValue = pool.getDefault(entry.getKey(), connection);
+      if (!Objects.equals(defaultValue, entry.getValue())) {
+        entry.getKey().set(connection, defaultValue);
+      }
+    }
+  }
+}
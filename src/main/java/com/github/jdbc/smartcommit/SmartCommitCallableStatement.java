@@ -14,6 +14,7 @@
 
 package com.github.jdbc.smartcommit;
 
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
@@ -36,8 +37,15 @@ import java.util.Map;
 
 class SmartCommitCallableStatement<T extends CallableStatement>
     extends SmartCommitPreparedStatement<T> implements CallableStatement {
-  SmartCommitCallableStatement(SmartCommitConnection connection, T delegate, String sql) {
-    super(connection, delegate, sql);
+  SmartCommitCallableStatement(SmartCommitConnection connection, T delegate,
+      ParsedStatement parsedStatement) {
+    super(connection, delegate, parsedStatement);
+  }
+
+  @Override
+  boolean canBufferWrite() {
+    // Callable statements can have out parameters that must be available after execution.
+    return false;
   }
 
   public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
@@ -14,6 +14,11 @@
 
 package com.github.jdbc.smartcommit;
 
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import com.github.jdbc.smartcommit.StatementParser.StatementType;
+import com.github.jdbc.smartcommit.TransactionRecorder.Execution;
+import com.github.jdbc.smartcommit.TransactionRecorder.QueryExecution;
+import com.github.jdbc.smartcommit.TransactionRecorder.UpdateExecution;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.CallableStatement;
@@ -22,6 +27,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
@@ -29,9 +35,15 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,9 +64,577 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
    */
   private boolean autoCommit;
 
+  /**
+   * The autocommit state of the underlying connection. The state is tracked by this connection, so
+   * that it is not necessary to call {@link Connection#getAutoCommit()} on the underlying connection
+   * for every statement.
+   */
+  private boolean delegateAutoCommit;
+
+  /**
+   * Set when the underlying connection may have changed its autocommit state without this
+   * connection knowing it, for example because a SET statement has been executed. The state is
+   * read from the underlying connection the next time it is needed.
+   */
+  private boolean delegateAutoCommitUnknown;
+
+  /** Restore autocommit on the underlying connection lazily after a commit or rollback. */
+  private final boolean lazyAutoCommitRestore;
+
+  /**
+   * Set when autocommit should be restored on the underlying connection after a commit or
+   * rollback, but this has not yet been done. The underlying connection is then not in autocommit
+   * mode, but has no active transaction either. Autocommit is restored before the next statement
+   * that does not require a transaction. It is not restored if the next statement requires a
+   * transaction.
+   */
+  private boolean autoCommitRestorePending;
+
+  /* Counters for the number of calls to the underlying connection for transaction handling. */
+  private final LongAdder getAutoCommitCount = new LongAdder();
+  private final LongAdder setAutoCommitCount = new LongAdder();
+  private final LongAdder commitCount = new LongAdder();
+  private final LongAdder rollbackCount = new LongAdder();
+  private final LongAdder skippedAutoCommitRestoreCount = new LongAdder();
+
+  /**
+   * The maximum number of distinct leading keywords of unknown statements that are counted per
+   * connection. Unknown statements with any other leading keyword are counted as {@link
+   * #OTHER_UNKNOWN_KEYWORDS}.
+   */
+  static final int MAX_UNKNOWN_KEYWORDS = 100;
+
+  static final String OTHER_UNKNOWN_KEYWORDS = "<other>";
+
+  /**
+   * The parse caches that are shared by all connections with the same dialect, keyword rules and
+   * cache options. A pooled or lazy connection typically only lives for one request, and would
+   * otherwise always start with an empty cache.
+   */
+  private static final ConcurrentHashMap<List<Object>, ParsedStatementCache> SHARED_PARSE_CACHES =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Buffer for DML statements in transactions. Only used if write-behind is enabled or if the
+   * first write of a transaction is deferred.
+   */
+  private final WriteBehindBuffer writeBehindBuffer;
+
+  /**
+   * Defer the first write of a transaction, so that a transaction that consists of only one write
+   * can be executed as a single statement in autocommit.
+   */
+  private final boolean deferFirstWrite;
+
+  private final LongAdder singleWriteCommitCount = new LongAdder();
+
+  /** Rewrite batches of single-row inserts to multi-row inserts. */
+  private final boolean rewriteBatchedInserts;
+
+  private final LongAdder rewrittenBatchCount = new LongAdder();
+  private final LongAdder rewrittenRowCount = new LongAdder();
+
+  /** Thresholds for flushing the batch of a prepared statement in chunks. 0 means unlimited. */
+  private final int batchFlushRows;
+
+  private final long batchFlushBytes;
+
+  private final LongAdder batchFlushCount = new LongAdder();
+  private final LongAdder batchFlushRowCount = new LongAdder();
+
+  /**
+   * Executes large batches in autocommit mode in parallel on additional connections. Null if
+   * parallel batches are disabled, or if the connection cannot open additional connections.
+   */
+  private final ParallelBatchExecutor parallelBatchExecutor;
+
+  private final LongAdder parallelBatchCount = new LongAdder();
+  private final LongAdder parallelBatchRowCount = new LongAdder();
+
+  /** Records the transactions that are started by smart commit, so that they can be replayed. */
+  private final TransactionRecorder transactionRecorder;
+
+  /** Retries queries in autocommit mode after transient errors. Null if reads are not retried. */
+  private final ReadRetryPolicy readRetryPolicy;
+
+  /** Cache of parsed statements for this connection. */
+  private final ParsedStatementCache parsedStatements;
+
+  /** The number of times each leading keyword of an unknown statement has been seen. */
+  private final ConcurrentHashMap<String, LongAdder> unknownKeywords = new ConcurrentHashMap<>();
+
+  /**
+   * The underlying connection if it opens or borrows its physical connection lazily, and otherwise
+   * null.
+   */
+  private final LazyDelegateConnection lazyDelegate;
+
+  /** The number of statements of this connection that have not been closed. */
+  private int openStatements;
+
   SmartCommitConnection(Connection delegate) throws SQLException {
+    this(delegate, ConnectionOptions.DEFAULT);
+  }
+
+  SmartCommitConnection(Connection delegate, ConnectionOptions options) throws SQLException {
+    this(delegate, options, Dialect.GENERIC);
+  }
+
+  SmartCommitConnection(Connection delegate, ConnectionOptions options, Dialect dialect)
+      throws SQLException {
+    this(delegate, options, dialect, null);
+  }
+
+  /**
+   * Creates a connection that can open additional connections to the same database with the given
+   * factory. These are used to execute batches in parallel.
+   */
+  SmartCommitConnection(Connection delegate, ConnectionOptions options, Dialect dialect,
+      DelegateConnectionFactory connectionFactory) throws SQLException {
+    this(delegate, options, getSharedParseCache(options, dialect), connectionFactory);
+  }
+
+  /**
+   * Creates a connection that uses the given parse cache. The cache is thread-safe and can be
+   * shared with other connections that use the same dialect and parser options.
+   */
+  SmartCommitConnection(Connection delegate, ConnectionOptions options,
+      ParsedStatementCache parsedStatements, DelegateConnectionFactory connectionFactory)
+      throws SQLException {
     super(delegate);
     this.autoCommit = delegate.getAutoCommit();
+    this.delegateAutoCommit = this.autoCommit;
+    this.lazyAutoCommitRestore = options.isLazyAutoCommitRestore();
+    this.writeBehindBuffer = new WriteBehindBuffer(delegate, options.getWriteBehindBufferSize());
+    this.deferFirstWrite = options.isDeferFirstWrite();
+    this.rewriteBatchedInserts = options.isRewriteBatchedInserts();
+    this.batchFlushRows = options.getBatchFlushRows();
+    this.batchFlushBytes = options.getBatchFlushBytes();
+    this.parallelBatchExecutor =
+        connectionFactory == null || options.getParallelBatchConnections() == 0
+            ? null
+            : new ParallelBatchExecutor(connectionFactory, options.getParallelBatchConnections(),
+                options.getParallelBatchMinRows(), options.getParallelBatchIdleTimeout());
+    this.transactionRecorder = new TransactionRecorder(options.getMaxTransactionRetries(),
+        options.getTransactionRetryBackoff());
+    this.readRetryPolicy =
+        ReadRetryPolicy.create(options.getMaxReadRetries(), options.getReadRetryBackoff());
+    this.parsedStatements = parsedStatements;
+    this.lazyDelegate =
+        delegate instanceof LazyDelegateConnection ? (LazyDelegateConnection) delegate : null;
+  }
+
+  /**
+   * Returns the parse cache that is shared by all connections with the given dialect and the same
+   * parser and cache options.
+   */
+  static ParsedStatementCache getSharedParseCache(ConnectionOptions options, Dialect dialect)
+      throws SQLException {
+    List<Object> key = Arrays.asList(dialect, options.getKeywordRules(dialect),
+        options.getParseCacheSize(), options.getParseCacheMaxWeight());
+    ParsedStatementCache cache = SHARED_PARSE_CACHES.get(key);
+    if (cache == null) {
+      cache = createParseCache(options, dialect);
+      ParsedStatementCache existing = SHARED_PARSE_CACHES.putIfAbsent(key, cache);
+      if (existing != null) {
+        cache = existing;
+      }
+    }
+    return cache;
+  }
+
+  /** Creates a parse cache for a connection with the given options and dialect. */
+  private static ParsedStatementCache createParseCache(ConnectionOptions options, Dialect dialect)
+      throws SQLException {
+    return new ParsedStatementCache(new StatementParser(dialect, options.getKeywordRules(dialect)),
+        options.getParseCacheSize(), options.getParseCacheMaxWeight());
+  }
+
+  /** Returns the dialect that is used to parse statements on this connection. */
+  Dialect getDialect() {
+    return parsedStatements.getDialect();
+  }
+
+  /**
+   * Classifies the given sql string using the shared parse cache of this connection. The leading
+   * keyword of statements that cannot be classified is counted, see {@link
+   * #getUnknownStatementCounts()}.
+   */
+  ParsedStatement parse(String sql) {
+    ParsedStatement res = parsedStatements.parse(sql);
+    if (res.getType() == StatementType.UNKNOWN) {
+      countUnknownStatement(res.getLeadingKeyword());
+    }
+    return res;
+  }
+
+  private void countUnknownStatement(String keyword) {
+    LongAdder counter = unknownKeywords.get(keyword);
+    if (counter == null) {
+      if (unknownKeywords.size() >= MAX_UNKNOWN_KEYWORDS) {
+        keyword = OTHER_UNKNOWN_KEYWORDS;
+      }
+      counter = unknownKeywords.computeIfAbsent(keyword, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+
+  /**
+   * Returns true if the given sql string (probably) requires a transaction, i.e. it is a DML or DDL
+   * statement, or a statement that takes locks.
+   */
+  boolean requiresTransaction(String sql) {
+    return parse(sql).requiresTransaction();
+  }
+
+  /**
+   * Returns the number of times a statement was found in the parse cache. The parse cache is shared
+   * by all connections with the same dialect and parser options, which means that the count
+   * includes the statements of all those connections.
+   */
+  public long getParseCacheHitCount() {
+    return parsedStatements.getHitCount();
+  }
+
+  /**
+   * Returns the number of times a statement was not found in the parse cache. The count includes
+   * the statements of all connections that share the parse cache.
+   */
+  public long getParseCacheMissCount() {
+    return parsedStatements.getMissCount();
+  }
+
+  /**
+   * Returns the number of statements that have been evicted from the parse cache. The count
+   * includes the evictions caused by all connections that share the parse cache.
+   */
+  public long getParseCacheEvictionCount() {
+    return parsedStatements.getEvictionCount();
+  }
+
+  /** Returns the number of times {@link Connection#getAutoCommit()} was called on the delegate. */
+  public long getDelegateGetAutoCommitCount() {
+    return getAutoCommitCount.sum();
+  }
+
+  /** Returns the number of times {@link Connection#setAutoCommit(boolean)} was called. */
+  public long getDelegateSetAutoCommitCount() {
+    return setAutoCommitCount.sum();
+  }
+
+  /** Returns the number of times {@link Connection#commit()} was called on the delegate. */
+  public long getDelegateCommitCount() {
+    return commitCount.sum();
+  }
+
+  /** Returns the number of times {@link Connection#rollback()} was called on the delegate. */
+  public long getDelegateRollbackCount() {
+    return rollbackCount.sum();
+  }
+
+  /**
+   * Returns the number of times that restoring autocommit after a commit or rollback was not
+   * necessary, because the next statement required a transaction. Each of these saved two calls
+   * to {@link Connection#setAutoCommit(boolean)}.
+   */
+  public long getSkippedAutoCommitRestoreCount() {
+    return skippedAutoCommitRestoreCount.sum();
+  }
+
+  /** Returns the number of DML statements that have been buffered instead of executed directly. */
+  public long getBufferedWriteCount() {
+    return writeBehindBuffer.getBufferedCount();
+  }
+
+  /**
+   * Returns the number of transactions that consisted of a single deferred write, which was
+   * executed in autocommit instead of in a transaction.
+   */
+  public long getSingleWriteCommitCount() {
+    return singleWriteCommitCount.sum();
+  }
+
+  void countRewrittenBatch(int rows) {
+    rewrittenBatchCount.increment();
+    rewrittenRowCount.add(rows);
+  }
+
+  /** Returns the number of batches that have been rewritten to multi-row inserts. */
+  public long getRewrittenBatchCount() {
+    return rewrittenBatchCount.sum();
+  }
+
+  /** Returns the total number of rows in batches that have been rewritten to multi-row inserts. */
+  public long getRewrittenRowCount() {
+    return rewrittenRowCount.sum();
+  }
+
+  int getBatchFlushRows() {
+    return batchFlushRows;
+  }
+
+  long getBatchFlushBytes() {
+    return batchFlushBytes;
+  }
+
+  void countBatchFlush(int rows) {
+    batchFlushCount.increment();
+    batchFlushRowCount.add(rows);
+  }
+
+  /**
+   * Returns the number of times that a part of the batch of a prepared statement was sent to the
+   * database before the batch was executed, because it reached the batchFlushRows or
+   * batchFlushBytes threshold.
+   */
+  public long getBatchFlushCount() {
+    return batchFlushCount.sum();
+  }
+
+  /** Returns the number of rows that were sent to the database in the flushes of a batch. */
+  public long getBatchFlushRowCount() {
+    return batchFlushRowCount.sum();
+  }
+
+  /**
+   * Returns true if a batch with the given number of rows should be executed in parallel on
+   * additional connections. This is only done in autocommit mode, as the rows are not inserted
+   * atomically.
+   */
+  boolean isParallelBatch(int rows) {
+    return parallelBatchExecutor != null && autoCommit && parallelBatchExecutor.isParallel(rows);
+  }
+
+  ParallelBatchExecutor getParallelBatchExecutor() {
+    return parallelBatchExecutor;
+  }
+
+  void countParallelBatch(int rows) {
+    parallelBatchCount.increment();
+    parallelBatchRowCount.add(rows);
+  }
+
+  /** Returns the number of batches that have been executed in parallel. */
+  public long getParallelBatchCount() {
+    return parallelBatchCount.sum();
+  }
+
+  /** Returns the number of rows in the batches that have been executed in parallel. */
+  public long getParallelBatchRowCount() {
+    return parallelBatchRowCount.sum();
+  }
+
+  /** Returns true if transactions that are aborted by the database are replayed. */
+  boolean isTransactionRetryEnabled() {
+    return transactionRecorder.isEnabled();
+  }
+
+  /** Returns true if the statements that are executed are recorded for a replay. */
+  boolean isRecordingTransaction() {
+    return transactionRecorder.isRecording();
+  }
+
+  /**
+   * Marks the start of an execution on the underlying connection. The transaction can only be
+   * replayed if the execution is recorded after it has finished.
+   */
+  void beforeExecute() {
+    transactionRecorder.beforeExecute();
+  }
+
+  void recordExecution(Execution execution) {
+    transactionRecorder.record(execution);
+  }
+
+  /** Records a DML statement with the given parameters and update count. */
+  void recordUpdate(String sql, BatchParameterStore parameters, long updateCount) {
+    if (transactionRecorder.isRecording()) {
+      transactionRecorder.record(new UpdateExecution(sql, parameters, updateCount));
+    }
+  }
+
+  /**
+   * Records a query with the given parameters. The returned result set computes a checksum of the
+   * rows that the application reads, which is verified when the transaction is replayed.
+   */
+  ResultSet recordQuery(String sql, BatchParameterStore parameters, ResultSet resultSet) {
+    if (!transactionRecorder.isRecording()) {
+      return resultSet;
+    }
+    QueryExecution execution = new QueryExecution(sql, parameters);
+    transactionRecorder.record(execution);
+    return new ChecksumResultSet(resultSet, execution.getChecksum());
+  }
+
+  /** Marks the current transaction as not replayable. */
+  void markTransactionUnreplayable() {
+    transactionRecorder.markUnreplayable();
+  }
+
+  /**
+   * Executes the given call on the underlying connection. If it fails with an error that indicates
+   * that the transaction was aborted, the transaction is replayed and the call is executed again.
+   */
+  <R> R executeWithRetry(SqlCall<R> execution) throws SQLException {
+    return executeWithRetry(execution, execution);
+  }
+
+  /**
+   * Executes the first call on the underlying connection, and the retry call each time after the
+   * transaction has been replayed because the previous attempt was aborted.
+   */
+  <R> R executeWithRetry(SqlCall<R> execution, SqlCall<R> retry) throws SQLException {
+    try {
+      return execution.call();
+    } catch (SQLException e) {
+      while (true) {
+        connectionFailed(e);
+        transactionRecorder.retry(e, getDialect(), delegate);
+        try {
+          return retry.call();
+        } catch (SQLException retryError) {
+          e = retryError;
+        }
+      }
+    }
+  }
+
+  /**
+   * Executes the given query on the underlying connection. The query is retried after a transient
+   * error if the underlying connection is in autocommit mode, as the query is then a standalone
+   * read. Queries in a transaction can only be retried by a replay of the transaction.
+   *
+   * <p>A query that breaks the physical connection of a pooled or lazy connection is retried on a
+   * new physical connection with the given reconnect, if any. It is not retried if the physical
+   * connection cannot be replaced.
+   */
+  <R> R executeQuery(ParsedStatement statement, SqlCall<R> query,
+      ReadRetryPolicy.Reconnect reconnect) throws SQLException {
+    if (readRetryPolicy != null && !statement.requiresTransaction() && getDelegateAutoCommit()) {
+      try {
+        return readRetryPolicy.execute(query, getDialect(),
+            lazyDelegate != null && !lazyDelegate.isPinned() ? reconnect : null);
+      } catch (SQLException e) {
+        connectionFailed(e);
+        throw e;
+      }
+    }
+    return executeWithRetry(query);
+  }
+
+  /**
+   * Closes the physical connection of a pooled or lazy connection that broke with the given error,
+   * so a statement can be prepared again on a new physical connection.
+   *
+   * @throws SQLException the given error if the physical connection cannot be closed without
+   *     losing a transaction, buffered writes or session state
+   */
+  void replaceBrokenConnection(SQLException error) throws SQLException {
+    if (!connectionFailed(error)) {
+      throw error;
+    }
+  }
+
+  /**
+   * Marks the physical connection of a pooled or lazy connection as broken if the given error is
+   * transient, for example a network error, so the physical connection is not returned to the
+   * pool. The physical connection is closed directly if that does not lose a transaction or
+   * buffered writes, and the next statement then uses a new physical connection.
+   *
+   * @return true if the physical connection was closed
+   */
+  private boolean connectionFailed(SQLException error) {
+    if (lazyDelegate == null || !lazyDelegate.hasPhysicalConnection()
+        || !ReadRetryPolicy.isTransient(error, getDialect())) {
+      return false;
+    }
+    log.log(Level.FINE, "Discarding broken physical connection of " + this, error);
+    lazyDelegate.markBroken();
+    if (!delegateAutoCommitUnknown && (delegateAutoCommit || autoCommitRestorePending)
+        && writeBehindBuffer.size() == 0) {
+      try {
+        // The internal statement of the buffer is bound to the broken physical connection.
+        writeBehindBuffer.close();
+      } catch (SQLException e) {
+        error.addSuppressed(e);
+      }
+      lazyDelegate.discardIfBroken();
+    }
+    return !lazyDelegate.hasPhysicalConnection();
+  }
+
+  /** Returns the number of times that a query in autocommit mode has been retried. */
+  public long getReadRetryCount() {
+    return readRetryPolicy == null ? 0L : readRetryPolicy.getRetryCount();
+  }
+
+  /** Returns the number of aborted transactions that have been replayed successfully. */
+  public long getTransactionReplayCount() {
+    return transactionRecorder.getReplayCount();
+  }
+
+  /**
+   * Returns the number of aborted transactions that could not be replayed, because the replay
+   * returned different results, or because all attempts were aborted.
+   */
+  public long getFailedTransactionReplayCount() {
+    return transactionRecorder.getFailedReplayCount();
+  }
+
+  void statementOpened() {
+    openStatements++;
+  }
+
+  void statementClosed() throws SQLException {
+    openStatements--;
+    releaseDelegateIfIdle();
+  }
+
+  /**
+   * Pins the physical connection of a pooled connection to this connection until it is closed, and
+   * closes it instead of returning it to the pool. This must be called when a statement might
+   * leave state in the session, for example a SET statement or a DDL statement that creates a
+   * temporary table.
+   */
+  void pinDelegate() {
+    if (lazyDelegate != null) {
+      lazyDelegate.pin();
+    }
+  }
+
+  /**
+   * Returns the physical connection of a pooled connection to the pool if it is not needed until
+   * the next statement. That is the case if the underlying connection is in autocommit mode, and
+   * there are no open statements or buffered writes.
+   */
+  private void releaseDelegateIfIdle() throws SQLException {
+    if (lazyDelegate != null && lazyDelegate.isReleasable() && openStatements == 0
+        && writeBehindBuffer.size() == 0 && getDelegateAutoCommit()) {
+      // Connections in the pool must be in autocommit mode.
+      applyPendingAutoCommitRestore();
+      // The internal statement of the buffer is bound to the physical connection.
+      writeBehindBuffer.close();
+      log.log(Level.FINEST, "Returning physical connection of {0} to the pool", this);
+      lazyDelegate.release();
+    }
+  }
+
+  /** Returns the number of batches of buffered DML statements that have been executed. */
+  public long getBufferedWriteFlushCount() {
+    return writeBehindBuffer.getFlushCount();
+  }
+
+  /**
+   * Returns the number of times a statement that could not be classified has been executed or
+   * prepared on this connection, grouped by the leading keyword of the statement. Statements that
+   * should be classified can be added to the 'smartcommit.keywordRules' option.
+   */
+  public Map<String, Long> getUnknownStatementCounts() {
+    Map<String, Long> res = new TreeMap<>();
+    for (Entry<String, LongAdder> entry : unknownKeywords.entrySet()) {
+      res.put(entry.getKey(), entry.getValue().sum());
+    }
+    return res;
   }
 
   /**
@@ -77,24 +657,183 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
   }
 
   public PreparedStatement prepareStatement(String sql) throws SQLException {
-    return new SmartCommitPreparedStatement<>(this, delegate.prepareStatement(sql), sql);
+    return createPreparedStatement(sql, delegate.prepareStatement(sql));
+  }
+
+  /**
+   * Wraps a statement that was prepared on the underlying connection. The parameters of the
+   * statement are captured if its executions can be rewritten to multi-row inserts, executed as
+   * parallel batches, deferred, replayed after an aborted transaction or retried on a new
+   * connection.
+   */
+  private PreparedStatement createPreparedStatement(String sql, PreparedStatement delegateStatement)
+      throws SQLException {
+    ParsedStatement statement = parse(sql);
+    BatchedInsertRewriter rewriter = null;
+    BatchParameterStore batchParameters = null;
+    if (rewriteBatchedInserts && statement.isUpdate()) {
+      rewriter = BatchedInsertRewriter.create(delegate, parsedStatements.getParser(), sql);
+    }
+    if (rewriter != null) {
+      batchParameters = rewriter.getParameters();
+    } else if ((parallelBatchExecutor != null && statement.isUpdate())
+        || (deferFirstWrite && statement.isUpdate()) || transactionRecorder.isEnabled()
+        || (readRetryPolicy != null && lazyDelegate != null)) {
+      // The parameters of all statements are captured if transactions can be replayed, or if
+      // queries can be prepared again on a new physical connection.
+      int parameterCount = parsedStatements.getParser().countParameters(sql);
+      if (parameterCount >= 0) {
+        batchParameters = new BatchParameterStore(parameterCount);
+      }
+    }
+    return new SmartCommitPreparedStatement<>(this, delegateStatement, statement, rewriter,
+        batchParameters);
   }
 
   public CallableStatement prepareCall(String sql) throws SQLException {
-    return new SmartCommitCallableStatement<>(this, delegate.prepareCall(sql), sql);
+    return new SmartCommitCallableStatement<>(this, delegate.prepareCall(sql), parse(sql));
   }
 
   public String nativeSQL(String sql) throws SQLException {
     return delegate.nativeSQL(sql);
   }
 
-  /** Returns true if the underlying connection is currently running in autocommit mode. */
+  /**
+   * Returns true if the underlying connection is currently running in autocommit mode. The state is
+   * tracked by this connection and is only read from the underlying connection after a statement
+   * has been executed that might have changed it. This method also returns true if autocommit
+   * still has to be restored lazily on the underlying connection after a commit or rollback, as
+   * the underlying connection has no active transaction in that case.
+   */
   public boolean getDelegateAutoCommit() throws SQLException {
-    return delegate.getAutoCommit();
+    if (delegateAutoCommitUnknown) {
+      getAutoCommitCount.increment();
+      delegateAutoCommit = delegate.getAutoCommit();
+      delegateAutoCommitUnknown = false;
+    }
+    return delegateAutoCommit || autoCommitRestorePending;
   }
 
+  /**
+   * Sets the autocommit state of the underlying connection. The underlying connection is only
+   * called if the state changes. Turning off autocommit while autocommit still has to be restored
+   * lazily only cancels the pending restore.
+   */
   void setDelegateAutoCommit(boolean autoCommit) throws SQLException {
+    if (!autoCommit && autoCommitRestorePending) {
+      autoCommitRestorePending = false;
+      skippedAutoCommitRestoreCount.increment();
+      beginTransaction();
+    } else if (getDelegateAutoCommit() != autoCommit) {
+      updateDelegateAutoCommit(autoCommit);
+      if (!autoCommit) {
+        beginTransaction();
+      }
+    }
+  }
+
+  /** Starts recording a transaction that smart commit has started on the underlying connection. */
+  private void beginTransaction() {
+    if (smartCommit && !this.autoCommit) {
+      transactionRecorder.begin();
+    }
+  }
+
+  /** Sets the autocommit state of the underlying connection, also if it does not change. */
+  private void updateDelegateAutoCommit(boolean autoCommit) throws SQLException {
+    // Read the state from the underlying connection if the update fails halfway.
+    delegateAutoCommitUnknown = true;
+    autoCommitRestorePending = false;
+    setAutoCommitCount.increment();
     delegate.setAutoCommit(autoCommit);
+    delegateAutoCommit = autoCommit;
+    delegateAutoCommitUnknown = false;
+  }
+
+  /**
+   * Restores autocommit on the underlying connection after a commit or rollback. The restore is
+   * postponed until the next statement that does not require a transaction if lazy restore is
+   * enabled.
+   */
+  private void restoreDelegateAutoCommit() throws SQLException {
+    if (lazyAutoCommitRestore && !delegateAutoCommitUnknown && !delegateAutoCommit) {
+      autoCommitRestorePending = true;
+    } else {
+      setDelegateAutoCommit(true);
+    }
+  }
+
+  /**
+   * Returns true if the given statement should be buffered instead of being executed directly. DML
+   * statements are buffered if the connection is in smart commit mode and either write-behind is
+   * enabled, or the statement is the first write of a transaction and deferring the first write is
+   * enabled. Autocommit is turned off on the underlying connection if the statement is buffered,
+   * unless it is a deferred first write.
+   */
+  boolean prepareBufferedWrite(ParsedStatement statement) throws SQLException {
+    if (!smartCommit || autoCommit || !statement.isUpdate()) {
+      return false;
+    }
+    if (deferFirstWrite && writeBehindBuffer.size() == 0 && getDelegateAutoCommit()) {
+      // Keep the underlying connection in autocommit. The statement is executed in autocommit if
+      // the transaction is committed without executing any other statements.
+      return true;
+    }
+    if (writeBehindBuffer.isEnabled()) {
+      if (getDelegateAutoCommit()) {
+        setDelegateAutoCommit(false);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  WriteBehindBuffer getWriteBehindBuffer() {
+    return writeBehindBuffer;
+  }
+
+  /** Sends all buffered DML statements to the underlying connection. */
+  void flushWrites() throws SQLException {
+    if (writeBehindBuffer.size() > 0 && getDelegateAutoCommit()) {
+      // The first write of the transaction has been deferred and another statement follows. The
+      // deferred write must be executed in a transaction.
+      setDelegateAutoCommit(false);
+    }
+    if (writeBehindBuffer.size() > 0) {
+      // Buffered writes are not recorded.
+      transactionRecorder.markUnreplayable();
+    }
+    writeBehindBuffer.flush();
+  }
+
+  /**
+   * Sends all buffered DML statements to the underlying connection if the batch of the given
+   * underlying statement contains buffered statements.
+   */
+  void flushWrites(Statement statement) throws SQLException {
+    if (writeBehindBuffer.isBufferedIn(statement)) {
+      flushWrites();
+    }
+  }
+
+  /**
+   * Restores autocommit on the underlying connection if that has been postponed by a commit or
+   * rollback. This must be called before executing any statement that does not require a
+   * transaction.
+   */
+  void applyPendingAutoCommitRestore() throws SQLException {
+    if (autoCommitRestorePending) {
+      updateDelegateAutoCommit(true);
+    }
+  }
+
+  /**
+   * Marks the autocommit state of the underlying connection as unknown. This should be called
+   * after executing a statement that might change the autocommit state of the underlying
+   * connection, such as a SET statement.
+   */
+  void invalidateDelegateAutoCommit() {
+    delegateAutoCommitUnknown = true;
   }
 
   public void setAutoCommit(boolean autoCommit) throws SQLException {
@@ -102,18 +841,21 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
       // no change needed.
       return;
     }
+    flushWrites();
 
     if (autoCommit) {
       // Turning on autoCommit.
       // First try to change the underlying connection.
-      delegate.setAutoCommit(true);
+      updateDelegateAutoCommit(true);
       this.autoCommit = true;
     } else {
       // Turning off autoCommit.
       // Set the underlying connection based on the smartCommit setting.
-      delegate.setAutoCommit(this.smartCommit);
+      updateDelegateAutoCommit(this.smartCommit);
       this.autoCommit = false;
     }
+    transactionRecorder.end();
+    releaseDelegateIfIdle();
   }
 
   public boolean getAutoCommit() throws SQLException {
@@ -124,16 +866,18 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
     if (this.smartCommit == smartCommit) {
       return;
     }
+    flushWrites();
 
     if (smartCommit) {
-      delegate.setAutoCommit(true);
+      updateDelegateAutoCommit(true);
       this.smartCommit = true;
     } else {
-      if (!autoCommit && delegate.getAutoCommit()) {
-        delegate.setAutoCommit(false);
+      if (!autoCommit && getDelegateAutoCommit()) {
+        setDelegateAutoCommit(false);
       }
       this.smartCommit = false;
     }
+    transactionRecorder.end();
   }
 
   public boolean getSmartCommit() {
@@ -142,40 +886,103 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
 
   public void commit() throws SQLException {
     if (!smartCommit) {
-      delegate.commit();
+      commitCount.increment();
+      try {
+        delegate.commit();
+      } catch (SQLException e) {
+        connectionFailed(e);
+        throw e;
+      }
       return;
     }
     if (autoCommit) {
       throw new SQLException("Cannot commit when in autocommit");
     }
-    if (delegate.getAutoCommit()) {
+    if (writeBehindBuffer.size() > 0 && getDelegateAutoCommit()) {
+      // The transaction consists of only one deferred write. Execute it in autocommit.
+      log.log(Level.FINEST, "Executing single write in autocommit on connection {0}", this);
+      applyPendingAutoCommitRestore();
+      singleWriteCommitCount.increment();
+      writeBehindBuffer.flush();
+    }
+    flushWrites();
+    writeBehindBuffer.reset();
+    if (getDelegateAutoCommit()) {
       log.log(Level.FINEST, "Connection {0} in autocommit, skipping commit", this);
     } else {
       log.log(Level.FINEST, "Committing on connection {0}", this);
-      delegate.commit();
+      try {
+        transactionRecorder.beforeExecute();
+        commitCount.increment();
+        executeWithRetry(() -> {
+          delegate.commit();
+          return null;
+        }, () -> {
+          commitCount.increment();
+          delegate.commit();
+          return null;
+        });
+      } finally {
+        transactionRecorder.end();
+      }
     }
-    setDelegateAutoCommit(true);
+    restoreDelegateAutoCommit();
+    releaseDelegateIfIdle();
   }
 
   public void rollback() throws SQLException {
     if (!smartCommit) {
-      delegate.rollback();
+      rollbackCount.increment();
+      try {
+        delegate.rollback();
+      } catch (SQLException e) {
+        connectionFailed(e);
+        throw e;
+      }
       return;
     }
     if (autoCommit) {
       throw new SQLException("Cannot rollback when in autocommit");
     }
-    if (delegate.getAutoCommit()) {
+    writeBehindBuffer.reset();
+    transactionRecorder.end();
+    if (getDelegateAutoCommit()) {
       log.log(Level.FINEST, "Connection {0} in autocommit, skipping rollback", this);
     } else {
       log.log(Level.FINEST, "Rollback on connection {0}", this);
-      delegate.rollback();
+      rollbackCount.increment();
+      try {
+        delegate.rollback();
+      } catch (SQLException e) {
+        connectionFailed(e);
+        throw e;
+      }
     }
-    setDelegateAutoCommit(true);
+    restoreDelegateAutoCommit();
+    releaseDelegateIfIdle();
   }
 
   public void close() throws SQLException {
-    delegate.close();
+    // Buffered statements are discarded, as the transaction is not committed.
+    writeBehindBuffer.close();
+    if (openStatements > 0) {
+      // A physical connection with open statements cannot be returned to the pool.
+      pinDelegate();
+    }
+    try {
+      // The underlying connection may be handed out again by a connection pool, and a new
+      // connection reads its autocommit mode from it.
+      applyPendingAutoCommitRestore();
+    } catch (SQLException e) {
+      log.log(Level.FINE, "Could not restore autocommit before closing the connection", e);
+    }
+    try {
+      if (parallelBatchExecutor != null) {
+        parallelBatchExecutor.close();
+      }
+    } finally {
+      delegate.close();
+    }
   }
 
   public boolean isClosed() throws SQLException {
@@ -183,6 +990,13 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
   }
 
   public DatabaseMetaData getMetaData() throws SQLException {
+    // Metadata queries should not start a transaction on the underlying connection.
+    flushWrites();
+    applyPendingAutoCommitRestore();
+    if (lazyDelegate != null) {
+      // The metadata uses a physical connection for each call, and does not pin one.
+      return new SmartCommitDatabaseMetaData(this, lazyDelegate);
+    }
     return new SmartCommitDatabaseMetaData(this, delegate.getMetaData());
   }
 
@@ -226,14 +1040,14 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
 
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
       throws SQLException {
-    return new SmartCommitPreparedStatement<>(this,
-        delegate.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
+    return createPreparedStatement(sql,
+        delegate.prepareStatement(sql, resultSetType, resultSetConcurrency));
   }
 
   public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
       throws SQLException {
     return new SmartCommitCallableStatement<>(this,
-        delegate.prepareCall(sql, resultSetType, resultSetConcurrency), sql);
+        delegate.prepareCall(sql, resultSetType, resultSetConcurrency), parse(sql));
   }
 
   public Map<String, Class<?>> getTypeMap() throws SQLException {
@@ -253,30 +1067,36 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
   }
 
   public Savepoint setSavepoint() throws SQLException {
+    flushWrites();
     if (autoCommit) {
       throw new SQLException("Cannot set savepoint when in autocommit");
     }
     if (getDelegateAutoCommit()) {
       setDelegateAutoCommit(false);
     }
+    // A replay cannot restore the savepoints of the application.
+    transactionRecorder.markUnreplayable();
     return delegate.setSavepoint();
   }
 
   public Savepoint setSavepoint(String name) throws SQLException {
+    flushWrites();
     if (autoCommit) {
       throw new SQLException("Cannot set savepoint when in autocommit");
     }
     if (getDelegateAutoCommit()) {
       setDelegateAutoCommit(false);
     }
+    transactionRecorder.markUnreplayable();
     return delegate.setSavepoint(name);
   }
 
   public void rollback(Savepoint savepoint) throws SQLException {
+    flushWrites();
     if (autoCommit) {
       throw new SQLException("Cannot rollback savepoint when in autocommit");
     }
-    if (delegate.getAutoCommit()) {
+    if (getDelegateAutoCommit()) {
       log.log(Level.FINEST, "Connection {0} in autocommit, skipping rollback savepoint", this);
     } else {
       log.log(Level.FINEST, "Rollback savepoint {0}", savepoint);
@@ -285,7 +1105,8 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
   }
 
   public void releaseSavepoint(Savepoint savepoint) throws SQLException {
-    if (delegate.getAutoCommit()) {
+    flushWrites();
+    if (getDelegateAutoCommit()) {
       log.log(Level.FINEST, "Connection {0} in autocommit, skipping release savepoint", this);
     } else {
       log.log(Level.FINEST, "Release savepoint {0}", savepoint);
@@ -301,30 +1122,31 @@ public class SmartCommitConnection extends AbstractDelegateWrapper<Connection>
 
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
       int resultSetHoldability) throws SQLException {
-    return new SmartCommitPreparedStatement<>(this,
-        delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
-        sql);
+    return createPreparedStatement(sql,
+        delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
   }
 
   public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
       int resultSetHoldability) throws SQLException {
     return new SmartCommitCallableStatement<>(this,
-        delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
+        delegate.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+        parse(sql));
   }
 
   public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
     return new SmartCommitPreparedStatement<>(this,
-        delegate.prepareStatement(sql, autoGeneratedKeys), sql);
+        delegate.prepareStatement(sql, autoGeneratedKeys), parse(sql),
+        autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS);
   }
 
   public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
     return new SmartCommitPreparedStatement<>(this, delegate.prepareStatement(sql, columnIndexes),
-        sql);
+        parse(sql), true);
   }
 
   public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
     return new SmartCommitPreparedStatement<>(this, delegate.prepareStatement(sql, columnNames),
-        sql);
+        parse(sql), true);
   }
 
   public Clob createClob() throws SQLException {
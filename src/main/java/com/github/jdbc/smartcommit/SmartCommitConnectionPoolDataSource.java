@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+/**
+ * {@link ConnectionPoolDataSource} that wraps the {@link ConnectionPoolDataSource} of the
+ * underlying database, and returns {@link PooledConnection}s whose logical connections are {@link
+ * SmartCommitConnection}s. The parse cache of a pooled connection is kept for as long as the pool
+ * keeps the physical connection open.
+ */
+public class SmartCommitConnectionPoolDataSource implements ConnectionPoolDataSource {
+  private final DataSourceOptions options;
+  private final ConnectionPoolDataSource dataSource;
+
+  /**
+   * Creates a data source that wraps the given data source. The properties contain the smart
+   * commit options for the connections, and may be null.
+   */
+  public SmartCommitConnectionPoolDataSource(ConnectionPoolDataSource dataSource, Properties info)
+      throws SQLException {
+    this.options = new DataSourceOptions(info);
+    this.dataSource = dataSource;
+  }
+
+  public PooledConnection getPooledConnection() throws SQLException {
+    return new SmartCommitPooledConnection(dataSource.getPooledConnection(), options);
+  }
+
+  public PooledConnection getPooledConnection(String user, String password) throws SQLException {
+    return new SmartCommitPooledConnection(dataSource.getPooledConnection(user, password), options);
+  }
+
+  public PrintWriter getLogWriter() throws SQLException {
+    return dataSource.getLogWriter();
+  }
+
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    dataSource.setLogWriter(out);
+  }
+
+  public void setLoginTimeout(int seconds) throws SQLException {
+    dataSource.setLoginTimeout(seconds);
+  }
+
+  public int getLoginTimeout() throws SQLException {
+    return dataSource.getLoginTimeout();
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return Logger.getLogger("com.github.jdbc.smartcommit");
+  }
+}
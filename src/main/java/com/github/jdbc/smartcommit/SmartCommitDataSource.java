@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import com.github.jdbc.smartcommit.SmartCommitDriver.DelegateInfo;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * {@link DataSource} that returns {@link SmartCommitConnection}s. The underlying connections are
+ * obtained from a {@link DataSource} of the underlying database, or from the driver for a smart
+ * commit URL. The driver for a URL is resolved once when the data source is created, so obtaining
+ * a connection does not require any lookups in the {@link java.sql.DriverManager}.
+ *
+ * <p>Smart commit options are passed in as properties with the prefix 'smartcommit.', or as part
+ * of the smart commit URL. Example:
+ *
+ * <pre>
+ * Properties options = new Properties();
+ * options.setProperty("smartcommit.parseCacheSize", "500");
+ * DataSource dataSource = new SmartCommitDataSource(pgDataSource, options);
+ * </pre>
+ */
+public class SmartCommitDataSource implements DataSource {
+  private final DataSourceOptions options;
+
+  /** The data source of the underlying database, or null if the data source uses a URL. */
+  private final DataSource dataSource;
+
+  /** The driver and URL of the underlying connections, or null if the data source is used. */
+  private final DelegateInfo delegateInfo;
+
+  private final Properties delegateProperties;
+
+  private PrintWriter logWriter;
+  private int loginTimeout;
+
+  /**
+   * Creates a data source that opens connections with the given data source. The properties
+   * contain the smart commit options for the connections, and may be null.
+   */
+  public SmartCommitDataSource(DataSource dataSource, Properties info) throws SQLException {
+    this.options = new DataSourceOptions(info);
+    this.dataSource = dataSource;
+    this.delegateInfo = null;
+    this.delegateProperties = null;
+  }
+
+  /**
+   * Creates a data source for a smart commit URL, for example
+   * 'jdbc:smartcommit:postgresql://localhost/foo'. The properties are passed in to the underlying
+   * driver, except for the smart commit options.
+   *
+   * @throws SQLException if the URL is not a smart commit URL, or if no driver accepts the URL.
+   */
+  public SmartCommitDataSource(String url, Properties info) throws SQLException {
+    this.delegateInfo = SmartCommitDriver.getDelegateInfo(url);
+    if (delegateInfo == null) {
+      throw new SQLException("No suitable driver found for " + url);
+    }
+    this.options = new DataSourceOptions(ConnectionOptions.parse(url, info), delegateInfo.url);
+    this.dataSource = null;
+    this.delegateProperties = ConnectionOptions.removeOptions(info);
+  }
+
+  public Connection getConnection() throws SQLException {
+    if (dataSource != null) {
+      return wrap(dataSource::getConnection);
+    }
+    return wrap(() -> SmartCommitDriver.connectDelegate(delegateInfo, delegateProperties));
+  }
+
+  public Connection getConnection(String username, String password) throws SQLException {
+    if (dataSource != null) {
+      return wrap(() -> dataSource.getConnection(username, password));
+    }
+    Properties properties = new Properties();
+    properties.putAll(delegateProperties);
+    properties.setProperty("user", username);
+    properties.setProperty("password", password);
+    return wrap(() -> SmartCommitDriver.connectDelegate(delegateInfo, properties));
+  }
+
+  /**
+   * Creates a connection on top of a connection of the given factory, which is opened directly
+   * unless the option {@link ConnectionOptions#LAZY_CONNECT} is set.
+   */
+  private SmartCommitConnection wrap(DelegateConnectionFactory connectionFactory)
+      throws SQLException {
+    Connection connection = options.getOptions().isLazyConnect()
+        ? new LazyDelegateConnection(connectionFactory)
+        : connectionFactory.connect();
+    return new SmartCommitConnection(connection, options.getOptions(),
+        options.getDialect(connection), connectionFactory);
+  }
+
+  public PrintWriter getLogWriter() throws SQLException {
+    return dataSource == null ? logWriter : dataSource.getLogWriter();
+  }
+
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    if (dataSource == null) {
+      logWriter = out;
+    } else {
+      dataSource.setLogWriter(out);
+    }
+  }
+
+  public void setLoginTimeout(int seconds) throws SQLException {
+    if (dataSource == null) {
+      loginTimeout = seconds;
+    } else {
+      dataSource.setLoginTimeout(seconds);
+    }
+  }
+
+  public int getLoginTimeout() throws SQLException {
+    return dataSource == null ? loginTimeout : dataSource.getLoginTimeout();
+  }
+
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return Logger.getLogger("com.github.jdbc.smartcommit");
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return (T) this;
+    }
+    if (dataSource != null) {
+      return dataSource.unwrap(iface);
+    }
+    throw new SQLException("Cannot unwrap to " + iface.getName());
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || (dataSource != null && dataSource.isWrapperFor(iface));
+  }
+}
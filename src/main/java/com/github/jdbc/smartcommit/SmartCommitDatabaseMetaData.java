@@ -14,71 +14,154 @@
 
 package com.github.jdbc.smartcommit;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.RowIdLifetime;
 import java.sql.SQLException;
 
+/**
+ * {@link DatabaseMetaData} of a {@link SmartCommitConnection}. The metadata of a connection with a
+ * {@link LazyDelegateConnection} is not bound to one physical connection. Each call uses the
+ * physical connection that the connection currently has, or borrows one for the duration of the
+ * call. A result set keeps its physical connection until it is closed.
+ */
 class SmartCommitDatabaseMetaData extends AbstractDelegateWrapper<DatabaseMetaData>
     implements DatabaseMetaData {
+  /** Call on the metadata of a physical connection. */
+  @FunctionalInterface
+  interface MetaDataCall<R> {
+    R call(DatabaseMetaData metaData) throws SQLException;
+  }
+
   private final SmartCommitConnection connection;
 
+  /** The underlying connection that the metadata is read from, or null if it is not lazy. */
+  private final LazyDelegateConnection lazyDelegate;
+
   public SmartCommitDatabaseMetaData(SmartCommitConnection connection, DatabaseMetaData delegate) {
     super(delegate);
     this.connection = connection;
+    this.lazyDelegate = null;
+  }
+
+  /**
+   * Creates the metadata of a connection with a lazy underlying connection. The metadata of the
+   * physical connection that is used to create it is only used directly for the version of the
+   * driver, which does not depend on the physical connection.
+   */
+  SmartCommitDatabaseMetaData(SmartCommitConnection connection,
+      LazyDelegateConnection lazyDelegate) throws SQLException {
+    super(lazyDelegate.readMetaData(metaData -> metaData));
+    this.connection = connection;
+    this.lazyDelegate = lazyDelegate;
+  }
+
+  private <R> R read(MetaDataCall<R> call) throws SQLException {
+    return lazyDelegate == null ? call.call(delegate) : lazyDelegate.readMetaData(call);
+  }
+
+  /**
+   * Executes a metadata query. The result set of a query on a lazy underlying connection counts as
+   * an open statement of the connection, so its physical connection is not returned to the pool
+   * before the result set is closed.
+   */
+  private ResultSet query(MetaDataCall<ResultSet> call) throws SQLException {
+    if (lazyDelegate == null) {
+      return call.call(delegate);
+    }
+    connection.statementOpened();
+    ResultSet resultSet;
+    try {
+      resultSet = call.call(lazyDelegate.getPhysicalMetaData());
+    } catch (SQLException | RuntimeException e) {
+      connection.statementClosed();
+      throw e;
+    }
+    boolean[] closed = new boolean[1];
+    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+        new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+          try {
+            return method.invoke(resultSet, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            if (method.getName().equals("close") && !closed[0]) {
+              closed[0] = true;
+              connection.statementClosed();
+            }
+          }
+        });
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (lazyDelegate == null || getClass().equals(iface)) {
+      return super.unwrap(iface);
+    }
+    // The unwrapped metadata is bound to the physical connection, and returns the physical
+    // connection from getConnection(), which the application can use for anything.
+    lazyDelegate.pin();
+    return lazyDelegate.getMetaData().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return getClass().equals(iface) || read(metaData -> metaData.isWrapperFor(iface));
   }
 
   public boolean allProceduresAreCallable() throws SQLException {
-    return delegate.allProceduresAreCallable();
+    return read(DatabaseMetaData::allProceduresAreCallable);
   }
 
   public boolean allTablesAreSelectable() throws SQLException {
-    return delegate.allTablesAreSelectable();
+    return read(DatabaseMetaData::allTablesAreSelectable);
   }
 
   public String getURL() throws SQLException {
-    return delegate.getURL();
+    return read(DatabaseMetaData::getURL);
   }
 
   public String getUserName() throws SQLException {
-    return delegate.getUserName();
+    return read(DatabaseMetaData::getUserName);
   }
 
   public boolean isReadOnly() throws SQLException {
-    return delegate.isReadOnly();
+    return read(DatabaseMetaData::isReadOnly);
   }
 
   public boolean nullsAreSortedHigh() throws SQLException {
-    return delegate.nullsAreSortedHigh();
+    return read(DatabaseMetaData::nullsAreSortedHigh);
   }
 
   public boolean nullsAreSortedLow() throws SQLException {
-    return delegate.nullsAreSortedLow();
+    return read(DatabaseMetaData::nullsAreSortedLow);
   }
 
   public boolean nullsAreSortedAtStart() throws SQLException {
-    return delegate.nullsAreSortedAtStart();
+    return read(DatabaseMetaData::nullsAreSortedAtStart);
   }
 
   public boolean nullsAreSortedAtEnd() throws SQLException {
-    return delegate.nullsAreSortedAtEnd();
+    return read(DatabaseMetaData::nullsAreSortedAtEnd);
   }
 
   public String getDatabaseProductName() throws SQLException {
-    return delegate.getDatabaseProductName();
+    return read(DatabaseMetaData::getDatabaseProductName);
   }
 
   public String getDatabaseProductVersion() throws SQLException {
-    return delegate.getDatabaseProductVersion();
+    return read(DatabaseMetaData::getDatabaseProductVersion);
   }
 
   public String getDriverName() throws SQLException {
-    return delegate.getDriverName();
+    return read(DatabaseMetaData::getDriverName);
   }
 
   public String getDriverVersion() throws SQLException {
-    return delegate.getDriverVersion();
+    return read(DatabaseMetaData::getDriverVersion);
   }
 
   public int getDriverMajorVersion() {
@@ -90,550 +173,553 @@ class SmartCommitDatabaseMetaData extends AbstractDelegateWrapper<DatabaseMetaDa
   }
 
   public boolean usesLocalFiles() throws SQLException {
-    return delegate.usesLocalFiles();
+    return read(DatabaseMetaData::usesLocalFiles);
   }
 
   public boolean usesLocalFilePerTable() throws SQLException {
-    return delegate.usesLocalFilePerTable();
+    return read(DatabaseMetaData::usesLocalFilePerTable);
   }
 
   public boolean supportsMixedCaseIdentifiers() throws SQLException {
-    return delegate.supportsMixedCaseIdentifiers();
+    return read(DatabaseMetaData::supportsMixedCaseIdentifiers);
   }
 
   public boolean storesUpperCaseIdentifiers() throws SQLException {
-    return delegate.storesUpperCaseIdentifiers();
+    return read(DatabaseMetaData::storesUpperCaseIdentifiers);
   }
 
   public boolean storesLowerCaseIdentifiers() throws SQLException {
-    return delegate.storesLowerCaseIdentifiers();
+    return read(DatabaseMetaData::storesLowerCaseIdentifiers);
   }
 
   public boolean storesMixedCaseIdentifiers() throws SQLException {
-    return delegate.storesMixedCaseIdentifiers();
+    return read(DatabaseMetaData::storesMixedCaseIdentifiers);
   }
 
   public boolean supportsMixedCaseQuotedIdentifiers() throws SQLException {
-    return delegate.supportsMixedCaseQuotedIdentifiers();
+    return read(DatabaseMetaData::supportsMixedCaseQuotedIdentifiers);
   }
 
   public boolean storesUpperCaseQuotedIdentifiers() throws SQLException {
-    return delegate.storesUpperCaseQuotedIdentifiers();
+    return read(DatabaseMetaData::storesUpperCaseQuotedIdentifiers);
   }
 
   public boolean storesLowerCaseQuotedIdentifiers() throws SQLException {
-    return delegate.storesLowerCaseQuotedIdentifiers();
+    return read(DatabaseMetaData::storesLowerCaseQuotedIdentifiers);
   }
 
   public boolean storesMixedCaseQuotedIdentifiers() throws SQLException {
-    return delegate.storesMixedCaseQuotedIdentifiers();
+    return read(DatabaseMetaData::storesMixedCaseQuotedIdentifiers);
   }
 
   public String getIdentifierQuoteString() throws SQLException {
-    return delegate.getIdentifierQuoteString();
+    return read(DatabaseMetaData::getIdentifierQuoteString);
   }
 
   public String getSQLKeywords() throws SQLException {
-    return delegate.getSQLKeywords();
+    return read(DatabaseMetaData::getSQLKeywords);
   }
 
   public String getNumericFunctions() throws SQLException {
-    return delegate.getNumericFunctions();
+    return read(DatabaseMetaData::getNumericFunctions);
   }
 
   public String getStringFunctions() throws SQLException {
-    return delegate.getStringFunctions();
+    return read(DatabaseMetaData::getStringFunctions);
   }
 
   public String getSystemFunctions() throws SQLException {
-    return delegate.getSystemFunctions();
+    return read(DatabaseMetaData::getSystemFunctions);
   }
 
   public String getTimeDateFunctions() throws SQLException {
-    return delegate.getTimeDateFunctions();
+    return read(DatabaseMetaData::getTimeDateFunctions);
   }
 
   public String getSearchStringEscape() throws SQLException {
-    return delegate.getSearchStringEscape();
+    return read(DatabaseMetaData::getSearchStringEscape);
   }
 
   public String getExtraNameCharacters() throws SQLException {
-    return delegate.getExtraNameCharacters();
+    return read(DatabaseMetaData::getExtraNameCharacters);
   }
 
   public boolean supportsAlterTableWithAddColumn() throws SQLException {
-    return delegate.supportsAlterTableWithAddColumn();
+    return read(DatabaseMetaData::supportsAlterTableWithAddColumn);
   }
 
   public boolean supportsAlterTableWithDropColumn() throws SQLException {
-    return delegate.supportsAlterTableWithDropColumn();
+    return read(DatabaseMetaData::supportsAlterTableWithDropColumn);
   }
 
   public boolean supportsColumnAliasing() throws SQLException {
-    return delegate.supportsColumnAliasing();
+    return read(DatabaseMetaData::supportsColumnAliasing);
   }
 
   public boolean nullPlusNonNullIsNull() throws SQLException {
-    return delegate.nullPlusNonNullIsNull();
+    return read(DatabaseMetaData::nullPlusNonNullIsNull);
   }
 
   public boolean supportsConvert() throws SQLException {
-    return delegate.supportsConvert();
+    return read(DatabaseMetaData::supportsConvert);
   }
 
   public boolean supportsConvert(int fromType, int toType) throws SQLException {
-    return delegate.supportsConvert(fromType, toType);
+    return read(metaData -> metaData.supportsConvert(fromType, toType));
   }
 
   public boolean supportsTableCorrelationNames() throws SQLException {
-    return delegate.supportsTableCorrelationNames();
+    return read(DatabaseMetaData::supportsTableCorrelationNames);
   }
 
   public boolean supportsDifferentTableCorrelationNames() throws SQLException {
-    return delegate.supportsDifferentTableCorrelationNames();
+    return read(DatabaseMetaData::supportsDifferentTableCorrelationNames);
   }
 
   public boolean supportsExpressionsInOrderBy() throws SQLException {
-    return delegate.supportsExpressionsInOrderBy();
+    return read(DatabaseMetaData::supportsExpressionsInOrderBy);
   }
 
   public boolean supportsOrderByUnrelated() throws SQLException {
-    return delegate.supportsOrderByUnrelated();
+    return read(DatabaseMetaData::supportsOrderByUnrelated);
   }
 
   public boolean supportsGroupBy() throws SQLException {
-    return delegate.supportsGroupBy();
+    return read(DatabaseMetaData::supportsGroupBy);
   }
 
   public boolean supportsGroupByUnrelated() throws SQLException {
-    return delegate.supportsGroupByUnrelated();
+    return read(DatabaseMetaData::supportsGroupByUnrelated);
   }
 
   public boolean supportsGroupByBeyondSelect() throws SQLException {
-    return delegate.supportsGroupByBeyondSelect();
+    return read(DatabaseMetaData::supportsGroupByBeyondSelect);
   }
 
   public boolean supportsLikeEscapeClause() throws SQLException {
-    return delegate.supportsLikeEscapeClause();
+    return read(DatabaseMetaData::supportsLikeEscapeClause);
   }
 
   public boolean supportsMultipleResultSets() throws SQLException {
-    return delegate.supportsMultipleResultSets();
+    return read(DatabaseMetaData::supportsMultipleResultSets);
   }
 
   public boolean supportsMultipleTransactions() throws SQLException {
-    return delegate.supportsMultipleTransactions();
+    return read(DatabaseMetaData::supportsMultipleTransactions);
   }
 
   public boolean supportsNonNullableColumns() throws SQLException {
-    return delegate.supportsNonNullableColumns();
+    return read(DatabaseMetaData::supportsNonNullableColumns);
   }
 
   public boolean supportsMinimumSQLGrammar() throws SQLException {
-    return delegate.supportsMinimumSQLGrammar();
+    return read(DatabaseMetaData::supportsMinimumSQLGrammar);
   }
 
   public boolean supportsCoreSQLGrammar() throws SQLException {
-    return delegate.supportsCoreSQLGrammar();
+    return read(DatabaseMetaData::supportsCoreSQLGrammar);
   }
 
   public boolean supportsExtendedSQLGrammar() throws SQLException {
-    return delegate.supportsExtendedSQLGrammar();
+    return read(DatabaseMetaData::supportsExtendedSQLGrammar);
   }
 
   public boolean supportsANSI92EntryLevelSQL() throws SQLException {
-    return delegate.supportsANSI92EntryLevelSQL();
+    return read(DatabaseMetaData::supportsANSI92EntryLevelSQL);
   }
 
   public boolean supportsANSI92IntermediateSQL() throws SQLException {
-    return delegate.supportsANSI92IntermediateSQL();
+    return read(DatabaseMetaData::supportsANSI92IntermediateSQL);
   }
 
   public boolean supportsANSI92FullSQL() throws SQLException {
-    return delegate.supportsANSI92FullSQL();
+    return read(DatabaseMetaData::supportsANSI92FullSQL);
   }
 
   public boolean supportsIntegrityEnhancementFacility() throws SQLException {
-    return delegate.supportsIntegrityEnhancementFacility();
+    return read(DatabaseMetaData::supportsIntegrityEnhancementFacility);
   }
 
   public boolean supportsOuterJoins() throws SQLException {
-    return delegate.supportsOuterJoins();
+    return read(DatabaseMetaData::supportsOuterJoins);
   }
 
   public boolean supportsFullOuterJoins() throws SQLException {
-    return delegate.supportsFullOuterJoins();
+    return read(DatabaseMetaData::supportsFullOuterJoins);
   }
 
   public boolean supportsLimitedOuterJoins() throws SQLException {
-    return delegate.supportsLimitedOuterJoins();
+    return read(DatabaseMetaData::supportsLimitedOuterJoins);
   }
 
   public String getSchemaTerm() throws SQLException {
-    return delegate.getSchemaTerm();
+    return read(DatabaseMetaData::getSchemaTerm);
   }
 
   public String getProcedureTerm() throws SQLException {
-    return delegate.getProcedureTerm();
+    return read(DatabaseMetaData::getProcedureTerm);
   }
 
   public String getCatalogTerm() throws SQLException {
-    return delegate.getCatalogTerm();
+    return read(DatabaseMetaData::getCatalogTerm);
   }
 
   public boolean isCatalogAtStart() throws SQLException {
-    return delegate.isCatalogAtStart();
+    return read(DatabaseMetaData::isCatalogAtStart);
   }
 
   public String getCatalogSeparator() throws SQLException {
-    return delegate.getCatalogSeparator();
+    return read(DatabaseMetaData::getCatalogSeparator);
   }
 
   public boolean supportsSchemasInDataManipulation() throws SQLException {
-    return delegate.supportsSchemasInDataManipulation();
+    return read(DatabaseMetaData::supportsSchemasInDataManipulation);
   }
 
   public boolean supportsSchemasInProcedureCalls() throws SQLException {
-    return delegate.supportsSchemasInProcedureCalls();
+    return read(DatabaseMetaData::supportsSchemasInProcedureCalls);
   }
 
   public boolean supportsSchemasInTableDefinitions() throws SQLException {
-    return delegate.supportsSchemasInTableDefinitions();
+    return read(DatabaseMetaData::supportsSchemasInTableDefinitions);
   }
 
   public boolean supportsSchemasInIndexDefinitions() throws SQLException {
-    return delegate.supportsSchemasInIndexDefinitions();
+    return read(DatabaseMetaData::supportsSchemasInIndexDefinitions);
   }
 
   public boolean supportsSchemasInPrivilegeDefinitions() throws SQLException {
-    return delegate.supportsSchemasInPrivilegeDefinitions();
+    return read(DatabaseMetaData::supportsSchemasInPrivilegeDefinitions);
   }
 
   public boolean supportsCatalogsInDataManipulation() throws SQLException {
-    return delegate.supportsCatalogsInDataManipulation();
+    return read(DatabaseMetaData::supportsCatalogsInDataManipulation);
   }
 
   public boolean supportsCatalogsInProcedureCalls() throws SQLException {
-    return delegate.supportsCatalogsInProcedureCalls();
+    return read(DatabaseMetaData::supportsCatalogsInProcedureCalls);
   }
 
   public boolean supportsCatalogsInTableDefinitions() throws SQLException {
-    return delegate.supportsCatalogsInTableDefinitions();
+    return read(DatabaseMetaData::supportsCatalogsInTableDefinitions);
   }
 
   public boolean supportsCatalogsInIndexDefinitions() throws SQLException {
-    return delegate.supportsCatalogsInIndexDefinitions();
+    return read(DatabaseMetaData::supportsCatalogsInIndexDefinitions);
   }
 
   public boolean supportsCatalogsInPrivilegeDefinitions() throws SQLException {
-    return delegate.supportsCatalogsInPrivilegeDefinitions();
+    return read(DatabaseMetaData::supportsCatalogsInPrivilegeDefinitions);
   }
 
   public boolean supportsPositionedDelete() throws SQLException {
-    return delegate.supportsPositionedDelete();
+    return read(DatabaseMetaData::supportsPositionedDelete);
   }
 
   public boolean supportsPositionedUpdate() throws SQLException {
-    return delegate.supportsPositionedUpdate();
+    return read(DatabaseMetaData::supportsPositionedUpdate);
   }
 
   public boolean supportsSelectForUpdate() throws SQLException {
-    return delegate.supportsSelectForUpdate();
+    return read(DatabaseMetaData::supportsSelectForUpdate);
   }
 
   public boolean supportsStoredProcedures() throws SQLException {
-    return delegate.supportsStoredProcedures();
+    return read(DatabaseMetaData::supportsStoredProcedures);
   }
 
   public boolean supportsSubqueriesInComparisons() throws SQLException {
-    return delegate.supportsSubqueriesInComparisons();
+    return read(DatabaseMetaData::supportsSubqueriesInComparisons);
   }
 
   public boolean supportsSubqueriesInExists() throws SQLException {
-    return delegate.supportsSubqueriesInExists();
+    return read(DatabaseMetaData::supportsSubqueriesInExists);
   }
 
   public boolean supportsSubqueriesInIns() throws SQLException {
-    return delegate.supportsSubqueriesInIns();
+    return read(DatabaseMetaData::supportsSubqueriesInIns);
   }
 
   public boolean supportsSubqueriesInQuantifieds() throws SQLException {
-    return delegate.supportsSubqueriesInQuantifieds();
+    return read(DatabaseMetaData::supportsSubqueriesInQuantifieds);
   }
 
   public boolean supportsCorrelatedSubqueries() throws SQLException {
-    return delegate.supportsCorrelatedSubqueries();
+    return read(DatabaseMetaData::supportsCorrelatedSubqueries);
   }
 
   public boolean supportsUnion() throws SQLException {
-    return delegate.supportsUnion();
+    return read(DatabaseMetaData::supportsUnion);
   }
 
   public boolean supportsUnionAll() throws SQLException {
-    return delegate.supportsUnionAll();
+    return read(DatabaseMetaData::supportsUnionAll);
   }
 
   public boolean supportsOpenCursorsAcrossCommit() throws SQLException {
-    return delegate.supportsOpenCursorsAcrossCommit();
+    return read(DatabaseMetaData::supportsOpenCursorsAcrossCommit);
   }
 
   public boolean supportsOpenCursorsAcrossRollback() throws SQLException {
-    return delegate.supportsOpenCursorsAcrossRollback();
+    return read(DatabaseMetaData::supportsOpenCursorsAcrossRollback);
   }
 
   public boolean supportsOpenStatementsAcrossCommit() throws SQLException {
-    return delegate.supportsOpenStatementsAcrossCommit();
+    return read(DatabaseMetaData::supportsOpenStatementsAcrossCommit);
   }
 
   public boolean supportsOpenStatementsAcrossRollback() throws SQLException {
-    return delegate.supportsOpenStatementsAcrossRollback();
+    return read(DatabaseMetaData::supportsOpenStatementsAcrossRollback);
   }
 
   public int getMaxBinaryLiteralLength() throws SQLException {
-    return delegate.getMaxBinaryLiteralLength();
+    return read(DatabaseMetaData::getMaxBinaryLiteralLength);
   }
 
   public int getMaxCharLiteralLength() throws SQLException {
-    return delegate.getMaxCharLiteralLength();
+    return read(DatabaseMetaData::getMaxCharLiteralLength);
   }
 
   public int getMaxColumnNameLength() throws SQLException {
-    return delegate.getMaxColumnNameLength();
+    return read(DatabaseMetaData::getMaxColumnNameLength);
   }
 
   public int getMaxColumnsInGroupBy() throws SQLException {
-    return delegate.getMaxColumnsInGroupBy();
+    return read(DatabaseMetaData::getMaxColumnsInGroupBy);
   }
 
   public int getMaxColumnsInIndex() throws SQLException {
-    return delegate.getMaxColumnsInIndex();
+    return read(DatabaseMetaData::getMaxColumnsInIndex);
   }
 
   public int getMaxColumnsInOrderBy() throws SQLException {
-    return delegate.getMaxColumnsInOrderBy();
+    return read(DatabaseMetaData::getMaxColumnsInOrderBy);
   }
 
   public int getMaxColumnsInSelect() throws SQLException {
-    return delegate.getMaxColumnsInSelect();
+    return read(DatabaseMetaData::getMaxColumnsInSelect);
   }
 
   public int getMaxColumnsInTable() throws SQLException {
-    return delegate.getMaxColumnsInTable();
+    return read(DatabaseMetaData::getMaxColumnsInTable);
   }
 
   public int getMaxConnections() throws SQLException {
-    return delegate.getMaxConnections();
+    return read(DatabaseMetaData::getMaxConnections);
   }
 
   public int getMaxCursorNameLength() throws SQLException {
-    return delegate.getMaxCursorNameLength();
+    return read(DatabaseMetaData::getMaxCursorNameLength);
   }
 
   public int getMaxIndexLength() throws SQLException {
-    return delegate.getMaxIndexLength();
+    return read(DatabaseMetaData::getMaxIndexLength);
   }
 
   public int getMaxSchemaNameLength() throws SQLException {
-    return delegate.getMaxSchemaNameLength();
+    return read(DatabaseMetaData::getMaxSchemaNameLength);
   }
 
   public int getMaxProcedureNameLength() throws SQLException {
-    return delegate.getMaxProcedureNameLength();
+    return read(DatabaseMetaData::getMaxProcedureNameLength);
   }
 
   public int getMaxCatalogNameLength() throws SQLException {
-    return delegate.getMaxCatalogNameLength();
+    return read(DatabaseMetaData::getMaxCatalogNameLength);
   }
 
   public int getMaxRowSize() throws SQLException {
-    return delegate.getMaxRowSize();
+    return read(DatabaseMetaData::getMaxRowSize);
   }
 
   public boolean doesMaxRowSizeIncludeBlobs() throws SQLException {
-    return delegate.doesMaxRowSizeIncludeBlobs();
+    return read(DatabaseMetaData::doesMaxRowSizeIncludeBlobs);
   }
 
   public int getMaxStatementLength() throws SQLException {
-    return delegate.getMaxStatementLength();
+    return read(DatabaseMetaData::getMaxStatementLength);
   }
 
   public int getMaxStatements() throws SQLException {
-    return delegate.getMaxStatements();
+    return read(DatabaseMetaData::getMaxStatements);
   }
 
   public int getMaxTableNameLength() throws SQLException {
-    return delegate.getMaxTableNameLength();
+    return read(DatabaseMetaData::getMaxTableNameLength);
   }
 
   public int getMaxTablesInSelect() throws SQLException {
-    return delegate.getMaxTablesInSelect();
+    return read(DatabaseMetaData::getMaxTablesInSelect);
   }
 
   public int getMaxUserNameLength() throws SQLException {
-    return delegate.getMaxUserNameLength();
+    return read(DatabaseMetaData::getMaxUserNameLength);
   }
 
   public int getDefaultTransactionIsolation() throws SQLException {
-    return delegate.getDefaultTransactionIsolation();
+    return read(DatabaseMetaData::getDefaultTransactionIsolation);
   }
 
   public boolean supportsTransactions() throws SQLException {
-    return delegate.supportsTransactions();
+    return read(DatabaseMetaData::supportsTransactions);
   }
 
   public boolean supportsTransactionIsolationLevel(int level) throws SQLException {
-    return delegate.supportsTransactionIsolationLevel(level);
+    return read(metaData -> metaData.supportsTransactionIsolationLevel(level));
   }
 
   public boolean supportsDataDefinitionAndDataManipulationTransactions() throws SQLException {
-    return delegate.supportsDataDefinitionAndDataManipulationTransactions();
+    return read(DatabaseMetaData::supportsDataDefinitionAndDataManipulationTransactions);
   }
 
   public boolean supportsDataManipulationTransactionsOnly() throws SQLException {
-    return delegate.supportsDataManipulationTransactionsOnly();
+    return read(DatabaseMetaData::supportsDataManipulationTransactionsOnly);
   }
 
   public boolean dataDefinitionCausesTransactionCommit() throws SQLException {
-    return delegate.dataDefinitionCausesTransactionCommit();
+    return read(DatabaseMetaData::dataDefinitionCausesTransactionCommit);
   }
 
   public boolean dataDefinitionIgnoredInTransactions() throws SQLException {
-    return delegate.dataDefinitionIgnoredInTransactions();
+    return read(DatabaseMetaData::dataDefinitionIgnoredInTransactions);
   }
 
   public ResultSet getProcedures(String catalog, String schemaPattern, String procedureNamePattern)
       throws SQLException {
-    return delegate.getProcedures(catalog, schemaPattern, procedureNamePattern);
+    return query(metaData -> metaData.getProcedures(catalog, schemaPattern, procedureNamePattern));
   }
 
   public ResultSet getProcedureColumns(String catalog, String schemaPattern,
       String procedureNamePattern, String columnNamePattern) throws SQLException {
-    return delegate.getProcedureColumns(catalog, schemaPattern, procedureNamePattern,
-        columnNamePattern);
+    return query(metaData -> metaData.getProcedureColumns(catalog, schemaPattern,
+        procedureNamePattern, columnNamePattern));
   }
 
   public ResultSet getTables(String catalog, String schemaPattern, String tableNamePattern,
       String[] types) throws SQLException {
-    return delegate.getTables(catalog, schemaPattern, tableNamePattern, types);
+    return query(metaData -> metaData.getTables(catalog, schemaPattern, tableNamePattern, types));
   }
 
   public ResultSet getSchemas() throws SQLException {
-    return delegate.getSchemas();
+    return query(DatabaseMetaData::getSchemas);
   }
 
   public ResultSet getCatalogs() throws SQLException {
-    return delegate.getCatalogs();
+    return query(DatabaseMetaData::getCatalogs);
   }
 
   public ResultSet getTableTypes() throws SQLException {
-    return delegate.getTableTypes();
+    return query(DatabaseMetaData::getTableTypes);
   }
 
   public ResultSet getColumns(String catalog, String schemaPattern, String tableNamePattern,
       String columnNamePattern) throws SQLException {
-    return delegate.getColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern);
+    return query(metaData -> metaData.getColumns(catalog, schemaPattern, tableNamePattern,
+        columnNamePattern));
   }
 
   public ResultSet getColumnPrivileges(String catalog, String schema, String table,
       String columnNamePattern) throws SQLException {
-    return delegate.getColumnPrivileges(catalog, schema, table, columnNamePattern);
+    return query(metaData -> metaData.getColumnPrivileges(catalog, schema, table,
+        columnNamePattern));
   }
 
   public ResultSet getTablePrivileges(String catalog, String schemaPattern, String tableNamePattern)
       throws SQLException {
-    return delegate.getTablePrivileges(catalog, schemaPattern, tableNamePattern);
+    return query(metaData -> metaData.getTablePrivileges(catalog, schemaPattern, tableNamePattern));
   }
 
   public ResultSet getBestRowIdentifier(String catalog, String schema, String table, int scope,
       boolean nullable) throws SQLException {
-    return delegate.getBestRowIdentifier(catalog, schema, table, scope, nullable);
+    return query(metaData -> metaData.getBestRowIdentifier(catalog, schema, table, scope,
+        nullable));
   }
 
   public ResultSet getVersionColumns(String catalog, String schema, String table)
       throws SQLException {
-    return delegate.getVersionColumns(catalog, schema, table);
+    return query(metaData -> metaData.getVersionColumns(catalog, schema, table));
   }
 
   public ResultSet getPrimaryKeys(String catalog, String schema, String table) throws SQLException {
-    return delegate.getPrimaryKeys(catalog, schema, table);
+    return query(metaData -> metaData.getPrimaryKeys(catalog, schema, table));
   }
 
   public ResultSet getImportedKeys(String catalog, String schema, String table)
       throws SQLException {
-    return delegate.getImportedKeys(catalog, schema, table);
+    return query(metaData -> metaData.getImportedKeys(catalog, schema, table));
   }
 
   public ResultSet getExportedKeys(String catalog, String schema, String table)
       throws SQLException {
-    return delegate.getExportedKeys(catalog, schema, table);
+    return query(metaData -> metaData.getExportedKeys(catalog, schema, table));
   }
 
   public ResultSet getCrossReference(String parentCatalog, String parentSchema, String parentTable,
       String foreignCatalog, String foreignSchema, String foreignTable) throws SQLException {
-    return delegate.getCrossReference(parentCatalog, parentSchema, parentTable, foreignCatalog,
-        foreignSchema, foreignTable);
+    return query(metaData -> metaData.getCrossReference(parentCatalog, parentSchema, parentTable,
+        foreignCatalog, foreignSchema, foreignTable));
   }
 
   public ResultSet getTypeInfo() throws SQLException {
-    return delegate.getTypeInfo();
+    return query(DatabaseMetaData::getTypeInfo);
   }
 
   public ResultSet getIndexInfo(String catalog, String schema, String table, boolean unique,
       boolean approximate) throws SQLException {
-    return delegate.getIndexInfo(catalog, schema, table, unique, approximate);
+    return query(metaData -> metaData.getIndexInfo(catalog, schema, table, unique, approximate));
   }
 
   public boolean supportsResultSetType(int type) throws SQLException {
-    return delegate.supportsResultSetType(type);
+    return read(metaData -> metaData.supportsResultSetType(type));
   }
 
   public boolean supportsResultSetConcurrency(int type, int concurrency) throws SQLException {
-    return delegate.supportsResultSetConcurrency(type, concurrency);
+    return read(metaData -> metaData.supportsResultSetConcurrency(type, concurrency));
   }
 
   public boolean ownUpdatesAreVisible(int type) throws SQLException {
-    return delegate.ownUpdatesAreVisible(type);
+    return read(metaData -> metaData.ownUpdatesAreVisible(type));
   }
 
   public boolean ownDeletesAreVisible(int type) throws SQLException {
-    return delegate.ownDeletesAreVisible(type);
+    return read(metaData -> metaData.ownDeletesAreVisible(type));
   }
 
   public boolean ownInsertsAreVisible(int type) throws SQLException {
-    return delegate.ownInsertsAreVisible(type);
+    return read(metaData -> metaData.ownInsertsAreVisible(type));
   }
 
   public boolean othersUpdatesAreVisible(int type) throws SQLException {
-    return delegate.othersUpdatesAreVisible(type);
+    return read(metaData -> metaData.othersUpdatesAreVisible(type));
   }
 
   public boolean othersDeletesAreVisible(int type) throws SQLException {
-    return delegate.othersDeletesAreVisible(type);
+    return read(metaData -> metaData.othersDeletesAreVisible(type));
   }
 
   public boolean othersInsertsAreVisible(int type) throws SQLException {
-    return delegate.othersInsertsAreVisible(type);
+    return read(metaData -> metaData.othersInsertsAreVisible(type));
   }
 
   public boolean updatesAreDetected(int type) throws SQLException {
-    return delegate.updatesAreDetected(type);
+    return read(metaData -> metaData.updatesAreDetected(type));
   }
 
   public boolean deletesAreDetected(int type) throws SQLException {
-    return delegate.deletesAreDetected(type);
+    return read(metaData -> metaData.deletesAreDetected(type));
   }
 
   public boolean insertsAreDetected(int type) throws SQLException {
-    return delegate.insertsAreDetected(type);
+    return read(metaData -> metaData.insertsAreDetected(type));
   }
 
   public boolean supportsBatchUpdates() throws SQLException {
-    return delegate.supportsBatchUpdates();
+    return read(DatabaseMetaData::supportsBatchUpdates);
   }
 
   public ResultSet getUDTs(String catalog, String schemaPattern, String typeNamePattern,
       int[] types) throws SQLException {
-    return delegate.getUDTs(catalog, schemaPattern, typeNamePattern, types);
+    return query(metaData -> metaData.getUDTs(catalog, schemaPattern, typeNamePattern, types));
   }
 
   public Connection getConnection() throws SQLException {
@@ -641,117 +727,119 @@ class SmartCommitDatabaseMetaData extends AbstractDelegateWrapper<DatabaseMetaDa
   }
 
   public boolean supportsSavepoints() throws SQLException {
-    return delegate.supportsSavepoints();
+    return read(DatabaseMetaData::supportsSavepoints);
   }
 
   public boolean supportsNamedParameters() throws SQLException {
-    return delegate.supportsNamedParameters();
+    return read(DatabaseMetaData::supportsNamedParameters);
   }
 
   public boolean supportsMultipleOpenResults() throws SQLException {
-    return delegate.supportsMultipleOpenResults();
+    return read(DatabaseMetaData::supportsMultipleOpenResults);
   }
 
   public boolean supportsGetGeneratedKeys() throws SQLException {
-    return delegate.supportsGetGeneratedKeys();
+    return read(DatabaseMetaData::supportsGetGeneratedKeys);
   }
 
   public ResultSet getSuperTypes(String catalog, String schemaPattern, String typeNamePattern)
       throws SQLException {
-    return delegate.getSuperTypes(catalog, schemaPattern, typeNamePattern);
+    return query(metaData -> metaData.getSuperTypes(catalog, schemaPattern, typeNamePattern));
   }
 
   public ResultSet getSuperTables(String catalog, String schemaPattern, String tableNamePattern)
       throws SQLException {
-    return delegate.getSuperTables(catalog, schemaPattern, tableNamePattern);
+    return query(metaData -> metaData.getSuperTables(catalog, schemaPattern, tableNamePattern));
   }
 
   public ResultSet getAttributes(String catalog, String schemaPattern, String typeNamePattern,
       String attributeNamePattern) throws SQLException {
-    return delegate.getAttributes(catalog, schemaPattern, typeNamePattern, attributeNamePattern);
+    return query(metaData -> metaData.getAttributes(catalog, schemaPattern, typeNamePattern,
+        attributeNamePattern));
   }
 
   public boolean supportsResultSetHoldability(int holdability) throws SQLException {
-    return delegate.supportsResultSetHoldability(holdability);
+    return read(metaData -> metaData.supportsResultSetHoldability(holdability));
   }
 
   public int getResultSetHoldability() throws SQLException {
-    return delegate.getResultSetHoldability();
+    return read(DatabaseMetaData::getResultSetHoldability);
   }
 
   public int getDatabaseMajorVersion() throws SQLException {
-    return delegate.getDatabaseMajorVersion();
+    return read(DatabaseMetaData::getDatabaseMajorVersion);
   }
 
   public int getDatabaseMinorVersion() throws SQLException {
-    return delegate.getDatabaseMinorVersion();
+    return read(DatabaseMetaData::getDatabaseMinorVersion);
   }
 
   public int getJDBCMajorVersion() throws SQLException {
-    return delegate.getJDBCMajorVersion();
+    return read(DatabaseMetaData::getJDBCMajorVersion);
   }
 
   public int getJDBCMinorVersion() throws SQLException {
-    return delegate.getJDBCMinorVersion();
+    return read(DatabaseMetaData::getJDBCMinorVersion);
   }
 
   public int getSQLStateType() throws SQLException {
-    return delegate.getSQLStateType();
+    return read(DatabaseMetaData::getSQLStateType);
   }
 
   public boolean locatorsUpdateCopy() throws SQLException {
-    return delegate.locatorsUpdateCopy();
+    return read(DatabaseMetaData::locatorsUpdateCopy);
   }
 
   public boolean supportsStatementPooling() throws SQLException {
-    return delegate.supportsStatementPooling();
+    return read(DatabaseMetaData::supportsStatementPooling);
   }
 
   public RowIdLifetime getRowIdLifetime() throws SQLException {
-    return delegate.getRowIdLifetime();
+    return read(DatabaseMetaData::getRowIdLifetime);
   }
 
   public ResultSet getSchemas(String catalog, String schemaPattern) throws SQLException {
-    return delegate.getSchemas(catalog, schemaPattern);
+    return query(metaData -> metaData.getSchemas(catalog, schemaPattern));
   }
 
   public boolean supportsStoredFunctionsUsingCallSyntax() throws SQLException {
-    return delegate.supportsStoredFunctionsUsingCallSyntax();
+    return read(DatabaseMetaData::supportsStoredFunctionsUsingCallSyntax);
   }
 
   public boolean autoCommitFailureClosesAllResultSets() throws SQLException {
-    return delegate.autoCommitFailureClosesAllResultSets();
+    return read(DatabaseMetaData::autoCommitFailureClosesAllResultSets);
   }
 
   public ResultSet getClientInfoProperties() throws SQLException {
-    return delegate.getClientInfoProperties();
+    return query(DatabaseMetaData::getClientInfoProperties);
   }
 
   public ResultSet getFunctions(String catalog, String schemaPattern, String functionNamePattern)
       throws SQLException {
-    return delegate.getFunctions(catalog, schemaPattern, functionNamePattern);
+    return query(metaData -> metaData.getFunctions(catalog, schemaPattern, functionNamePattern));
   }
 
   public ResultSet getFunctionColumns(String catalog, String schemaPattern,
       String functionNamePattern, String columnNamePattern) throws SQLException {
-    return delegate.getFunctionColumns(catalog, schemaPattern, functionNamePattern,
-        columnNamePattern);
+    return query(metaData -> metaData.getFunctionColumns(catalog, schemaPattern,
+        functionNamePattern, columnNamePattern));
   }
 
   public ResultSet getPseudoColumns(String catalog, String schemaPattern, String tableNamePattern,
       String columnNamePattern) throws SQLException {
-    return delegate.getPseudoColumns(catalog, schemaPattern, tableNamePattern, columnNamePattern);
+    return query(metaData -> metaData.getPseudoColumns(catalog, schemaPattern, tableNamePattern,
+        columnNamePattern));
   }
 
   public boolean generatedKeyAlwaysReturned() throws SQLException {
-    return delegate.generatedKeyAlwaysReturned();
+    return read(DatabaseMetaData::generatedKeyAlwaysReturned);
   }
 
   public long getMaxLogicalLobSize() throws SQLException {
-    return delegate.getMaxLogicalLobSize();
+    return read(DatabaseMetaData::getMaxLogicalLobSize);
   }
 
   public boolean supportsRefCursors() throws SQLException {
-    return delegate.supportsRefCursors();
+    return read(DatabaseMetaData::supportsRefCursors);
   }
 }
@@ -25,11 +25,13 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 public class SmartCommitDriver implements Driver {
   private static final String DRIVER_PREFIX = "jdbc:smartcommit:";
+  private static final String POOL_PREFIX = DRIVER_PREFIX + "pool:";
   private static final int DRIVER_MAJOR_VERSION = 1;
   private static final int DRIVER_MINOR_VERSION = 0;
   private static final Logger PARENT_LOGGER = Logger.getLogger("com.github.jdbc.smartcommit");
@@ -45,9 +47,40 @@ public class SmartCommitDriver implements Driver {
     WELL_KNOWN_DRIVERS.put("jdbc:oracle:", "oracle.jdbc.OracleDriver");
   }
 
+  private static final Map<String, Dialect> WELL_KNOWN_DIALECTS = new HashMap<>();
+
+  static {
+    WELL_KNOWN_DIALECTS.put("jdbc:h2:", Dialect.GENERIC);
+    WELL_KNOWN_DIALECTS.put("jdbc:postgresql:", Dialect.POSTGRESQL);
+    WELL_KNOWN_DIALECTS.put("jdbc:mysql:", Dialect.MYSQL);
+    WELL_KNOWN_DIALECTS.put("jdbc:mariadb:", Dialect.MYSQL);
+    WELL_KNOWN_DIALECTS.put("jdbc:cloudspanner:", Dialect.SPANNER);
+    WELL_KNOWN_DIALECTS.put("jdbc:sqlserver:", Dialect.SQLSERVER);
+    WELL_KNOWN_DIALECTS.put("jdbc:oracle:", Dialect.ORACLE);
+  }
+
+  /** Dialects that have been detected from the database product name, keyed by URL type. */
+  private static final Map<String, Dialect> DETECTED_DIALECTS = new ConcurrentHashMap<>();
+
+  /**
+   * Drivers that have been resolved for the underlying connections, keyed by URL type. Resolving a
+   * driver loads all drivers on the class path and scans the drivers that are registered with the
+   * {@link DriverManager}, which is too expensive to do for every connection. A driver is removed
+   * from the cache when it fails to open a connection, and the cache is cleared when this driver is
+   * deregistered.
+   */
+  private static final Map<String, Driver> RESOLVED_DRIVERS = new ConcurrentHashMap<>();
+
+  /**
+   * The embedded pools for URLs that start with 'jdbc:smartcommit:pool:', keyed by the URL and the
+   * properties of the underlying connections. The pools are closed when this driver is
+   * deregistered.
+   */
+  private static final Map<String, DelegateConnectionPool> POOLS = new ConcurrentHashMap<>();
+
   static class DelegateInfo {
-    private final Driver driver;
-    private final String url;
+    final Driver driver;
+    final String url;
 
     DelegateInfo(Driver driver, String url) {
       this.driver = driver;
@@ -80,16 +113,26 @@ public class SmartCommitDriver implements Driver {
    * @throws SQLException if deregistering the driver fails
    */
   static void deregister() throws SQLException {
+    RESOLVED_DRIVERS.clear();
+    DETECTED_DIALECTS.clear();
+    for (DelegateConnectionPool pool : POOLS.values()) {
+      pool.close();
+    }
+    POOLS.clear();
     DriverManager.deregisterDriver(registeredDriver.getAndSet(null));
   }
 
   public SmartCommitDriver() {}
 
-  private DelegateInfo getDelegateInfo(String url) throws SQLException {
-    if (acceptsURL(url)) {
-      String delegateUrl = "jdbc:" + url.substring(DRIVER_PREFIX.length());
-      tryRegisterDriver(delegateUrl);
-      Driver driver = DriverManager.getDriver(delegateUrl);
+  /**
+   * Returns the driver and URL of the underlying connection for the given smart commit URL, or null
+   * if the URL is not a smart commit URL or no driver accepts the URL of the underlying connection.
+   */
+  static DelegateInfo getDelegateInfo(String url) throws SQLException {
+    if (url.startsWith(DRIVER_PREFIX)) {
+      String delegateUrl =
+          "jdbc:" + ConnectionOptions.removeOptions(url.substring(DRIVER_PREFIX.length()));
+      Driver driver = getDriver(delegateUrl);
       if (driver != null) {
         return new DelegateInfo(driver, delegateUrl);
       }
@@ -97,7 +140,27 @@ public class SmartCommitDriver implements Driver {
     return null;
   }
 
-  private void tryRegisterDriver(String url) throws SQLException {
+  /**
+   * Returns the driver for the given URL of an underlying connection. The driver that was resolved
+   * for the type of the URL is reused if it accepts the URL.
+   */
+  private static Driver getDriver(String url) throws SQLException {
+    String type = getUrlType(url);
+    if (type != null) {
+      Driver driver = RESOLVED_DRIVERS.get(type);
+      if (driver != null && driver.acceptsURL(url)) {
+        return driver;
+      }
+    }
+    tryRegisterDriver(url);
+    Driver driver = DriverManager.getDriver(url);
+    if (driver != null && type != null) {
+      RESOLVED_DRIVERS.put(type, driver);
+    }
+    return driver;
+  }
+
+  private static void tryRegisterDriver(String url) throws SQLException {
     // Iterate over all drivers than can be found and try to dynamically load that driver.
     Iterator<Driver> iterator = ServiceLoader.load(Driver.class).iterator();
     while (iterator.hasNext()) {
@@ -112,11 +175,10 @@ public class SmartCommitDriver implements Driver {
       }
     }
     // No driver found during dynamic loading. Check if it is a well-known driver.
-    int secondColon = url.indexOf(':', "jdbc:".length());
-    if (secondColon == -1) {
+    String type = getUrlType(url);
+    if (type == null) {
       return;
     }
-    String type = url.substring(0, secondColon + 1);
     try {
       String className = WELL_KNOWN_DRIVERS.get(type);
       if (className != null) {
@@ -127,17 +189,135 @@ public class SmartCommitDriver implements Driver {
     }
   }
 
+  /** Returns the type of the given URL, e.g. 'jdbc:postgresql:', or null if it has no type. */
+  private static String getUrlType(String url) {
+    int secondColon = url.indexOf(':', "jdbc:".length());
+    if (secondColon == -1) {
+      return null;
+    }
+    return url.substring(0, secondColon + 1);
+  }
+
+  /**
+   * Determines the dialect for a connection. The dialect is determined by the options of the
+   * connection, the URL of the underlying connection, or the database product name of the
+   * underlying database. The latter is only requested for the first connection for a URL type.
+   */
+  static Dialect getDialect(ConnectionOptions options, String url, Connection connection)
+      throws SQLException {
+    Dialect dialect = getKnownDialect(options, url);
+    return dialect == null ? detectDialect(url, connection) : dialect;
+  }
+
+  /**
+   * Returns the dialect for a connection if it can be determined without a connection to the
+   * database, and otherwise null.
+   */
+  private static Dialect getKnownDialect(ConnectionOptions options, String url)
+      throws SQLException {
+    Dialect dialect = options.getDialect();
+    if (dialect != null) {
+      return dialect;
+    }
+    String type = getUrlType(url);
+    dialect = WELL_KNOWN_DIALECTS.get(type);
+    if (dialect == null && type != null) {
+      dialect = DETECTED_DIALECTS.get(type);
+    }
+    return dialect;
+  }
+
+  private static Dialect detectDialect(String url, Connection connection) throws SQLException {
+    Dialect dialect =
+        Dialect.forDatabaseProductName(connection.getMetaData().getDatabaseProductName());
+    String type = getUrlType(url);
+    if (type != null) {
+      DETECTED_DIALECTS.put(type, dialect);
+    }
+    return dialect;
+  }
+
   public Connection connect(String url, Properties info) throws SQLException {
+    if (url.startsWith(POOL_PREFIX)) {
+      return connectPooled(url, info);
+    }
     DelegateInfo delegateInfo = getDelegateInfo(url);
     if (delegateInfo != null) {
-      Connection delegateConnection = delegateInfo.driver.connect(delegateInfo.url, info);
-      if (delegateConnection != null) {
-        return new SmartCommitConnection(delegateConnection);
+      ConnectionOptions options = ConnectionOptions.parse(url, info);
+      Properties delegateProperties = ConnectionOptions.removeOptions(info);
+      // A lazy connection is only opened directly if the dialect must be read from the database.
+      Connection delegateConnection = options.isLazyConnect()
+          ? new LazyDelegateConnection(() -> connectDelegate(delegateInfo, delegateProperties))
+          : connectDelegate(delegateInfo, delegateProperties);
+      return new SmartCommitConnection(delegateConnection, options,
+          getDialect(options, delegateInfo.url, delegateConnection),
+          () -> connectDelegate(delegateInfo, delegateProperties));
+    }
+    return null;
+  }
+
+  /**
+   * Opens a connection for a URL that starts with 'jdbc:smartcommit:pool:'. The connection borrows
+   * its physical connections from an embedded pool that is shared by all connections with the same
+   * URL and properties. The pool is created with the options of the first connection.
+   */
+  private static Connection connectPooled(String url, Properties info) throws SQLException {
+    DelegateInfo delegateInfo = getDelegateInfo(removePoolPrefix(url));
+    if (delegateInfo == null) {
+      return null;
+    }
+    ConnectionOptions options = ConnectionOptions.parse(url, info);
+    Properties delegateProperties = ConnectionOptions.removeOptions(info);
+    int maxSize = options.getPoolMaxSize();
+    long timeout = options.getPoolTimeout();
+    long validationInterval = options.getPoolValidationInterval();
+    DelegateConnectionPool pool = POOLS.computeIfAbsent(delegateInfo.url + delegateProperties,
+        key -> new DelegateConnectionPool(() -> connectDelegate(delegateInfo, delegateProperties),
+            maxSize, timeout, validationInterval));
+    Dialect dialect = getKnownDialect(options, delegateInfo.url);
+    if (dialect == null) {
+      Connection connection = pool.borrow();
+      try {
+        dialect = detectDialect(delegateInfo.url, connection);
+      } finally {
+        pool.release(connection);
       }
+    }
+    return new SmartCommitConnection(new LazyDelegateConnection(pool), options, dialect,
+        () -> connectDelegate(delegateInfo, delegateProperties));
+  }
+
+  private static String removePoolPrefix(String url) {
+    return url.startsWith(POOL_PREFIX) ? DRIVER_PREFIX + url.substring(POOL_PREFIX.length()) : url;
+  }
+
+  static Connection connectDelegate(DelegateInfo delegateInfo, Properties properties)
+      throws SQLException {
+    Connection connection;
+    try {
+      connection = delegateInfo.driver.connect(delegateInfo.url, properties);
+    } catch (SQLException e) {
+      evictResolvedDriver(delegateInfo);
+      throw e;
+    }
+    if (connection == null) {
+      evictResolvedDriver(delegateInfo);
       throw new SQLException(
           String.format("Could not open a delegate connection for URL %s", delegateInfo.url));
     }
-    return null;
+    return connection;
+  }
+
+  /**
+   * Removes the driver of the given underlying connection from the resolved drivers, so the driver
+   * is resolved again for the next connection. The driver might have been deregistered or replaced
+   * by a different driver for the same URL type.
+   */
+  private static void evictResolvedDriver(DelegateInfo delegateInfo) {
+    String type = getUrlType(delegateInfo.url);
+    if (type != null) {
+      RESOLVED_DRIVERS.remove(type, delegateInfo.driver);
+    }
   }
 
   public boolean acceptsURL(String url) throws SQLException {
@@ -145,9 +325,9 @@ public class SmartCommitDriver implements Driver {
   }
 
   public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
-    DelegateInfo delegate = getDelegateInfo(url);
+    DelegateInfo delegate = getDelegateInfo(removePoolPrefix(url));
     if (delegate != null) {
-      return delegate.driver.getPropertyInfo(delegate.url, info);
+      return delegate.driver.getPropertyInfo(delegate.url, ConnectionOptions.removeOptions(info));
     }
     return new DriverPropertyInfo[0];
   }
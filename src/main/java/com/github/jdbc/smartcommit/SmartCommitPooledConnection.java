@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEvent;
+import javax.sql.StatementEventListener;
+
+/**
+ * {@link PooledConnection} that returns {@link SmartCommitConnection}s for the logical connections
+ * of a {@link PooledConnection} of the underlying database. The parse cache is created once for
+ * the physical connection and is reused by all logical connections that are handed out by this
+ * pooled connection, so a connection that is checked out of a pool does not start with an empty
+ * cache. Connection and statement events of the underlying pooled connection are forwarded to the
+ * listeners of this pooled connection, with this pooled connection as the source.
+ */
+class SmartCommitPooledConnection implements PooledConnection {
+  final PooledConnection delegate;
+  final DataSourceOptions options;
+  private final List<ConnectionEventListener> connectionListeners = new CopyOnWriteArrayList<>();
+  private final List<StatementEventListener> statementListeners = new CopyOnWriteArrayList<>();
+  private final ConnectionEventListener connectionEventForwarder =
+      new ConnectionEventListener() {
+        @Override
+        public void connectionClosed(ConnectionEvent event) {
+          ConnectionEvent forwarded = new ConnectionEvent(SmartCommitPooledConnection.this);
+          for (ConnectionEventListener listener : connectionListeners) {
+            listener.connectionClosed(forwarded);
+          }
+        }
+
+        @Override
+        public void connectionErrorOccurred(ConnectionEvent event) {
+          ConnectionEvent forwarded =
+              new ConnectionEvent(SmartCommitPooledConnection.this, event.getSQLException());
+          for (ConnectionEventListener listener : connectionListeners) {
+            listener.connectionErrorOccurred(forwarded);
+          }
+        }
+      };
+  private final StatementEventListener statementEventForwarder =
+      new StatementEventListener() {
+        @Override
+        public void statementClosed(StatementEvent event) {
+          StatementEvent forwarded =
+              new StatementEvent(SmartCommitPooledConnection.this, event.getStatement());
+          for (StatementEventListener listener : statementListeners) {
+            listener.statementClosed(forwarded);
+          }
+        }
+
+        @Override
+        public void statementErrorOccurred(StatementEvent event) {
+          StatementEvent forwarded = new StatementEvent(SmartCommitPooledConnection.this,
+              event.getStatement(), event.getSQLException());
+          for (StatementEventListener listener : statementListeners) {
+            listener.statementErrorOccurred(forwarded);
+          }
+        }
+      };
+
+  /**
+   * The shared parse cache for the dialect of the physical connection. Looked up when the first
+   * handle is requested, as the dialect is detected from the physical connection.
+   */
+  private ParsedStatementCache parsedStatements;
+
+  SmartCommitPooledConnection(PooledConnection delegate, DataSourceOptions options) {
+    this.delegate = delegate;
+    this.options = options;
+    delegate.addConnectionEventListener(connectionEventForwarder);
+  }
+
+  public Connection getConnection() throws SQLException {
+    Connection connection = delegate.getConnection();
+    try {
+      synchronized (this) {
+        if (parsedStatements == null) {
+          parsedStatements = SmartCommitConnection.getSharedParseCache(options.getOptions(),
+              options.getDialect(connection));
+        }
+      }
+      // Parallel batches require additional physical connections, which a pooled connection
+      // cannot provide.
+      return new SmartCommitConnection(connection, options.getOptions(), parsedStatements, null);
+    } catch (SQLException e) {
+      connection.close();
+      throw e;
+    }
+  }
+
+  public void close() throws SQLException {
+    delegate.removeConnectionEventListener(connectionEventForwarder);
+    synchronized (statementListeners) {
+      if (!statementListeners.isEmpty()) {
+        delegate.removeStatementEventListener(statementEventForwarder);
+      }
+    }
+    delegate.close();
+  }
+
+  public void addConnectionEventListener(ConnectionEventListener listener) {
+    connectionListeners.add(listener);
+  }
+
+  public void removeConnectionEventListener(ConnectionEventListener listener) {
+    connectionListeners.remove(listener);
+  }
+
+  /**
+   * Adds a statement event listener. The events of the underlying pooled connection are only
+   * requested once a listener has been added, as not all drivers support statement events.
+   */
+  public void addStatementEventListener(StatementEventListener listener) {
+    synchronized (statementListeners) {
+      if (statementListeners.isEmpty()) {
+        delegate.addStatementEventListener(statementEventForwarder);
+      }
+      statementListeners.add(listener);
+    }
+  }
+
+  public void removeStatementEventListener(StatementEventListener listener) {
+    synchronized (statementListeners) {
+      if (statementListeners.remove(listener) && statementListeners.isEmpty()) {
+        delegate.removeStatementEventListener(statementEventForwarder);
+      }
+    }
+  }
+}
@@ -14,11 +14,14 @@
 
 package com.github.jdbc.smartcommit;
 
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import com.github.jdbc.smartcommit.TransactionRecorder.BatchExecution;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Date;
@@ -38,11 +41,64 @@ import java.util.Calendar;
 
 class SmartCommitPreparedStatement<T extends PreparedStatement> extends SmartCommitStatement<T>
     implements PreparedStatement {
-  final String sql;
+  /** The statement is classified once when it is prepared, as the sql string cannot change. */
+  final ParsedStatement parsedStatement;
 
-  SmartCommitPreparedStatement(SmartCommitConnection connection, T delegate, String sql) {
+  /** Rewrites batches of this statement to multi-row inserts. Null if batches are not rewritten. */
+  private final BatchedInsertRewriter batchedInsertRewriter;
+
+  /**
+   * Captures the rows of the batch of this statement. Null if the rows are added to the batch of
+   * the underlying statement. The rows are captured if batches are rewritten to multi-row inserts
+   * or can be executed in parallel, or if transactions can be replayed. All parameter values are
+   * then captured by the store, as well as set on the underlying statement.
+   */
+  private final BatchParameterStore batchParameters;
+
+  /**
+   * Flushes the batch of this statement to the database in chunks. Null if the batch is only sent
+   * to the database when it is executed.
+   */
+  private final ChunkedBatch chunkedBatch;
+
+  /**
+   * True if the statement was prepared to return generated keys. Executions of the statement are
+   * then never buffered or flushed in chunks, as the keys must be available after execution.
+   */
+  private final boolean returnsGeneratedKeys;
+
+  SmartCommitPreparedStatement(SmartCommitConnection connection, T delegate,
+      ParsedStatement parsedStatement) {
+    this(connection, delegate, parsedStatement, false);
+  }
+
+  SmartCommitPreparedStatement(SmartCommitConnection connection, T delegate,
+      ParsedStatement parsedStatement, boolean returnsGeneratedKeys) {
+    this(connection, delegate, parsedStatement, null, null, returnsGeneratedKeys);
+  }
+
+  SmartCommitPreparedStatement(SmartCommitConnection connection, T delegate,
+      ParsedStatement parsedStatement, BatchedInsertRewriter batchedInsertRewriter,
+      BatchParameterStore batchParameters) {
+    this(connection, delegate, parsedStatement, batchedInsertRewriter, batchParameters, false);
+  }
+
+  private SmartCommitPreparedStatement(SmartCommitConnection connection, T delegate,
+      ParsedStatement parsedStatement, BatchedInsertRewriter batchedInsertRewriter,
+      BatchParameterStore batchParameters, boolean returnsGeneratedKeys) {
     super(connection, delegate);
-    this.sql = sql;
+    this.parsedStatement = parsedStatement;
+    this.batchedInsertRewriter = batchedInsertRewriter;
+    this.batchParameters = batchParameters;
+    this.returnsGeneratedKeys = returnsGeneratedKeys;
+    this.chunkedBatch = returnsGeneratedKeys ? null
+        : ChunkedBatch.create(connection.getBatchFlushRows(), connection.getBatchFlushBytes());
+  }
+
+  private void setParameterSize(int parameterIndex, long size) {
+    if (chunkedBatch != null) {
+      chunkedBatch.setParameterSize(parameterIndex, size);
+    }
   }
 
   public ResultSet executeQuery(String sql) throws SQLException {
@@ -116,24 +172,99 @@ class SmartCommitPreparedStatement<T extends PreparedStatement> extends SmartCom
   }
 
   public ResultSet executeQuery() throws SQLException {
-    // TODO: Check for lock statements in query.
-    return delegate.executeQuery();
+    turnOffAutocommitIfRequired(parsedStatement);
+    if (batchParameters == null) {
+      return connection.executeQuery(parsedStatement, () -> delegate.executeQuery(), null);
+    }
+    BatchParameterStore parameters = recordedParameters();
+    // Stream parameters cannot be read twice, so the query cannot be prepared again.
+    return connection.recordQuery(parsedStatement.getSql(), parameters,
+        connection.executeQuery(parsedStatement, () -> delegate.executeQuery(),
+            batchParameters.containsStreams() ? null : this::reconnect));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  T createDelegate(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    T statement = (T) connection.delegate.prepareStatement(parsedStatement.getSql(),
+        resultSetType, resultSetConcurrency, resultSetHoldability);
+    batchParameters.apply(batchParameters.size(), statement, 0);
+    return statement;
   }
 
   public int executeUpdate() throws SQLException {
-    turnOffAutocommit();
-    return delegate.executeUpdate();
+    if (canBufferWrite() && bufferWrite(parsedStatement)) {
+      addToWriteBehindBuffer();
+      return SUCCESS_NO_INFO;
+    }
+    turnOffAutocommit(parsedStatement);
+    if (batchParameters == null) {
+      return delegate.executeUpdate();
+    }
+    BatchParameterStore parameters = recordedParameters();
+    int res = connection.executeWithRetry(delegate::executeUpdate);
+    connection.recordUpdate(parsedStatement.getSql(), parameters, res);
+    return res;
+  }
+
+  /**
+   * Adds the current execution of this statement to the write-behind buffer. A deferred first write
+   * is copied to a statement of the buffer if its parameters are captured, so the write is still
+   * executed in autocommit if the application closes this statement before the commit.
+   */
+  private void addToWriteBehindBuffer() throws SQLException {
+    WriteBehindBuffer buffer = connection.getWriteBehindBuffer();
+    if (connection.getDelegateAutoCommit() && batchParameters != null
+        && !batchParameters.containsStreams()) {
+      buffer.add(parsedStatement.getSql(), batchParameters);
+    } else {
+      buffer.add(delegate, parsedStatement.getSql());
+    }
+  }
+
+  /**
+   * Returns a copy of the current parameters and batch of this statement if the execution should
+   * be recorded for a replay of the transaction, and null otherwise. Stream parameters cannot be
+   * read twice, and the transaction cannot be replayed if the statement contains one.
+   */
+  private BatchParameterStore recordedParameters() {
+    if (!connection.isRecordingTransaction()) {
+      return null;
+    }
+    if (batchParameters.containsStreams()) {
+      connection.markTransactionUnreplayable();
+      return null;
+    }
+    return batchParameters.copy();
+  }
+
+  /** Returns true if executions of this statement may be added to the write-behind buffer. */
+  boolean canBufferWrite() {
+    return !returnsGeneratedKeys;
   }
 
   public void setNull(int parameterIndex, int sqlType) throws SQLException {
+    setParameterSize(parameterIndex, 1L);
+    if (batchParameters != null) {
+      batchParameters.setNull(parameterIndex, sqlType);
+    }
     delegate.setNull(parameterIndex, sqlType);
   }
 
   public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+    setParameterSize(parameterIndex, 1L);
+    if (batchParameters != null) {
+      batchParameters.setBoolean(parameterIndex, x);
+    }
     delegate.setBoolean(parameterIndex, x);
   }
 
   public void setByte(int parameterIndex, byte x) throws SQLException {
+    setParameterSize(parameterIndex, 1L);
+    if (batchParameters != null) {
+      batchParameters.setByte(parameterIndex, x);
+    }
     delegate.setByte(parameterIndex, x);
   }
 
@@ -142,111 +273,342 @@ class SmartCommitPreparedStatement<T extends PreparedStatement> extends SmartCom
   }
 
   public void setShort(int parameterIndex, short x) throws SQLException {
+    setParameterSize(parameterIndex, 2L);
+    if (batchParameters != null) {
+      batchParameters.setShort(parameterIndex, x);
+    }
     delegate.setShort(parameterIndex, x);
   }
 
   public void setInt(int parameterIndex, int x) throws SQLException {
+    setParameterSize(parameterIndex, 4L);
+    if (batchParameters != null) {
+      batchParameters.setInt(parameterIndex, x);
+    }
     delegate.setInt(parameterIndex, x);
   }
 
   public void setLong(int parameterIndex, long x) throws SQLException {
+    setParameterSize(parameterIndex, 8L);
+    if (batchParameters != null) {
+      batchParameters.setLong(parameterIndex, x);
+    }
     delegate.setLong(parameterIndex, x);
   }
 
   public void setFloat(int parameterIndex, float x) throws SQLException {
+    setParameterSize(parameterIndex, 4L);
+    if (batchParameters != null) {
+      batchParameters.setFloat(parameterIndex, x);
+    }
     delegate.setFloat(parameterIndex, x);
   }
 
   public void setDouble(int parameterIndex, double x) throws SQLException {
+    setParameterSize(parameterIndex, 8L);
+    if (batchParameters != null) {
+      batchParameters.setDouble(parameterIndex, x);
+    }
     delegate.setDouble(parameterIndex, x);
   }
 
   public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setBigDecimal(parameterIndex, x);
+    }
     delegate.setBigDecimal(parameterIndex, x);
   }
 
   public void setString(int parameterIndex, String x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setString(parameterIndex, x);
+    }
     delegate.setString(parameterIndex, x);
   }
 
   public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setBytes(parameterIndex, x);
+    }
     delegate.setBytes(parameterIndex, x);
   }
 
   public void setDate(int parameterIndex, Date x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setDate(parameterIndex, x, null);
+    }
     delegate.setDate(parameterIndex, x);
   }
 
   public void setTime(int parameterIndex, Time x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setTime(parameterIndex, x, null);
+    }
     delegate.setTime(parameterIndex, x);
   }
 
   public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setTimestamp(parameterIndex, x);
+    }
     delegate.setTimestamp(parameterIndex, x);
   }
 
   public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setAsciiStream(i, x, length));
+    }
     delegate.setAsciiStream(parameterIndex, x, length);
   }
 
   @SuppressWarnings("deprecation")
   public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setUnicodeStream(i, x, length));
+    }
     delegate.setUnicodeStream(parameterIndex, x, length);
   }
 
   public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setBinaryStream(i, x, length));
+    }
     delegate.setBinaryStream(parameterIndex, x, length);
   }
 
   public void clearParameters() throws SQLException {
+    if (batchParameters != null) {
+      batchParameters.clearParameters();
+    }
+    if (chunkedBatch != null) {
+      chunkedBatch.clearParameters();
+    }
     delegate.clearParameters();
   }
 
   public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setObject(parameterIndex, x, targetSqlType);
+    }
     delegate.setObject(parameterIndex, x, targetSqlType);
   }
 
   public void setObject(int parameterIndex, Object x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setObject(parameterIndex, x);
+    }
     delegate.setObject(parameterIndex, x);
   }
 
   public boolean execute() throws SQLException {
-    turnOffAutocommitIfDml(sql);
-    return delegate.execute();
+    turnOffAutocommitIfRequired(parsedStatement);
+    if (batchParameters == null) {
+      return delegate.execute();
+    }
+    BatchParameterStore parameters = recordedParameters();
+    boolean res = connection.executeWithRetry(delegate::execute);
+    recordExecute(parsedStatement.getSql(), parameters, res);
+    return res;
   }
 
   public void addBatch() throws SQLException {
-    delegate.addBatch();
+    if (batchParameters != null) {
+      batchParameters.addBatch();
+    } else {
+      connection.flushWrites(delegate);
+      delegate.addBatch();
+    }
+    if (chunkedBatch != null && chunkedBatch.addBatch()) {
+      connection.countBatchFlush(chunkedBatch.size());
+      chunkedBatch.flushed(executeChunk());
+    }
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    if (batchParameters != null) {
+      batchParameters.clearBatch();
+    }
+    if (chunkedBatch != null) {
+      chunkedBatch.clear();
+    }
+    super.clearBatch();
+  }
+
+  @Override
+  void closeDelegate() throws SQLException {
+    try {
+      super.closeDelegate();
+    } finally {
+      if (batchedInsertRewriter != null) {
+        batchedInsertRewriter.close();
+      }
+    }
   }
 
   public void setCharacterStream(int parameterIndex, Reader reader, int length)
       throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setCharacterStream(i, reader, length));
+    }
     delegate.setCharacterStream(parameterIndex, reader, length);
   }
 
   public int[] executeBatch() throws SQLException {
-    turnOffAutocommitIfDml(sql);
+    if (chunkedBatch != null || batchParameters != null) {
+      long[] updateCounts = executeLargeBatch();
+      int[] res = new int[updateCounts.length];
+      for (int i = 0; i < updateCounts.length; i++) {
+        res[i] = (int) updateCounts[i];
+      }
+      return res;
+    }
+    turnOffAutocommitIfRequired(parsedStatement);
     return delegate.executeBatch();
   }
 
   public long[] executeLargeBatch() throws SQLException {
-    turnOffAutocommitIfDml(sql);
+    if (chunkedBatch != null) {
+      return chunkedBatch.complete(executeChunk());
+    }
+    if (batchParameters != null) {
+      return executeCurrentBatch();
+    }
+    turnOffAutocommitIfRequired(parsedStatement);
     return delegate.executeLargeBatch();
   }
 
+  /**
+   * Executes the rows that have been added to the batch since the last chunk was flushed. A
+   * failure is reported with the update counts of all preceding chunks, and clears the batch.
+   */
+  private long[] executeChunk() throws SQLException {
+    try {
+      return executeCurrentBatch();
+    } catch (SQLException e) {
+      BatchUpdateException exception = chunkedBatch.failed(e);
+      super.clearBatch();
+      throw exception;
+    }
+  }
+
+  /** Executes the rows that are currently in the batch. */
+  private long[] executeCurrentBatch() throws SQLException {
+    if (batchParameters != null && connection.isParallelBatch(batchParameters.size())) {
+      return executeParallelBatch();
+    }
+    turnOffAutocommitIfRequired(parsedStatement);
+    if (batchParameters == null) {
+      return toLongs(delegate.executeBatch());
+    }
+    BatchParameterStore parameters = recordedParameters();
+    try {
+      long[] res = connection.executeWithRetry(this::executeCapturedRows, () -> {
+        delegate.clearBatch();
+        return executeCapturedRows();
+      });
+      if (parameters != null) {
+        connection.recordExecution(new BatchExecution(parsedStatement.getSql(), parameters, res));
+      }
+      return res;
+    } finally {
+      batchParameters.clearBatch();
+    }
+  }
+
+  /** Executes the captured rows of the batch on the underlying connection. */
+  private long[] executeCapturedRows() throws SQLException {
+    int rows = batchParameters.size();
+    if (batchedInsertRewriter != null) {
+      connection.countRewrittenBatch(rows);
+      return batchedInsertRewriter.executeRows(connection.delegate, 0, rows);
+    }
+    return executeRows(delegate, 0, rows);
+  }
+
+  private long[] executeParallelBatch() throws SQLException {
+    int rows = batchParameters.size();
+    connection.countParallelBatch(rows);
+    try {
+      if (batchedInsertRewriter != null) {
+        connection.countRewrittenBatch(rows);
+        return connection.getParallelBatchExecutor()
+            .execute(rows, batchedInsertRewriter::executeRows);
+      }
+      return connection.getParallelBatchExecutor().execute(rows, (c, fromRow, toRow) -> {
+        try (PreparedStatement statement = c.prepareStatement(parsedStatement.getSql())) {
+          return executeRows(statement, fromRow, toRow);
+        }
+      });
+    } finally {
+      batchParameters.clearBatch();
+    }
+  }
+
+  /**
+   * Adds the given range of captured rows to the batch of the given statement and executes it.
+   * When this is the underlying statement of this statement, the parameter values of that statement
+   * are the values of the last row afterwards.
+   */
+  private long[] executeRows(PreparedStatement statement, int fromRow, int toRow)
+      throws SQLException {
+    for (int row = fromRow; row < toRow; row++) {
+      batchParameters.apply(row, statement, 0);
+      statement.addBatch();
+    }
+    // executeBatch is used instead of executeLargeBatch, as not all drivers support the latter.
+    return toLongs(statement.executeBatch());
+  }
+
+  private static long[] toLongs(int[] updateCounts) {
+    long[] res = new long[updateCounts.length];
+    for (int i = 0; i < updateCounts.length; i++) {
+      res[i] = updateCounts[i];
+    }
+    return res;
+  }
+
   public void setRef(int parameterIndex, Ref x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setRef(parameterIndex, x);
+    }
     delegate.setRef(parameterIndex, x);
   }
 
   public void setBlob(int parameterIndex, Blob x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.set(parameterIndex, (s, i) -> s.setBlob(i, x));
+    }
     delegate.setBlob(parameterIndex, x);
   }
 
   public void setClob(int parameterIndex, Clob x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.set(parameterIndex, (s, i) -> s.setClob(i, x));
+    }
     delegate.setClob(parameterIndex, x);
   }
 
   public void setArray(int parameterIndex, Array x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setArray(parameterIndex, x);
+    }
     delegate.setArray(parameterIndex, x);
   }
 
@@ -255,22 +617,42 @@ class SmartCommitPreparedStatement<T extends PreparedStatement> extends SmartCom
   }
 
   public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setDate(parameterIndex, x, cal);
+    }
     delegate.setDate(parameterIndex, x, cal);
   }
 
   public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setTime(parameterIndex, x, cal);
+    }
     delegate.setTime(parameterIndex, x, cal);
   }
 
   public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setTimestamp(parameterIndex, x, cal);
+    }
     delegate.setTimestamp(parameterIndex, x, cal);
   }
 
   public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    setParameterSize(parameterIndex, 1L);
+    if (batchParameters != null) {
+      batchParameters.setNull(parameterIndex, sqlType, typeName);
+    }
     delegate.setNull(parameterIndex, sqlType, typeName);
   }
 
   public void setURL(int parameterIndex, URL x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setURL(parameterIndex, x);
+    }
     delegate.setURL(parameterIndex, x);
   }
 
@@ -279,96 +661,190 @@ class SmartCommitPreparedStatement<T extends PreparedStatement> extends SmartCom
   }
 
   public void setRowId(int parameterIndex, RowId x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setRowId(parameterIndex, x);
+    }
     delegate.setRowId(parameterIndex, x);
   }
 
   public void setNString(int parameterIndex, String value) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(value));
+    if (batchParameters != null) {
+      batchParameters.setNString(parameterIndex, value);
+    }
     delegate.setNString(parameterIndex, value);
   }
 
   public void setNCharacterStream(int parameterIndex, Reader value, long length)
       throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setNCharacterStream(i, value, length));
+    }
     delegate.setNCharacterStream(parameterIndex, value, length);
   }
 
   public void setNClob(int parameterIndex, NClob value) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(value));
+    if (batchParameters != null) {
+      batchParameters.set(parameterIndex, (s, i) -> s.setNClob(i, value));
+    }
     delegate.setNClob(parameterIndex, value);
   }
 
   public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setClob(i, reader, length));
+    }
     delegate.setClob(parameterIndex, reader, length);
   }
 
   public void setBlob(int parameterIndex, InputStream inputStream, long length)
       throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setBlob(i, inputStream, length));
+    }
     delegate.setBlob(parameterIndex, inputStream, length);
   }
 
   public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setNClob(i, reader, length));
+    }
     delegate.setNClob(parameterIndex, reader, length);
   }
 
   public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(xmlObject));
+    if (batchParameters != null) {
+      batchParameters.set(parameterIndex, (s, i) -> s.setSQLXML(i, xmlObject));
+    }
     delegate.setSQLXML(parameterIndex, xmlObject);
   }
 
   public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
       throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
     delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
   }
 
   public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setAsciiStream(i, x, length));
+    }
     delegate.setAsciiStream(parameterIndex, x, length);
   }
 
   public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setBinaryStream(i, x, length));
+    }
     delegate.setBinaryStream(parameterIndex, x, length);
   }
 
   public void setCharacterStream(int parameterIndex, Reader reader, long length)
       throws SQLException {
+    setParameterSize(parameterIndex, length);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setCharacterStream(i, reader, length));
+    }
     delegate.setCharacterStream(parameterIndex, reader, length);
   }
 
   public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setAsciiStream(i, x));
+    }
     delegate.setAsciiStream(parameterIndex, x);
   }
 
   public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setBinaryStream(i, x));
+    }
     delegate.setBinaryStream(parameterIndex, x);
   }
 
   public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setCharacterStream(i, reader));
+    }
     delegate.setCharacterStream(parameterIndex, reader);
   }
 
   public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setNCharacterStream(i, value));
+    }
     delegate.setNCharacterStream(parameterIndex, value);
   }
 
   public void setClob(int parameterIndex, Reader reader) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setClob(i, reader));
+    }
     delegate.setClob(parameterIndex, reader);
   }
 
   public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setBlob(i, inputStream));
+    }
     delegate.setBlob(parameterIndex, inputStream);
   }
 
   public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.DEFAULT_SIZE);
+    if (batchParameters != null) {
+      batchParameters.setStream(parameterIndex, (s, i) -> s.setNClob(i, reader));
+    }
     delegate.setNClob(parameterIndex, reader);
   }
 
   public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength)
       throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
     delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
   }
 
   public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+    setParameterSize(parameterIndex, ChunkedBatch.estimateSize(x));
+    if (batchParameters != null) {
+      batchParameters.setObject(parameterIndex, x, targetSqlType);
+    }
     delegate.setObject(parameterIndex, x, targetSqlType);
   }
 
   public long executeLargeUpdate() throws SQLException {
-    turnOffAutocommit();
-    return delegate.executeLargeUpdate();
+    if (canBufferWrite() && bufferWrite(parsedStatement)) {
+      addToWriteBehindBuffer();
+      return SUCCESS_NO_INFO;
+    }
+    turnOffAutocommit(parsedStatement);
+    if (batchParameters == null) {
+      return delegate.executeLargeUpdate();
+    }
+    BatchParameterStore parameters = recordedParameters();
+    long res = connection.executeWithRetry(delegate::executeLargeUpdate);
+    connection.recordUpdate(parsedStatement.getSql(), parameters, res);
+    return res;
   }
 }
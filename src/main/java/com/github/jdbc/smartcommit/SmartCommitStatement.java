@@ -14,31 +14,109 @@
 
 package com.github.jdbc.smartcommit;
 
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import com.github.jdbc.smartcommit.TransactionRecorder.BatchExecution;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 class SmartCommitStatement<T extends Statement> extends AbstractBaseStatement<T>
     implements Statement {
+  /** True if the current batch of this statement contains a statement that needs a transaction. */
+  private boolean batchRequiresTransaction;
+
+  /** True if the current batch of this statement may change the state of the session. */
+  private boolean batchMayChangeSessionState;
+
+  /** True if the current batch of this statement contains a DDL statement. */
+  private boolean batchContainsDdl;
+
+  /**
+   * The statements in the current batch, so that the batch can be recorded for a replay of the
+   * transaction. Null if transactions are not replayed.
+   */
+  private final List<String> batchStatements;
+
+  private boolean closed;
+
   SmartCommitStatement(SmartCommitConnection connection, T delegate) {
     super(connection, delegate);
+    this.batchStatements = connection.isTransactionRetryEnabled() ? new ArrayList<>() : null;
+    connection.statementOpened();
   }
 
   public ResultSet executeQuery(String sql) throws SQLException {
-    return delegate.executeQuery(sql);
+    ParsedStatement statement = connection.parse(sql);
+    turnOffAutocommitIfRequired(statement);
+    return connection.recordQuery(sql, null,
+        connection.executeQuery(statement, () -> delegate.executeQuery(sql), this::reconnect));
   }
 
   public int executeUpdate(String sql) throws SQLException {
-    turnOffAutocommit();
-    return delegate.executeUpdate(sql);
+    ParsedStatement statement = connection.parse(sql);
+    if (bufferWrite(statement)) {
+      connection.getWriteBehindBuffer().add(sql);
+      return SUCCESS_NO_INFO;
+    }
+    turnOffAutocommit(statement);
+    int res = connection.executeWithRetry(() -> delegate.executeUpdate(sql));
+    connection.recordUpdate(sql, null, res);
+    return res;
   }
 
   public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      closeDelegate();
+    } finally {
+      connection.statementClosed();
+    }
+  }
+
+  /** Closes the underlying statement and any other resources of this statement. */
+  void closeDelegate() throws SQLException {
+    // Buffered executions of a prepared statement must be sent before the statement is closed.
+    connection.flushWrites(delegate);
     delegate.close();
   }
 
+  /**
+   * Replaces the underlying statement with a new statement on a new physical connection, after the
+   * physical connection of the underlying statement broke with the given error. The settings of
+   * the underlying statement are copied to the new statement.
+   */
+  void reconnect(SQLException error) throws SQLException {
+    int resultSetType = delegate.getResultSetType();
+    int resultSetConcurrency = delegate.getResultSetConcurrency();
+    int resultSetHoldability = delegate.getResultSetHoldability();
+    int fetchSize = delegate.getFetchSize();
+    int maxRows = delegate.getMaxRows();
+    int maxFieldSize = delegate.getMaxFieldSize();
+    int queryTimeout = delegate.getQueryTimeout();
+    connection.replaceBrokenConnection(error);
+    T statement = createDelegate(resultSetType, resultSetConcurrency, resultSetHoldability);
+    statement.setFetchSize(fetchSize);
+    statement.setMaxRows(maxRows);
+    statement.setMaxFieldSize(maxFieldSize);
+    statement.setQueryTimeout(queryTimeout);
+    delegate = statement;
+  }
+
+  /** Creates a new underlying statement for this statement on the underlying connection. */
+  @SuppressWarnings("unchecked")
+  T createDelegate(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    return (T) connection.delegate.createStatement(resultSetType, resultSetConcurrency,
+        resultSetHoldability);
+  }
+
   public int getMaxFieldSize() throws SQLException {
     return delegate.getMaxFieldSize();
   }
@@ -85,8 +163,27 @@ class SmartCommitStatement<T extends Statement> extends AbstractBaseStatement<T>
   }
 
   public boolean execute(String sql) throws SQLException {
-    turnOffAutocommitIfDml(sql);
-    return delegate.execute(sql);
+    turnOffAutocommitIfRequired(sql);
+    boolean res = connection.executeWithRetry(() -> delegate.execute(sql));
+    recordExecute(sql, null, res);
+    return res;
+  }
+
+  /**
+   * Records a statement that was executed with {@link Statement#execute(String)}. Only statements
+   * that returned an update count are recorded, as the rows that the application reads through
+   * {@link Statement#getResultSet()} are not verified by a replay.
+   */
+  void recordExecute(String sql, BatchParameterStore parameters, boolean isResultSet)
+      throws SQLException {
+    if (!connection.isRecordingTransaction()) {
+      return;
+    }
+    if (isResultSet) {
+      connection.markTransactionUnreplayable();
+    } else {
+      connection.recordUpdate(sql, parameters, delegate.getUpdateCount());
+    }
   }
 
   public ResultSet getResultSet() throws SQLException {
@@ -126,22 +223,96 @@ class SmartCommitStatement<T extends Statement> extends AbstractBaseStatement<T>
   }
 
   public void addBatch(String sql) throws SQLException {
+    // Autocommit is only turned off when the batch is executed.
+    ParsedStatement statement = connection.parse(sql);
     delegate.addBatch(sql);
-    // TODO: Make this smarter and only turn off autocommit if the batch is actually executed.
-    turnOffAutocommitIfDml(sql);
+    if (batchStatements != null) {
+      batchStatements.add(sql);
+    }
+    batchRequiresTransaction |= statement.requiresTransaction();
+    batchMayChangeSessionState |= statement.mayChangeSessionState();
+    batchContainsDdl |= statement.isDdl();
   }
 
   public void clearBatch() throws SQLException {
-    // TODO: Make smarter by checking whether this should turn on autocommit again.
+    connection.flushWrites(delegate);
     delegate.clearBatch();
+    clearBatchClassification();
   }
 
   public int[] executeBatch() throws SQLException {
-    return delegate.executeBatch();
+    List<String> statements = turnOffAutocommitForBatch();
+    if (statements == null) {
+      return delegate.executeBatch();
+    }
+    int[] res = connection.executeWithRetry(delegate::executeBatch, () -> {
+      addBatch(statements);
+      return delegate.executeBatch();
+    });
+    long[] updateCounts = new long[res.length];
+    for (int i = 0; i < res.length; i++) {
+      updateCounts[i] = res[i];
+    }
+    connection.recordExecution(new BatchExecution(statements, updateCounts));
+    return res;
   }
 
   public long[] executeLargeBatch() throws SQLException {
-    return delegate.executeLargeBatch();
+    List<String> statements = turnOffAutocommitForBatch();
+    if (statements == null) {
+      return delegate.executeLargeBatch();
+    }
+    long[] res = connection.executeWithRetry(delegate::executeLargeBatch, () -> {
+      addBatch(statements);
+      return delegate.executeLargeBatch();
+    });
+    connection.recordExecution(new BatchExecution(statements, res));
+    return res;
+  }
+
+  /** Adds the given statements to the batch of the underlying statement after a replay. */
+  private void addBatch(List<String> statements) throws SQLException {
+    delegate.clearBatch();
+    for (String sql : statements) {
+      delegate.addBatch(sql);
+    }
+  }
+
+  /**
+   * Turns off autocommit on the underlying connection if the current batch contains a statement
+   * that requires a transaction. The batch is cleared by the execution, so the classification of
+   * the batch is also cleared. Returns the statements in the batch if the batch should be recorded
+   * for a replay of the transaction, and null otherwise.
+   */
+  private List<String> turnOffAutocommitForBatch() throws SQLException {
+    connection.flushWrites();
+    if (batchRequiresTransaction) {
+      turnOffAutocommit();
+    } else {
+      connection.applyPendingAutoCommitRestore();
+    }
+    if (batchMayChangeSessionState) {
+      connection.invalidateDelegateAutoCommit();
+    }
+    if (batchMayChangeSessionState || batchContainsDdl) {
+      connection.pinDelegate();
+    }
+    connection.beforeExecute();
+    List<String> res = null;
+    if (batchStatements != null && connection.isRecordingTransaction()) {
+      res = new ArrayList<>(batchStatements);
+    }
+    clearBatchClassification();
+    return res;
+  }
+
+  private void clearBatchClassification() {
+    batchRequiresTransaction = false;
+    batchMayChangeSessionState = false;
+    batchContainsDdl = false;
+    if (batchStatements != null) {
+      batchStatements.clear();
+    }
   }
 
   public Connection getConnection() throws SQLException {
@@ -157,32 +328,32 @@ class SmartCommitStatement<T extends Statement> extends AbstractBaseStatement<T>
   }
 
   public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeUpdate(sql, autoGeneratedKeys);
   }
 
   public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeUpdate(sql, columnIndexes);
   }
 
   public int executeUpdate(String sql, String[] columnNames) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeUpdate(sql, columnNames);
   }
 
   public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
-    turnOffAutocommitIfDml(sql);
+    turnOffAutocommitIfRequired(sql);
     return delegate.execute(sql, autoGeneratedKeys);
   }
 
   public boolean execute(String sql, int[] columnIndexes) throws SQLException {
-    turnOffAutocommitIfDml(sql);
+    turnOffAutocommitIfRequired(sql);
     return delegate.execute(sql, columnIndexes);
   }
 
   public boolean execute(String sql, String[] columnNames) throws SQLException {
-    turnOffAutocommitIfDml(sql);
+    turnOffAutocommitIfRequired(sql);
     return delegate.execute(sql, columnNames);
   }
 
@@ -223,22 +394,29 @@ class SmartCommitStatement<T extends Statement> extends AbstractBaseStatement<T>
   }
 
   public long executeLargeUpdate(String sql) throws SQLException {
-    turnOffAutocommit();
-    return delegate.executeLargeUpdate(sql);
+    ParsedStatement statement = connection.parse(sql);
+    if (bufferWrite(statement)) {
+      connection.getWriteBehindBuffer().add(sql);
+      return SUCCESS_NO_INFO;
+    }
+    turnOffAutocommit(statement);
+    long res = connection.executeWithRetry(() -> delegate.executeLargeUpdate(sql));
+    connection.recordUpdate(sql, null, res);
+    return res;
   }
 
   public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
   }
 
   public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeLargeUpdate(sql, columnIndexes);
   }
 
   public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
-    turnOffAutocommit();
+    turnOffAutocommit(sql);
     return delegate.executeLargeUpdate(sql, columnNames);
   }
 }
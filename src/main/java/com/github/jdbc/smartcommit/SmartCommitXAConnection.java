@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.XAConnection;
+import javax.transaction.xa.XAResource;
+
+/**
+ * {@link XAConnection} that returns {@link SmartCommitConnection}s for the logical connections of
+ * an {@link XAConnection} of the underlying database. The transaction boundaries of a distributed
+ * transaction are controlled by the transaction manager through the {@link XAResource}, so smart
+ * commit is turned off for the logical connections. The parse cache and the other optimizations
+ * of a {@link SmartCommitConnection} are still used.
+ */
+class SmartCommitXAConnection extends SmartCommitPooledConnection implements XAConnection {
+
+  SmartCommitXAConnection(XAConnection delegate, DataSourceOptions options) {
+    super(delegate, options);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    SmartCommitConnection connection = (SmartCommitConnection) super.getConnection();
+    connection.setSmartCommit(false);
+    return connection;
+  }
+
+  public XAResource getXAResource() throws SQLException {
+    return ((XAConnection) delegate).getXAResource();
+  }
+}
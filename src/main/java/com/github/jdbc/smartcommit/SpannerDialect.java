@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * Dialect for Google Cloud Spanner. The lexical structure of Cloud Spanner is equal to the
+ * {@link GenericDialect}, as that dialect is based on the Cloud Spanner JDBC driver.
+ */
+class SpannerDialect extends GenericDialect {
+  private static final int ABORTED = 10;
+  private static final int UNAVAILABLE = 14;
+
+  SpannerDialect() {}
+
+  @Override
+  String getName() {
+    return "spanner";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return productName.contains("Spanner");
+  }
+
+  @Override
+  int getMaxParameters() {
+    return 950;
+  }
+
+  /** The statement hint LOCK_SCANNED_RANGES takes exclusive locks on all scanned ranges. */
+  @Override
+  boolean isLockingHint(String sql, int start, int end) {
+    return isWord(sql, start, end, "LOCK_SCANNED_RANGES");
+  }
+
+  /** Cloud Spanner reports aborted transactions with the gRPC status code ABORTED. */
+  @Override
+  boolean isRetryable(SQLException e) {
+    return e.getErrorCode() == ABORTED || super.isRetryable(e);
+  }
+
+  /** Cloud Spanner reports transient failures with the gRPC status code UNAVAILABLE. */
+  @Override
+  boolean isTransient(SQLException e) {
+    return e.getErrorCode() == UNAVAILABLE || super.isTransient(e);
+  }
+}
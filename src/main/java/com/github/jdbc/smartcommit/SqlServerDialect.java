@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.SQLException;
+
+/**
+ * Dialect for Microsoft SQL Server. This dialect recognizes the following:
+ *
+ * <ul>
+ * <li>Single line comments starting with '--'
+ * <li>Nested multi line comments between '/&#42;' and '&#42;/'
+ * <li>Literals quoted with single quotes, where two single quotes are an escaped quote
+ * <li>Identifiers quoted with double quotes or square brackets
+ * </ul>
+ *
+ * Note that '#' is used as a prefix for temporary tables in SQL Server and does not start a
+ * comment.
+ */
+class SqlServerDialect extends Dialect {
+  private static final KeywordRules KEYWORD_RULES =
+      KeywordRules.DEFAULT.withRules(new String[][] {
+          {"EXEC", "write"},
+          {"EXECUTE", "write"},
+          {"BULK", "write"}});
+
+  SqlServerDialect() {}
+
+  @Override
+  String getName() {
+    return "sqlserver";
+  }
+
+  @Override
+  boolean isDatabaseProduct(String productName) {
+    return productName.equals("Microsoft SQL Server");
+  }
+
+  @Override
+  KeywordRules getDefaultKeywordRules() {
+    return KEYWORD_RULES;
+  }
+
+  @Override
+  int getMaxParameters() {
+    return 2100;
+  }
+
+  @Override
+  int skipComment(String sql, int index) {
+    if (startsWith(sql, index, '-', '-')) {
+      return skipSingleLineComment(sql, index);
+    }
+    if (startsWith(sql, index, '/', '*')) {
+      return skipMultiLineComment(sql, index, true);
+    }
+    return index;
+  }
+
+  @Override
+  int skipQuoted(String sql, int index) throws SQLException {
+    char c = sql.charAt(index);
+    switch (c) {
+      case '\'':
+      case '"':
+        return skipQuoted(sql, index, c, false);
+      case '[':
+        return skipQuoted(sql, index, ']', false);
+      default:
+        return index;
+    }
+  }
+
+  /** The table hints UPDLOCK, XLOCK, HOLDLOCK and TABLOCKX hold their locks until commit. */
+  @Override
+  boolean isLockingHint(String sql, int start, int end) {
+    return isWord(sql, start, end, "UPDLOCK") || isWord(sql, start, end, "XLOCK")
+        || isWord(sql, start, end, "HOLDLOCK") || isWord(sql, start, end, "TABLOCKX");
+  }
+
+  @Override
+  boolean isIdentifierQuote(char c) {
+    return c == '"' || c == '[';
+  }
+}
@@ -17,48 +17,92 @@ package com.github.jdbc.smartcommit;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 
-/** This parser is based on the statement parser in the Google Cloud Spanner JDBC driver. */
+/**
+ * This parser is based on the statement parser in the Google Cloud Spanner JDBC driver. Comments
+ * and quoted literals are recognized according to the {@link Dialect} of the parser.
+ */
 class StatementParser {
-  /** Singleton instance of {@link StatementParser}. */
-  public static final StatementParser INSTANCE = new StatementParser();
+  /** Instance of {@link StatementParser} for the {@link Dialect#GENERIC} dialect. */
+  public static final StatementParser INSTANCE = new StatementParser(Dialect.GENERIC);
 
   /** The type of statement that has been recognized by the parser. */
   enum StatementType {
-    DDL, QUERY, UPDATE, UNKNOWN;
+    DDL, QUERY, UPDATE,
+    /**
+     * A statement that takes locks that should be held until the end of the transaction, such as
+     * SELECT ... FOR UPDATE, LOCK TABLE and transaction-level advisory locks.
+     */
+    LOCKING,
+    /**
+     * A statement that changes the state of the session, such as SET and USE. These statements do
+     * not require a transaction.
+     */
+    SESSION, UNKNOWN;
   }
 
   /** A statement that has been parsed */
   static class ParsedStatement {
     private final StatementType type;
-    private final String sqlWithoutComments;
+    private final String sql;
+    private final Dialect dialect;
+    private volatile String sqlWithoutComments;
+    private volatile Fingerprint fingerprint;
+    /** The leading keyword of an {@link StatementType#UNKNOWN} statement, and null otherwise. */
+    private final String leadingKeyword;
+
+    private static ParsedStatement ddl(Dialect dialect, String sql, String sqlWithoutComments) {
+      return new ParsedStatement(StatementType.DDL, dialect, sql, sqlWithoutComments);
+    }
+
+    private static ParsedStatement query(Dialect dialect, String sql, String sqlWithoutComments) {
+      return new ParsedStatement(StatementType.QUERY, dialect, sql, sqlWithoutComments);
+    }
 
-    private static ParsedStatement ddl(String sqlWithoutComments) {
-      return new ParsedStatement(StatementType.DDL, sqlWithoutComments);
+    private static ParsedStatement update(Dialect dialect, String sql, String sqlWithoutComments) {
+      return new ParsedStatement(StatementType.UPDATE, dialect, sql, sqlWithoutComments);
     }
 
-    private static ParsedStatement query(String sqlWithoutComments) {
-      return new ParsedStatement(StatementType.QUERY, sqlWithoutComments);
+    private static ParsedStatement locking(Dialect dialect, String sql,
+        String sqlWithoutComments) {
+      return new ParsedStatement(StatementType.LOCKING, dialect, sql, sqlWithoutComments);
     }
 
-    private static ParsedStatement update(String sqlWithoutComments) {
-      return new ParsedStatement(StatementType.UPDATE, sqlWithoutComments);
+    private static ParsedStatement unknown(Dialect dialect, String sql, String sqlWithoutComments,
+        String leadingKeyword) {
+      return new ParsedStatement(StatementType.UNKNOWN, dialect, sql, sqlWithoutComments,
+          leadingKeyword);
     }
 
-    private static ParsedStatement unknown(String sqlWithoutComments) {
-      return new ParsedStatement(StatementType.UNKNOWN, sqlWithoutComments);
+    /**
+     * Creates a statement of the given type. The sql string without comments will be computed when
+     * it is requested for the first time.
+     */
+    private static ParsedStatement classified(StatementType type, Dialect dialect, String sql,
+        String leadingKeyword) {
+      return new ParsedStatement(type, dialect, sql, null, leadingKeyword);
     }
 
-    private ParsedStatement(StatementType type, String sqlWithoutComments) {
+    private ParsedStatement(StatementType type, Dialect dialect, String sql,
+        String sqlWithoutComments) {
+      this(type, dialect, sql, sqlWithoutComments, null);
+    }
+
+    private ParsedStatement(StatementType type, Dialect dialect, String sql,
+        String sqlWithoutComments, String leadingKeyword) {
       this.type = type;
+      this.dialect = dialect;
+      this.sql = sql;
       this.sqlWithoutComments = sqlWithoutComments;
+      this.leadingKeyword = leadingKeyword;
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(this.type, this.sqlWithoutComments);
+      return Objects.hash(this.type, this.sql);
     }
 
     @Override
@@ -67,8 +111,7 @@ class StatementParser {
         return false;
       }
       ParsedStatement o = (ParsedStatement) other;
-      return Objects.equals(this.type, o.type)
-          && Objects.equals(this.sqlWithoutComments, o.sqlWithoutComments);
+      return Objects.equals(this.type, o.type) && Objects.equals(this.sql, o.sql);
     }
 
     StatementType getType() {
@@ -81,6 +124,8 @@ class StatementParser {
           return true;
         case UPDATE:
         case DDL:
+        case LOCKING:
+        case SESSION:
         case UNKNOWN:
         default:
       }
@@ -93,6 +138,8 @@ class StatementParser {
           return true;
         case QUERY:
         case DDL:
+        case LOCKING:
+        case SESSION:
         case UNKNOWN:
         default:
       }
@@ -105,14 +152,197 @@ class StatementParser {
           return true;
         case UPDATE:
         case QUERY:
+        case LOCKING:
+        case SESSION:
+        case UNKNOWN:
+        default:
+      }
+      return false;
+    }
+
+    boolean isLocking() {
+      switch (type) {
+        case LOCKING:
+          return true;
+        case UPDATE:
+        case QUERY:
+        case DDL:
+        case SESSION:
+        case UNKNOWN:
+        default:
+      }
+      return false;
+    }
+
+    boolean isSession() {
+      switch (type) {
+        case SESSION:
+          return true;
+        case UPDATE:
+        case QUERY:
+        case DDL:
+        case LOCKING:
+        case UNKNOWN:
+        default:
+      }
+      return false;
+    }
+
+    /**
+     * Returns true if this statement should be executed in a transaction, i.e. it is an update, a
+     * DDL statement or a statement that takes locks.
+     */
+    boolean requiresTransaction() {
+      switch (type) {
+        case UPDATE:
+        case DDL:
+        case LOCKING:
+          return true;
+        case QUERY:
+        case SESSION:
         case UNKNOWN:
         default:
       }
       return false;
     }
 
-    String getSqlWithoutComments() {
-      return sqlWithoutComments;
+    /**
+     * Returns true if this statement might change the state of the session, including the
+     * autocommit state of the connection, i.e. it is a session statement or an unknown statement.
+     */
+    boolean mayChangeSessionState() {
+      switch (type) {
+        case SESSION:
+        case UNKNOWN:
+          return true;
+        case QUERY:
+        case UPDATE:
+        case DDL:
+        case LOCKING:
+        default:
+      }
+      return false;
+    }
+
+    String getSql() {
+      return sql;
+    }
+
+    /**
+     * Returns the leading keyword of this statement in upper case if it is an {@link
+     * StatementType#UNKNOWN} statement, and null otherwise. The keyword is determined when the
+     * statement is parsed, so statements that are served from a parse cache do not need to scan
+     * the sql string again.
+     */
+    String getLeadingKeyword() {
+      return leadingKeyword;
+    }
+
+    String getSqlWithoutComments() throws SQLException {
+      String res = sqlWithoutComments;
+      if (res == null) {
+        res = dialect.removeCommentsAndTrim(sql);
+        sqlWithoutComments = res;
+      }
+      return res;
+    }
+
+    /** Returns the fingerprint of this statement. The fingerprint is computed lazily. */
+    Fingerprint getFingerprint() {
+      Fingerprint res = fingerprint;
+      if (res == null) {
+        res = StatementParser.fingerprint(dialect, sql);
+        fingerprint = res;
+      }
+      return res;
+    }
+  }
+
+  /**
+   * The fingerprint of a statement identifies all statements that are equal except for their
+   * literals, comments and whitespace. The fingerprint consists of a normalized version of the
+   * statement and a 64-bit hash of the normalized statement. The normalized statement is created
+   * by:
+   *
+   * <ul>
+   * <li>Removing all comments
+   * <li>Replacing all string and numeric literals with a '?'
+   * <li>Replacing lists of literals and parameters after IN with a single '(?)'
+   * <li>Replacing each sequence of whitespace with a single space and trimming the statement
+   * <li>Converting all keywords and unquoted identifiers to upper case
+   * <li>Removing any trailing semicolons
+   * </ul>
+   *
+   * Query parameters and quoted identifiers are not changed.
+   */
+  static final class Fingerprint {
+    private final long hash;
+    private final String normalizedSql;
+
+    private Fingerprint(long hash, String normalizedSql) {
+      this.hash = hash;
+      this.normalizedSql = normalizedSql;
+    }
+
+    long getHash() {
+      return hash;
+    }
+
+    String getNormalizedSql() {
+      return normalizedSql;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hash);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Fingerprint)) {
+        return false;
+      }
+      Fingerprint o = (Fingerprint) other;
+      return hash == o.hash && normalizedSql.equals(o.normalizedSql);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x %s", hash, normalizedSql);
+    }
+  }
+
+  /**
+   * An INSERT statement with a single VALUES clause that can be rewritten to a multi-row insert,
+   * e.g. <code>INSERT INTO FOO (ID, NAME) VALUES (?, ?)</code>. See {@link
+   * StatementParser#getBatchedInsert(String)}.
+   */
+  static final class BatchedInsert {
+    /** The statement up to and including the VALUES keyword. */
+    private final String prefix;
+    /** The row of the VALUES clause, including the parentheses. */
+    private final String row;
+    private final int parameterCount;
+
+    private BatchedInsert(String prefix, String row, int parameterCount) {
+      this.prefix = prefix;
+      this.row = row;
+      this.parameterCount = parameterCount;
+    }
+
+    /** Returns the number of parameters in one row. */
+    int getParameterCount() {
+      return parameterCount;
+    }
+
+    /** Returns an INSERT statement that inserts the given number of rows. */
+    String getSql(int rows) {
+      StringBuilder res = new StringBuilder(prefix.length() + rows * (row.length() + 2));
+      res.append(prefix).append(' ').append(row);
+      for (int i = 1; i < rows; i++) {
+        res.append(", ").append(row);
+      }
+      return res.toString();
     }
   }
 
@@ -122,9 +352,38 @@ class StatementParser {
       new HashSet<>(Arrays.asList("SELECT", "WITH"));
   private static final Set<String> dmlStatements = new HashSet<>(
       Arrays.asList("INSERT", "UPDATE", "DELETE", "MERGE", "TRUNCATE", "SELECT INTO"));
+  private static final Set<String> lockStatements = new HashSet<>(Arrays.asList("LOCK"));
+
+  /* Keywords that are used by the single-pass classifier. */
+  private static final String[] DDL_KEYWORDS = {"CREATE", "DROP", "ALTER"};
+  private static final String[] SELECT_KEYWORDS = {"SELECT", "WITH"};
+  private static final String[] DML_KEYWORDS = {"INSERT", "UPDATE", "DELETE", "MERGE", "TRUNCATE"};
+  private static final String[] LOCK_KEYWORDS = {"LOCK"};
+
+  /** Kinds of words that are needed to recognize data-modifying statements in a query. */
+  private static final int OTHER_WORD = 0;
+  /** AS or MATERIALIZED, which precede the body of a common table expression. */
+  private static final int AS_WORD = 1;
+  /** FINAL, NEW or OLD. */
+  private static final int DELTA_WORD = 2;
+  /** TABLE after FINAL, NEW or OLD, which precedes a data-change statement. */
+  private static final int DELTA_TABLE_WORD = 3;
+
+  private final Dialect dialect;
+  private final KeywordRules keywordRules;
 
-  /** Private constructor for singleton instance. */
-  private StatementParser() {}
+  StatementParser(Dialect dialect) {
+    this(dialect, dialect.getDefaultKeywordRules());
+  }
+
+  StatementParser(Dialect dialect, KeywordRules keywordRules) {
+    this.dialect = dialect;
+    this.keywordRules = keywordRules;
+  }
+
+  Dialect getDialect() {
+    return dialect;
+  }
 
   /**
    * Parses the given statement and categorizes it as one of the possible {@link StatementType}s.
@@ -135,15 +394,686 @@ class StatementParser {
    * @throws SQLException
    */
   ParsedStatement parse(String sqlWithComments) throws SQLException {
-    String sql = removeCommentsAndTrim(sqlWithComments);
+    String sql = dialect.removeCommentsAndTrim(sqlWithComments);
     if (isQuery(sql)) {
-      return ParsedStatement.query(sql);
+      switch (getQueryType(sql, 0)) {
+        case UPDATE:
+          return ParsedStatement.update(dialect, sqlWithComments, sql);
+        case LOCKING:
+          return ParsedStatement.locking(dialect, sqlWithComments, sql);
+        default:
+          return ParsedStatement.query(dialect, sqlWithComments, sql);
+      }
     } else if (isUpdateStatement(sql)) {
-      return ParsedStatement.update(sql);
+      return ParsedStatement.update(dialect, sqlWithComments, sql);
     } else if (isDdlStatement(sql)) {
-      return ParsedStatement.ddl(sql);
+      return ParsedStatement.ddl(dialect, sqlWithComments, sql);
+    } else if (isLockStatement(sql)) {
+      return ParsedStatement.locking(dialect, sqlWithComments, sql);
+    }
+    for (int i = 0; i < keywordRules.size(); i++) {
+      if (firstTokenEquals(sql, keywordRules.getKeyword(i))) {
+        StatementType type = keywordRules.getType(i);
+        return new ParsedStatement(type, dialect, sqlWithComments, sql,
+            type == StatementType.UNKNOWN ? getLeadingKeyword(sqlWithComments) : null);
+      }
+    }
+    return ParsedStatement.unknown(dialect, sqlWithComments, sql,
+        getLeadingKeyword(sqlWithComments));
+  }
+
+  /**
+   * Categorizes the given statement as one of the possible {@link StatementType}s without parsing
+   * the entire statement. The sql string without comments is only computed if it is requested from
+   * the returned {@link ParsedStatement}. This method does not validate the statement, which means
+   * that statements with for example unclosed literals are categorized based on their leading
+   * keyword, instead of causing an {@link SQLException}.
+   */
+  ParsedStatement classify(String sql) {
+    StatementType type = getStatementType(sql);
+    return ParsedStatement.classified(type, dialect, sql,
+        type == StatementType.UNKNOWN ? getLeadingKeyword(sql) : null);
+  }
+
+  /**
+   * Returns the {@link StatementType} of the given statement based on the leading keyword of the
+   * statement. This method scans the statement in place and skips any leading whitespace, comments
+   * and statement hints. It stops as soon as the leading keyword is known, except for queries,
+   * which are scanned once more for locking clauses and data-modifying common table expressions.
+   * It does not allocate any objects, and returns the same type as {@link #parse(String)} for any
+   * valid statement.
+   */
+  StatementType getStatementType(String sql) {
+    int start = skipWhitespaceAndComments(sql, 0);
+    if (start == sql.length()) {
+      return StatementType.UNKNOWN;
+    }
+    if (sql.charAt(start) == '@' && dialect.supportsStatementHints()) {
+      // Statement hints are only allowed for queries.
+      int end = skipStatementHint(sql, start);
+      if (end > -1 && startsWithKeyword(sql, end, SELECT_KEYWORDS)) {
+        return getQueryType(sql, start);
+      }
+      // Fall back to the full parser for anything else than a simple statement hint.
+      try {
+        return parse(sql).getType();
+      } catch (SQLException e) {
+        return StatementType.UNKNOWN;
+      }
+    }
+    if (startsWithKeyword(sql, start, SELECT_KEYWORDS)) {
+      return getQueryType(sql, start);
+    } else if (startsWithKeyword(sql, start, DML_KEYWORDS)) {
+      return StatementType.UPDATE;
+    } else if (startsWithKeyword(sql, start, DDL_KEYWORDS)) {
+      return StatementType.DDL;
+    } else if (startsWithKeyword(sql, start, LOCK_KEYWORDS)) {
+      return StatementType.LOCKING;
+    }
+    for (int i = 0; i < keywordRules.size(); i++) {
+      if (startsWithKeyword(sql, start, keywordRules.getKeyword(i))) {
+        return keywordRules.getType(i);
+      }
+    }
+    return StatementType.UNKNOWN;
+  }
+
+  /**
+   * Returns the leading keyword of the given statement in upper case, or an empty string if the
+   * statement does not start with a keyword. Leading whitespace, comments and statement hints are
+   * skipped.
+   */
+  String getLeadingKeyword(String sql) {
+    int start = skipWhitespaceAndComments(sql, 0);
+    if (start < sql.length() && sql.charAt(start) == '@' && dialect.supportsStatementHints()) {
+      start = Math.max(skipStatementHint(sql, start), start);
+    }
+    int end = start;
+    while (end < sql.length() && Dialect.isIdentifierChar(sql.charAt(end))) {
+      end++;
+    }
+    return sql.substring(start, end).toUpperCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Returns the {@link StatementType} of the given query. A query is normally a {@link
+   * StatementType#QUERY}, but it can also be:
+   *
+   * <ul>
+   * <li>{@link StatementType#UPDATE} if it contains a data-modifying common table expression, or if
+   * the main statement after the WITH clause is a DML statement, e.g. <code>WITH T AS (DELETE FROM
+   * FOO RETURNING *) SELECT * FROM T</code> or <code>WITH T AS (SELECT 1) INSERT INTO FOO SELECT *
+   * FROM T</code>. A DML keyword is only recognized at the start of the body of a common table
+   * expression (<code>AS (</code> in the WITH clause), as the main statement directly after the
+   * WITH clause, and as the operand of <code>FINAL TABLE (</code>, <code>NEW TABLE (</code> and
+   * <code>OLD TABLE (</code>. It is not recognized if it is a function call, such as the MySQL
+   * INSERT(str, pos, len, newstr) function.
+   * <li>{@link StatementType#LOCKING} if it contains a clause that takes locks that are held until
+   * the end of the transaction: FOR UPDATE, FOR SHARE, FOR NO KEY UPDATE, FOR KEY SHARE or LOCK IN
+   * SHARE MODE, or a word that is a locking hint of the dialect, see {@link
+   * Dialect#isLockingHint(String, int, int)}.
+   * </ul>
+   *
+   * The query is scanned once from the given index, and the type of the first clause that is found
+   * is returned. Comments and quoted literals and identifiers are skipped according to the dialect
+   * of this parser.
+   */
+  private StatementType getQueryType(String sql, int index) {
+    boolean previousWasFor = false;
+    // The number of words of 'LOCK IN SHARE MODE' that directly precede the current word.
+    int lockInShareMode = 0;
+    // True while the scanner is in the list of common table expressions of a WITH clause.
+    boolean withClause = false;
+    boolean leadingWord = true;
+    int depth = 0;
+    int hintDepth = 0;
+    // The kind of the word that directly precedes the current token.
+    int previousWord = OTHER_WORD;
+    // True if the previous token closed a common table expression or its column list.
+    boolean afterCommonTableExpression = false;
+    // True if a DML statement can start at the current token.
+    boolean dmlPosition = false;
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      int end = dialect.skipComment(sql, index);
+      if (end > index) {
+        index = end;
+        continue;
+      }
+      try {
+        end = dialect.skipQuoted(sql, index);
+      } catch (SQLException e) {
+        // Let the database report the invalid statement.
+        return StatementType.QUERY;
+      }
+      if (end > index) {
+        previousWasFor = dmlPosition = false;
+        lockInShareMode = 0;
+        previousWord = OTHER_WORD;
+        withClause &= !afterCommonTableExpression;
+        afterCommonTableExpression = false;
+        index = end;
+      } else if (Dialect.isIdentifierChar(c)) {
+        end = index + 1;
+        while (end < sql.length() && Dialect.isIdentifierChar(sql.charAt(end))) {
+          end++;
+        }
+        if (dmlPosition && isWord(sql, index, end, DML_KEYWORDS) && !isFunctionCall(sql, end)) {
+          return StatementType.UPDATE;
+        }
+        if (previousWasFor && (Dialect.isWord(sql, index, end, "UPDATE")
+            || Dialect.isWord(sql, index, end, "SHARE") || Dialect.isWord(sql, index, end, "NO")
+            || Dialect.isWord(sql, index, end, "KEY"))) {
+          return StatementType.LOCKING;
+        }
+        if (lockInShareMode == 3 && Dialect.isWord(sql, index, end, "MODE")) {
+          return StatementType.LOCKING;
+        }
+        if (dialect.isLockingHint(sql, index, end)) {
+          return StatementType.LOCKING;
+        }
+        previousWasFor = Dialect.isWord(sql, index, end, "FOR");
+        if (Dialect.isWord(sql, index, end, "LOCK")) {
+          lockInShareMode = 1;
+        } else if ((lockInShareMode == 1 && Dialect.isWord(sql, index, end, "IN"))
+            || (lockInShareMode == 2 && Dialect.isWord(sql, index, end, "SHARE"))) {
+          lockInShareMode++;
+        } else {
+          lockInShareMode = 0;
+        }
+        if (leadingWord && hintDepth == 0) {
+          withClause = Dialect.isWord(sql, index, end, "WITH");
+          leadingWord = false;
+        }
+        if (afterCommonTableExpression && !Dialect.isWord(sql, index, end, "AS")) {
+          // The main statement of the WITH clause has started.
+          withClause = false;
+        }
+        previousWord = getWordKind(sql, index, end, previousWord);
+        dmlPosition = afterCommonTableExpression = false;
+        index = end;
+      } else {
+        if (c > ' ') {
+          previousWasFor = false;
+          lockInShareMode = 0;
+          if (c == '(') {
+            dmlPosition = (withClause && depth == 0 && previousWord == AS_WORD)
+                || previousWord == DELTA_TABLE_WORD;
+            depth++;
+          } else if (c == ')') {
+            depth = Math.max(depth - 1, 0);
+            dmlPosition = afterCommonTableExpression = withClause && depth == 0;
+          } else {
+            if (c == '{') {
+              hintDepth++;
+            } else if (c == '}') {
+              hintDepth = Math.max(hintDepth - 1, 0);
+            }
+            withClause &= !afterCommonTableExpression || c == ',';
+            dmlPosition = afterCommonTableExpression = false;
+          }
+          previousWord = OTHER_WORD;
+        }
+        index++;
+      }
+    }
+    return StatementType.QUERY;
+  }
+
+  /** Returns the kind of the word between start and end that follows a word of the given kind. */
+  private static int getWordKind(String sql, int start, int end, int previousWord) {
+    if (Dialect.isWord(sql, start, end, "AS") || Dialect.isWord(sql, start, end, "MATERIALIZED")) {
+      return AS_WORD;
+    } else if (Dialect.isWord(sql, start, end, "FINAL") || Dialect.isWord(sql, start, end, "NEW")
+        || Dialect.isWord(sql, start, end, "OLD")) {
+      return DELTA_WORD;
+    } else if (previousWord == DELTA_WORD && Dialect.isWord(sql, start, end, "TABLE")) {
+      return DELTA_TABLE_WORD;
+    }
+    return OTHER_WORD;
+  }
+
+  /** Returns true if the word that ends at the given index is followed by an opening bracket. */
+  private boolean isFunctionCall(String sql, int end) {
+    end = skipWhitespaceAndComments(sql, end);
+    return end < sql.length() && sql.charAt(end) == '(';
+  }
+
+  /** Returns true if the word between start and end is equal to one of the given words. */
+  private static boolean isWord(String sql, int start, int end, String[] words) {
+    for (String word : words) {
+      if (Dialect.isWord(sql, start, end, word)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a {@link BatchedInsert} for the given statement if it is an INSERT statement with
+   * exactly one row in its VALUES clause and nothing after the VALUES clause, or null otherwise.
+   * Statements with for example an ON CONFLICT or RETURNING clause are not returned, as the update
+   * count or the result of these cannot be mapped back to the individual rows.
+   */
+  BatchedInsert getBatchedInsert(String sql) {
+    int index = skipWhitespaceAndComments(sql, 0);
+    if (!startsWithKeyword(sql, index, "INSERT")) {
+      return null;
+    }
+    try {
+      // Find the VALUES keyword outside any parentheses.
+      int depth = 0;
+      int valuesEnd = -1;
+      while (index < sql.length() && valuesEnd == -1) {
+        char c = sql.charAt(index);
+        int end = dialect.skipComment(sql, index);
+        if (end == index) {
+          end = dialect.skipQuoted(sql, index);
+        }
+        if (end > index) {
+          index = end;
+        } else if (Dialect.isIdentifierChar(c)) {
+          end = index + 1;
+          while (end < sql.length() && Dialect.isIdentifierChar(sql.charAt(end))) {
+            end++;
+          }
+          if (depth == 0 && Dialect.isWord(sql, index, end, "VALUES")) {
+            valuesEnd = end;
+          } else if (depth == 0 && (Dialect.isWord(sql, index, end, "SELECT")
+              || Dialect.isWord(sql, index, end, "DEFAULT"))) {
+            return null;
+          }
+          index = end;
+        } else {
+          if (c == '(') {
+            depth++;
+          } else if (c == ')') {
+            depth--;
+          }
+          index++;
+        }
+      }
+      if (valuesEnd == -1) {
+        return null;
+      }
+      // Scan the row and count the parameters.
+      int rowStart = skipWhitespaceAndComments(sql, valuesEnd);
+      if (rowStart == sql.length() || sql.charAt(rowStart) != '(') {
+        return null;
+      }
+      int parameters = 0;
+      depth = 0;
+      index = rowStart;
+      while (index < sql.length()) {
+        char c = sql.charAt(index);
+        int end = dialect.skipComment(sql, index);
+        if (end == index) {
+          end = dialect.skipQuoted(sql, index);
+        }
+        if (end > index) {
+          index = end;
+          continue;
+        }
+        index++;
+        if (c == '?') {
+          parameters++;
+        } else if (c == '(') {
+          depth++;
+        } else if (c == ')' && --depth == 0) {
+          break;
+        }
+      }
+      if (depth != 0) {
+        return null;
+      }
+      int rowEnd = index;
+      // Only a terminating semicolon may follow the row.
+      index = skipWhitespaceAndComments(sql, rowEnd);
+      if (index < sql.length() && sql.charAt(index) == ';') {
+        index = skipWhitespaceAndComments(sql, index + 1);
+      }
+      if (index < sql.length()) {
+        return null;
+      }
+      return new BatchedInsert(sql.substring(0, valuesEnd), sql.substring(rowStart, rowEnd),
+          parameters);
+    } catch (SQLException e) {
+      // Let the database report the invalid statement.
+      return null;
+    }
+  }
+
+  /**
+   * Returns the number of '?' parameters in the given statement, or -1 if the statement contains an
+   * unclosed literal or comment. Question marks in comments and literals are not counted.
+   */
+  int countParameters(String sql) {
+    try {
+      int parameters = 0;
+      int index = 0;
+      while (index < sql.length()) {
+        int end = dialect.skipComment(sql, index);
+        if (end == index) {
+          end = dialect.skipQuoted(sql, index);
+        }
+        if (end > index) {
+          index = end;
+        } else {
+          if (sql.charAt(index) == '?') {
+            parameters++;
+          }
+          index++;
+        }
+      }
+      return parameters;
+    } catch (SQLException e) {
+      return -1;
+    }
+  }
+
+  /** Returns the {@link Fingerprint} of the given statement. */
+  Fingerprint fingerprint(String sql) {
+    return fingerprint(dialect, sql);
+  }
+
+  /**
+   * Returns the 64-bit hash of the {@link Fingerprint} of the given statement. This method does not
+   * create the normalized statement, and returns the same value as
+   * <code>fingerprint(sql).getHash()</code>.
+   */
+  long fingerprintHash(String sql) {
+    return fingerprint(dialect, sql, null);
+  }
+
+  private static Fingerprint fingerprint(Dialect dialect, String sql) {
+    StringBuilder normalized = new StringBuilder(sql.length());
+    long hash = fingerprint(dialect, sql, normalized);
+    return new Fingerprint(hash, normalized.toString());
+  }
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Computes the fingerprint of the given statement in a single pass using the lexer of the given
+   * dialect. The normalized statement is appended to the given {@link StringBuilder} if it is not
+   * null, and the 64-bit FNV-1a hash of the normalized statement is returned.
+   */
+  private static long fingerprint(Dialect dialect, String sql, StringBuilder normalized) {
+    long hash = FNV_OFFSET_BASIS;
+    // The number of characters that have been added to the fingerprint.
+    int length = 0;
+    boolean pendingSpace = false;
+    int pendingSemicolons = 0;
+    boolean previousWasIn = false;
+    int index = 0;
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      int end = dialect.skipComment(sql, index);
+      if (end > index || c <= ' ') {
+        pendingSpace = true;
+        index = Math.max(end, index + 1);
+        continue;
+      }
+      // Determine the next token and what should be added to the fingerprint for it.
+      int start = index;
+      boolean literal = false;
+      boolean upperCase = false;
+      end = skipQuotedOrUnclosed(dialect, sql, index);
+      if (end > index) {
+        literal = !dialect.isIdentifierQuote(c);
+      } else if (c >= '0' && c <= '9') {
+        end = skipNumber(sql, index);
+        literal = true;
+      } else if (Dialect.isIdentifierChar(c)) {
+        end = index + 1;
+        while (end < sql.length() && Dialect.isIdentifierChar(sql.charAt(end))) {
+          end++;
+        }
+        if (end < sql.length() && sql.charAt(end) == '\'') {
+          // A prefixed literal, such as N'...', E'...', X'...' or nq'[...]'.
+          int literalEnd = skipQuotedOrUnclosed(dialect, sql, end - 1);
+          end = literalEnd > end - 1 ? literalEnd : skipQuotedOrUnclosed(dialect, sql, end);
+          literal = true;
+        } else {
+          upperCase = true;
+        }
+      } else if (c == '(' && previousWasIn) {
+        end = skipLiteralList(dialect, sql, index);
+        if (end > index) {
+          start = -1;
+        } else {
+          end = index + 1;
+        }
+      } else {
+        end = index + 1;
+      }
+      previousWasIn = upperCase && end - start == 2
+          && sql.regionMatches(true, start, "IN", 0, 2);
+
+      // Add the token to the fingerprint, preceded by any pending semicolons and space. Semicolons
+      // are only added if they are followed by another token, so trailing semicolons are removed.
+      if (c == ';' && end == index + 1) {
+        pendingSemicolons++;
+        index = end;
+        continue;
+      }
+      for (; pendingSemicolons > 0; pendingSemicolons--) {
+        hash = (hash ^ ';') * FNV_PRIME;
+        if (normalized != null) {
+          normalized.append(';');
+        }
+        length++;
+      }
+      if (pendingSpace && length > 0) {
+        hash = (hash ^ ' ') * FNV_PRIME;
+        if (normalized != null) {
+          normalized.append(' ');
+        }
+        length++;
+      }
+      pendingSpace = false;
+      if (start == -1) {
+        for (int i = 0; i < 3; i++) {
+          hash = (hash ^ "(?)".charAt(i)) * FNV_PRIME;
+        }
+        if (normalized != null) {
+          normalized.append("(?)");
+        }
+        length += 3;
+      } else if (literal) {
+        hash = (hash ^ '?') * FNV_PRIME;
+        if (normalized != null) {
+          normalized.append('?');
+        }
+        length++;
+      } else {
+        for (int i = start; i < end; i++) {
+          char ch = upperCase ? Character.toUpperCase(sql.charAt(i)) : sql.charAt(i);
+          hash = (hash ^ ch) * FNV_PRIME;
+          if (normalized != null) {
+            normalized.append(ch);
+          }
+        }
+        length += end - start;
+      }
+      index = end;
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the end of the quoted literal or identifier that starts at the given index, the end of
+   * the statement if the literal is not closed, or the given index if no literal starts there.
+   */
+  private static int skipQuotedOrUnclosed(Dialect dialect, String sql, int index) {
+    try {
+      return dialect.skipQuoted(sql, index);
+    } catch (SQLException e) {
+      return sql.length();
+    }
+  }
+
+  /** Returns the end of the numeric literal that starts at the given index. */
+  private static int skipNumber(String sql, int index) {
+    boolean hex = index + 1 < sql.length() && sql.charAt(index) == '0'
+        && (sql.charAt(index + 1) == 'x' || sql.charAt(index + 1) == 'X');
+    int end = index;
+    while (end < sql.length()) {
+      char c = sql.charAt(end);
+      if (Dialect.isIdentifierChar(c) || c == '.') {
+        end++;
+      } else if ((c == '+' || c == '-') && !hex
+          && (sql.charAt(end - 1) == 'e' || sql.charAt(end - 1) == 'E')) {
+        // Exponent of a decimal number, e.g. 1.5e-10.
+        end++;
+      } else {
+        break;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Returns the index after the closing parenthesis of the list that starts at the given index if
+   * the list only contains literals, parameters, whitespace and comments, or the given index if the
+   * list contains anything else.
+   */
+  private static int skipLiteralList(Dialect dialect, String sql, int index) {
+    int end = index + 1;
+    while (end < sql.length()) {
+      char c = sql.charAt(end);
+      int next = dialect.skipComment(sql, end);
+      if (next > end) {
+        end = next;
+        continue;
+      }
+      next = skipQuotedOrUnclosed(dialect, sql, end);
+      if (next > end) {
+        if (dialect.isIdentifierQuote(c)) {
+          return index;
+        }
+        end = next;
+      } else if (c == ')') {
+        return end + 1;
+      } else if ((c >= '0' && c <= '9') || c == '$') {
+        end = skipNumber(sql, end);
+      } else if (c <= ' ' || c == ',' || c == '?' || c == '-' || c == '+' || c == '.') {
+        end++;
+      } else {
+        return index;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first character at or after the given index that is not part of a
+   * comment. Returns the length of the string if there is no such character.
+   */
+  private int skipComments(String sql, int index) {
+    while (index < sql.length()) {
+      int end = dialect.skipComment(sql, index);
+      if (end == index) {
+        return index;
+      }
+      index = end;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first character at or after the given index that is not whitespace
+   * and not part of a comment.
+   */
+  private int skipWhitespaceAndComments(String sql, int index) {
+    index = skipComments(sql, index);
+    while (index < sql.length() && sql.charAt(index) <= ' ') {
+      index = skipComments(sql, index + 1);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first character after the statement hint that starts at the given
+   * index, or -1 if the statement hint is invalid.
+   */
+  private int skipStatementHint(String sql, int index) {
+    index = skipWhitespaceAndComments(sql, index + 1);
+    if (index == sql.length() || sql.charAt(index) != '{') {
+      return -1;
+    }
+    int end = sql.indexOf('}', index);
+    if (end == -1) {
+      return -1;
     }
-    return ParsedStatement.unknown(sql);
+    return skipWhitespaceAndComments(sql, end + 1);
+  }
+
+  /**
+   * Returns true if the statement at the given index starts with one of the given keywords. The
+   * keyword must be followed by whitespace or the end of the statement, and may not contain any
+   * other characters than comments. Keywords are matched case-insensitively in the same way as
+   * {@link String#equalsIgnoreCase(String)}.
+   */
+  private boolean startsWithKeyword(String sql, int index, String[] keywords) {
+    for (String keyword : keywords) {
+      if (startsWithKeyword(sql, index, keyword)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean startsWithKeyword(String sql, int index, String keyword) {
+    for (int i = 0; i < keyword.length(); i++) {
+      index = skipComments(sql, index);
+      if (index == sql.length() || !equalsIgnoreCase(sql.charAt(index), keyword.charAt(i))) {
+        return false;
+      }
+      index++;
+    }
+    index = skipComments(sql, index);
+    if (index == sql.length() || isWhitespace(sql.charAt(index))) {
+      return true;
+    }
+    // The keyword may also be followed by characters that would be removed by trimming the
+    // statement, optionally followed by a terminating semicolon.
+    while (index < sql.length()) {
+      char c = sql.charAt(index);
+      if (c == ';') {
+        return skipComments(sql, index + 1) == sql.length();
+      }
+      if (c > ' ') {
+        return false;
+      }
+      index = skipComments(sql, index + 1);
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the first whitespace-separated token of the given trimmed statement is equal to
+   * the given keyword, ignoring case.
+   */
+  private static boolean firstTokenEquals(String sql, String keyword) {
+    int length = keyword.length();
+    return sql.regionMatches(true, 0, keyword, 0, length)
+        && (sql.length() == length || isWhitespace(sql.charAt(length)));
+  }
+
+  private static boolean equalsIgnoreCase(char c1, char c2) {
+    if (c1 == c2) {
+      return true;
+    }
+    char u1 = Character.toUpperCase(c1);
+    char u2 = Character.toUpperCase(c2);
+    return u1 == u2 || Character.toLowerCase(u1) == Character.toLowerCase(u2);
+  }
+
+  /** Returns true if the given character is whitespace according to the regex class \s. */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
   }
 
   /**
@@ -170,7 +1100,7 @@ class StatementParser {
    */
   public boolean isQuery(String sql) throws SQLException {
     // Skip any query hints at the beginning of the query.
-    if (sql.startsWith("@")) {
+    if (sql.startsWith("@") && dialect.supportsStatementHints()) {
       sql = removeStatementHint(sql);
     }
     // Check explicitly that it does not start with a DML statement to detect 'SELECT INTO'
@@ -191,6 +1121,16 @@ class StatementParser {
     return statementStartsWith(sql, dmlStatements);
   }
 
+  /**
+   * Checks whether the given statement is (probably) a LOCK TABLE statement.
+   *
+   * @param sql The statement to check (without any comments).
+   * @return <code>true</code> if the statement starts with 'LOCK'.
+   */
+  public boolean isLockStatement(String sql) {
+    return statementStartsWith(sql, lockStatements);
+  }
+
   private boolean statementStartsWith(String sql, Iterable<String> checkStatements) {
     String[] tokens = sql.split("\\s+", 2);
     if (tokens.length > 0) {
@@ -346,13 +1286,4 @@ class StatementParser {
     // Seems invalid, just return the original statement.
     return sql;
   }
-
-  static boolean isUpdateOrDdl(String sql) {
-    try {
-      ParsedStatement statement = INSTANCE.parse(sql);
-      return statement.isUpdate() || statement.isDdl();
-    } catch (Throwable t) {
-      return false;
-    }
-  }
 }
@@ -0,0 +1,532 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the statements that are executed in a transaction that was started by smart commit, so
+ * that the transaction can be replayed on the underlying connection if the database aborts it with
+ * a retryable error, for example a serialization failure or a deadlock.
+ *
+ * <p>A replay rolls back the transaction and executes all recorded statements again on the
+ * underlying connection. The update counts of the replayed statements and checksums of the rows
+ * that the application has read from the result sets of queries must be equal to the original
+ * results. Otherwise the application could have made decisions based on data that has since
+ * changed, and the original error is reported to the application.
+ *
+ * <p>A transaction can only be replayed if all statements in it have been recorded. Statements
+ * that cannot be replayed, such as statements with stream parameters or statements that return
+ * generated keys, mark the transaction as not replayable. Any execution that is started without
+ * being recorded afterwards also marks the transaction as not replayable.
+ */
+class TransactionRecorder {
+  private static final Logger log = Logger.getLogger(TransactionRecorder.class.getName());
+
+  /** Indicates that a replayed statement did not return the same results as the original. */
+  static final class ReplayMismatchException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    ReplayMismatchException(String sql) {
+      super("The results of a replayed statement were different from the original results: " + sql);
+    }
+  }
+
+  /** A statement that has been executed in the transaction. */
+  abstract static class Execution {
+    final String sql;
+
+    /** The parameters of a prepared statement, or null for a statement without parameters. */
+    final BatchParameterStore parameters;
+
+    Execution(String sql, BatchParameterStore parameters) {
+      this.sql = sql;
+      this.parameters = parameters;
+    }
+
+    abstract void replay(Connection connection) throws SQLException;
+
+    /** Returns true if the results of this execution can be verified by a replay. */
+    boolean isReplayable() {
+      return true;
+    }
+
+    /**
+     * Creates a statement for replaying this execution, and sets the parameters of the current row
+     * or adds all rows to the batch of the statement.
+     */
+    PreparedStatement prepare(Connection connection, boolean batch) throws SQLException {
+      PreparedStatement statement = connection.prepareStatement(sql);
+      try {
+        if (batch) {
+          for (int row = 0; row < parameters.size(); row++) {
+            parameters.apply(row, statement, 0);
+            statement.addBatch();
+          }
+        } else {
+          parameters.apply(parameters.size(), statement, 0);
+        }
+        return statement;
+      } catch (SQLException e) {
+        statement.close();
+        throw e;
+      }
+    }
+  }
+
+  /** A DML statement and its update count. */
+  static final class UpdateExecution extends Execution {
+    private final long updateCount;
+
+    UpdateExecution(String sql, BatchParameterStore parameters, long updateCount) {
+      super(sql, parameters);
+      this.updateCount = updateCount;
+    }
+
+    @Override
+    void replay(Connection connection) throws SQLException {
+      long res;
+      if (parameters == null) {
+        try (Statement statement = connection.createStatement()) {
+          res = statement.executeUpdate(sql);
+        }
+      } else {
+        try (PreparedStatement statement = prepare(connection, false)) {
+          res = statement.executeUpdate();
+        }
+      }
+      if (res != updateCount) {
+        throw new ReplayMismatchException(sql);
+      }
+    }
+  }
+
+  /** A batch of DML statements and their update counts. */
+  static final class BatchExecution extends Execution {
+    /** The statements in a batch of a {@link Statement}, or null for a prepared statement. */
+    private final List<String> batch;
+
+    private final long[] updateCounts;
+
+    BatchExecution(String sql, BatchParameterStore parameters, long[] updateCounts) {
+      super(sql, parameters);
+      this.batch = null;
+      this.updateCounts = updateCounts;
+    }
+
+    BatchExecution(List<String> batch, long[] updateCounts) {
+      super(String.join(";\n", batch), null);
+      this.batch = batch;
+      this.updateCounts = updateCounts;
+    }
+
+    @Override
+    void replay(Connection connection) throws SQLException {
+      int[] res;
+      if (batch != null) {
+        try (Statement statement = connection.createStatement()) {
+          for (String sql : batch) {
+            statement.addBatch(sql);
+          }
+          res = statement.executeBatch();
+        }
+      } else {
+        try (PreparedStatement statement = prepare(connection, true)) {
+          res = statement.executeBatch();
+        }
+      }
+      if (res.length != updateCounts.length) {
+        throw new ReplayMismatchException(sql);
+      }
+      for (int i = 0; i < res.length; i++) {
+        // Batches that were rewritten to multi-row inserts may not have a count for each row.
+        if (res[i] != updateCounts[i]
+            && res[i] != Statement.SUCCESS_NO_INFO
+            && updateCounts[i] != Statement.SUCCESS_NO_INFO) {
+          throw new ReplayMismatchException(sql);
+        }
+      }
+    }
+  }
+
+  /** A query and a checksum of the rows that the application has read from its result. */
+  static final class QueryExecution extends Execution {
+    private final ResultSetChecksum checksum = new ResultSetChecksum();
+
+    QueryExecution(String sql, BatchParameterStore parameters) {
+      super(sql, parameters);
+    }
+
+    ResultSetChecksum getChecksum() {
+      return checksum;
+    }
+
+    @Override
+    boolean isReplayable() {
+      return checksum.isValid();
+    }
+
+    @Override
+    void replay(Connection connection) throws SQLException {
+      if (!checksum.isValid()) {
+        throw new ReplayMismatchException(sql);
+      }
+      ResultSetChecksum res = new ResultSetChecksum();
+      if (parameters == null) {
+        try (Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery(sql)) {
+          res.replay(rs, checksum);
+        }
+      } else {
+        try (PreparedStatement statement = prepare(connection, false);
+            ResultSet rs = statement.executeQuery()) {
+          res.replay(rs, checksum);
+        }
+      }
+      if (!res.equals(checksum)) {
+        throw new ReplayMismatchException(sql);
+      }
+    }
+  }
+
+  /**
+   * Checksum of the column values that the application has read from a result set. The reads are
+   * recorded, so that a replay can read the same columns with the same getters from the same rows.
+   * Consecutive rows that read the same columns are recorded only once. The checksum is only valid
+   * if the rows were read in order with {@link ResultSet#next()}, and if all values that were read
+   * can be compared by value. LOBs, arrays and streams cannot be compared without reading them
+   * twice, and invalidate the checksum.
+   */
+  static final class ResultSetChecksum {
+    /** Reads a column value from the current row of a result set. */
+    @FunctionalInterface
+    interface ColumnGetter {
+      Object get(ResultSet rs, int column) throws SQLException;
+    }
+
+    /** The reads of consecutive rows that read the same columns with the same getters. */
+    private static final class RowReads {
+      private final int[] columns;
+      private final ColumnGetter[] getters;
+      private int rows = 1;
+
+      RowReads(int[] columns, ColumnGetter[] getters) {
+        this.columns = columns;
+        this.getters = getters;
+      }
+
+      boolean matches(int[] columns, ColumnGetter[] getters, int reads) {
+        if (this.columns.length != reads) {
+          return false;
+        }
+        for (int i = 0; i < reads; i++) {
+          if (this.columns[i] != columns[i] || !this.getters[i].equals(getters[i])) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+
+    private int rows;
+    private long hash;
+    private boolean endReached;
+    private boolean valid = true;
+
+    /** The reads of the rows that have been read, excluding the current row. */
+    private final List<RowReads> rowReads = new ArrayList<>();
+
+    /** True if the result set is positioned on a row whose reads have not been added yet. */
+    private boolean onRow;
+
+    /** The columns and getters of the reads of the current row. */
+    private int[] columns = new int[8];
+    private ColumnGetter[] getters = new ColumnGetter[8];
+    private int reads;
+
+    boolean isValid() {
+      return valid;
+    }
+
+    void invalidate() {
+      valid = false;
+    }
+
+    /** Updates the checksum after a call to {@link ResultSet#next()}. */
+    void next(boolean hasRow) {
+      finishRow();
+      if (hasRow) {
+        rows++;
+        onRow = true;
+      } else {
+        endReached = true;
+      }
+    }
+
+    private void finishRow() {
+      if (!onRow) {
+        return;
+      }
+      onRow = false;
+      RowReads last = rowReads.isEmpty() ? null : rowReads.get(rowReads.size() - 1);
+      if (last != null && last.matches(columns, getters, reads)) {
+        last.rows++;
+      } else {
+        rowReads.add(new RowReads(Arrays.copyOf(columns, reads), Arrays.copyOf(getters, reads)));
+      }
+      reads = 0;
+    }
+
+    /** Updates the checksum with the hash of a value that was read with the given getter. */
+    void read(int column, ColumnGetter getter, int valueHash) {
+      if (!onRow) {
+        return;
+      }
+      if (reads == columns.length) {
+        columns = Arrays.copyOf(columns, reads * 2);
+        getters = Arrays.copyOf(getters, reads * 2);
+      }
+      columns[reads] = column;
+      getters[reads] = getter;
+      reads++;
+      hash = 31L * (31L * hash + column) + valueHash;
+    }
+
+    /**
+     * Updates the checksum with a value that was read with the given getter. The checksum is
+     * invalidated if the value cannot be compared by value, such as a LOB or an array.
+     */
+    void read(int column, ColumnGetter getter, Object value) {
+      if (value == null || value instanceof String || value instanceof Number
+          || value instanceof Boolean || value instanceof Character
+          || value instanceof java.util.Date || value instanceof TemporalAccessor
+          || value instanceof UUID) {
+        read(column, getter, value == null ? 0 : value.hashCode());
+      } else if (value instanceof byte[]) {
+        read(column, getter, Arrays.hashCode((byte[]) value));
+      } else if (value instanceof URL) {
+        // URL#hashCode resolves the host name.
+        read(column, getter, value.toString().hashCode());
+      } else {
+        invalidate();
+      }
+    }
+
+    /**
+     * Reads the same values from the given result set as were read for the given checksum, and
+     * updates this checksum with them.
+     */
+    void replay(ResultSet rs, ResultSetChecksum original) throws SQLException {
+      original.finishRow();
+      for (RowReads row : original.rowReads) {
+        for (int i = 0; i < row.rows; i++) {
+          boolean hasRow = rs.next();
+          next(hasRow);
+          if (!hasRow) {
+            return;
+          }
+          for (int read = 0; read < row.columns.length; read++) {
+            int column = row.columns[read];
+            read(column, row.getters[read], row.getters[read].get(rs, column));
+          }
+        }
+      }
+      if (original.endReached) {
+        next(rs.next());
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ResultSetChecksum)) {
+        return false;
+      }
+      ResultSetChecksum other = (ResultSetChecksum) o;
+      return rows == other.rows && hash == other.hash && endReached == other.endReached;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(hash);
+    }
+  }
+
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final List<Execution> executions = new ArrayList<>();
+
+  /** True while a transaction that was started by smart commit is active. */
+  private boolean active;
+
+  /** False if the current transaction contains a statement that was not recorded. */
+  private boolean replayable;
+
+  /** True if an execution has been started and has not been recorded. */
+  private boolean pendingExecution;
+
+  /** The number of times that the current transaction has been replayed. */
+  private int attempts;
+
+  private final LongAdder replayCount = new LongAdder();
+  private final LongAdder failedReplayCount = new LongAdder();
+
+  TransactionRecorder(int maxRetries, long initialBackoffMillis) {
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  /** Returns true if transactions can be retried. */
+  boolean isEnabled() {
+    return maxRetries > 0;
+  }
+
+  /** Returns true if statements in the current transaction should be recorded. */
+  boolean isRecording() {
+    return active && replayable;
+  }
+
+  /** Starts recording a new transaction. */
+  void begin() {
+    if (isEnabled()) {
+      executions.clear();
+      active = true;
+      replayable = true;
+      pendingExecution = false;
+      attempts = 0;
+    }
+  }
+
+  /** Stops recording, as the current transaction has ended. */
+  void end() {
+    executions.clear();
+    active = false;
+  }
+
+  /** Marks the start of an execution that must be recorded for the transaction to be replayable. */
+  void beforeExecute() {
+    if (active) {
+      if (pendingExecution) {
+        markUnreplayable();
+      }
+      pendingExecution = true;
+    }
+  }
+
+  /** Records an execution that has finished successfully. */
+  void record(Execution execution) {
+    if (active) {
+      pendingExecution = false;
+      if (replayable) {
+        executions.add(execution);
+      }
+    }
+  }
+
+  /** Marks the current transaction as not replayable. */
+  void markUnreplayable() {
+    if (active && replayable) {
+      log.log(Level.FINEST, "Transaction contains a statement that cannot be replayed");
+      replayable = false;
+      executions.clear();
+    }
+  }
+
+  /**
+   * Rolls back the current transaction and replays it on the given connection if the given error
+   * can be retried. Returns normally if the transaction has been replayed, after which the failed
+   * execution may be retried.
+   *
+   * @throws SQLException the given error if the transaction cannot be replayed, or if all attempts
+   *     have been used. The errors of failed replays are added as suppressed exceptions.
+   */
+  void retry(SQLException error, Dialect dialect, Connection connection) throws SQLException {
+    if (!isRetryable(error, dialect) || !isRecording() || attempts >= maxRetries) {
+      throw error;
+    }
+    for (Execution execution : executions) {
+      if (!execution.isReplayable()) {
+        // The results of the original execution cannot be verified.
+        markUnreplayable();
+        throw error;
+      }
+    }
+    while (attempts < maxRetries) {
+      attempts++;
+      Backoff.sleep(initialBackoffMillis, attempts, error);
+      log.log(Level.FINE, "Replaying aborted transaction, attempt {0}", attempts);
+      try {
+        connection.rollback();
+        for (Execution execution : executions) {
+          execution.replay(connection);
+        }
+        replayCount.increment();
+        // The execution that failed is retried by the caller and marks itself as pending again.
+        pendingExecution = false;
+        return;
+      } catch (SQLException e) {
+        error.addSuppressed(e);
+        if (!isRetryable(e, dialect)) {
+          break;
+        }
+      }
+    }
+    failedReplayCount.increment();
+    markUnreplayable();
+    throw error;
+  }
+
+  /** Returns true if the given error or any of its causes indicates a retryable abort. */
+  private static boolean isRetryable(SQLException error, Dialect dialect) {
+    if (error instanceof ReplayMismatchException) {
+      return false;
+    }
+    Throwable cause = error;
+    while (cause != null) {
+      if (cause instanceof SQLException) {
+        SQLException sqlException = (SQLException) cause;
+        if (dialect.isRetryable(sqlException)
+            || (sqlException.getNextException() != null
+                && dialect.isRetryable(sqlException.getNextException()))) {
+          return true;
+        }
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
+  /** Returns the number of transactions that have been replayed successfully. */
+  long getReplayCount() {
+    return replayCount.sum();
+  }
+
+  /** Returns the number of transactions that could not be replayed after a retryable error. */
+  long getFailedReplayCount() {
+    return failedReplayCount.sum();
+  }
+}
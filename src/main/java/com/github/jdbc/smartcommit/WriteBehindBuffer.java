@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers DML statements that are executed in a transaction that was started by smart commit, and
+ * sends them to the underlying connection as a batch. The buffered statements are added to the
+ * batch of an underlying statement:
+ *
+ * <ul>
+ * <li>Sql strings are added to the batch of an internal {@link Statement} of this buffer.
+ * <li>Executions of a {@link PreparedStatement} are added to the batch of that prepared statement.
+ * <li>Executions of a {@link PreparedStatement} whose parameters have been captured can also be
+ *     copied to an internal prepared statement of this buffer. The buffered execution is then
+ *     kept when the application closes its prepared statement.
+ * </ul>
+ *
+ * Only one underlying statement can hold buffered statements at any time. Buffering a statement
+ * for a different underlying statement flushes the buffer first, so the statements are always
+ * executed in the order that they were buffered in.
+ *
+ * <p>The buffer can also be used to defer only the first DML statement of a transaction, in which
+ * case the buffer is not enabled and holds at most one statement. See {@link
+ * SmartCommitConnection#prepareBufferedWrite}.
+ *
+ * <p>The buffer must be flushed before any other statement is executed on the connection and
+ * before the transaction is committed. An error that occurs during a flush is reported as a {@link
+ * BatchUpdateException} that contains the index of the failed statement in the transaction.
+ */
+class WriteBehindBuffer {
+  private static final Logger log = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+  private final Connection delegate;
+
+  /** The maximum number of statements that are buffered before the buffer is flushed. */
+  private final int maxStatements;
+
+  /** Internal statement that is used to buffer sql strings. Created when first needed. */
+  private Statement sqlStatement;
+
+  /**
+   * Internal prepared statement that holds a copy of a buffered execution. Closed when the copy
+   * has been flushed or discarded.
+   */
+  private PreparedStatement copyStatement;
+
+  /** The underlying statement whose batch holds the buffered statements. */
+  private Statement target;
+
+  /** The sql strings of the buffered statements. Used for error messages. */
+  private final List<String> sqls = new ArrayList<>();
+
+  /** The number of statements in the current transaction that have already been flushed. */
+  private int flushedStatements;
+
+  private final LongAdder bufferedCount = new LongAdder();
+  private final LongAdder flushCount = new LongAdder();
+
+  WriteBehindBuffer(Connection delegate, int maxStatements) {
+    this.delegate = delegate;
+    this.maxStatements = maxStatements;
+  }
+
+  /** Returns true if all DML statements in a transaction can be buffered. */
+  boolean isEnabled() {
+    return maxStatements > 0;
+  }
+
+  /** Returns the number of statements that are currently buffered. */
+  int size() {
+    return sqls.size();
+  }
+
+  /** Returns true if the batch of the given underlying statement holds buffered statements. */
+  boolean isBufferedIn(Statement statement) {
+    return target == statement && !sqls.isEmpty();
+  }
+
+  /** Buffers the given sql string. */
+  void add(String sql) throws SQLException {
+    if (sqlStatement == null) {
+      sqlStatement = delegate.createStatement();
+    }
+    prepareTarget(sqlStatement);
+    sqlStatement.addBatch(sql);
+    added(sql);
+  }
+
+  /**
+   * Buffers an execution of the given underlying prepared statement with its current parameters.
+   */
+  void add(PreparedStatement statement, String sql) throws SQLException {
+    prepareTarget(statement);
+    statement.addBatch();
+    added(sql);
+  }
+
+  /**
+   * Buffers an execution of the given sql string with the current row of the given parameters.
+   * The execution is copied to an internal prepared statement of this buffer.
+   */
+  void add(String sql, BatchParameterStore parameters) throws SQLException {
+    flush();
+    PreparedStatement statement = delegate.prepareStatement(sql);
+    try {
+      parameters.apply(parameters.size(), statement, 0);
+      statement.addBatch();
+    } catch (SQLException e) {
+      statement.close();
+      throw e;
+    }
+    copyStatement = statement;
+    target = statement;
+    added(sql);
+  }
+
+  private void prepareTarget(Statement statement) throws SQLException {
+    if (target != statement) {
+      flush();
+      target = statement;
+    }
+  }
+
+  private void added(String sql) throws SQLException {
+    sqls.add(sql);
+    bufferedCount.increment();
+    if (maxStatements > 0 && sqls.size() >= maxStatements) {
+      flush();
+    }
+  }
+
+  /** Sends all buffered statements to the underlying connection. */
+  void flush() throws SQLException {
+    if (sqls.isEmpty()) {
+      return;
+    }
+    log.log(Level.FINEST, "Flushing {0} buffered statements", sqls.size());
+    int firstStatement = flushedStatements;
+    int statements = sqls.size();
+    Statement statement = target;
+    List<String> flushed = new ArrayList<>(sqls);
+    sqls.clear();
+    target = null;
+    flushedStatements += statements;
+    flushCount.increment();
+    try {
+      statement.executeBatch();
+    } catch (BatchUpdateException e) {
+      int index = getFailedIndex(e.getUpdateCounts(), statements);
+      throw new BatchUpdateException(
+          String.format("Deferred statement %d of the transaction failed: %s\n%s",
+              firstStatement + index, flushed.get(index), e.getMessage()),
+          e.getSQLState(), e.getErrorCode(), e.getUpdateCounts(), e);
+    } finally {
+      closeCopyStatement();
+    }
+  }
+
+  private void closeCopyStatement() throws SQLException {
+    if (copyStatement != null) {
+      PreparedStatement statement = copyStatement;
+      copyStatement = null;
+      statement.close();
+    }
+  }
+
+  private static int getFailedIndex(int[] updateCounts, int statements) {
+    if (updateCounts == null) {
+      return 0;
+    }
+    for (int i = 0; i < updateCounts.length; i++) {
+      if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+        return i;
+      }
+    }
+    return Math.min(updateCounts.length, statements - 1);
+  }
+
+  /**
+   * Discards all buffered statements and starts a new transaction. Must be called when the
+   * transaction is committed or rolled back.
+   */
+  void reset() throws SQLException {
+    flushedStatements = 0;
+    if (sqls.isEmpty()) {
+      return;
+    }
+    log.log(Level.FINEST, "Discarding {0} buffered statements", sqls.size());
+    Statement statement = target;
+    sqls.clear();
+    target = null;
+    if (statement == copyStatement) {
+      closeCopyStatement();
+    } else {
+      statement.clearBatch();
+    }
+  }
+
+  /** Closes the internal statement of this buffer. */
+  void close() throws SQLException {
+    sqls.clear();
+    target = null;
+    closeCopyStatement();
+    if (sqlStatement != null) {
+      sqlStatement.close();
+      sqlStatement = null;
+    }
+  }
+
+  /** Returns the total number of statements that have been buffered. */
+  long getBufferedCount() {
+    return bufferedCount.sum();
+  }
+
+  /** Returns the total number of batches that have been sent to the underlying connection. */
+  long getFlushCount() {
+    return flushCount.sum();
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.JDBCType;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.TimeZone;
+import org.junit.Test;
+
+public class BatchParameterStoreTest {
+
+  @Test
+  public void testApply() throws SQLException {
+    BatchParameterStore store = new BatchParameterStore(8);
+    Timestamp timestamp = new Timestamp(1600000000123L);
+    timestamp.setNanos(123456789);
+    store.setLong(1, Long.MAX_VALUE);
+    store.setInt(2, -1);
+    store.setBoolean(3, true);
+    store.setDouble(4, 3.14d);
+    store.setString(5, "foo");
+    store.setTimestamp(6, timestamp);
+    store.setBigDecimal(7, BigDecimal.TEN);
+    store.setNString(8, "bar");
+    store.addBatch();
+    // Values are carried over to the next row.
+    store.setNull(1, Types.BIGINT);
+    store.setFloat(4, 1.5f);
+    store.setTimestamp(6, null);
+    store.addBatch();
+    assertThat(store.size()).isEqualTo(2);
+
+    PreparedStatement statement = mock(PreparedStatement.class);
+    store.apply(0, statement, 0);
+    verify(statement).setLong(1, Long.MAX_VALUE);
+    verify(statement).setInt(2, -1);
+    verify(statement).setBoolean(3, true);
+    verify(statement).setDouble(4, 3.14d);
+    verify(statement).setString(5, "foo");
+    verify(statement).setTimestamp(6, timestamp);
+    verify(statement).setBigDecimal(7, BigDecimal.TEN);
+    verify(statement).setNString(8, "bar");
+
+    store.apply(1, statement, 8);
+    verify(statement).setNull(9, Types.BIGINT);
+    verify(statement).setInt(10, -1);
+    verify(statement).setFloat(12, 1.5f);
+    verify(statement).setString(13, "foo");
+    verify(statement).setNull(14, Types.TIMESTAMP);
+  }
+
+  @Test
+  public void testApplyTypedValues() throws SQLException {
+    BatchParameterStore store = new BatchParameterStore(8);
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    Date date = new Date(1600000000000L);
+    Time time = new Time(3600000L);
+    Timestamp timestamp = new Timestamp(1600000000123L);
+    timestamp.setNanos(123456789);
+    store.setDate(1, date, null);
+    store.setTime(2, time, calendar);
+    store.setTimestamp(3, timestamp, calendar);
+    store.setNull(4, Types.STRUCT, "MY_TYPE");
+    store.setObject(5, "1", Types.INTEGER);
+    store.setObject(6, BigDecimal.ONE, Types.DECIMAL, 2);
+    store.setObject(7, "bar", JDBCType.NVARCHAR);
+    store.setObject(8, BigDecimal.TEN, JDBCType.NUMERIC, 3);
+    store.addBatch();
+    store.setDate(1, null, null);
+    store.setTime(2, null, calendar);
+    store.addBatch();
+
+    PreparedStatement statement = mock(PreparedStatement.class);
+    store.apply(0, statement, 0);
+    verify(statement).setDate(1, date);
+    verify(statement).setTime(2, time, calendar);
+    verify(statement).setTimestamp(3, timestamp, calendar);
+    verify(statement).setNull(4, Types.STRUCT, "MY_TYPE");
+    verify(statement).setObject(5, "1", Types.INTEGER);
+    verify(statement).setObject(6, BigDecimal.ONE, Types.DECIMAL, 2);
+    verify(statement).setObject(7, "bar", JDBCType.NVARCHAR);
+    verify(statement).setObject(8, BigDecimal.TEN, JDBCType.NUMERIC, 3);
+
+    store.apply(1, statement, 8);
+    verify(statement).setNull(9, Types.DATE);
+    verify(statement).setNull(10, Types.TIME);
+    verify(statement).setTimestamp(11, timestamp, calendar);
+  }
+
+  @Test
+  public void testDictionary() throws SQLException {
+    BatchParameterStore store = new BatchParameterStore(2);
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i <= BatchParameterStore.MAX_DICTIONARY_STRING_LENGTH; i++) {
+      longString.append('x');
+    }
+    for (int row = 0; row < 1000; row++) {
+      store.setString(1, row % 2 == 0 ? "EVEN" : "ODD");
+      store.setString(2, longString.toString());
+      store.addBatch();
+    }
+    assertThat(store.getDictionarySize()).isEqualTo(2);
+
+    PreparedStatement statement = mock(PreparedStatement.class);
+    store.apply(999, statement, 0);
+    verify(statement).setString(1, "ODD");
+    verify(statement).setString(2, longString.toString());
+
+    // The current row keeps its value when the batch and the dictionary are cleared.
+    store.clearBatch();
+    assertThat(store.size()).isEqualTo(0);
+    assertThat(store.getDictionarySize()).isEqualTo(0);
+    store.addBatch();
+    store.apply(0, statement, 2);
+    verify(statement).setString(3, "ODD");
+  }
+
+  @Test
+  public void testMissingParameter() {
+    BatchParameterStore store = new BatchParameterStore(2);
+    store.setInt(1, 1);
+    store.setInt(3, 1);
+    try {
+      store.addBatch();
+      fail("missing expected exception");
+    } catch (SQLException e) {
+      assertThat(e.getMessage()).isEqualTo("No value specified for parameter 2");
+    }
+    store.setInt(2, 2);
+    store.clearParameters();
+    try {
+      store.addBatch();
+      fail("missing expected exception");
+    } catch (SQLException e) {
+      assertThat(e.getMessage()).isEqualTo("No value specified for parameter 1");
+    }
+  }
+}
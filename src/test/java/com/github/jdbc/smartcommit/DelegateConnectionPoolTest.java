@@ -0,0 +1,351 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.h2.jdbc.JdbcConnection;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DelegateConnectionPoolTest {
+
+  @BeforeClass
+  public static void registerDriver() throws ClassNotFoundException {
+    Class.forName("org.h2.Driver");
+    Class.forName(SmartCommitDriver.class.getName());
+  }
+
+  /** Opens a connection for a pool with a single physical connection. */
+  private static SmartCommitConnection connect(String name) throws SQLException {
+    SmartCommitConnection connection = DriverManager
+        .getConnection("jdbc:smartcommit:pool:h2:mem:" + name
+            + ";DB_CLOSE_DELAY=-1;smartcommit.poolMaxSize=1;smartcommit.poolTimeout=100")
+        .unwrap(SmartCommitConnection.class);
+    connection.setAutoCommit(false);
+    return connection;
+  }
+
+  private static LazyDelegateConnection pooled(SmartCommitConnection connection) {
+    return (LazyDelegateConnection) connection.delegate;
+  }
+
+  private static int count(Connection connection, String table) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+      assertThat(rs.next()).isTrue();
+      return rs.getInt(1);
+    }
+  }
+
+  @Test
+  public void testReadsReturnPhysicalConnection() throws SQLException {
+    try (SmartCommitConnection first = connect("reads");
+        SmartCommitConnection second = connect("reads")) {
+      assertThat(pooled(first).hasPhysicalConnection()).isFalse();
+      try (Statement statement = first.createStatement();
+          ResultSet rs = statement.executeQuery("SELECT 1")) {
+        assertThat(pooled(first).hasPhysicalConnection()).isTrue();
+        assertThat(rs.next()).isTrue();
+      }
+      assertThat(pooled(first).hasPhysicalConnection()).isFalse();
+      // Both connections share the single physical connection of the pool.
+      try (Statement statement = second.createStatement();
+          ResultSet rs = statement.executeQuery("SELECT 2")) {
+        assertThat(rs.next()).isTrue();
+      }
+      try (Statement statement = first.createStatement();
+          ResultSet rs = statement.executeQuery("SELECT 3")) {
+        assertThat(rs.next()).isTrue();
+      }
+      first.commit();
+      second.commit();
+    }
+  }
+
+  @Test
+  public void testTransactionPinsPhysicalConnection() throws SQLException {
+    try (Connection setup =
+            DriverManager.getConnection("jdbc:h2:mem:transaction;DB_CLOSE_DELAY=-1");
+        Statement statement = setup.createStatement()) {
+      statement.execute("CREATE TABLE FOO (ID BIGINT PRIMARY KEY)");
+    }
+    try (SmartCommitConnection writer = connect("transaction");
+        SmartCommitConnection reader = connect("transaction")) {
+      try (Statement statement = writer.createStatement()) {
+        statement.executeUpdate("INSERT INTO FOO (ID) VALUES (1)");
+      }
+      assertThat(pooled(writer).hasPhysicalConnection()).isTrue();
+      try {
+        count(reader, "FOO");
+        fail("missing expected exception");
+      } catch (SQLTransientConnectionException e) {
+        // The physical connection is pinned by the transaction of the writer.
+      }
+      assertThat(count(writer, "FOO")).isEqualTo(1);
+      writer.commit();
+      assertThat(pooled(writer).hasPhysicalConnection()).isFalse();
+      assertThat(count(reader, "FOO")).isEqualTo(1);
+      reader.commit();
+    }
+  }
+
+  private static String currentSchema(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT SCHEMA()")) {
+      assertThat(rs.next()).isTrue();
+      return rs.getString(1);
+    }
+  }
+
+  @Test
+  public void testSettingsAreAppliedToBorrowedConnection() throws SQLException {
+    try (Connection setup =
+            DriverManager.getConnection("jdbc:h2:mem:settings;DB_CLOSE_DELAY=-1");
+        Statement statement = setup.createStatement()) {
+      statement.execute("CREATE SCHEMA FOO");
+    }
+    try (SmartCommitConnection first = connect("settings");
+        SmartCommitConnection second = connect("settings")) {
+      first.setSchema("FOO");
+      assertThat(pooled(first).hasPhysicalConnection()).isFalse();
+      assertThat(first.getSchema()).isEqualTo("FOO");
+      assertThat(currentSchema(first)).isEqualTo("FOO");
+      // The schema was reset before the physical connection was returned to the pool.
+      assertThat(pooled(first).hasPhysicalConnection()).isFalse();
+      assertThat(currentSchema(second)).isEqualTo("PUBLIC");
+      assertThat(currentSchema(first)).isEqualTo("FOO");
+      first.commit();
+      second.commit();
+    }
+  }
+
+  @Test
+  public void testSessionStatementPinsPhysicalConnection() throws SQLException {
+    try (SmartCommitConnection connection = connect("session")) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SET QUERY_TIMEOUT 10000");
+      }
+      assertThat(pooled(connection).hasPhysicalConnection()).isTrue();
+      assertThat(pooled(connection).isReleasable()).isFalse();
+      connection.commit();
+      assertThat(pooled(connection).hasPhysicalConnection()).isTrue();
+    }
+    // The pinned physical connection has been closed and a new one is opened by the pool.
+    try (SmartCommitConnection connection = connect("session")) {
+      assertThat(count(connection, "INFORMATION_SCHEMA.SESSIONS")).isGreaterThan(0);
+      assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+    }
+  }
+
+  @Test
+  public void testMetaDataDoesNotDiscardPhysicalConnection() throws SQLException {
+    DelegateConnectionPool pool = new DelegateConnectionPool(
+        () -> DriverManager.getConnection("jdbc:h2:mem:metadata;DB_CLOSE_DELAY=-1"), 1, 100L,
+        ConnectionOptions.DEFAULT_POOL_VALIDATION_INTERVAL);
+    try {
+      try (SmartCommitConnection connection = new SmartCommitConnection(
+          new LazyDelegateConnection(pool), ConnectionOptions.DEFAULT, Dialect.GENERIC)) {
+        DatabaseMetaData metaData = connection.getMetaData();
+        assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+        assertThat(metaData.getDatabaseProductName()).isEqualTo("H2");
+        assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+        try (ResultSet rs = metaData.getTables(null, null, "%", null)) {
+          // The result set keeps the physical connection until it is closed.
+          assertThat(pooled(connection).hasPhysicalConnection()).isTrue();
+          assertThat(rs.next()).isTrue();
+        }
+        assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+
+        connection.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
+        assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+        assertThat(connection.getHoldability()).isEqualTo(ResultSet.CLOSE_CURSORS_AT_COMMIT);
+      }
+      // The physical connection is returned to the pool when the connection is closed.
+      assertThat(pool.getIdleCount()).isEqualTo(1);
+      assertThat(pool.getCreateCount()).isEqualTo(1L);
+
+      try (SmartCommitConnection connection = new SmartCommitConnection(
+          new LazyDelegateConnection(pool), ConnectionOptions.DEFAULT, Dialect.GENERIC)) {
+        assertThat(connection.unwrap(JdbcConnection.class)).isNotNull();
+        assertThat(pooled(connection).isReleasable()).isFalse();
+      }
+      // The application can change the session through the unwrapped connection, so the
+      // physical connection is closed instead of returned to the pool.
+      assertThat(pool.getIdleCount()).isEqualTo(0);
+      assertThat(pool.getCreateCount()).isEqualTo(1L);
+    } finally {
+      pool.close();
+    }
+  }
+
+  /**
+   * Returns a connection that behaves like the given connection until the given flag is set. After
+   * that, all executions, rollbacks and validations fail as if the network connection has been
+   * reset.
+   */
+  private static Connection breakable(Connection connection, AtomicBoolean broken) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+          if (broken.get() && method.getName().equals("isValid")) {
+            return false;
+          }
+          if (broken.get() && method.getName().equals("rollback")) {
+            throw new SQLException("Connection reset", "08006");
+          }
+          Object res = invoke(connection, method, args);
+          if (res instanceof Statement) {
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {method.getReturnType()}, (statementProxy, statementMethod,
+                    statementArgs) -> {
+                  if (broken.get() && statementMethod.getName().startsWith("execute")) {
+                    throw new SQLException("Connection reset", "08006");
+                  }
+                  return invoke(res, statementMethod, statementArgs);
+                });
+          }
+          return res;
+        });
+  }
+
+  private static Object invoke(Object target, java.lang.reflect.Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void testBrokenConnectionIsDiscarded() throws SQLException {
+    List<AtomicBoolean> brokenFlags = new ArrayList<>();
+    DelegateConnectionPool pool = new DelegateConnectionPool(() -> {
+      AtomicBoolean broken = new AtomicBoolean();
+      brokenFlags.add(broken);
+      return breakable(DriverManager.getConnection("jdbc:h2:mem:broken"), broken);
+    }, 1, 100L, 0L);
+    try (SmartCommitConnection connection = new SmartCommitConnection(
+        new LazyDelegateConnection(pool), ConnectionOptions.DEFAULT, Dialect.GENERIC)) {
+      assertThat(count(connection, "INFORMATION_SCHEMA.SESSIONS")).isGreaterThan(0);
+      assertThat(pool.getCreateCount()).isEqualTo(1L);
+
+      // A physical connection that breaks while it is borrowed is closed instead of returned.
+      try (Statement statement = connection.createStatement()) {
+        brokenFlags.get(0).set(true);
+        statement.executeQuery("SELECT 1");
+        fail("missing expected exception");
+      } catch (SQLException e) {
+        assertThat(e.getSQLState()).isEqualTo("08006");
+        assertThat(pooled(connection).hasPhysicalConnection()).isFalse();
+      }
+      assertThat(pool.getIdleCount()).isEqualTo(0);
+      assertThat(count(connection, "INFORMATION_SCHEMA.SESSIONS")).isGreaterThan(0);
+      assertThat(pool.getCreateCount()).isEqualTo(2L);
+
+      // A physical connection that breaks while it is idle is closed when it is borrowed.
+      brokenFlags.get(1).set(true);
+      assertThat(count(connection, "INFORMATION_SCHEMA.SESSIONS")).isGreaterThan(0);
+      assertThat(pool.getInvalidCount()).isEqualTo(1L);
+      assertThat(pool.getCreateCount()).isEqualTo(3L);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testConnectionThatBreaksOnRollbackIsDiscarded() throws SQLException {
+    List<AtomicBoolean> brokenFlags = new ArrayList<>();
+    DelegateConnectionPool pool = new DelegateConnectionPool(() -> {
+      AtomicBoolean broken = new AtomicBoolean();
+      brokenFlags.add(broken);
+      return breakable(DriverManager.getConnection("jdbc:h2:mem:broken"), broken);
+    }, 1, 100L, 0L);
+    try {
+      try (SmartCommitConnection connection = new SmartCommitConnection(
+          new LazyDelegateConnection(pool), ConnectionOptions.DEFAULT, Dialect.GENERIC)) {
+        connection.setSmartCommit(false);
+        connection.setAutoCommit(false);
+        assertThat(count(connection, "INFORMATION_SCHEMA.SESSIONS")).isGreaterThan(0);
+        brokenFlags.get(0).set(true);
+        try {
+          connection.rollback();
+          fail("missing expected exception");
+        } catch (SQLException e) {
+          assertThat(e.getSQLState()).isEqualTo("08006");
+        }
+        // Closing the connection does not need a rollback in autocommit mode.
+        connection.setAutoCommit(true);
+      }
+      // The broken physical connection is not returned to the pool.
+      assertThat(pool.getIdleCount()).isEqualTo(0);
+      assertThat(pool.getCreateCount()).isEqualTo(1L);
+    } finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testQueryIsRetriedOnNewPhysicalConnection() throws SQLException {
+    List<AtomicBoolean> brokenFlags = new ArrayList<>();
+    DelegateConnectionPool pool = new DelegateConnectionPool(() -> {
+      AtomicBoolean broken = new AtomicBoolean();
+      brokenFlags.add(broken);
+      return breakable(DriverManager.getConnection("jdbc:h2:mem:broken"), broken);
+    }, 1, 100L, 0L);
+    ConnectionOptions options = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:broken"
+        + ";smartcommit.maxReadRetries=1;smartcommit.readRetryBackoff=0", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(
+        new LazyDelegateConnection(pool), options, Dialect.GENERIC)) {
+      try (PreparedStatement statement = connection.prepareStatement("SELECT CAST(? AS INT)")) {
+        statement.setInt(1, 42);
+        statement.setMaxRows(5);
+        brokenFlags.get(0).set(true);
+        try (ResultSet rs = statement.executeQuery()) {
+          assertThat(rs.next()).isTrue();
+          assertThat(rs.getInt(1)).isEqualTo(42);
+        }
+        // The query is prepared again with the same parameters and settings.
+        assertThat(statement.getMaxRows()).isEqualTo(5);
+      }
+      assertThat(connection.getReadRetryCount()).isEqualTo(1L);
+      assertThat(pool.getCreateCount()).isEqualTo(2L);
+
+      try (Statement statement = connection.createStatement()) {
+        brokenFlags.get(1).set(true);
+        try (ResultSet rs = statement.executeQuery("SELECT 1")) {
+          assertThat(rs.next()).isTrue();
+        }
+      }
+      assertThat(connection.getReadRetryCount()).isEqualTo(2L);
+      assertThat(pool.getCreateCount()).isEqualTo(3L);
+    } finally {
+      pool.close();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import com.github.jdbc.smartcommit.StatementParser.StatementType;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/** Conformance tests that all dialects must pass. */
+@RunWith(Parameterized.class)
+public class DialectTest {
+  /** Statements that must be classified equally by all dialects. */
+  private static final Object[][] CORPUS = {
+      {"SELECT * FROM FOO", StatementType.QUERY},
+      {"select * from foo where bar='baz'", StatementType.QUERY},
+      {"  \n SELECT 1;", StatementType.QUERY},
+      {"-- comment\nSELECT 1", StatementType.QUERY},
+      {"/* comment */ SELECT 1", StatementType.QUERY},
+      {"/* multi\nline */\nWITH T AS (SELECT 1) SELECT * FROM T", StatementType.QUERY},
+      {"SELECT 'it''s' FROM FOO", StatementType.QUERY},
+      {"SELECT \"FOO\" FROM \"BAR\"", StatementType.QUERY},
+      {"INSERT INTO FOO (ID, NAME) VALUES (1, 'One')", StatementType.UPDATE},
+      {"insert into foo (id, name) values (?, ?)", StatementType.UPDATE},
+      {"-- comment\nUPDATE FOO SET BAR='-- not a comment' WHERE ID=1", StatementType.UPDATE},
+      {"/* comment */DELETE FROM FOO", StatementType.UPDATE},
+      {"MERGE INTO FOO USING BAR ON (FOO.ID=BAR.ID) WHEN MATCHED THEN DELETE",
+          StatementType.UPDATE},
+      {"TRUNCATE TABLE FOO", StatementType.UPDATE},
+      {"CREATE TABLE FOO (ID BIGINT PRIMARY KEY)", StatementType.DDL},
+      {"-- comment\nDROP TABLE FOO", StatementType.DDL},
+      {"ALTER TABLE FOO ADD COLUMN BAR VARCHAR(100)", StatementType.DDL},
+      {"SET SCHEMA FOO", StatementType.SESSION},
+      {"SHOW TABLES", StatementType.QUERY},
+      {"CALL FOO()", StatementType.UPDATE},
+      {"VACUUM FOO", StatementType.UNKNOWN},
+      {"", StatementType.UNKNOWN},
+      {"-- only a comment", StatementType.UNKNOWN},
+      {"SELECTING 1", StatementType.UNKNOWN},
+  };
+
+  /** The expected result of removing comments for each dialect. */
+  private static final Object[][] DIALECT_SPECIFIC = {
+      // Generic/Spanner: # comments, triple quotes and statement hints.
+      {Dialect.GENERIC, "# comment\nSELECT 1", StatementType.QUERY, "SELECT 1"},
+      {Dialect.GENERIC, "SELECT '''a\n-- b''' FROM FOO", StatementType.QUERY,
+          "SELECT '''a\n-- b''' FROM FOO"},
+      {Dialect.SPANNER, "@{FORCE_INDEX=_BASE_TABLE} SELECT * FROM FOO", StatementType.QUERY,
+          "@{FORCE_INDEX=_BASE_TABLE} SELECT * FROM FOO"},
+      {Dialect.SPANNER, "# comment\nINSERT INTO FOO VALUES ('a\\'b')", StatementType.UPDATE,
+          "INSERT INTO FOO VALUES ('a\\'b')"},
+
+      // PostgreSQL: nested comments, dollar quotes, escape strings and # is not a comment.
+      {Dialect.POSTGRESQL, "/* outer /* inner */ still comment */ SELECT 1", StatementType.QUERY,
+          "SELECT 1"},
+      {Dialect.POSTGRESQL, "INSERT INTO FOO VALUES ($$it's -- not a comment$$)",
+          StatementType.UPDATE, "INSERT INTO FOO VALUES ($$it's -- not a comment$$)"},
+      {Dialect.POSTGRESQL, "CREATE FUNCTION F() RETURNS INT AS $body$ SELECT '1'; $body$ --c",
+          StatementType.DDL, "CREATE FUNCTION F() RETURNS INT AS $body$ SELECT '1'; $body$"},
+      {Dialect.POSTGRESQL, "UPDATE FOO SET BAR=E'it\\'s' WHERE ID=$1 -- c", StatementType.UPDATE,
+          "UPDATE FOO SET BAR=E'it\\'s' WHERE ID=$1"},
+      {Dialect.POSTGRESQL, "SELECT 1 # 2", StatementType.QUERY, "SELECT 1 # 2"},
+      {Dialect.POSTGRESQL, "SELECT 'a\nb' -- c", StatementType.QUERY, "SELECT 'a\nb'"},
+      {Dialect.POSTGRESQL, "# comment\nSELECT 1", StatementType.UNKNOWN, "# comment\nSELECT 1"},
+
+      // MySQL: executable comments, '-- ' comments and backslash escapes.
+      {Dialect.MYSQL, "/*!40101 INSERT INTO FOO VALUES (1) */", StatementType.UPDATE,
+          "INSERT INTO FOO VALUES (1)"},
+      {Dialect.MYSQL, "/* comment */ SELECT 'a\\'b -- c' # comment", StatementType.QUERY,
+          "SELECT 'a\\'b -- c'"},
+      {Dialect.MYSQL, "SELECT 1--1", StatementType.QUERY, "SELECT 1--1"},
+      {Dialect.MYSQL, "# comment\nDELETE FROM `FOO``BAR`", StatementType.UPDATE,
+          "DELETE FROM `FOO``BAR`"},
+
+      // SQL Server: bracketed identifiers, nested comments and # temp tables.
+      {Dialect.SQLSERVER, "SELECT [it's] FROM [FOO]]BAR] -- c", StatementType.QUERY,
+          "SELECT [it's] FROM [FOO]]BAR]"},
+      {Dialect.SQLSERVER, "/* a /* b */ c */ INSERT INTO #TMP VALUES (N'x')",
+          StatementType.UPDATE, "INSERT INTO #TMP VALUES (N'x')"},
+
+      // Oracle: alternative quoting and optimizer hints.
+      {Dialect.ORACLE, "SELECT /*+ FULL(FOO) */ q'[it's -- not a comment]' FROM FOO",
+          StatementType.QUERY, "SELECT  q'[it's -- not a comment]' FROM FOO"},
+      {Dialect.ORACLE, "UPDATE FOO SET BAR=nq'!a'b!' -- c", StatementType.UPDATE,
+          "UPDATE FOO SET BAR=nq'!a'b!'"},
+  };
+
+  @Parameters(name = "dialect = {0}")
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {{Dialect.GENERIC}, {Dialect.POSTGRESQL},
+        {Dialect.MYSQL}, {Dialect.SQLSERVER}, {Dialect.ORACLE}, {Dialect.SPANNER}});
+  }
+
+  @Parameter(0)
+  public Dialect dialect;
+
+  @Test
+  public void testCorpus() throws SQLException {
+    StatementParser parser = new StatementParser(dialect);
+    for (Object[] entry : CORPUS) {
+      String sql = (String) entry[0];
+      assertWithMessage(sql).that(parser.getStatementType(sql)).isEqualTo(entry[1]);
+      assertWithMessage(sql).that(parser.parse(sql).getType()).isEqualTo(entry[1]);
+    }
+  }
+
+  @Test
+  public void testDialectSpecific() throws SQLException {
+    StatementParser parser = new StatementParser(dialect);
+    for (Object[] entry : DIALECT_SPECIFIC) {
+      if (entry[0] == dialect) {
+        String sql = (String) entry[1];
+        assertWithMessage(sql).that(parser.getStatementType(sql)).isEqualTo(entry[2]);
+        assertWithMessage(sql).that(parser.parse(sql).getType()).isEqualTo(entry[2]);
+        assertWithMessage(sql).that(parser.parse(sql).getSqlWithoutComments())
+            .isEqualTo(entry[3]);
+        assertWithMessage(sql).that(parser.classify(sql).getSqlWithoutComments())
+            .isEqualTo(entry[3]);
+      }
+    }
+  }
+
+  @Test
+  public void testUnclosedLiteral() {
+    StatementParser parser = new StatementParser(dialect);
+    try {
+      parser.parse("SELECT 'foo");
+      throw new AssertionError("missing expected exception");
+    } catch (SQLException e) {
+      assertThat(e.getMessage()).contains("unclosed literal");
+    }
+    // The classifier does not validate the statement.
+    assertThat(parser.getStatementType("UPDATE FOO SET BAR='baz"))
+        .isEqualTo(StatementType.UPDATE);
+  }
+
+  @Test
+  public void testForName() throws SQLException {
+    assertThat(Dialect.forName(dialect.getName())).isSameInstanceAs(dialect);
+    assertThat(Dialect.forName(dialect.getName().toUpperCase())).isSameInstanceAs(dialect);
+  }
+
+  @Test
+  public void testForDatabaseProductName() {
+    assertThat(Dialect.forDatabaseProductName("PostgreSQL")).isSameInstanceAs(Dialect.POSTGRESQL);
+    assertThat(Dialect.forDatabaseProductName("MySQL")).isSameInstanceAs(Dialect.MYSQL);
+    assertThat(Dialect.forDatabaseProductName("MariaDB")).isSameInstanceAs(Dialect.MYSQL);
+    assertThat(Dialect.forDatabaseProductName("Microsoft SQL Server"))
+        .isSameInstanceAs(Dialect.SQLSERVER);
+    assertThat(Dialect.forDatabaseProductName("Oracle")).isSameInstanceAs(Dialect.ORACLE);
+    assertThat(Dialect.forDatabaseProductName("Google Cloud Spanner"))
+        .isSameInstanceAs(Dialect.SPANNER);
+    assertThat(Dialect.forDatabaseProductName("H2")).isSameInstanceAs(Dialect.GENERIC);
+    assertThat(Dialect.forDatabaseProductName(null)).isSameInstanceAs(Dialect.GENERIC);
+  }
+}
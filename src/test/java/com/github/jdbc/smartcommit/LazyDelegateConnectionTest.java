@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LazyDelegateConnectionTest {
+
+  @BeforeClass
+  public static void registerDriver() throws ClassNotFoundException {
+    Class.forName("org.h2.Driver");
+    Class.forName(SmartCommitDriver.class.getName());
+  }
+
+  private static SmartCommitConnection connect(String name) throws SQLException {
+    return DriverManager
+        .getConnection("jdbc:smartcommit:h2:mem:" + name
+            + ";DB_CLOSE_DELAY=-1;smartcommit.lazyConnect=true;smartcommit.dialect=generic")
+        .unwrap(SmartCommitConnection.class);
+  }
+
+  private static LazyDelegateConnection lazy(SmartCommitConnection connection) {
+    return (LazyDelegateConnection) connection.delegate;
+  }
+
+  private static String queryString(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql)) {
+      assertThat(rs.next()).isTrue();
+      return rs.getString(1);
+    }
+  }
+
+  @Test
+  public void testSettingsAreAppliedWhenConnectionIsOpened() throws SQLException {
+    try (Connection setup = DriverManager.getConnection("jdbc:h2:mem:lazy;DB_CLOSE_DELAY=-1");
+        Statement statement = setup.createStatement()) {
+      statement.execute("CREATE SCHEMA FOO");
+    }
+    try (SmartCommitConnection connection = connect("lazy")) {
+      connection.setSchema("FOO");
+      connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+      connection.setAutoCommit(false);
+      connection.commit();
+      assertThat(connection.isValid(0)).isTrue();
+      assertThat(connection.getSchema()).isEqualTo("FOO");
+      assertThat(lazy(connection).hasPhysicalConnection()).isFalse();
+
+      assertThat(queryString(connection, "SELECT SCHEMA()")).isEqualTo("FOO");
+      assertThat(lazy(connection).hasPhysicalConnection()).isTrue();
+      assertThat(connection.delegate.getTransactionIsolation())
+          .isEqualTo(Connection.TRANSACTION_SERIALIZABLE);
+      connection.commit();
+    }
+  }
+
+  @Test
+  public void testRecordedAutoCommitIsApplied() throws SQLException {
+    try (SmartCommitConnection connection = connect("autocommit")) {
+      connection.setSmartCommit(false);
+      connection.setAutoCommit(false);
+      assertThat(lazy(connection).hasPhysicalConnection()).isFalse();
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE FOO (ID BIGINT PRIMARY KEY)");
+        statement.executeUpdate("INSERT INTO FOO (ID) VALUES (1)");
+      }
+      assertThat(connection.delegate.getAutoCommit()).isFalse();
+      connection.rollback();
+      assertThat(queryString(connection, "SELECT COUNT(*) FROM FOO")).isEqualTo("0");
+    }
+  }
+
+  @Test
+  public void testUnusedConnectionIsNeverOpened() throws SQLException {
+    SmartCommitConnection connection = connect("unused");
+    connection.setReadOnly(true);
+    connection.setClientInfo("ApplicationName", "test");
+    connection.close();
+    assertThat(lazy(connection).hasPhysicalConnection()).isFalse();
+    assertThat(connection.isClosed()).isTrue();
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import com.github.jdbc.smartcommit.StatementParser.StatementType;
+import java.sql.SQLException;
+import java.util.Properties;
+import org.junit.Test;
+
+public class ParsedStatementCacheTest {
+
+  @Test
+  public void testHitAndMiss() throws SQLException {
+    ParsedStatementCache cache = new ParsedStatementCache(StatementParser.INSTANCE, 10, 1000L);
+    ParsedStatement first = cache.parse("SELECT * FROM FOO");
+    ParsedStatement second = cache.parse("SELECT * FROM FOO");
+    assertThat(first.getType()).isEqualTo(StatementType.QUERY);
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(cache.getMissCount()).isEqualTo(1L);
+    assertThat(cache.getHitCount()).isEqualTo(1L);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getWeight()).isEqualTo("SELECT * FROM FOO".length());
+  }
+
+  @Test
+  public void testEvictionBySize() throws SQLException {
+    ParsedStatementCache cache = new ParsedStatementCache(StatementParser.INSTANCE, 2, 1000L);
+    cache.parse("SELECT 1");
+    cache.parse("SELECT 2");
+    // Use the first statement so it gets a second chance.
+    cache.parse("SELECT 1");
+    cache.parse("SELECT 3");
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getEvictionCount()).isEqualTo(1L);
+
+    // SELECT 2 should have been evicted.
+    long misses = cache.getMissCount();
+    cache.parse("SELECT 1");
+    cache.parse("SELECT 3");
+    assertThat(cache.getMissCount()).isEqualTo(misses);
+    cache.parse("SELECT 2");
+    assertThat(cache.getMissCount()).isEqualTo(misses + 1);
+  }
+
+  @Test
+  public void testEvictionByWeight() throws SQLException {
+    ParsedStatementCache cache = new ParsedStatementCache(StatementParser.INSTANCE, 100, 20L);
+    cache.parse("SELECT 1"); // 8
+    cache.parse("SELECT 22"); // 9
+    cache.parse("SELECT 333"); // 10
+    assertThat(cache.getWeight()).isAtMost(20L);
+    assertThat(cache.getEvictionCount()).isEqualTo(1L);
+
+    // A statement that is heavier than the cache itself is never cached.
+    cache.parse("SELECT * FROM FOO WHERE BAR=1");
+    assertThat(cache.getWeight()).isAtMost(20L);
+    assertThat(cache.getEvictionCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testDisabled() throws SQLException {
+    ParsedStatementCache cache = new ParsedStatementCache(StatementParser.INSTANCE, 0, 1000L);
+    assertThat(cache.parse("UPDATE FOO SET BAR=1").getType()).isEqualTo(StatementType.UPDATE);
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getHitCount()).isEqualTo(0L);
+  }
+
+  @Test
+  public void testOptionsFromUrl() throws SQLException {
+    String url = "jdbc:smartcommit:postgresql://localhost/foo"
+        + "?smartcommit.parseCacheSize=50&ssl=true&smartcommit.parseCacheMaxWeight=100";
+    ConnectionOptions options = ConnectionOptions.parse(url, null);
+    assertThat(options.getParseCacheSize()).isEqualTo(50);
+    assertThat(options.getParseCacheMaxWeight()).isEqualTo(100L);
+    assertThat(ConnectionOptions.removeOptions(url))
+        .isEqualTo("jdbc:smartcommit:postgresql://localhost/foo?ssl=true");
+    assertThat(ConnectionOptions.removeOptions(
+        "jdbc:smartcommit:sqlserver://localhost;databaseName=foo;smartcommit.parseCacheSize=1;"))
+            .isEqualTo("jdbc:smartcommit:sqlserver://localhost;databaseName=foo;");
+    assertThat(ConnectionOptions.removeOptions("jdbc:smartcommit:h2:mem:test"))
+        .isEqualTo("jdbc:smartcommit:h2:mem:test");
+  }
+
+  @Test
+  public void testOptionsFromProperties() throws SQLException {
+    Properties info = new Properties();
+    info.setProperty("smartcommit.parseCacheSize", "20");
+    info.setProperty("user", "foo");
+    ConnectionOptions options =
+        ConnectionOptions.parse("jdbc:smartcommit:h2:mem:test;smartcommit.parseCacheSize=30", info);
+    assertThat(options.getParseCacheSize()).isEqualTo(30);
+    assertThat(options.getParseCacheMaxWeight())
+        .isEqualTo(ConnectionOptions.DEFAULT_PARSE_CACHE_MAX_WEIGHT);
+    assertThat(ConnectionOptions.removeOptions(info).stringPropertyNames()).containsExactly("user");
+  }
+
+  @Test(expected = SQLException.class)
+  public void testInvalidOption() throws SQLException {
+    ConnectionOptions.parse("jdbc:smartcommit:h2:mem:test;smartcommit.parseCacheSize=-1", null);
+  }
+
+  @Test
+  public void testConnectionsShareParseCache() throws SQLException {
+    ConnectionOptions options = ConnectionOptions
+        .parse("jdbc:smartcommit:h2:mem:test;smartcommit.parseCacheSize=17", new Properties());
+    ParsedStatementCache cache =
+        SmartCommitConnection.getSharedParseCache(options, Dialect.GENERIC);
+    assertThat(SmartCommitConnection.getSharedParseCache(options, Dialect.GENERIC))
+        .isSameInstanceAs(cache);
+    assertThat(SmartCommitConnection.getSharedParseCache(options, Dialect.POSTGRESQL))
+        .isNotSameInstanceAs(cache);
+    ConnectionOptions rules = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:test"
+        + ";smartcommit.parseCacheSize=17;smartcommit.keywordRules=DO:write", new Properties());
+    assertThat(SmartCommitConnection.getSharedParseCache(rules, Dialect.GENERIC))
+        .isNotSameInstanceAs(cache);
+  }
+}
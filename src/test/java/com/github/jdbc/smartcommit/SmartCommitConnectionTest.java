@@ -15,11 +15,24 @@
 package com.github.jdbc.smartcommit;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import com.github.jdbc.smartcommit.TransactionRecorder.ReplayMismatchException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -126,6 +139,30 @@ public class SmartCommitConnectionTest {
     }
   }
 
+  @Test
+  public void testStatementExecuteBatch() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        // A batch that is cleared does not start a transaction.
+        statement.addBatch("INSERT INTO NUMBERS (NUM, NAME) VALUES (1, 'One')");
+        assertThat(connection.getDelegateAutoCommit()).isTrue();
+        statement.clearBatch();
+        assertThat(statement.executeBatch()).isEmpty();
+        assertThat(connection.getDelegateAutoCommit()).isTrue();
+
+        statement.addBatch("INSERT INTO NUMBERS (NUM, NAME) VALUES (1, 'One')");
+        statement.addBatch("INSERT INTO NUMBERS (NUM, NAME) VALUES (2, 'Two')");
+        assertThat(connection.getDelegateAutoCommit()).isTrue();
+        assertThat(statement.executeBatch()).asList().containsExactly(1, 1);
+        assertThat(connection.getDelegateAutoCommit()).isFalse();
+        connection.rollback();
+      }
+      try (ResultSet rs = connection.createStatement().executeQuery("SELECT * FROM NUMBERS")) {
+        assertThat(rs.next()).isFalse();
+      }
+    }
+  }
+
   @Test
   public void testPreparedStatementExecuteQuery() throws SQLException {
     try (SmartCommitConnection connection = createConnection()) {
@@ -158,4 +195,645 @@ public class SmartCommitConnectionTest {
     }
   }
 
+  @Test
+  public void testStatementExecuteQuery_SelectForUpdate() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+      try (ResultSet rs = connection.createStatement()
+          .executeQuery("SELECT * FROM NUMBERS WHERE NUM=1 FOR UPDATE")) {
+        while (rs.next()) {
+        }
+      }
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+      connection.commit();
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+    }
+  }
+
+  @Test
+  public void testPreparedStatementExecuteQuery_SelectForUpdate() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+      try (PreparedStatement ps =
+          connection.prepareStatement("SELECT * FROM NUMBERS WHERE NUM=? FOR UPDATE")) {
+        ps.setLong(1, 1L);
+        try (ResultSet rs = ps.executeQuery()) {
+          while (rs.next()) {
+          }
+        }
+      }
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+      connection.rollback();
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+    }
+  }
+
+  @Test
+  public void testExecuteQuery_DataChangeDeltaTable() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (PreparedStatement ps = connection
+          .prepareStatement("SELECT * FROM FINAL TABLE (INSERT INTO NUMBERS VALUES (?, ?))")) {
+        ps.setLong(1, 100L);
+        ps.setString(2, "One hundred");
+        try (ResultSet rs = ps.executeQuery()) {
+          assertThat(rs.next()).isTrue();
+          assertThat(rs.getLong(1)).isEqualTo(100L);
+        }
+      }
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+      connection.rollback();
+      try (ResultSet rs = connection.createStatement()
+          .executeQuery("SELECT COUNT(*) FROM NUMBERS WHERE NUM=100")) {
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getLong(1)).isEqualTo(0L);
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownStatementCounts() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SET SCHEMA PUBLIC");
+        statement.execute("/* comment */ CHECKPOINT");
+        statement.execute("checkpoint");
+        statement.execute("SELECT 1");
+      }
+      assertThat(connection.getUnknownStatementCounts()).containsExactly("CHECKPOINT", 2L);
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+    }
+  }
+
+  @Test
+  public void testKeywordRules() throws SQLException {
+    try (SmartCommitConnection connection = DriverManager
+        .getConnection("jdbc:smartcommit:h2:mem:test;smartcommit.keywordRules=CHECKPOINT:write")
+        .unwrap(SmartCommitConnection.class)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CHECKPOINT");
+      }
+      assertThat(connection.getUnknownStatementCounts()).isEmpty();
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+      connection.commit();
+    }
+  }
+
+  @Test
+  public void testDelegateAutoCommitIsTracked() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.createStatement()).thenReturn(mock(Statement.class));
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        for (int i = 0; i < 10; i++) {
+          statement.executeQuery("SELECT * FROM FOO");
+        }
+        statement.executeUpdate("INSERT INTO FOO VALUES (1)");
+        statement.executeUpdate("UPDATE FOO SET BAR=1");
+        connection.commit();
+        statement.executeQuery("SELECT * FROM FOO");
+        connection.commit();
+      }
+      verify(delegate, times(1)).getAutoCommit();
+      verify(delegate, times(1)).setAutoCommit(false);
+      verify(delegate, times(2)).setAutoCommit(true);
+      verify(delegate, times(1)).commit();
+
+      // Executing a statement that might change the session state causes the autocommit state of
+      // the underlying connection to be read the next time it is needed.
+      when(delegate.getAutoCommit()).thenReturn(false);
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("SET AUTOCOMMIT FALSE");
+        assertThat(connection.getDelegateAutoCommit()).isFalse();
+        statement.executeQuery("SELECT * FROM FOO");
+      }
+      verify(delegate, times(2)).getAutoCommit();
+      connection.commit();
+      verify(delegate, times(2)).commit();
+      assertThat(connection.getDelegateAutoCommit()).isTrue();
+    }
+  }
+
+  @Test
+  public void testAutoCommitIsRestoredLazily() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.createStatement()).thenReturn(mock(Statement.class));
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        // Consecutive write transactions do not switch the underlying connection to autocommit.
+        for (int i = 0; i < 5; i++) {
+          statement.executeUpdate("INSERT INTO FOO VALUES (1)");
+          connection.commit();
+          assertThat(connection.getDelegateAutoCommit()).isTrue();
+        }
+        verify(delegate, times(1)).setAutoCommit(false);
+        verify(delegate, times(1)).setAutoCommit(true);
+        verify(delegate, times(5)).commit();
+        assertThat(connection.getSkippedAutoCommitRestoreCount()).isEqualTo(4L);
+
+        // A rollback without a transaction is not sent to the underlying connection.
+        connection.rollback();
+        verify(delegate, never()).rollback();
+
+        // A query restores autocommit before it is executed.
+        statement.executeQuery("SELECT * FROM FOO");
+        verify(delegate, times(2)).setAutoCommit(true);
+        statement.executeQuery("SELECT * FROM FOO");
+        connection.commit();
+        verify(delegate, times(2)).setAutoCommit(true);
+        verify(delegate, times(5)).commit();
+      }
+      assertThat(connection.getDelegateSetAutoCommitCount()).isEqualTo(3L);
+      assertThat(connection.getDelegateGetAutoCommitCount()).isEqualTo(0L);
+      assertThat(connection.getDelegateCommitCount()).isEqualTo(5L);
+      assertThat(connection.getDelegateRollbackCount()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testAutoCommitIsRestoredEagerly() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.createStatement()).thenReturn(mock(Statement.class));
+    ConnectionOptions options = ConnectionOptions.parse(
+        "jdbc:smartcommit:h2:mem:test;smartcommit.lazyAutoCommitRestore=false", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        for (int i = 0; i < 5; i++) {
+          statement.executeUpdate("INSERT INTO FOO VALUES (1)");
+          connection.commit();
+        }
+      }
+      verify(delegate, times(5)).setAutoCommit(false);
+      verify(delegate, times(6)).setAutoCommit(true);
+      assertThat(connection.getSkippedAutoCommitRestoreCount()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testDeferFirstWrite() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    Statement delegateStatement = mock(Statement.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.createStatement()).thenReturn(delegateStatement);
+    ConnectionOptions options = ConnectionOptions.parse(
+        "jdbc:smartcommit:h2:mem:test;smartcommit.deferFirstWrite=true", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        // A single write is executed in autocommit.
+        assertThat(statement.executeUpdate("UPDATE FOO SET BAR=1"))
+            .isEqualTo(Statement.SUCCESS_NO_INFO);
+        verify(delegateStatement, never()).executeBatch();
+        connection.commit();
+        verify(delegateStatement, times(1)).executeBatch();
+        verify(delegate, never()).setAutoCommit(false);
+        verify(delegate, never()).commit();
+        assertThat(connection.getSingleWriteCommitCount()).isEqualTo(1L);
+
+        // A rollback of a single write is not sent to the database at all.
+        statement.executeUpdate("UPDATE FOO SET BAR=2");
+        connection.rollback();
+        verify(delegateStatement, times(1)).executeBatch();
+        verify(delegate, never()).rollback();
+
+        // A second statement starts a transaction before the first write is executed.
+        statement.executeUpdate("UPDATE FOO SET BAR=3");
+        statement.executeUpdate("UPDATE FOO SET BAR=4");
+        verify(delegate, times(1)).setAutoCommit(false);
+        verify(delegateStatement, times(2)).executeBatch();
+        verify(delegateStatement, times(1)).executeUpdate("UPDATE FOO SET BAR=4");
+        connection.commit();
+        verify(delegate, times(1)).commit();
+        assertThat(connection.getSingleWriteCommitCount()).isEqualTo(1L);
+      }
+    }
+  }
+
+  @Test
+  public void testDeferredWriteOfClosedPreparedStatement() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    PreparedStatement delegateStatement = mock(PreparedStatement.class);
+    PreparedStatement bufferStatement = mock(PreparedStatement.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.prepareStatement("UPDATE FOO SET BAR=? WHERE ID=?"))
+        .thenReturn(delegateStatement, bufferStatement);
+    ConnectionOptions options = ConnectionOptions.parse(
+        "jdbc:smartcommit:h2:mem:test;smartcommit.deferFirstWrite=true", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options)) {
+      connection.setAutoCommit(false);
+      try (PreparedStatement statement =
+          connection.prepareStatement("UPDATE FOO SET BAR=? WHERE ID=?")) {
+        statement.setInt(1, 1);
+        statement.setLong(2, 100L);
+        assertThat(statement.executeUpdate()).isEqualTo(Statement.SUCCESS_NO_INFO);
+      }
+      // The deferred write is kept by the buffer when the statement is closed.
+      verify(delegateStatement, never()).executeBatch();
+      verify(bufferStatement, never()).executeBatch();
+      connection.commit();
+      verify(bufferStatement).setInt(1, 1);
+      verify(bufferStatement).setLong(2, 100L);
+      verify(bufferStatement).executeBatch();
+      verify(bufferStatement).close();
+      verify(delegate, never()).setAutoCommit(false);
+      verify(delegate, never()).commit();
+      assertThat(connection.getSingleWriteCommitCount()).isEqualTo(1L);
+    }
+  }
+
+  @Test
+  public void testRewriteBatchedInserts() throws SQLException {
+    try (SmartCommitConnection connection = DriverManager
+        .getConnection("jdbc:smartcommit:h2:mem:rewrite;smartcommit.rewriteBatchedInserts=true")
+        .unwrap(SmartCommitConnection.class)) {
+      connection.createStatement().execute(CREATE_TABLE);
+      connection.setAutoCommit(false);
+      try (PreparedStatement ps =
+          connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+        for (long num = 1L; num <= 1234L; num++) {
+          ps.setLong(1, num);
+          ps.setString(2, String.valueOf(num));
+          ps.addBatch();
+        }
+        int[] updateCounts = ps.executeBatch();
+        assertThat(updateCounts).hasLength(1234);
+        for (int updateCount : updateCounts) {
+          assertThat(updateCount).isEqualTo(1);
+        }
+        assertThat(connection.getDelegateAutoCommit()).isFalse();
+
+        // A failed statement reports the update counts of the preceding statements.
+        for (long num = 1L; num <= 600L; num++) {
+          ps.setLong(1, 1800L - num);
+          ps.setString(2, String.valueOf(num));
+          ps.addBatch();
+        }
+        try {
+          ps.executeBatch();
+          fail("missing expected exception");
+        } catch (BatchUpdateException e) {
+          // The first 500 rows fit in one statement with the default dialect.
+          assertThat(e.getUpdateCounts()).hasLength(500);
+        }
+      }
+      connection.rollback();
+      assertThat(connection.getRewrittenBatchCount()).isEqualTo(2L);
+      assertThat(connection.getRewrittenRowCount()).isEqualTo(1834L);
+    }
+  }
+
+  @Test
+  public void testBatchIsFlushedInChunks() throws SQLException {
+    try (SmartCommitConnection connection = DriverManager
+        .getConnection(
+            "jdbc:smartcommit:h2:mem:chunks;smartcommit.batchFlushRows=100;"
+                + "smartcommit.batchFlushBytes=10000")
+        .unwrap(SmartCommitConnection.class)) {
+      connection.createStatement().execute(CREATE_TABLE);
+      connection.setAutoCommit(false);
+      try (PreparedStatement ps =
+          connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+        for (long num = 1L; num <= 250L; num++) {
+          ps.setLong(1, num);
+          ps.setString(2, String.valueOf(num));
+          ps.addBatch();
+        }
+        // The first two chunks have already been sent to the database in the transaction.
+        assertThat(connection.getBatchFlushCount()).isEqualTo(2L);
+        assertThat(connection.getDelegateAutoCommit()).isFalse();
+        try (ResultSet rs = connection.createStatement()
+            .executeQuery("SELECT COUNT(*) FROM NUMBERS")) {
+          assertThat(rs.next()).isTrue();
+          assertThat(rs.getLong(1)).isEqualTo(200L);
+        }
+        int[] updateCounts = ps.executeBatch();
+        assertThat(updateCounts).hasLength(250);
+        for (int updateCount : updateCounts) {
+          assertThat(updateCount).isEqualTo(1);
+        }
+
+        // Large values reach the byte threshold before the row threshold.
+        char[] name = new char[1000];
+        Arrays.fill(name, 'x');
+        for (long num = 1001L; num <= 1020L; num++) {
+          ps.setLong(1, num);
+          ps.setString(2, new String(name));
+          ps.addBatch();
+        }
+        assertThat(connection.getBatchFlushCount()).isEqualTo(6L);
+        assertThat(ps.executeBatch()).hasLength(20);
+
+        // A failed chunk reports the update counts of the preceding chunks.
+        for (long num = 2000L; num > 1950L; num--) {
+          ps.setLong(1, num);
+          ps.setString(2, String.valueOf(num));
+          ps.addBatch();
+        }
+        ps.setLong(1, 1L);
+        ps.addBatch();
+        try {
+          ps.executeBatch();
+          fail("missing expected exception");
+        } catch (BatchUpdateException e) {
+          assertThat(e.getUpdateCounts().length).isAtLeast(50);
+        }
+      }
+      connection.rollback();
+    }
+  }
+
+  @Test
+  public void testParallelBatch() throws SQLException {
+    for (String options : new String[] {"", ";smartcommit.rewriteBatchedInserts=true"}) {
+      try (SmartCommitConnection connection = DriverManager
+          .getConnection("jdbc:smartcommit:h2:mem:parallel" + options.length()
+              + ";smartcommit.parallelBatchConnections=4;smartcommit.parallelBatchMinRows=100"
+              + options)
+          .unwrap(SmartCommitConnection.class)) {
+        connection.createStatement().execute(CREATE_TABLE);
+        connection.setAutoCommit(true);
+        try (PreparedStatement ps =
+            connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+          for (long num = 1L; num <= 1000L; num++) {
+            ps.setLong(1, num);
+            ps.setString(2, String.valueOf(num));
+            ps.addBatch();
+          }
+          int[] updateCounts = ps.executeBatch();
+          assertThat(updateCounts).hasLength(1000);
+          for (int updateCount : updateCounts) {
+            assertThat(updateCount).isEqualTo(1);
+          }
+          assertThat(connection.getParallelBatchCount()).isEqualTo(1L);
+
+          // Small batches are executed on the connection itself.
+          for (long num = 1001L; num <= 1010L; num++) {
+            ps.setLong(1, num);
+            ps.setString(2, String.valueOf(num));
+            ps.addBatch();
+          }
+          assertThat(ps.executeBatch()).hasLength(10);
+          assertThat(connection.getParallelBatchCount()).isEqualTo(1L);
+
+          // The failure of one range does not affect the other ranges.
+          for (long num = 2000L; num < 2400L; num++) {
+            ps.setLong(1, num == 2350L ? 1L : num);
+            ps.setString(2, String.valueOf(num));
+            ps.addBatch();
+          }
+          try {
+            ps.executeBatch();
+            fail("missing expected exception");
+          } catch (BatchUpdateException e) {
+            assertThat(e.getUpdateCounts()).hasLength(400);
+            assertThat(e.getUpdateCounts()[0]).isEqualTo(1);
+            assertThat(e.getUpdateCounts()[350]).isEqualTo(Statement.EXECUTE_FAILED);
+          }
+        }
+        try (ResultSet rs =
+            connection.createStatement().executeQuery("SELECT COUNT(*) FROM NUMBERS")) {
+          assertThat(rs.next()).isTrue();
+          assertThat(rs.getLong(1)).isAtLeast(1310L);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIdleParallelBatchConnectionsAreClosed() throws Exception {
+    for (long idleTimeout : new long[] {0L, 50L}) {
+      try (SmartCommitConnection connection = DriverManager
+          .getConnection("jdbc:smartcommit:h2:mem:parallelIdle" + idleTimeout
+              + ";smartcommit.parallelBatchConnections=2;smartcommit.parallelBatchMinRows=10"
+              + ";smartcommit.parallelBatchIdleTimeout=" + idleTimeout)
+          .unwrap(SmartCommitConnection.class)) {
+        connection.createStatement().execute(CREATE_TABLE);
+        ParallelBatchExecutor executor = connection.getParallelBatchExecutor();
+        try (PreparedStatement ps =
+            connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+          for (long num = 1L; num <= 10L; num++) {
+            ps.setLong(1, num);
+            ps.setString(2, String.valueOf(num));
+            ps.addBatch();
+          }
+          assertThat(ps.executeBatch()).hasLength(10);
+        }
+        assertThat(connection.getParallelBatchCount()).isEqualTo(1L);
+        if (idleTimeout > 0L) {
+          // The connections are kept for the next batch until the idle timeout has passed.
+          assertThat(executor.getConnectionCount()).isEqualTo(2);
+          long deadline = System.currentTimeMillis() + 5_000L;
+          while (executor.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+          }
+        }
+        assertThat(executor.getConnectionCount()).isEqualTo(0);
+      }
+    }
+  }
+
+  @Test
+  public void testAbortedTransactionIsReplayed() throws SQLException {
+    Connection delegate = spy(DriverManager.getConnection("jdbc:h2:mem:retry"));
+    ConnectionOptions options = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:retry"
+        + ";smartcommit.maxTransactionRetries=2;smartcommit.transactionRetryBackoff=0", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options);
+        Connection other = DriverManager.getConnection("jdbc:h2:mem:retry")) {
+      connection.createStatement().execute(CREATE_TABLE);
+      connection.createStatement().executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One')");
+      connection.setAutoCommit(false);
+
+      assertThat(insertAndReadName(connection, 2L)).isEqualTo("One");
+      doThrow(new SQLException("Deadlock", "40001")).doCallRealMethod().when(delegate).commit();
+      connection.commit();
+      assertThat(connection.getTransactionReplayCount()).isEqualTo(1L);
+      try (ResultSet rs = other.createStatement().executeQuery("SELECT COUNT(*) FROM NUMBERS")) {
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getLong(1)).isEqualTo(2L);
+      }
+
+      // The transaction is not replayed if a query returns a different result during the replay.
+      assertThat(insertAndReadName(connection, 3L)).isEqualTo("One");
+      doAnswer(invocation -> {
+        other.createStatement().executeUpdate("UPDATE NUMBERS SET NAME='Uno' WHERE NUM=1");
+        throw new SQLException("Deadlock", "40001");
+      }).when(delegate).commit();
+      try {
+        connection.commit();
+        fail("missing expected exception");
+      } catch (SQLException e) {
+        assertThat(e.getSQLState()).isEqualTo("40001");
+        assertThat(e.getSuppressed()[0]).isInstanceOf(ReplayMismatchException.class);
+      }
+      connection.rollback();
+      assertThat(connection.getTransactionReplayCount()).isEqualTo(1L);
+      assertThat(connection.getFailedTransactionReplayCount()).isEqualTo(1L);
+    }
+  }
+
+  @Test
+  public void testTransactionWithLobColumnIsReplayed() throws SQLException {
+    Connection delegate = spy(DriverManager.getConnection("jdbc:h2:mem:retryLob"));
+    ConnectionOptions options = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:retryLob"
+        + ";smartcommit.maxTransactionRetries=2;smartcommit.transactionRetryBackoff=0", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options)) {
+      connection.createStatement()
+          .execute("CREATE TABLE DOCS (ID BIGINT PRIMARY KEY, CONTENT CLOB, DATA BLOB)");
+      connection.createStatement().executeUpdate("INSERT INTO DOCS VALUES (1, 'Hello', X'0102')");
+      connection.setAutoCommit(false);
+
+      // LOB columns that are read as values are compared by value during the replay.
+      connection.createStatement().executeUpdate("INSERT INTO DOCS VALUES (2, 'World', NULL)");
+      try (ResultSet rs =
+          connection.createStatement().executeQuery("SELECT CONTENT, DATA FROM DOCS WHERE ID=1")) {
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getString("CONTENT")).isEqualTo("Hello");
+        assertThat(rs.getBytes(2)).isEqualTo(new byte[] {1, 2});
+        assertThat(rs.next()).isFalse();
+      }
+      doThrow(new SQLException("Deadlock", "40001")).doCallRealMethod().when(delegate).commit();
+      connection.commit();
+      assertThat(connection.getTransactionReplayCount()).isEqualTo(1L);
+
+      // A LOB cannot be compared without reading it twice, so the transaction is not replayed.
+      connection.createStatement().executeUpdate("INSERT INTO DOCS VALUES (3, 'Again', NULL)");
+      try (ResultSet rs =
+          connection.createStatement().executeQuery("SELECT CONTENT FROM DOCS WHERE ID=1")) {
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getClob(1).length()).isEqualTo(5L);
+      }
+      doThrow(new SQLException("Deadlock", "40001")).doCallRealMethod().when(delegate).commit();
+      try {
+        connection.commit();
+        fail("missing expected exception");
+      } catch (SQLException e) {
+        assertThat(e.getSQLState()).isEqualTo("40001");
+        assertThat(e.getSuppressed()).isEmpty();
+      }
+      connection.rollback();
+      assertThat(connection.getTransactionReplayCount()).isEqualTo(1L);
+    }
+  }
+
+  @Test
+  public void testStatementWithResultSetTypeIsReplayed() throws SQLException {
+    Connection delegate = spy(DriverManager.getConnection("jdbc:h2:mem:retryType"));
+    ConnectionOptions options = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:retryType"
+        + ";smartcommit.maxTransactionRetries=2;smartcommit.transactionRetryBackoff=0", null);
+    try (SmartCommitConnection connection = new SmartCommitConnection(delegate, options);
+        Connection other = DriverManager.getConnection("jdbc:h2:mem:retryType")) {
+      connection.createStatement().execute(CREATE_TABLE);
+      connection.setAutoCommit(false);
+      try (PreparedStatement ps = connection.prepareStatement("INSERT INTO NUMBERS VALUES (?, ?)",
+          ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        ps.setLong(1, 1L);
+        ps.setString(2, "One");
+        assertThat(ps.executeUpdate()).isEqualTo(1);
+      }
+      doThrow(new SQLException("Deadlock", "40001")).doCallRealMethod().when(delegate).commit();
+      connection.commit();
+      assertThat(connection.getTransactionReplayCount()).isEqualTo(1L);
+      try (ResultSet rs = other.createStatement().executeQuery("SELECT NAME FROM NUMBERS")) {
+        assertThat(rs.next()).isTrue();
+        assertThat(rs.getString(1)).isEqualTo("One");
+        assertThat(rs.next()).isFalse();
+      }
+    }
+  }
+
+  private static String insertAndReadName(Connection connection, long num) throws SQLException {
+    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO NUMBERS VALUES (?, ?)")) {
+      ps.setLong(1, num);
+      ps.setString(2, String.valueOf(num));
+      assertThat(ps.executeUpdate()).isEqualTo(1);
+    }
+    try (PreparedStatement ps =
+        connection.prepareStatement("SELECT NAME FROM NUMBERS WHERE NUM=?")) {
+      ps.setLong(1, 1L);
+      try (ResultSet rs = ps.executeQuery()) {
+        assertThat(rs.next()).isTrue();
+        return rs.getString(1);
+      }
+    }
+  }
+
+  @Test
+  public void testAutoCommitReadIsRetried() throws SQLException {
+    Connection delegate = mock(Connection.class);
+    Statement delegateStatement = mock(Statement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+    when(delegate.getAutoCommit()).thenReturn(true);
+    when(delegate.createStatement()).thenReturn(delegateStatement);
+    when(delegateStatement.executeQuery("SELECT * FROM FOO"))
+        .thenThrow(new SQLException("Unavailable", null, 14))
+        .thenReturn(resultSet)
+        .thenThrow(new SQLException("Connection reset", "08006"))
+        .thenThrow(new SQLException("Unavailable", null, 14));
+    ConnectionOptions options = ConnectionOptions.parse("jdbc:smartcommit:h2:mem:test"
+        + ";smartcommit.maxReadRetries=1;smartcommit.readRetryBackoff=0", null);
+    try (SmartCommitConnection connection =
+        new SmartCommitConnection(delegate, options, Dialect.SPANNER)) {
+      connection.setAutoCommit(false);
+      try (Statement statement = connection.createStatement()) {
+        assertThat(statement.executeQuery("SELECT * FROM FOO")).isSameInstanceAs(resultSet);
+        assertThat(connection.getReadRetryCount()).isEqualTo(1L);
+
+        // A broken connection can only be replaced if the connection is pooled or lazy.
+        try {
+          statement.executeQuery("SELECT * FROM FOO");
+          fail("missing expected exception");
+        } catch (SQLException e) {
+          assertThat(e.getSQLState()).isEqualTo("08006");
+        }
+        assertThat(connection.getReadRetryCount()).isEqualTo(1L);
+
+        // Reads in a transaction are not retried.
+        statement.executeUpdate("INSERT INTO FOO VALUES (1)");
+        try {
+          statement.executeQuery("SELECT * FROM FOO");
+          fail("missing expected exception");
+        } catch (SQLException e) {
+          assertThat(e.getErrorCode()).isEqualTo(14);
+        }
+        assertThat(connection.getReadRetryCount()).isEqualTo(1L);
+      }
+    }
+  }
+
+  @Test
+  public void testPreparedStatementIsClassifiedOnce() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      long lookups = connection.getParseCacheHitCount() + connection.getParseCacheMissCount();
+      try (PreparedStatement ps =
+          connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+        for (long num = 1L; num <= 10L; num++) {
+          ps.setLong(1, num);
+          ps.setString(2, String.valueOf(num));
+          ps.execute();
+        }
+      }
+      assertThat(connection.getParseCacheHitCount() + connection.getParseCacheMissCount())
+          .isEqualTo(lookups + 1);
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+      connection.commit();
+    }
+  }
+
+  @Test
+  public void testDialect() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      assertThat(connection.getDialect()).isSameInstanceAs(Dialect.GENERIC);
+    }
+    try (SmartCommitConnection connection = DriverManager
+        .getConnection("jdbc:smartcommit:h2:mem:test;smartcommit.dialect=postgresql")
+        .unwrap(SmartCommitConnection.class)) {
+      assertThat(connection.getDialect()).isSameInstanceAs(Dialect.POSTGRESQL);
+    }
+  }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+import javax.sql.XAConnection;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class SmartCommitDataSourceTest {
+
+  @BeforeClass
+  public static void registerDriver() throws ClassNotFoundException {
+    Class.forName("org.h2.Driver");
+  }
+
+  private static JdbcDataSource createH2DataSource(String name) {
+    JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+    return dataSource;
+  }
+
+  private static Properties options(String name, String value) {
+    Properties info = new Properties();
+    info.setProperty(ConnectionOptions.PREFIX + name, value);
+    return info;
+  }
+
+  private static int selectOne(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT 1")) {
+      assertThat(rs.next()).isTrue();
+      return rs.getInt(1);
+    }
+  }
+
+  @Test
+  public void testDataSource() throws SQLException {
+    DataSource dataSource = new SmartCommitDataSource(createH2DataSource("datasource"),
+        options(ConnectionOptions.PARSE_CACHE_SIZE, "10"));
+    try (Connection connection = dataSource.getConnection()) {
+      assertThat(connection).isInstanceOf(SmartCommitConnection.class);
+      assertThat(((SmartCommitConnection) connection).getDialect()).isSameInstanceAs(Dialect.GENERIC);
+      assertThat(selectOne(connection)).isEqualTo(1);
+    }
+    assertThat(dataSource.isWrapperFor(JdbcDataSource.class)).isTrue();
+  }
+
+  private static void execute(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery(sql)) {
+      assertThat(rs.next()).isTrue();
+    }
+  }
+
+  @Test
+  public void testDataSourceForUrl() throws SQLException {
+    DataSource dataSource =
+        new SmartCommitDataSource("jdbc:smartcommit:h2:mem:url;smartcommit.parseCacheSize=10",
+            null);
+    try (Connection connection = dataSource.getConnection()) {
+      assertThat(connection).isInstanceOf(SmartCommitConnection.class);
+      assertThat(((SmartCommitConnection) connection).getDialect()).isSameInstanceAs(Dialect.GENERIC);
+      assertThat(selectOne(connection)).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testPooledConnectionUsesSharedParseCache() throws SQLException {
+    SmartCommitConnectionPoolDataSource dataSource =
+        new SmartCommitConnectionPoolDataSource(createH2DataSource("pool"), null);
+    PooledConnection pooledConnection = dataSource.getPooledConnection();
+    ConnectionEventListener listener = mock(ConnectionEventListener.class);
+    pooledConnection.addConnectionEventListener(listener);
+    // The parse cache is shared with the connections of other tests, so use a query that is not
+    // used anywhere else and only look at the change of the counters.
+    String sql = "SELECT 1 AS POOLED_CONNECTION_TEST";
+    try {
+      long misses;
+      long hits;
+      try (Connection connection = pooledConnection.getConnection()) {
+        SmartCommitConnection smartCommitConnection = (SmartCommitConnection) connection;
+        misses = smartCommitConnection.getParseCacheMissCount();
+        hits = smartCommitConnection.getParseCacheHitCount();
+        execute(connection, sql);
+        assertThat(smartCommitConnection.getParseCacheMissCount()).isEqualTo(misses + 1L);
+      }
+      ArgumentCaptor<ConnectionEvent> event = ArgumentCaptor.forClass(ConnectionEvent.class);
+      verify(listener).connectionClosed(event.capture());
+      assertThat(event.getValue().getSource()).isSameInstanceAs(pooledConnection);
+
+      // A new logical connection finds the statement in the shared parse cache.
+      try (Connection connection = pooledConnection.getConnection()) {
+        execute(connection, sql);
+        assertThat(((SmartCommitConnection) connection).getParseCacheMissCount())
+            .isEqualTo(misses + 1L);
+        assertThat(((SmartCommitConnection) connection).getParseCacheHitCount())
+            .isAtLeast(hits + 1L);
+      }
+    } finally {
+      pooledConnection.close();
+    }
+    verify(listener, never()).connectionErrorOccurred(any());
+  }
+
+  @Test
+  public void testXAConnectionTurnsOffSmartCommit() throws SQLException {
+    SmartCommitXADataSource dataSource =
+        new SmartCommitXADataSource(createH2DataSource("xa"), null);
+    XAConnection xaConnection = dataSource.getXAConnection();
+    try {
+      assertThat(xaConnection.getXAResource()).isNotNull();
+      try (Connection connection = xaConnection.getConnection()) {
+        assertThat(((SmartCommitConnection) connection).getSmartCommit()).isFalse();
+        assertThat(selectOne(connection)).isEqualTo(1);
+      }
+    } finally {
+      xaConnection.close();
+    }
+  }
+
+  @Test
+  public void testCloseRestoresAutoCommit() throws SQLException {
+    Connection physical = DriverManager.getConnection("jdbc:h2:mem:reopen;DB_CLOSE_DELAY=-1");
+    try {
+      try (Statement statement = physical.createStatement()) {
+        statement.execute("CREATE TABLE FOO (ID BIGINT PRIMARY KEY)");
+      }
+      // A vendor pool that hands out the same physical connection without resetting it.
+      Connection handle = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+              return null;
+            }
+            try {
+              return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          });
+      DataSource vendor = mock(DataSource.class);
+      when(vendor.getConnection()).thenReturn(handle);
+      DataSource dataSource = new SmartCommitDataSource(vendor, null);
+
+      try (Connection connection = dataSource.getConnection()) {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+          statement.executeUpdate("INSERT INTO FOO (ID) VALUES (1)");
+        }
+        connection.commit();
+        // The underlying connection is switched back to autocommit lazily.
+        assertThat(physical.getAutoCommit()).isFalse();
+      }
+      assertThat(physical.getAutoCommit()).isTrue();
+      try (Connection connection = dataSource.getConnection()) {
+        assertThat(connection.getAutoCommit()).isTrue();
+      }
+    } finally {
+      physical.close();
+    }
+  }
+}
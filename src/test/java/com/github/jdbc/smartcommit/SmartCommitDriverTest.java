@@ -15,6 +15,8 @@
 package com.github.jdbc.smartcommit;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import com.github.jdbc.smartcommit.SmartCommitDriver.DelegateInfo;
 import com.google.cloud.spanner.jdbc.CloudSpannerJdbcConnection;
 import com.microsoft.sqlserver.jdbc.ISQLServerConnection;
 import com.mysql.cj.MysqlConnection;
@@ -22,8 +24,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.util.Enumeration;
+import java.util.Properties;
+import java.util.logging.Logger;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.postgresql.PGConnection;
@@ -58,6 +64,7 @@ public class SmartCommitDriverTest {
         DriverManager.getConnection("jdbc:smartcommit:postgresql://localhost/foo")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(PGConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.POSTGRESQL);
     }
   }
 
@@ -67,6 +74,7 @@ public class SmartCommitDriverTest {
         .getConnection("jdbc:smartcommit:cloudspanner:/projects/p/instances/i/databases/d")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(CloudSpannerJdbcConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.SPANNER);
     }
   }
 
@@ -76,6 +84,7 @@ public class SmartCommitDriverTest {
         DriverManager.getConnection("jdbc:smartcommit:mysql://localhost:3306/foo")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(MysqlConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.MYSQL);
     }
   }
 
@@ -85,6 +94,7 @@ public class SmartCommitDriverTest {
         "jdbc:smartcommit:sqlserver://localhost;databaseName=AdventureWorks;integratedSecurity=true;")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(ISQLServerConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.SQLSERVER);
     }
   }
 
@@ -94,6 +104,7 @@ public class SmartCommitDriverTest {
         DriverManager.getConnection("jdbc:smartcommit:oracle:thin:@myhost:1521:orcl")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(OracleConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.ORACLE);
     }
   }
 
@@ -103,6 +114,93 @@ public class SmartCommitDriverTest {
         DriverManager.getConnection("jdbc:smartcommit:oracle:oci8:scott/tiger@myhost")) {
       assertThat(con).isInstanceOf(SmartCommitConnection.class);
       assertThat(con.isWrapperFor(OracleConnection.class)).isTrue();
+      assertThat(((SmartCommitConnection) con).getDialect()).isSameInstanceAs(Dialect.ORACLE);
+    }
+  }
+
+  @Test
+  public void testResolvedDriverIsDroppedWhenConnectFails() throws SQLException {
+    Driver first = new StubDriver();
+    Driver second = new StubDriver();
+    DriverManager.registerDriver(first);
+    try {
+      assertThat(SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:a").driver)
+          .isSameInstanceAs(first);
+      DriverManager.registerDriver(second);
+      DriverManager.deregisterDriver(first);
+      // The resolved driver is reused until it fails to open a connection.
+      DelegateInfo info = SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:b");
+      assertThat(info.driver).isSameInstanceAs(first);
+      try {
+        SmartCommitDriver.connectDelegate(info, new Properties());
+        fail("missing expected exception");
+      } catch (SQLException e) {
+        assertThat(e.getMessage()).contains("jdbc:stub:b");
+      }
+      assertThat(SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:c").driver)
+          .isSameInstanceAs(second);
+    } finally {
+      // Clear the resolved drivers.
+      SmartCommitDriver.deregister();
+      SmartCommitDriver.register();
+      DriverManager.deregisterDriver(first);
+      DriverManager.deregisterDriver(second);
+    }
+  }
+
+  @Test
+  public void testDeregisterClearsResolvedDrivers() throws SQLException {
+    Driver first = new StubDriver();
+    Driver second = new StubDriver();
+    DriverManager.registerDriver(first);
+    try {
+      assertThat(SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:a").driver)
+          .isSameInstanceAs(first);
+      // Move the first driver behind the second driver in the DriverManager.
+      DriverManager.registerDriver(second);
+      DriverManager.deregisterDriver(first);
+      DriverManager.registerDriver(first);
+      assertThat(SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:b").driver)
+          .isSameInstanceAs(first);
+
+      SmartCommitDriver.deregister();
+      assertThat(SmartCommitDriver.getDelegateInfo("jdbc:smartcommit:stub:c").driver)
+          .isSameInstanceAs(second);
+    } finally {
+      SmartCommitDriver.register();
+      DriverManager.deregisterDriver(first);
+      DriverManager.deregisterDriver(second);
+    }
+  }
+
+  /** Driver that accepts URLs that start with 'jdbc:stub:', but cannot open any connections. */
+  static class StubDriver implements Driver {
+    public Connection connect(String url, Properties info) throws SQLException {
+      return null;
+    }
+
+    public boolean acceptsURL(String url) throws SQLException {
+      return url.startsWith("jdbc:stub:");
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+      return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
     }
   }
 }
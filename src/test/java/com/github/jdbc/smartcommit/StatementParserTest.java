@@ -0,0 +1,430 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import com.github.jdbc.smartcommit.StatementParser.BatchedInsert;
+import com.github.jdbc.smartcommit.StatementParser.Fingerprint;
+import com.github.jdbc.smartcommit.StatementParser.ParsedStatement;
+import com.github.jdbc.smartcommit.StatementParser.StatementType;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class StatementParserTest {
+  static final List<String> STATEMENTS = Arrays.asList(
+      "SELECT * FROM FOO",
+      "select * from foo",
+      "  SELECT 1  ",
+      "\n\tSELECT\n1",
+      "SELECT 1;",
+      "SELECT;",
+      "SELECT",
+      "SELECT(1)",
+      "SELECT*FROM FOO",
+      "SELECT/* comment */1",
+      "SELECT/* comment */ 1",
+      "SEL/* comment */ECT 1",
+      "-- comment\nSELECT 1",
+      "# comment\nSELECT 1",
+      "/* comment */ SELECT 1",
+      "/* multi\nline\ncomment */\nSELECT 1",
+      "-- only a comment",
+      "/* unterminated comment SELECT 1",
+      "",
+      "   ",
+      ";",
+      "WITH T AS (SELECT 1) SELECT * FROM T",
+      "with t as (select 1) select * from t",
+      "@{FORCE_INDEX=_BASE_TABLE} SELECT * FROM FOO",
+      "@ {FORCE_INDEX=_BASE_TABLE}\nSELECT * FROM FOO",
+      "@{JOIN_METHOD=HASH_JOIN} WITH T AS (SELECT 1) SELECT * FROM T",
+      "/* comment */ @{FORCE_INDEX=_BASE_TABLE} -- comment\n SELECT * FROM FOO",
+      "@{FORCE_INDEX=_BASE_TABLE} UPDATE FOO SET BAR=1",
+      "@FORCE_INDEX SELECT 1",
+      "INSERT INTO FOO (ID, NAME) VALUES (1, 'One')",
+      "insert into foo (id, name) values (?, ?)",
+      "INSERT INTO FOO (ID, NAME) VALUES (1, 'One -- not a comment')",
+      "UPDATE FOO SET BAR='/* not a comment */' WHERE ID=1",
+      "DELETE FROM FOO WHERE ID=1",
+      "MERGE INTO FOO USING BAR ON FOO.ID=BAR.ID WHEN MATCHED THEN DELETE",
+      "TRUNCATE TABLE FOO",
+      "SELECT INTO FOO FROM BAR",
+      "CREATE TABLE FOO (ID BIGINT PRIMARY KEY)",
+      "DROP TABLE FOO",
+      "ALTER TABLE FOO ADD COLUMN BAR VARCHAR(100)",
+      "create index idx_foo on foo (bar)",
+      "SET TRANSACTION ISOLATION LEVEL SERIALIZABLE",
+      "SHOW TRANSACTION ISOLATION LEVEL",
+      "CALL FOO(1, 2)",
+      "EXPLAIN SELECT 1",
+      "VALUES (1, 2)",
+      "BEGIN",
+      "COMMIT;",
+      "INSERT",
+      "INSERTS INTO FOO VALUES (1)",
+      "UPDATED FOO",
+      "SELECTING 1",
+      "ſelect 1",
+      "'SELECT' 1",
+      "\"SELECT\" 1",
+      "SELECT\u0001",
+      "SELECT\u0001 1",
+      "SELECT\u0001;",
+      "SELECT;;",
+      "SELECT ;",
+      "SELECT; -- comment",
+      "SELECT -- comment",
+      "SELECT\n-- comment",
+      "DELETE/**/FROM FOO");
+
+  @Test
+  public void testGetStatementTypeAgreesWithParse() throws SQLException {
+    for (String sql : STATEMENTS) {
+      assertAgrees(sql);
+    }
+  }
+
+  @Test
+  public void testGetStatementTypeAgreesWithParse_Random() throws SQLException {
+    String[] tokens = {"SELECT", "select", "WITH", "INSERT", "update", "DELETE", "CREATE", "Drop",
+        "SET", "FOO", "1", " ", "  ", "\n", "\t", "\r\n", "\u0001", ";", "-- c\n", "--", "# c\n",
+        "#", "/* c */", "/*", "*/", "/", "*", "-", "@", "{", "}", "@{FORCE_INDEX=_BASE_TABLE}",
+        "(", ")", "'a'", "\"a\"", "`a`", "'''a'''", "'", "=", ","};
+    Random random = new Random(1L);
+    for (int i = 0; i < 200_000; i++) {
+      StringBuilder sql = new StringBuilder();
+      int length = random.nextInt(8);
+      for (int j = 0; j < length; j++) {
+        sql.append(tokens[random.nextInt(tokens.length)]);
+      }
+      assertAgrees(sql.toString());
+    }
+  }
+
+  private static void assertAgrees(String sql) {
+    ParsedStatement parsed;
+    try {
+      parsed = StatementParser.INSTANCE.parse(sql);
+    } catch (SQLException e) {
+      // Invalid statements are not validated by the classifier.
+      return;
+    }
+    assertWithMessage(sql).that(StatementParser.INSTANCE.getStatementType(sql))
+        .isEqualTo(parsed.getType());
+  }
+
+  @Test
+  public void testGetStatementType() {
+    StatementParser parser = StatementParser.INSTANCE;
+    assertThat(parser.getStatementType("select 1")).isEqualTo(StatementType.QUERY);
+    assertThat(parser.getStatementType("/* comment */ insert into foo values (1)"))
+        .isEqualTo(StatementType.UPDATE);
+    assertThat(parser.getStatementType("-- comment\ncreate table foo (id bigint)"))
+        .isEqualTo(StatementType.DDL);
+    assertThat(parser.getStatementType("vacuum foo")).isEqualTo(StatementType.UNKNOWN);
+    // Invalid statements are classified based on their leading keyword.
+    assertThat(parser.getStatementType("update foo set bar='baz")).isEqualTo(StatementType.UPDATE);
+  }
+
+  @Test
+  public void testLockingStatements() throws SQLException {
+    String[][] statements = {
+        {"generic", "SELECT * FROM FOO WHERE ID=1 FOR UPDATE"},
+        {"generic", "select * from foo for update of foo nowait"},
+        {"postgresql", "SELECT * FROM FOO FOR SHARE SKIP LOCKED"},
+        {"postgresql", "SELECT * FROM FOO FOR NO KEY UPDATE"},
+        {"postgresql", "SELECT * FROM FOO FOR KEY SHARE"},
+        {"postgresql", "WITH T AS (SELECT * FROM FOO FOR UPDATE) SELECT * FROM T"},
+        {"postgresql", "SELECT pg_advisory_xact_lock(1)"},
+        {"postgresql", "SELECT PG_TRY_ADVISORY_XACT_LOCK_SHARED(1)"},
+        {"postgresql", "LOCK TABLE FOO IN ACCESS EXCLUSIVE MODE"},
+        {"mysql", "SELECT * FROM FOO LOCK IN SHARE MODE"},
+        {"mysql", "SELECT * FROM FOO FOR /* comment */ UPDATE"},
+        {"mysql", "LOCK TABLES FOO WRITE"},
+        {"sqlserver", "SELECT * FROM FOO WITH (UPDLOCK, ROWLOCK) WHERE ID=1"},
+        {"sqlserver", "SELECT * FROM FOO WITH (HOLDLOCK)"},
+        {"oracle", "SELECT * FROM FOO FOR UPDATE WAIT 5"},
+        {"oracle", "LOCK TABLE FOO IN EXCLUSIVE MODE NOWAIT"},
+        {"spanner", "@{LOCK_SCANNED_RANGES=exclusive} SELECT * FROM FOO"},
+    };
+    for (String[] statement : statements) {
+      StatementParser parser = new StatementParser(Dialect.forName(statement[0]));
+      assertWithMessage(statement[1]).that(parser.getStatementType(statement[1]))
+          .isEqualTo(StatementType.LOCKING);
+      assertWithMessage(statement[1]).that(parser.parse(statement[1]).getType())
+          .isEqualTo(StatementType.LOCKING);
+      assertThat(parser.classify(statement[1]).requiresTransaction()).isTrue();
+    }
+
+    String[][] queries = {
+        {"generic", "SELECT 'FOR UPDATE' FROM FOO"},
+        {"generic", "SELECT * FROM FOO -- FOR UPDATE"},
+        {"postgresql", "SELECT pg_advisory_lock(1)"},
+        {"postgresql", "SELECT $$ FOR UPDATE $$"},
+        {"postgresql", "SELECT SUBSTRING(NAME FROM 1 FOR 2) FROM FOO"},
+        {"sqlserver", "SELECT * FROM FOO WITH (NOLOCK)"},
+        {"sqlserver", "SELECT [UPDLOCK] FROM FOO"},
+        {"sqlserver", "SELECT * FROM FOO FOR XML AUTO"},
+        {"mysql", "SELECT `FOR` UPDATE FROM FOO"},
+        {"mysql", "SELECT * FROM FOO WHERE LOCK IN (1, 2)"},
+        {"mysql", "SELECT * FROM FOO WHERE LOCK IN (SELECT SHARE FROM BAR)"},
+        {"generic", "SELECT UPDLOCK, HOLDLOCK FROM FOO"},
+        {"postgresql", "SELECT XLOCK FROM FOO"},
+        {"mysql", "SELECT pg_advisory_xact_lock(1)"},
+        {"sqlserver", "SELECT LOCK_SCANNED_RANGES FROM FOO"},
+        {"generic", "SELECT LOCK_SCANNED_RANGES FROM FOO"},
+    };
+    for (String[] query : queries) {
+      StatementParser parser = new StatementParser(Dialect.forName(query[0]));
+      assertWithMessage(query[1]).that(parser.getStatementType(query[1]))
+          .isEqualTo(StatementType.QUERY);
+      assertWithMessage(query[1]).that(parser.parse(query[1]).getType())
+          .isEqualTo(StatementType.QUERY);
+    }
+  }
+
+  @Test
+  public void testDataModifyingQueries() throws SQLException {
+    String[][] statements = {
+        {"postgresql", "WITH T AS (DELETE FROM FOO WHERE ID=1 RETURNING *) SELECT * FROM T"},
+        {"postgresql", "with t as materialized ( update foo set bar=1 returning id ) select 1"},
+        {"postgresql",
+            "WITH A AS (SELECT 1), B AS (/* comment */ INSERT INTO FOO VALUES (1)) SELECT 1"},
+        {"postgresql", "WITH T AS (SELECT 1 AS ID) INSERT INTO FOO SELECT * FROM T RETURNING *"},
+        {"postgresql", "WITH RECURSIVE T(ID) AS (SELECT 1), U AS NOT MATERIALIZED (SELECT 2) "
+            + "UPDATE FOO SET BAR=1 FROM T"},
+        {"postgresql", "WITH T(ID) AS (UPDATE FOO SET BAR=1 RETURNING ID) SELECT * FROM T"},
+        {"generic", "SELECT * FROM NEW TABLE (UPDATE FOO SET BAR=1)"},
+        {"postgresql", "WITH T AS (SELECT 1 AS ID) DELETE FROM FOO USING T WHERE FOO.ID=T.ID"},
+        {"sqlserver", "WITH T AS (SELECT 1 AS ID) MERGE INTO FOO USING T ON FOO.ID=T.ID "
+            + "WHEN MATCHED THEN DELETE"},
+        {"generic", "SELECT * FROM FINAL TABLE (INSERT INTO FOO VALUES (1))"},
+        {"generic", "SELECT * FROM OLD TABLE (DELETE FROM FOO)"},
+        {"postgresql", "INSERT INTO FOO VALUES (1) RETURNING ID"},
+        {"oracle", "UPDATE FOO SET BAR=1 RETURNING ID INTO ?"},
+        {"sqlserver", "INSERT INTO FOO OUTPUT INSERTED.ID VALUES (1)"},
+    };
+    for (String[] statement : statements) {
+      StatementParser parser = new StatementParser(Dialect.forName(statement[0]));
+      assertWithMessage(statement[1]).that(parser.getStatementType(statement[1]))
+          .isEqualTo(StatementType.UPDATE);
+      assertWithMessage(statement[1]).that(parser.parse(statement[1]).getType())
+          .isEqualTo(StatementType.UPDATE);
+    }
+
+    String[][] queries = {
+        {"postgresql", "WITH T AS (SELECT 1) SELECT * FROM T"},
+        {"postgresql", "WITH T AS (SELECT '(DELETE FROM FOO)') SELECT * FROM T"},
+        {"postgresql", "WITH T AS (SELECT \"update\" FROM FOO) SELECT * FROM T"},
+        {"mysql", "SELECT CONCAT(INSERT('abc', 1, 1, 'x'), 'y')"},
+        {"generic", "SELECT (UPDATE_COUNT) FROM FOO"},
+        {"generic", "SELECT MAX(ID) update FROM FOO"},
+        {"postgresql", "SELECT * FROM FOO WHERE (\"update\") = (1) OR (BAR) = 'delete'"},
+        {"postgresql", "WITH T AS (SELECT 1) SELECT (1) delete FROM T"},
+        {"postgresql", "WITH RECURSIVE T(N) AS (SELECT 1) SELECT * FROM T, (SELECT 1) merge"},
+        {"generic", "SELECT * FROM (SELECT 1) insert"},
+        {"generic", "SELECT * FROM TABLE (delete)"},
+    };
+    for (String[] query : queries) {
+      StatementParser parser = new StatementParser(Dialect.forName(query[0]));
+      assertWithMessage(query[1]).that(parser.getStatementType(query[1]))
+          .isEqualTo(StatementType.QUERY);
+      assertWithMessage(query[1]).that(parser.parse(query[1]).getType())
+          .isEqualTo(StatementType.QUERY);
+    }
+  }
+
+  @Test
+  public void testKeywordRules() throws SQLException {
+    String[][] statements = {
+        {"generic", "SET AUTOCOMMIT TRUE", "SESSION"},
+        {"generic", "show tables", "QUERY"},
+        {"generic", "/* comment */ CALL FOO()", "UPDATE"},
+        {"generic", "REPLACE INTO FOO VALUES (1)", "UPDATE"},
+        {"generic", "COPY FOO FROM STDIN", "UNKNOWN"},
+        {"postgresql", "COPY FOO FROM STDIN", "UPDATE"},
+        {"postgresql", "DISCARD ALL", "SESSION"},
+        {"postgresql", "TABLE FOO", "QUERY"},
+        {"mysql", "LOAD DATA INFILE 'foo.csv' INTO TABLE FOO", "UPDATE"},
+        {"sqlserver", "EXEC sp_who", "UPDATE"},
+        {"oracle", "BEGIN FOO; END;", "UPDATE"},
+        {"generic", "BEGIN", "UNKNOWN"},
+    };
+    for (String[] statement : statements) {
+      StatementParser parser = new StatementParser(Dialect.forName(statement[0]));
+      StatementType expected = StatementType.valueOf(statement[2]);
+      assertWithMessage(statement[1]).that(parser.getStatementType(statement[1]))
+          .isEqualTo(expected);
+      assertWithMessage(statement[1]).that(parser.parse(statement[1]).getType())
+          .isEqualTo(expected);
+    }
+
+    KeywordRules rules = Dialect.POSTGRESQL.getDefaultKeywordRules()
+        .withRules("call:read, copy:unknown,VACUUM:session");
+    StatementParser parser = new StatementParser(Dialect.POSTGRESQL, rules);
+    assertThat(parser.getStatementType("CALL FOO()")).isEqualTo(StatementType.QUERY);
+    assertThat(parser.getStatementType("COPY FOO FROM STDIN")).isEqualTo(StatementType.UNKNOWN);
+    assertThat(parser.getStatementType("vacuum")).isEqualTo(StatementType.SESSION);
+    assertThat(parser.getStatementType("DISCARD ALL")).isEqualTo(StatementType.SESSION);
+    // Rules do not override the statements that are recognized by the parser.
+    assertThat(parser.getStatementType("SELECT 1")).isEqualTo(StatementType.QUERY);
+
+    for (String invalid : new String[] {"CALL", "CALL:foo", ":read"}) {
+      try {
+        KeywordRules.DEFAULT.withRules(invalid);
+        throw new AssertionError("missing expected exception for " + invalid);
+      } catch (SQLException e) {
+        assertThat(e.getMessage()).contains("Invalid");
+      }
+    }
+  }
+
+  @Test
+  public void testGetLeadingKeyword() {
+    StatementParser parser = StatementParser.INSTANCE;
+    assertThat(parser.getLeadingKeyword("vacuum foo")).isEqualTo("VACUUM");
+    assertThat(parser.getLeadingKeyword("/* comment */\n  grant all on foo")).isEqualTo("GRANT");
+    assertThat(parser.getLeadingKeyword("@{FOO=BAR} analyze")).isEqualTo("ANALYZE");
+    assertThat(parser.getLeadingKeyword("")).isEqualTo("");
+    assertThat(parser.getLeadingKeyword("'foo'")).isEqualTo("");
+  }
+
+  @Test
+  public void testParsedStatementLeadingKeyword() throws SQLException {
+    StatementParser parser = StatementParser.INSTANCE;
+    assertThat(parser.parse("/* comment */ vacuum foo").getLeadingKeyword()).isEqualTo("VACUUM");
+    assertThat(parser.classify("/* comment */ vacuum foo").getLeadingKeyword())
+        .isEqualTo("VACUUM");
+    assertThat(parser.parse("select * from foo").getLeadingKeyword()).isNull();
+    assertThat(parser.classify("insert into foo values (1)").getLeadingKeyword()).isNull();
+  }
+
+  @Test
+  public void testCountParameters() {
+    StatementParser parser = StatementParser.INSTANCE;
+    assertThat(parser.countParameters("UPDATE FOO SET NAME=? WHERE ID=?")).isEqualTo(2);
+    assertThat(parser.countParameters("SELECT '?', \"?\" FROM FOO /* ? */ WHERE ID=? -- ?"))
+        .isEqualTo(1);
+    assertThat(parser.countParameters("SELECT 'unclosed ? FROM FOO")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testGetBatchedInsert() {
+    StatementParser parser = StatementParser.INSTANCE;
+    BatchedInsert insert = parser.getBatchedInsert("INSERT INTO FOO (ID, NAME) VALUES (?, ?)");
+    assertThat(insert.getParameterCount()).isEqualTo(2);
+    assertThat(insert.getSql(1)).isEqualTo("INSERT INTO FOO (ID, NAME) VALUES (?, ?)");
+    assertThat(insert.getSql(3))
+        .isEqualTo("INSERT INTO FOO (ID, NAME) VALUES (?, ?), (?, ?), (?, ?)");
+
+    insert = parser.getBatchedInsert(
+        "/* c */ insert foo values (?, 'a?b', coalesce(?, 1) /* ? */, 'c');");
+    assertThat(insert.getParameterCount()).isEqualTo(2);
+    assertThat(insert.getSql(2)).isEqualTo("/* c */ insert foo values "
+        + "(?, 'a?b', coalesce(?, 1) /* ? */, 'c'), (?, 'a?b', coalesce(?, 1) /* ? */, 'c')");
+    assertThat(parser.getBatchedInsert("INSERT INTO \"values\" (ID) VALUES (?)").getSql(2))
+        .isEqualTo("INSERT INTO \"values\" (ID) VALUES (?), (?)");
+
+    for (String sql : new String[] {
+        "INSERT INTO FOO (ID) VALUES (?), (?)",
+        "INSERT INTO FOO (ID) VALUES (?) ON CONFLICT DO NOTHING",
+        "INSERT INTO FOO (ID) VALUES (?) RETURNING ID",
+        "INSERT INTO FOO (ID) SELECT ID FROM BAR",
+        "INSERT INTO FOO (ID) SELECT * FROM (VALUES (1)) T",
+        "INSERT INTO FOO DEFAULT VALUES",
+        "INSERT INTO FOO (ID) VALUES (?",
+        "INSERT INTO FOO (ID) VALUES ('?)",
+        "UPDATE FOO SET ID=? WHERE ID IN (VALUES (?))",
+        "WITH T AS (SELECT 1) INSERT INTO FOO (ID) VALUES (?)"}) {
+      assertWithMessage(sql).that(parser.getBatchedInsert(sql)).isNull();
+    }
+  }
+
+  @Test
+  public void testFingerprint() throws SQLException {
+    String[][] statements = {
+        {"generic", "SELECT * FROM FOO WHERE ID=1", "SELECT * FROM FOO WHERE ID=?"},
+        {"generic", "  select *\n  from foo -- comment\n where id = 'one';",
+            "SELECT * FROM FOO WHERE ID = ?"},
+        {"generic", "/* c */ SELECT/* c */1.5e-3, -2, 0x1F, `Foo`", "SELECT ?, -?, ?, `Foo`"},
+        {"generic", "SELECT * FROM FOO WHERE ID IN (1, 2, 3) AND NAME IN ('a')",
+            "SELECT * FROM FOO WHERE ID IN (?) AND NAME IN (?)"},
+        {"generic", "select * from foo where id in (?, ?) and bar in (select 1)",
+            "SELECT * FROM FOO WHERE ID IN (?) AND BAR IN (SELECT ?)"},
+        {"generic", "INSERT INTO FOO (ID, NAME) VALUES (1, \"it's\")",
+            "INSERT INTO FOO (ID, NAME) VALUES (?, ?)"},
+        {"generic", "UPDATE FOO SET BAR='unclosed", "UPDATE FOO SET BAR=?"},
+        {"postgresql", "SELECT \"Foo\".id FROM \"Foo\" WHERE x = $1 AND y = $$ a $$ AND z = E'\\''",
+            "SELECT \"Foo\".ID FROM \"Foo\" WHERE X = $1 AND Y = ? AND Z = ?"},
+        {"postgresql", "SELECT * FROM FOO WHERE ID IN ($1, $2, $3)",
+            "SELECT * FROM FOO WHERE ID IN (?)"},
+        {"sqlserver", "SELECT [Name] FROM FOO WHERE BAR=N'baz'",
+            "SELECT [Name] FROM FOO WHERE BAR=?"},
+        {"oracle", "SELECT * FROM FOO WHERE BAR=nq'[it's]'", "SELECT * FROM FOO WHERE BAR=?"},
+        {"mysql", "SELECT * FROM FOO WHERE BAR=\"baz\" # comment", "SELECT * FROM FOO WHERE BAR=?"},
+    };
+    for (String[] statement : statements) {
+      StatementParser parser = new StatementParser(Dialect.forName(statement[0]));
+      Fingerprint fingerprint = parser.fingerprint(statement[1]);
+      assertWithMessage(statement[1]).that(fingerprint.getNormalizedSql())
+          .isEqualTo(statement[2]);
+      assertWithMessage(statement[1]).that(parser.fingerprintHash(statement[1]))
+          .isEqualTo(fingerprint.getHash());
+      assertWithMessage(statement[1]).that(parser.fingerprint(statement[2])).isEqualTo(fingerprint);
+      assertThat(parser.classify(statement[1]).getFingerprint()).isEqualTo(fingerprint);
+    }
+    StatementParser parser = StatementParser.INSTANCE;
+    assertThat(parser.fingerprintHash("SELECT * FROM FOO"))
+        .isNotEqualTo(parser.fingerprintHash("SELECT * FROM BAR"));
+    assertThat(parser.fingerprintHash("SELECT * FROM FOO WHERE ID=1"))
+        .isEqualTo(parser.fingerprintHash("select *  from foo where id=2;"));
+    assertThat(parser.fingerprint("").getNormalizedSql()).isEmpty();
+  }
+
+  @Test
+  public void testFingerprintHash_Random() {
+    String[] tokens = {"SELECT", "in", "IN", "FOO", "1", "1.5e+3", "0x", " ", "\n", ";", "-- c\n",
+        "/* c */", "/*", "(", ")", ",", "?", "'a'", "\"a\"", "`a`", "'", "-", "e"};
+    Random random = new Random(1L);
+    for (int i = 0; i < 100_000; i++) {
+      StringBuilder sql = new StringBuilder();
+      int length = random.nextInt(10);
+      for (int j = 0; j < length; j++) {
+        sql.append(tokens[random.nextInt(tokens.length)]);
+      }
+      Fingerprint fingerprint = StatementParser.INSTANCE.fingerprint(sql.toString());
+      assertWithMessage(sql.toString()).that(StatementParser.INSTANCE.fingerprintHash(sql.toString()))
+          .isEqualTo(fingerprint.getHash());
+    }
+  }
+
+  @Test
+  public void testClassifyComputesSqlWithoutCommentsLazily() throws SQLException {
+    for (String sql : STATEMENTS) {
+      String expected;
+      try {
+        expected = StatementParser.INSTANCE.parse(sql).getSqlWithoutComments();
+      } catch (SQLException e) {
+        continue;
+      }
+      assertThat(StatementParser.INSTANCE.classify(sql).getSqlWithoutComments())
+          .isEqualTo(expected);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Knut Olav Løite
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.jdbc.smartcommit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import java.sql.BatchUpdateException;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WriteBehindBufferTest {
+  private static final String URL =
+      "jdbc:smartcommit:h2:mem:writebehind;smartcommit.writeBehindBufferSize=3";
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    Class.forName("com.github.jdbc.smartcommit.SmartCommitDriver");
+    Class.forName("org.h2.Driver");
+  }
+
+  private static SmartCommitConnection createConnection() throws SQLException {
+    SmartCommitConnection res =
+        DriverManager.getConnection(URL).unwrap(SmartCommitConnection.class);
+    res.createStatement()
+        .execute("CREATE TABLE NUMBERS (NUM BIGINT PRIMARY KEY, NAME VARCHAR)");
+    res.setAutoCommit(false);
+    return res;
+  }
+
+  private static long countRows(SmartCommitConnection connection) throws SQLException {
+    try (ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM NUMBERS")) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @Test
+  public void testFlushOnQuery() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        assertThat(statement.executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One')"))
+            .isEqualTo(Statement.SUCCESS_NO_INFO);
+        assertThat(statement.executeUpdate("INSERT INTO NUMBERS VALUES (2, 'Two')"))
+            .isEqualTo(Statement.SUCCESS_NO_INFO);
+      }
+      assertThat(connection.getBufferedWriteCount()).isEqualTo(2L);
+      assertThat(connection.getBufferedWriteFlushCount()).isEqualTo(0L);
+      assertThat(connection.getDelegateAutoCommit()).isFalse();
+
+      assertThat(countRows(connection)).isEqualTo(2L);
+      assertThat(connection.getBufferedWriteFlushCount()).isEqualTo(1L);
+      connection.commit();
+    }
+  }
+
+  @Test
+  public void testFlushOnCommitAndThreshold() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (PreparedStatement ps =
+          connection.prepareStatement("INSERT INTO NUMBERS (NUM, NAME) VALUES (?, ?)")) {
+        for (long num = 1L; num <= 5L; num++) {
+          ps.setLong(1, num);
+          ps.setString(2, String.valueOf(num));
+          assertThat(ps.executeUpdate()).isEqualTo(Statement.SUCCESS_NO_INFO);
+        }
+      }
+      // The first three statements are flushed when the threshold is reached, and the remaining
+      // two when the prepared statement is closed.
+      assertThat(connection.getBufferedWriteFlushCount()).isEqualTo(2L);
+
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("INSERT INTO NUMBERS VALUES (6, 'Six')");
+      }
+      connection.commit();
+      assertThat(connection.getBufferedWriteFlushCount()).isEqualTo(3L);
+      assertThat(countRows(connection)).isEqualTo(6L);
+    }
+  }
+
+  @Test
+  public void testRollbackDiscardsBufferedStatements() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One')");
+        connection.rollback();
+      }
+      assertThat(connection.getBufferedWriteFlushCount()).isEqualTo(0L);
+      assertThat(countRows(connection)).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testErrorIsReportedAtFlush() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One')");
+        statement.executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One again')");
+        try {
+          connection.commit();
+          fail("missing expected exception");
+        } catch (BatchUpdateException e) {
+          assertThat(e.getMessage()).startsWith(
+              "Deferred statement 1 of the transaction failed: "
+                  + "INSERT INTO NUMBERS VALUES (1, 'One again')");
+        }
+        connection.rollback();
+      }
+      assertThat(countRows(connection)).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testAutoCommitIsNotBuffered() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      connection.setAutoCommit(true);
+      try (Statement statement = connection.createStatement()) {
+        assertThat(statement.executeUpdate("INSERT INTO NUMBERS VALUES (1, 'One')")).isEqualTo(1);
+      }
+      assertThat(connection.getBufferedWriteCount()).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void testStatementWithGeneratedKeysIsNotBuffered() throws SQLException {
+    try (SmartCommitConnection connection = createConnection()) {
+      connection.createStatement().execute(
+          "CREATE TABLE ITEMS (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR)");
+      try (PreparedStatement ps = connection.prepareStatement(
+          "INSERT INTO ITEMS (NAME) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+        ps.setString(1, "One");
+        assertThat(ps.executeUpdate()).isEqualTo(1);
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+          assertThat(keys.next()).isTrue();
+          assertThat(keys.getLong(1)).isEqualTo(1L);
+        }
+      }
+      try (PreparedStatement ps =
+          connection.prepareStatement("INSERT INTO ITEMS (NAME) VALUES (?)", new String[] {"ID"})) {
+        ps.setString(1, "Two");
+        assertThat(ps.executeUpdate()).isEqualTo(1);
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+          assertThat(keys.next()).isTrue();
+          assertThat(keys.getLong(1)).isEqualTo(2L);
+        }
+      }
+      assertThat(connection.getBufferedWriteCount()).isEqualTo(0L);
+      connection.commit();
+    }
+  }
+}